@@ -70,6 +70,18 @@ public interface QueryStat {
      */
     void clearPopularQueriesQueue();
 
+    /**
+     * @return the number of query executions that were answered from a
+     *         query result cache
+     */
+    long getCacheHitCount();
+
+    /**
+     * @return the number of query executions that looked up a query result
+     *         cache and had to evaluate the query on the index
+     */
+    long getCacheMissCount();
+
     /** -- GENERAL OPS -- **/
 
     /**
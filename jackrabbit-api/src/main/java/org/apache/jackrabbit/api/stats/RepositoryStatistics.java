@@ -41,6 +41,21 @@ public interface RepositoryStatistics {
         BUNDLE_COUNTER(true),
         BUNDLE_WS_SIZE_COUNTER(true),
 
+        /**
+         * Number of bundles found in the off-heap bundle cache.
+         */
+        BUNDLE_OFFHEAP_CACHE_HIT_COUNTER(true),
+
+        /**
+         * Number of bundles not found in the off-heap bundle cache.
+         */
+        BUNDLE_OFFHEAP_CACHE_MISS_COUNTER(true),
+
+        /**
+         * Memory used by the off-heap bundle cache in bytes.
+         */
+        BUNDLE_OFFHEAP_CACHE_SIZE_COUNTER(false),
+
         /**
          * Number of read accesses through any session.
          */
@@ -19,16 +19,15 @@ package org.apache.jackrabbit.core;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 
 import javax.jcr.ItemNotFoundException;
 import javax.jcr.PathNotFoundException;
 import javax.jcr.RepositoryException;
 
-import org.apache.commons.collections.map.ReferenceMap;
 import org.apache.jackrabbit.core.id.ItemId;
 import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.id.NodeIdMap;
 import org.apache.jackrabbit.core.state.ChildNodeEntry;
 import org.apache.jackrabbit.core.state.ItemState;
 import org.apache.jackrabbit.core.state.ItemStateException;
@@ -75,7 +74,7 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
     /**
      * Mapping of item ids to <code>LRUEntry</code> in the path map
      */
-    private final ReferenceMap idCache = new ReferenceMap(ReferenceMap.HARD, ReferenceMap.HARD);
+    private final NodeIdMap<LRUEntry> idCache = new NodeIdMap<LRUEntry>();
 
     /**
      * Cache monitor object
@@ -369,7 +368,7 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
                     PathFactoryImpl.getInstance().getRootPath(), true));
         }
 
-        LRUEntry entry = (LRUEntry) idCache.get(id);
+        LRUEntry entry = idCache.get(id);
         if (entry != null) {
             return Arrays.asList(entry.getElements());
         } else {
@@ -437,7 +436,7 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
      */
     public void nodesReplaced(NodeState state) {
         synchronized (cacheMonitor) {
-            LRUEntry entry = (LRUEntry) idCache.get(state.getNodeId());
+            LRUEntry entry = idCache.get(state.getNodeId());
             if (entry == null) {
                 return;
             }
@@ -517,6 +516,20 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
 
     //------------------------------------------------------< private methods >
 
+    /**
+     * Returns the cache entry of the given item. Only nodes are cached.
+     *
+     * @param id item id
+     * @return cache entry, <code>null</code> if not found
+     */
+    private LRUEntry getEntry(ItemId id) {
+        if (id.denotesNode()) {
+            return idCache.get((NodeId) id);
+        } else {
+            return null;
+        }
+    }
+
     /**
      * Return the first cached path that is mapped to given id.
      *
@@ -525,7 +538,7 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
      */
     private PathMap.Element<LRUEntry> get(ItemId id) {
         synchronized (cacheMonitor) {
-            LRUEntry entry = (LRUEntry) idCache.get(id);
+            LRUEntry entry = getEntry(id);
             if (entry != null) {
                 entry.touch();
                 return entry.getElements()[0];
@@ -596,7 +609,7 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
                     log.debug("overwriting PathMap.Element");
                 }
             }
-            LRUEntry entry = (LRUEntry) idCache.get(id);
+            LRUEntry entry = idCache.get(id);
             if (entry == null) {
                 entry = new LRUEntry(id, element);
                 idCache.put(id, entry);
@@ -622,7 +635,7 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
      */
     boolean isCached(NodeId id, Path path) {
         synchronized (cacheMonitor) {
-            LRUEntry entry = (LRUEntry) idCache.get(id);
+            LRUEntry entry = idCache.get(id);
             if (entry == null) {
                 return false;
             }
@@ -665,7 +678,7 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
      */
     private void evictAll(ItemId id, boolean shift) {
         synchronized (cacheMonitor) {
-            LRUEntry entry = (LRUEntry) idCache.get(id);
+            LRUEntry entry = getEntry(id);
             if (entry != null) {
                 PathMap.Element<LRUEntry>[] elements = entry.getElements();
                 for (int i = 0; i < elements.length; i++) {
@@ -714,7 +727,7 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
         // assert: synchronized (cacheMonitor)
         PathMap.Element<LRUEntry> element = null;
 
-        LRUEntry entry = (LRUEntry) idCache.get(id);
+        LRUEntry entry = idCache.get(id);
         if (entry != null) {
             // child node already cached: this can have the following
             // reasons:
@@ -828,9 +841,7 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
 
         int elementsInCache = 0;
 
-        Iterator iter = idCache.values().iterator();
-        while (iter.hasNext()) {
-            LRUEntry entry = (LRUEntry) iter.next();
+        for (LRUEntry entry : idCache.values()) {
             elementsInCache += entry.getElements().length;
         }
 
@@ -838,7 +849,7 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
             int count;
             public void elementVisited(PathMap.Element<LRUEntry> element) {
                 LRUEntry mappedEntry = (LRUEntry) element.get();
-                LRUEntry cachedEntry = (LRUEntry) idCache.get(mappedEntry.getId());
+                LRUEntry cachedEntry = idCache.get(mappedEntry.getId());
                 if (cachedEntry == null) {
                     String msg = "Path element (" + element +
                         " ) cached in path map, associated id (" +
@@ -1046,7 +1057,7 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
 
         private final String id;
 
-        private final ReferenceMap cache;
+        private final NodeIdMap<LRUEntry> cache;
 
         private long timeStamp = 0;
 
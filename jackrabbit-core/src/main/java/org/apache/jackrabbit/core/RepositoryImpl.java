@@ -56,12 +56,13 @@ import org.apache.jackrabbit.api.management.RepositoryManager;
 import org.apache.jackrabbit.api.security.authentication.token.TokenCredentials;
 import org.apache.jackrabbit.commons.AbstractRepository;
 import org.apache.jackrabbit.core.cache.CacheManager;
+import org.apache.jackrabbit.core.cluster.ChangeLogRecord;
 import org.apache.jackrabbit.core.cluster.ClusterContext;
 import org.apache.jackrabbit.core.cluster.ClusterException;
 import org.apache.jackrabbit.core.cluster.ClusterNode;
 import org.apache.jackrabbit.core.cluster.LockEventChannel;
 import org.apache.jackrabbit.core.cluster.UpdateEventChannel;
-import org.apache.jackrabbit.core.cluster.UpdateEventListener;
+import org.apache.jackrabbit.core.cluster.CoalescedUpdateEventListener;
 import org.apache.jackrabbit.core.cluster.WorkspaceEventChannel;
 import org.apache.jackrabbit.core.cluster.WorkspaceListener;
 import org.apache.jackrabbit.core.config.ClusterConfig;
@@ -1371,7 +1372,8 @@ public class RepositoryImpl extends AbstractRepository
                     context.getNamespaceRegistry(),
                     context.getNodeTypeRegistry(),
                     context.getDataStore(),
-                    context.getRepositoryStatistics());
+                    context.getRepositoryStatistics(),
+                    cacheMgr);
             pm.init(pmContext);
             return pm;
         } catch (Exception e) {
@@ -1648,7 +1650,7 @@ public class RepositoryImpl extends AbstractRepository
      * representing the same named workspace, i.e. the same physical
      * storage.
      */
-    public class WorkspaceInfo implements UpdateEventListener {
+    public class WorkspaceInfo implements CoalescedUpdateEventListener {
 
         /**
          * workspace configuration (passed in constructor)
@@ -2325,6 +2327,31 @@ public class RepositoryImpl extends AbstractRepository
             }
         }
 
+        /**
+         * {@inheritDoc}
+         */
+        public void externalUpdate(ChangeLog external,
+                                   List<ChangeLogRecord> records)
+                throws RepositoryException {
+            try {
+                List<EventStateCollection> events =
+                        new ArrayList<EventStateCollection>(records.size());
+                for (ChangeLogRecord record : records) {
+                    EventStateCollection esc = new EventStateCollection(
+                            getObservationDispatcher(), null, null);
+                    esc.setUserData(record.getUserData());
+                    esc.addAll(record.getEvents());
+                    esc.setTimestamp(record.getTimestamp());
+                    events.add(esc);
+                }
+
+                getItemStateProvider().externalUpdate(external, events);
+            } catch (IllegalStateException e) {
+                String msg = "Unable to deliver events: " + e.getMessage();
+                throw new RepositoryException(msg, e);
+            }
+        }
+
     }
 
     /**
@@ -36,8 +36,8 @@ import javax.jcr.query.qom.QueryObjectModel;
 import org.apache.jackrabbit.core.config.SearchConfig;
 import org.apache.jackrabbit.core.fs.FileSystem;
 import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.observation.CoalescedEventListener;
 import org.apache.jackrabbit.core.observation.EventImpl;
-import org.apache.jackrabbit.core.observation.SynchronousEventListener;
 import org.apache.jackrabbit.core.persistence.PersistenceManager;
 import org.apache.jackrabbit.core.query.AbstractQueryImpl;
 import org.apache.jackrabbit.core.query.QueryHandler;
@@ -57,7 +57,7 @@ import org.slf4j.LoggerFactory;
 /**
  * Acts as a global entry point to execute queries and index nodes.
  */
-public class SearchManager implements SynchronousEventListener {
+public class SearchManager implements CoalescedEventListener {
 
     /**
      * Logger instance for this class
@@ -188,6 +188,12 @@ public class SessionImpl extends AbstractSession
      */
     protected NamePathResolver namePathResolver;
 
+    /**
+     * Set to <code>true</code> once a namespace prefix has been remapped
+     * through {@link #setNamespacePrefix(String, String)}.
+     */
+    private volatile boolean namespacePrefixRemapped = false;
+
     /**
      * The version manager for this session
      */
@@ -1065,6 +1071,18 @@ public class SessionImpl extends AbstractSession
         super.setNamespacePrefix(prefix, uri);
         // Clear name and path caches
         namePathResolver = new DefaultNamePathResolver(this, true);
+        namespacePrefixRemapped = true;
+    }
+
+    /**
+     * Returns <code>true</code> if a namespace prefix has been remapped in
+     * this session. Otherwise the JCR names of this session resolve the same
+     * way as those of any other session that did not remap a prefix.
+     *
+     * @return whether a namespace prefix has been remapped in this session.
+     */
+    public boolean isNamespacePrefixRemapped() {
+        return namespacePrefixRemapped;
     }
 
 
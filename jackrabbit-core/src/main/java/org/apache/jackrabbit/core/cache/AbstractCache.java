@@ -80,6 +80,11 @@ public abstract class AbstractCache implements Cache {
      */
     private final AtomicLong missCount = new AtomicLong();
 
+    /**
+     * Total time, in nanoseconds, spent loading entries after cache misses.
+     */
+    private final AtomicLong missDuration = new AtomicLong();
+
     /**
      * Cache access listener. Set in the
      * {@link #setAccessListener(CacheAccessListener)} method and accessed
@@ -148,6 +153,26 @@ public abstract class AbstractCache implements Cache {
         missCount.set(0);
     }
 
+    /**
+     * Records the time spent loading entries after cache misses. The
+     * {@link CacheManager} uses this to estimate the cost of a cache miss.
+     *
+     * @param nanos the load time in nanoseconds
+     */
+    public void recordMissDuration(long nanos) {
+        missDuration.addAndGet(nanos);
+    }
+
+    /**
+     * Get the total time spent loading entries after cache misses, or zero
+     * if the time is not measured for this cache.
+     *
+     * @return the load time in nanoseconds
+     */
+    public long getMissDuration() {
+        return missDuration.get();
+    }
+
     public long getMemoryUsed() {
         return memoryUsed.get();
     }
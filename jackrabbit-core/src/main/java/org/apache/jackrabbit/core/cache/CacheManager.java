@@ -18,8 +18,18 @@ package org.apache.jackrabbit.core.cache;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.WeakHashMap;
 
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -34,8 +44,40 @@ import org.slf4j.LoggerFactory;
  * distributing the memory in this way, there might be some unused memory (if
  * one or more caches did not use some of the allocated memory). This unused
  * memory is distributed evenly across the full caches.
+ * <p>
+ * In adaptive mode (see {@link #setAdaptive(boolean)}, or the system property
+ * <code>org.apache.jackrabbit.adaptiveCacheSizing</code>) the memory is
+ * instead distributed by the estimated benefit of each cache. A cache that
+ * is not full keeps what it uses, and the rest of the memory goes to the full
+ * caches in proportion to the square root of
+ * <code>misses * missCost * memory</code>. Assuming that the number of
+ * misses of a cache is inversely proportional to its size, this is the
+ * distribution where one more byte saves the same amount of loading time in
+ * every cache. The miss cost is the average load time recorded with
+ * {@link AbstractCache#recordMissDuration(long)}, so that for example a bundle cache
+ * miss that needs a database round trip counts for more than an item state
+ * cache miss; caches that do not record it are assumed to cost
+ * {@link #getDefaultMissCost()}. Because the memory used by a cache is the
+ * number of entries times the average entry size, caches with large entries
+ * need proportionally more misses to win memory. The maximum memory per
+ * cache is not applied in adaptive mode, and each new size is the average of
+ * the old and the calculated size to avoid oscillation.
+ * <p>
+ * Caches can be added with their own memory budget (see
+ * {@link #add(Cache, long)}), which is then added to the memory distributed
+ * in adaptive mode. Without adaptive mode, such caches keep their budget as
+ * a fixed size. Caches that do not use the heap, such as an off-heap
+ * cache, are added with {@link #addUnmanaged(Cache)}. They are listed with
+ * the other caches, but they are never resized and their memory is never
+ * distributed to the heap caches.
+ * <p>
+ * The access counts of the caches are never reset. Each resize compares
+ * the total access and miss counts with the ones of the previous resize.
+ * <p>
+ * The settings and the last decision for each cache are available through
+ * the {@link CacheManagerMBean} interface.
  */
-public class CacheManager implements CacheAccessListener {
+public class CacheManager implements CacheAccessListener, CacheManagerMBean {
 
     /** The logger instance. */
     private static Logger log = LoggerFactory.getLogger(CacheManager.class);
@@ -49,8 +91,15 @@ public class CacheManager implements CacheAccessListener {
     /** The default maximum memory per cache. */
     private static final long DEFAULT_MAX_MEMORY_PER_CACHE = 4 * 1024 * 1024;
 
-    /** The set of caches (weakly referenced). */
-    private WeakHashMap<Cache, Object> caches = new WeakHashMap<Cache, Object>();
+    /** The default cost of a cache miss (in ns). */
+    private static final long DEFAULT_MISS_COST = 10 * 1000;
+
+    /** The set of caches (weakly referenced) and their resize state. */
+    private WeakHashMap<Cache, CacheState> caches =
+        new WeakHashMap<Cache, CacheState>();
+
+    /** The sum of the memory contributed by caches with their own budget. */
+    private long contributedMemory;
 
     /** The default minimum resize interval (in ms). */
     private static final int DEFAULT_MIN_RESIZE_INTERVAL = 1000;
@@ -86,6 +135,18 @@ public class CacheManager implements CacheAccessListener {
             "org.apache.jackrabbit.cacheLogStatsInterval",
             DEFAULT_LOG_STATS_INTERVAL);
 
+    /** Whether the memory is distributed by the estimated benefit. */
+    private volatile boolean adaptive =
+        Boolean.getBoolean("org.apache.jackrabbit.adaptiveCacheSizing");
+
+    /** The cost of a miss for caches that don't measure it (in ns). */
+    private volatile long defaultMissCost = Long.getLong(
+            "org.apache.jackrabbit.cacheDefaultMissCost",
+            DEFAULT_MISS_COST);
+
+    /** The number of times the caches were resized. */
+    private volatile long resizeCount;
+
     /** The last time the caches where resized. */
     private volatile long nextResize =
         System.currentTimeMillis() + DEFAULT_MIN_RESIZE_INTERVAL;
@@ -128,6 +189,26 @@ public class CacheManager implements CacheAccessListener {
         this.minResizeInterval = minResizeInterval;
     }
 
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    public void setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+    }
+
+    public long getDefaultMissCost() {
+        return defaultMissCost;
+    }
+
+    public void setDefaultMissCost(long defaultMissCost) {
+        this.defaultMissCost = defaultMissCost;
+    }
+
+    public long getResizeCount() {
+        return resizeCount;
+    }
+
     /**
      * After one of the caches is accessed a number of times, this method is called.
      * Resize the caches if required.
@@ -176,7 +257,7 @@ public class CacheManager implements CacheAccessListener {
     /**
      * Re-calculate the maximum memory for each cache, and set the new limits.
      */
-    private void resizeAll() {
+    void resizeAll() {
         if (log.isTraceEnabled()) {
             log.trace("resizeAll size=" + caches.size());
         }
@@ -185,17 +266,44 @@ public class CacheManager implements CacheAccessListener {
         // so can't use size() / keySet() directly
         // only using the iterator guarantees that we don't get null references
         List<Cache> list = new ArrayList<Cache>();
+        List<CacheState> states = new ArrayList<CacheState>();
+        long budget;
         synchronized (caches) {
-            list.addAll(caches.keySet());
+            for (Map.Entry<Cache, CacheState> entry : caches.entrySet()) {
+                if (!entry.getValue().unmanaged) {
+                    list.add(entry.getKey());
+                    states.add(entry.getValue());
+                }
+            }
+            budget = maxMemory + contributedMemory;
         }
         if (list.size() == 0) {
             // nothing to do
             return;
         }
-        CacheInfo[] infos = new CacheInfo[list.size()];
+        resizeCount++;
+        if (adaptive) {
+            resizeAdaptive(list, states, budget);
+            return;
+        }
+        // caches with their own budget keep it
+        List<CacheInfo> managed = new ArrayList<CacheInfo>();
+        List<CacheState> managedStates = new ArrayList<CacheState>();
         for (int i = 0; i < list.size(); i++) {
-            infos[i] = new CacheInfo((Cache) list.get(i));
+            Cache cache = list.get(i);
+            CacheState state = states.get(i);
+            if (state.memory > 0) {
+                state.record(cache, state.memory);
+                cache.setMaxMemorySize(state.memory);
+            } else {
+                managed.add(new CacheInfo(cache, state));
+                managedStates.add(state);
+            }
+        }
+        if (managed.isEmpty()) {
+            return;
         }
+        CacheInfo[] infos = managed.toArray(new CacheInfo[managed.size()]);
         // calculate the total access count and memory used
         long totalAccessCount = 0;
         long totalMemoryUsed = 0;
@@ -241,17 +349,120 @@ public class CacheManager implements CacheAccessListener {
             }
         }
         // set the new limit
-        for (CacheInfo info : infos) {
+        for (int i = 0; i < infos.length; i++) {
+            CacheInfo info = infos[i];
             Cache cache = info.getCache();
             if (log.isTraceEnabled()) {
                 log.trace(cache + " now:" + cache.getMaxMemorySize() + " used:"
                         + info.getMemoryUsed() + " access:" + info.getAccessCount()
                         + " new:" + info.getMemory());
             }
+            managedStates.get(i).record(cache, info.getMemory());
             cache.setMaxMemorySize(info.getMemory());
         }
     }
 
+    /**
+     * Distributes the given amount of memory by the estimated benefit of
+     * each cache, as described in the class comment.
+     */
+    private void resizeAdaptive(
+            List<Cache> list, List<CacheState> states, long budget) {
+        int n = list.size();
+        CacheInfo[] infos = new CacheInfo[n];
+        double[] weights = new double[n];
+        double totalWeight = 0;
+        long unusedMemory = budget;
+        for (int i = 0; i < n; i++) {
+            CacheState state = states.get(i);
+            CacheInfo info = new CacheInfo(list.get(i), state);
+            infos[i] = info;
+            state.update(info, defaultMissCost);
+            long mem = minMemoryPerCache;
+            if (info.wasFull()) {
+                weights[i] = Math.sqrt(state.benefit
+                        * Math.max(info.getMemoryUsed(), minMemoryPerCache));
+                totalWeight += weights[i];
+            } else {
+                // more memory would not help
+                mem = Math.max(mem, info.getMemoryUsed() + BIG_OBJECT_SIZE);
+            }
+            info.setMemory(mem);
+            unusedMemory -= mem;
+        }
+        if (unusedMemory > 0) {
+            for (int i = 0; i < n; i++) {
+                CacheInfo info = infos[i];
+                if (!info.wasFull()) {
+                    continue;
+                }
+                long mem;
+                if (totalWeight > 0) {
+                    mem = (long) (unusedMemory * weights[i] / totalWeight);
+                } else {
+                    // no misses at all, keep the current size
+                    mem = list.get(i).getMaxMemorySize() - info.getMemory();
+                }
+                info.setMemory(info.getMemory() + Math.max(0, mem));
+            }
+        }
+        // move half way towards the calculated size
+        long total = 0;
+        for (int i = 0; i < n; i++) {
+            long old = list.get(i).getMaxMemorySize();
+            CacheInfo info = infos[i];
+            if (old > 0) {
+                info.setMemory(Math.max(
+                        (old + info.getMemory()) / 2, minMemoryPerCache));
+            }
+            total += info.getMemory();
+        }
+        // and stay within the budget if it was reduced
+        double scale = total > budget ? (double) budget / total : 1.;
+        for (int i = 0; i < n; i++) {
+            Cache cache = list.get(i);
+            CacheInfo info = infos[i];
+            long mem = Math.max(
+                    (long) (info.getMemory() * scale), minMemoryPerCache);
+            CacheState state = states.get(i);
+            if (log.isTraceEnabled()) {
+                log.trace(cache + " now:" + cache.getMaxMemorySize() + " used:"
+                        + info.getMemoryUsed() + " hitRatio:" + state.hitRatio
+                        + " missCost:" + (long) state.missCost
+                        + " benefit:" + (long) state.benefit + " new:" + mem);
+            }
+            state.record(cache, mem);
+            cache.setMaxMemorySize(mem);
+        }
+    }
+
+    public TabularData getCaches() {
+        List<Cache> list = new ArrayList<Cache>();
+        List<CacheState> states = new ArrayList<CacheState>();
+        synchronized (caches) {
+            for (Map.Entry<Cache, CacheState> entry : caches.entrySet()) {
+                list.add(entry.getKey());
+                states.add(entry.getValue());
+            }
+        }
+        try {
+            CompositeType ct = CacheCompositeTypeFactory.getCompositeType();
+            TabularType tt = new TabularType(CacheState.class.getName(),
+                    "Managed caches", ct, CacheCompositeTypeFactory.index);
+            TabularDataSupport tds = new TabularDataSupport(tt);
+            for (int i = 0; i < list.size(); i++) {
+                tds.put(new CompositeDataSupport(ct,
+                        CacheCompositeTypeFactory.names,
+                        CacheCompositeTypeFactory.getValues(
+                                list.get(i), states.get(i))));
+            }
+            return tds;
+        } catch (OpenDataException e) {
+            log.warn("Unable to create the cache table", e);
+            return null;
+        }
+    }
+
     /**
      * Add a new cache to the list.
      * This call does not trigger recalculating the cache sizes.
@@ -259,8 +470,42 @@ public class CacheManager implements CacheAccessListener {
      * @param cache the cache to add
      */
     public void add(Cache cache) {
+        add(cache, 0);
+    }
+
+    /**
+     * Add a new cache with its own memory budget. Without adaptive mode,
+     * the size of the cache is fixed to the budget, and in adaptive mode
+     * the budget is added to the memory distributed across all caches.
+     * This call does not trigger recalculating the cache sizes.
+     *
+     * @param cache the cache to add
+     * @param memory the memory budget of the cache, or 0 if the cache
+     *               should share the maximum memory of this manager
+     */
+    public void add(Cache cache, long memory) {
+        add(cache, new CacheState(memory, false));
+    }
+
+    /**
+     * Add a cache that is not resized, for example because it does not
+     * use the heap. The cache is listed in {@link #getCaches()}, but it
+     * does not contribute memory to the other caches.
+     * This call does not trigger recalculating the cache sizes.
+     *
+     * @param cache the cache to add
+     */
+    public void addUnmanaged(Cache cache) {
+        add(cache, new CacheState(0, true));
+    }
+
+    private void add(Cache cache, CacheState state) {
         synchronized (caches) {
-            caches.put(cache, null);
+            CacheState previous = caches.put(cache, state);
+            if (previous != null) {
+                contributedMemory -= previous.memory;
+            }
+            contributedMemory += state.memory;
         }
     }
 
@@ -274,7 +519,10 @@ public class CacheManager implements CacheAccessListener {
      */
     public void remove(Cache cache) {
         synchronized (caches) {
-            caches.remove(cache);
+            CacheState state = caches.remove(cache);
+            if (state != null) {
+                contributedMemory -= state.memory;
+            }
         }
     }
 
@@ -292,16 +540,20 @@ public class CacheManager implements CacheAccessListener {
 
         private boolean wasFull;
 
-        CacheInfo(Cache cache) {
+        CacheInfo(Cache cache, CacheState state) {
             this.cache = cache;
             // copy the data as this runs in a different thread
             // the exact values are not important, but it is important that the
             // values don't change
             this.memory = cache.getMaxMemorySize();
             this.memoryUsed = cache.getMemoryUsed();
-            this.accessCount = cache.getAccessCount();
-            // reset the access count, so that concurrent cache access is not lost
-            cache.resetAccessCount();
+            // the accesses since the previous resize; the access count of
+            // the cache is not reset, as the cache uses it to call its
+            // access listener and the miss counts are not reset either
+            long totalAccessCount = cache.getTotalAccessCount();
+            this.accessCount =
+                Math.max(0, totalAccessCount - state.lastAccessCount);
+            state.lastAccessCount = totalAccessCount;
             // if the memory used plus one large object is smaller than the
             // allocated memory,
             // then the memory was not fully used
@@ -334,6 +586,109 @@ public class CacheManager implements CacheAccessListener {
 
     }
 
+    /**
+     * Resize state and last decision for a cache. Must not reference the
+     * cache itself, as it is the value of a weak hash map entry.
+     */
+    private static class CacheState {
+
+        /** The memory budget contributed by the cache, or 0. */
+        private final long memory;
+
+        /** Whether the cache is never resized. */
+        private final boolean unmanaged;
+
+        private long lastAccessCount;
+
+        private long lastMissCount;
+
+        private long lastMissDuration;
+
+        /** Average cost of a miss (in ns), or 0 if not yet measured. */
+        private double missCost;
+
+        private double hitRatio = 1.;
+
+        /** Loading time (in ns) lost to misses in the last interval. */
+        private double benefit;
+
+        private long previousSize;
+
+        private long size;
+
+        private long resizeTime;
+
+        CacheState(long memory, boolean unmanaged) {
+            this.memory = memory;
+            this.unmanaged = unmanaged;
+        }
+
+        void update(CacheInfo info, long defaultMissCost) {
+            Cache cache = info.getCache();
+            long missCount = cache.getMissCount();
+            long missDuration = 0;
+            if (cache instanceof AbstractCache) {
+                missDuration = ((AbstractCache) cache).getMissDuration();
+            }
+            long misses = Math.max(0, missCount - lastMissCount);
+            long duration = Math.max(0, missDuration - lastMissDuration);
+            lastMissCount = missCount;
+            lastMissDuration = missDuration;
+
+            if (misses > 0 && duration > 0) {
+                double cost = (double) duration / misses;
+                missCost = missCost == 0 ? cost : (missCost + cost) / 2;
+            }
+            if (info.getAccessCount() > 0) {
+                hitRatio = Math.max(0., 1. - (double) misses / info.getAccessCount());
+            }
+            benefit = misses * (missCost > 0 ? missCost : defaultMissCost);
+        }
+
+        void record(Cache cache, long newSize) {
+            previousSize = cache.getMaxMemorySize();
+            size = newSize;
+            resizeTime = System.currentTimeMillis();
+        }
+
+    }
+
+    private static class CacheCompositeTypeFactory {
+
+        private final static String[] index = { "name" };
+
+        private final static String[] names = { "name", "maxMemory",
+                "memoryUsed", "elements", "hitRatio", "missCost", "benefit",
+                "previousSize", "size", "resizeTime" };
+
+        private final static String[] descriptions = { "cache name",
+                "current size limit (bytes)", "memory used (bytes)",
+                "number of entries", "hit ratio in the last interval",
+                "average cost of a miss (ns)",
+                "loading time lost to misses in the last interval (ns)",
+                "size before the last resize (bytes)",
+                "size after the last resize (bytes)",
+                "time of the last resize (ms)" };
+
+        private final static OpenType[] types = { SimpleType.STRING,
+                SimpleType.LONG, SimpleType.LONG, SimpleType.LONG,
+                SimpleType.DOUBLE, SimpleType.LONG, SimpleType.LONG,
+                SimpleType.LONG, SimpleType.LONG, SimpleType.LONG };
+
+        public static CompositeType getCompositeType() throws OpenDataException {
+            return new CompositeType(CacheState.class.getName(),
+                    "Managed cache", names, descriptions, types);
+        }
+
+        public static Object[] getValues(Cache cache, CacheState state) {
+            return new Object[] { cache.toString(),
+                    cache.getMaxMemorySize(), cache.getMemoryUsed(),
+                    cache.getElementCount(), state.hitRatio,
+                    (long) state.missCost, (long) state.benefit,
+                    state.previousSize, state.size, state.resizeTime };
+        }
+    }
+
     public void disposeCache(Cache cache) {
         remove(cache);
     }
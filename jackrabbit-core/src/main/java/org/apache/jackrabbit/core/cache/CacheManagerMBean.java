@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cache;
+
+import javax.management.openmbean.TabularData;
+
+/**
+ * JMX bindings for the {@link CacheManager}.
+ */
+public interface CacheManagerMBean {
+
+    String NAME = "org.apache.jackrabbit:type=CacheManager";
+
+    /**
+     * @return the amount of memory distributed across the caches, not
+     *         including the memory contributed by caches with their own
+     *         budget
+     */
+    long getMaxMemory();
+
+    void setMaxMemory(long maxMemory);
+
+    long getMinMemoryPerCache();
+
+    void setMinMemoryPerCache(long minMemoryPerCache);
+
+    long getMaxMemoryPerCache();
+
+    void setMaxMemoryPerCache(long maxMemoryPerCache);
+
+    long getMinResizeInterval();
+
+    void setMinResizeInterval(long minResizeInterval);
+
+    /**
+     * @return whether the memory is distributed by the estimated benefit of
+     *         each cache instead of by access count
+     */
+    boolean isAdaptive();
+
+    void setAdaptive(boolean adaptive);
+
+    /**
+     * @return the cost of a cache miss, in nanoseconds, assumed for caches
+     *         that do not measure the time spent loading missed entries
+     */
+    long getDefaultMissCost();
+
+    void setDefaultMissCost(long defaultMissCost);
+
+    /**
+     * @return the number of times the caches have been resized
+     */
+    long getResizeCount();
+
+    /**
+     * @return the current size, usage, hit ratio, miss cost and the
+     *         last resize decision of each managed cache
+     */
+    TabularData getCaches();
+
+}
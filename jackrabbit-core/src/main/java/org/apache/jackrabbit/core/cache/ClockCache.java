@@ -0,0 +1,240 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cache;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Concurrent cache implementation with lock-free reads. The entries are
+ * kept in a {@link ConcurrentHashMap} and excess entries are evicted with
+ * the CLOCK algorithm, an approximation of LRU: a read only sets the
+ * "referenced" flag of the entry, and the eviction hand sweeps over the
+ * entries, clearing the flag of referenced entries and evicting the first
+ * entry that has not been referenced since the previous sweep.
+ * <p>
+ * Unlike {@link ConcurrentCache}, a read does not take a lock or modify a
+ * shared linked list, so read-heavy workloads scale with the number of
+ * processors. Writers share a read-write lock that only {@link #clear()}
+ * acquires exclusively, and only threads that add entries while the cache
+ * is too big need to acquire the lock of the eviction hand. None of the
+ * methods of this class are synchronized, but they are all thread-safe.
+ */
+public class ClockCache<K, V> extends AbstractCache
+        implements KeyValueCache<K, V> {
+
+    private static class E<V> {
+
+        private final V value;
+
+        private final long size;
+
+        /**
+         * Whether the entry has been read since the eviction hand last
+         * passed it.
+         */
+        private volatile boolean referenced;
+
+        public E(V value, long size) {
+            this.value = value;
+            this.size = size;
+        }
+
+    }
+
+    private final String name;
+
+    private final ConcurrentMap<K, E<V>> map;
+
+    /**
+     * The eviction hand, a weakly consistent iterator over the cache
+     * entries. Guarded by the {@link #hand} lock object itself.
+     */
+    private final Object hand = new Object();
+
+    private Iterator<Map.Entry<K, E<V>>> handIterator;
+
+    /**
+     * Shared by the threads that add entries, and exclusively held while
+     * the cache is cleared.
+     */
+    private final ReadWriteLock clearLock = new ReentrantReadWriteLock();
+
+    public ClockCache(String name, int concurrencyLevel) {
+        this.name = name;
+        this.map = new ConcurrentHashMap<K, E<V>>(16, 0.75f, concurrencyLevel);
+    }
+
+    public ClockCache(String name) {
+        this(name, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean containsKey(K key) {
+        return map.containsKey(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public V get(K key) {
+        recordCacheAccess();
+
+        E<V> entry = map.get(key);
+        if (entry != null) {
+            // avoid a volatile write, and the resulting cache line
+            // invalidation, when the flag is already set
+            if (!entry.referenced) {
+                entry.referenced = true;
+            }
+            return entry.value;
+        }
+        recordCacheMiss();
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<V> values() {
+        List<V> values = new ArrayList<V>(map.size());
+        for (E<V> entry : map.values()) {
+            values.add(entry.value);
+        }
+        return values;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public V put(K key, V value, long size) {
+        E<V> previous;
+        clearLock.readLock().lock();
+        try {
+            recordSizeChange(size);
+            previous = map.put(key, new E<V>(value, size));
+            if (previous != null) {
+                recordSizeChange(-previous.size);
+            }
+        } finally {
+            clearLock.readLock().unlock();
+        }
+        shrinkIfNeeded();
+        if (previous != null) {
+            return previous.value;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public V remove(K key) {
+        E<V> entry = map.remove(key);
+        if (entry != null) {
+            recordSizeChange(-entry.size);
+            return entry.value;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Removes all entries from the cache. Concurrent puts either complete
+     * before the cache is cleared or wait until it is empty.
+     */
+    public void clear() {
+        clearLock.writeLock().lock();
+        try {
+            for (K key : map.keySet()) {
+                remove(key);
+            }
+        } finally {
+            clearLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isEmpty() {
+        return getMemoryUsed() == 0;
+    }
+
+    /**
+     * Sets the maximum size of the cache and evicts any excess items until
+     * the current size falls within the given limit.
+     */
+    @Override
+    public void setMaxMemorySize(long size) {
+        super.setMaxMemorySize(size);
+        shrinkIfNeeded();
+    }
+
+    /**
+     * Moves the eviction hand over the entries until the cache is small
+     * enough. Referenced entries get a second chance; the first entry
+     * found unreferenced is evicted. Gives up after two full sweeps without
+     * finding anything to evict, which can only happen if the entries are
+     * concurrently removed by other threads.
+     */
+    private void shrinkIfNeeded() {
+        if (!isTooBig()) {
+            return;
+        }
+        synchronized (hand) {
+            int restarts = 0;
+            while (isTooBig() && restarts <= 2) {
+                if (handIterator == null || !handIterator.hasNext()) {
+                    handIterator = map.entrySet().iterator();
+                    restarts++;
+                    if (!handIterator.hasNext()) {
+                        return;
+                    }
+                }
+                Map.Entry<K, E<V>> entry = handIterator.next();
+                E<V> e = entry.getValue();
+                if (e.referenced) {
+                    e.referenced = false;
+                } else if (map.remove(entry.getKey(), e)) {
+                    recordSizeChange(-e.size);
+                    restarts = 0;
+                }
+            }
+        }
+    }
+
+    public long getElementCount() {
+        return map.size();
+    }
+
+    @Override
+    public String toString() {
+        return name + "[" + getClass().getSimpleName() + "@"
+                + Integer.toHexString(hashCode()) + "]";
+    }
+
+}
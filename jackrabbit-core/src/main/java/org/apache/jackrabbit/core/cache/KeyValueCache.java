@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cache;
+
+import java.util.List;
+
+/**
+ * A thread-safe, size limited cache of key-value pairs. The size of each
+ * entry is estimated by the caller when the entry is added. Implemented by
+ * {@link ConcurrentCache}, which evicts entries in LRU order per segment,
+ * and by {@link ClockCache}, which does not lock on reads.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public interface KeyValueCache<K, V> extends Cache {
+
+    /**
+     * Checks if the identified entry is cached.
+     *
+     * @param key entry key
+     * @return <code>true</code> if the entry is cached,
+     *         <code>false</code> otherwise
+     */
+    boolean containsKey(K key);
+
+    /**
+     * Returns the identified cache entry.
+     *
+     * @param key entry key
+     * @return entry value, or <code>null</code> if not found
+     */
+    V get(K key);
+
+    /**
+     * Returns all values in the cache. Only guaranteed to return accurate
+     * results when there are no concurrent threads modifying the cache.
+     *
+     * @return cached values
+     */
+    List<V> values();
+
+    /**
+     * Adds the given entry to the cache.
+     *
+     * @param key entry key
+     * @param value entry value
+     * @param size entry size
+     * @return the previous value, or <code>null</code>
+     */
+    V put(K key, V value, long size);
+
+    /**
+     * Removes the identified entry from the cache.
+     *
+     * @param key entry key
+     * @return removed entry, or <code>null</code> if not found
+     */
+    V remove(K key);
+
+    /**
+     * Removes all entries from the cache.
+     */
+    void clear();
+
+    /**
+     * Checks if the cache size is zero.
+     *
+     * @return <code>true</code> if the cache is empty
+     */
+    boolean isEmpty();
+
+    /**
+     * Informs the cache access listener that this cache is no longer used.
+     */
+    void dispose();
+
+}
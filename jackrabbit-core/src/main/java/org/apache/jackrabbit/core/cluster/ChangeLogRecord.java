@@ -70,6 +70,11 @@ public class ChangeLogRecord extends ClusterRecord {
      */
     static final char USER_DATA_IDENTIFIER = 'U';
 
+    /**
+     * Identifier: BUNDLE.
+     */
+    static final char BUNDLE_IDENTIFIER = 'B';
+
     /**
      * Operation type: added.
      */
@@ -175,6 +180,9 @@ public class ChangeLogRecord extends ClusterRecord {
             case EVENT_IDENTIFIER:
                 readEventRecord();
                 break;
+            case BUNDLE_IDENTIFIER:
+                readBundleRecord();
+                break;
             default:
                 String msg = "Unknown identifier: " + identifier;
                 throw new JournalException(msg);
@@ -311,6 +319,18 @@ public class ChangeLogRecord extends ClusterRecord {
         events.add(es);
     }
 
+    /**
+     * Read a bundle record.
+     *
+     * @throws JournalException if an error occurs
+     */
+    private void readBundleRecord() throws JournalException {
+        NodeId id = record.readNodeId();
+        byte[] data = new byte[record.readInt()];
+        record.readFully(data);
+        changes.setBundle(id, data);
+    }
+
     /**
      * Create an event state.
      *
@@ -399,6 +419,60 @@ public class ChangeLogRecord extends ClusterRecord {
         }
     }
 
+    /**
+     * Serialize the changes and events of this record without terminating
+     * it. Unlike {@link #write()}, this leaves room for the serialized
+     * bundles of the changed nodes, which are only known after the changes
+     * have been stored and are added with {@link #writeBundles(Map)}
+     * before the record is terminated with {@link #writeEndMarker()}.
+     *
+     * @throws JournalException if an error occurs
+     */
+    public void writeChanges() throws JournalException {
+        record.writeString(workspace);
+
+        doWrite();
+    }
+
+    /**
+     * Serialize the given bundles. Must be called after
+     * {@link #writeChanges()} and before {@link #writeEndMarker()}.
+     *
+     * @param bundles serialized bundles of the changed nodes
+     * @throws JournalException if an error occurs
+     */
+    public void writeBundles(Map<NodeId, byte[]> bundles)
+            throws JournalException {
+        for (Map.Entry<NodeId, byte[]> entry : bundles.entrySet()) {
+            writeBundleRecord(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Terminate this record after {@link #writeChanges()}.
+     *
+     * @throws JournalException if an error occurs
+     */
+    public void writeEndMarker() throws JournalException {
+        record.writeChar(END_MARKER);
+    }
+
+    /**
+     * Write a bundle record
+     *
+     * @param id node id
+     * @param data serialized bundle
+     * @throws JournalException if an error occurs
+     */
+    private void writeBundleRecord(NodeId id, byte[] data)
+            throws JournalException {
+
+        record.writeChar(BUNDLE_IDENTIFIER);
+        record.writeNodeId(id);
+        record.writeInt(data.length);
+        record.write(data);
+    }
+
     /**
      * Writes the timestamp record.
      *
@@ -16,16 +16,21 @@
  */
 package org.apache.jackrabbit.core.cluster;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.jcr.RepositoryException;
 
 import org.apache.jackrabbit.core.cluster.WorkspaceRecord.CreateWorkspaceAction;
 import org.apache.jackrabbit.core.config.ClusterConfig;
+import org.apache.jackrabbit.core.id.ItemId;
 import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.journal.AbstractJournal;
 import org.apache.jackrabbit.core.journal.InstanceRevision;
@@ -37,6 +42,7 @@ import org.apache.jackrabbit.core.journal.RecordProducer;
 import org.apache.jackrabbit.core.nodetype.InvalidNodeTypeDefException;
 import org.apache.jackrabbit.core.observation.EventState;
 import org.apache.jackrabbit.core.state.ChangeLog;
+import org.apache.jackrabbit.core.state.ItemState;
 import org.apache.jackrabbit.core.version.InternalVersionManagerImpl;
 import org.apache.jackrabbit.core.xml.ClonedInputSource;
 import org.apache.jackrabbit.spi.PrivilegeDefinition;
@@ -64,6 +70,14 @@ public class ClusterNode implements Runnable,
      */
     private static final String PRODUCER_ID = "JR";
 
+    /**
+     * Maximum number of consecutive change log records of a workspace that
+     * are applied in one update when this node catches up. A value of 1
+     * applies every record on its own.
+     */
+    private static final int MAX_COALESCED_RECORDS = Integer.getInteger(
+            "org.apache.jackrabbit.core.cluster.coalescedRecords", 100);
+
     /**
      * Status constant.
      */
@@ -134,6 +148,23 @@ public class ClusterNode implements Runnable,
      */
     private final Latch stopLatch = new Latch();
 
+    /**
+     * Monitor used to wake up the synchronization thread before the sync
+     * delay has passed.
+     */
+    private final Object syncSignal = new Object();
+
+    /**
+     * Flag indicating whether another cluster node announced a revision
+     * this node has not seen yet. Guarded by {@link #syncSignal}.
+     */
+    private boolean syncRequested;
+
+    /**
+     * Sync notifier, or <code>null</code> if this node only polls the journal.
+     */
+    private SyncNotifier syncNotifier;
+
     /**
      * Sync counter, used to avoid repeated sync() calls from piling up.
      * Only updated within the critical section guarded by {@link #syncLock}.
@@ -188,6 +219,39 @@ public class ClusterNode implements Runnable,
      */
     private InstanceRevision instanceRevision;
 
+    /**
+     * Change log records of a workspace that were consumed, but not applied
+     * yet.
+     */
+    private final List<ChangeLogRecord> pendingChanges = new ArrayList<ChangeLogRecord>();
+
+    /**
+     * Ids of the items deleted by the pending change log records.
+     */
+    private final Set<ItemId> pendingDeletes = new HashSet<ItemId>();
+
+    /**
+     * Ids of the items added by the pending change log records.
+     */
+    private final Set<ItemId> pendingAdds = new HashSet<ItemId>();
+
+    /**
+     * Revision of the last record consumed before the pending change log
+     * records.
+     */
+    private long pendingRevision;
+
+    /**
+     * Revision of the last record consumed.
+     */
+    private long consumedRevision;
+
+    /**
+     * Revision to restore when the synchronization completes, because the
+     * pending change log records could not be applied, or <code>-1</code>.
+     */
+    private long resumeRevision = -1;
+
     /**
      * Our record producer.
      */
@@ -238,6 +302,17 @@ public class ClusterNode implements Runnable,
             throw new ClusterException(
                     "Journal initialization failed: " + this, e);
         }
+
+        String syncNotification = cc.getSyncNotification();
+        if (syncNotification != null) {
+            try {
+                syncNotifier = new SyncNotifier(
+                        this, clusterNodeId, syncNotification);
+            } catch (IOException e) {
+                throw new ClusterException(
+                        "Sync notification initialization failed: " + this, e);
+            }
+        }
     }
 
     /**
@@ -282,6 +357,9 @@ public class ClusterNode implements Runnable,
                 t.start();
                 syncThread = t;
             }
+            if (syncNotifier != null) {
+                syncNotifier.start();
+            }
             status = STARTED;
         }
     }
@@ -292,7 +370,7 @@ public class ClusterNode implements Runnable,
     public void run() {
         for (;;) {
             try {
-                if (stopLatch.attempt(syncDelay)) {
+                if (awaitSync()) {
                     break;
                 }
             } catch (InterruptedException e) {
@@ -315,6 +393,51 @@ public class ClusterNode implements Runnable,
         }
     }
 
+    /**
+     * Waits until the sync delay has passed, another cluster node announced
+     * a new revision or this node is stopped.
+     *
+     * @return <code>true</code> if this node is stopped
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private boolean awaitSync() throws InterruptedException {
+        synchronized (syncSignal) {
+            if (!syncRequested && !stopLatch.attempt(0)) {
+                syncSignal.wait(syncDelay);
+            }
+            syncRequested = false;
+        }
+        return stopLatch.attempt(0);
+    }
+
+    /**
+     * Invoked when another cluster node announced that it appended a
+     * revision to the journal. Wakes up the synchronization thread, unless
+     * this node has already seen the revision.
+     *
+     * @param revision the announced revision
+     */
+    void syncNotified(long revision) {
+        if (revision > getRevision()) {
+            synchronized (syncSignal) {
+                syncRequested = true;
+                syncSignal.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Announces a revision appended by this node to the other cluster
+     * nodes, if sync notification is configured.
+     *
+     * @param revision the appended revision
+     */
+    private void announce(long revision) {
+        if (syncNotifier != null) {
+            syncNotifier.announce(revision);
+        }
+    }
+
     /** 
      * Synchronize contents from journal.
      * 
@@ -373,6 +496,12 @@ public class ClusterNode implements Runnable,
             status = STOPPED;
 
             stopLatch.release();
+            synchronized (syncSignal) {
+                syncSignal.notifyAll();
+            }
+            if (syncNotifier != null) {
+                syncNotifier.close();
+            }
 
             // Give synchronization thread some time to finish properly before
             // closing down the journal (see JCR-1553)
@@ -439,7 +568,8 @@ public class ClusterNode implements Runnable,
             record = new NamespaceRecord(oldPrefix, newPrefix, uri, producer.append());
             record.write();
             record.update();
-            setRevision(record.getRevision());
+            setInstanceRevision(record.getRevision());
+            announce(record.getRevision());
             succeeded = true;
         } catch (JournalException e) {
             String msg = "Unable to create log entry: " + e.getMessage();
@@ -475,7 +605,8 @@ public class ClusterNode implements Runnable,
             record = new NodeTypeRecord(ntDefs, true, producer.append());
             record.write();
             record.update();
-            setRevision(record.getRevision());
+            setInstanceRevision(record.getRevision());
+            announce(record.getRevision());
             succeeded = true;
         } catch (JournalException e) {
             String msg = "Unable to create log entry: " + e.getMessage();
@@ -505,7 +636,8 @@ public class ClusterNode implements Runnable,
             record = new NodeTypeRecord(ntDef, producer.append());
             record.write();
             record.update();
-            setRevision(record.getRevision());
+            setInstanceRevision(record.getRevision());
+            announce(record.getRevision());
             succeeded = true;
         } catch (JournalException e) {
             String msg = "Unable to create log entry: " + e.getMessage();
@@ -535,7 +667,8 @@ public class ClusterNode implements Runnable,
             record = new NodeTypeRecord(qnames, false, producer.append());
             record.write();
             record.update();
-            setRevision(record.getRevision());
+            setInstanceRevision(record.getRevision());
+            announce(record.getRevision());
             succeeded = true;
         } catch (JournalException e) {
             String msg = "Unable to create log entry: " + e.getMessage();
@@ -574,7 +707,8 @@ public class ClusterNode implements Runnable,
             record = new PrivilegeRecord(definitions, producer.append());
             record.write();
             record.update();
-            setRevision(record.getRevision());
+            setInstanceRevision(record.getRevision());
+            announce(record.getRevision());
             succeeded = true;
         } catch (JournalException e) {
             String msg = "Unable to create log entry: " + e.getMessage();
@@ -609,6 +743,16 @@ public class ClusterNode implements Runnable,
          */
         private static final String ATTRIBUTE_UPDATE_SIZE = "updateSize";
 
+        /**
+         * Attribute name used to store the prepared change log record.
+         */
+        private static final String ATTRIBUTE_CHANGE_LOG_RECORD = "changeLogRecord";
+
+        /**
+         * Attribute name used to store the serialized bundles of the update.
+         */
+        private static final String ATTRIBUTE_BUNDLES = "bundles";
+
         /**
          * Workspace name.
          */
@@ -632,7 +776,7 @@ public class ClusterNode implements Runnable,
                 return;
             }
             try {
-                Record record = producer.append();
+                Record record = producer.append(workspace);
                 update.setAttribute(ATTRIBUTE_RECORD, record);
             } catch (JournalException e) {
                 String msg = "Unable to create log entry: " + e.getMessage();
@@ -667,7 +811,8 @@ public class ClusterNode implements Runnable,
                 ChangeLogRecord clr = new ChangeLogRecord(changes, events,
                         record, workspace, update.getTimestamp(),
                         update.getUserData());
-                clr.write();
+                clr.writeChanges();
+                update.setAttribute(ATTRIBUTE_CHANGE_LOG_RECORD, clr);
                 succeeded = true;
             } catch (JournalException e) {
                 String msg = "Unable to create log entry: " + e.getMessage();
@@ -679,6 +824,7 @@ public class ClusterNode implements Runnable,
                 if (!succeeded) {
                     record.cancelUpdate();
                     update.setAttribute(ATTRIBUTE_RECORD, null);
+                    update.setAttribute(ATTRIBUTE_CHANGE_LOG_RECORD, null);
                 }
             }
         }
@@ -697,12 +843,22 @@ public class ClusterNode implements Runnable,
                 return;
             }
             try {
+                writeBundles(update, record);
 
                 long recordRevision = record.getRevision();
-                setRevision(recordRevision);
+                if (recordRevision != 0) {
+                    setInstanceRevision(recordRevision);
+                }
 
                 long journalUpdateSize = record.update();
 
+                if (recordRevision == 0) {
+                    // the journal assigned the revision on append
+                    recordRevision = record.getRevision();
+                    setInstanceRevision(recordRevision);
+                }
+                announce(recordRevision);
+
                 log.debug("Stored record '{}' to Journal ({})", recordRevision, journalUpdateSize);
 
                 Object updateSizeValue = update.getAttribute(ATTRIBUTE_UPDATE_SIZE);
@@ -720,6 +876,47 @@ public class ClusterNode implements Runnable,
                 log.error(msg, e);
             } finally {
                 update.setAttribute(ATTRIBUTE_RECORD, null);
+                update.setAttribute(ATTRIBUTE_CHANGE_LOG_RECORD, null);
+            }
+        }
+
+        /**
+         * Completes the prepared change log record of an update with the
+         * serialized bundles that the persistence manager attached to the
+         * update when it stored the changes. The changes are already stored
+         * at this point, so the record must be committed even if the bundles
+         * can not be written. In that case, the record is terminated without
+         * them and other cluster nodes evict the changed bundles instead.
+         *
+         * @param update update
+         * @param record record of the update
+         * @throws JournalException if the record can not be terminated, in
+         *         which case it is cancelled
+         */
+        @SuppressWarnings("unchecked")
+        private void writeBundles(Update update, Record record)
+                throws JournalException {
+            ChangeLogRecord clr = (ChangeLogRecord)
+                    update.getAttribute(ATTRIBUTE_CHANGE_LOG_RECORD);
+            if (clr == null) {
+                return;
+            }
+            try {
+                Map<NodeId, byte[]> bundles = (Map<NodeId, byte[]>)
+                        update.getAttribute(ATTRIBUTE_BUNDLES);
+                if (bundles != null) {
+                    clr.writeBundles(bundles);
+                }
+            } catch (Exception e) {
+                log.warn("Unable to write bundles to log entry, other"
+                        + " cluster nodes will reload them.", e);
+            }
+            try {
+                clr.writeEndMarker();
+            } catch (JournalException e) {
+                // the record is unusable, release the journal
+                record.cancelUpdate();
+                throw e;
             }
         }
 
@@ -731,6 +928,7 @@ public class ClusterNode implements Runnable,
             if (record != null) {
                 record.cancelUpdate();
                 update.setAttribute(ATTRIBUTE_RECORD, null);
+                update.setAttribute(ATTRIBUTE_CHANGE_LOG_RECORD, null);
             }
         }
 
@@ -853,12 +1051,31 @@ public class ClusterNode implements Runnable,
 
     /**
      * {@inheritDoc}
+     * <p>
+     * Consecutive change log records of the same workspace are not processed
+     * right away, but applied together when another kind of record is
+     * consumed or when the synchronization completes.
      */
     public void consume(Record record) {
         log.info("Processing revision: " + record.getRevision());
 
         try {
-            deserializer.deserialize(record).process(this);
+            ClusterRecord clusterRecord = deserializer.deserialize(record);
+            if (!pendingChanges.isEmpty() && record.getRevision()
+                    <= pendingChanges.get(pendingChanges.size() - 1).getRevision()) {
+                // a previous synchronization failed before it completed, the
+                // records are consumed again
+                pendingChanges.clear();
+                pendingDeletes.clear();
+                pendingAdds.clear();
+            }
+            if (MAX_COALESCED_RECORDS > 1 && clusterRecord instanceof ChangeLogRecord) {
+                coalesce((ChangeLogRecord) clusterRecord);
+            } else {
+                processPendingChanges();
+                clusterRecord.process(this);
+            }
+            consumedRevision = record.getRevision();
         } catch (JournalException e) {
             String msg = "Unable to read revision '" + record.getRevision() + "'.";
             log.error(msg, e);
@@ -867,8 +1084,33 @@ public class ClusterNode implements Runnable,
 
     /**
      * {@inheritDoc}
+     * <p>
+     * The journal calls this method when a synchronization completes, so the
+     * pending change log records are applied first. If they can not be
+     * applied, the revision is set to the revision preceding them, so that
+     * they are consumed again on the next synchronization.
      */
     public void setRevision(long revision) {
+        try {
+            processPendingChanges();
+        } catch (IllegalStateException e) {
+            log.error("Could not synchronize to revision: " + revision
+                    + " due illegal state of RecordConsumer.");
+        }
+        if (resumeRevision >= 0) {
+            revision = Math.min(revision, resumeRevision);
+            resumeRevision = -1;
+        }
+        consumedRevision = revision;
+        setInstanceRevision(revision);
+    }
+
+    /**
+     * Set the revision of this cluster node, without applying pending records.
+     *
+     * @param revision revision
+     */
+    private void setInstanceRevision(long revision) {
         try {
             instanceRevision.set(revision);
         } catch (JournalException e) {
@@ -876,14 +1118,150 @@ public class ClusterNode implements Runnable,
         }
     }
 
-    //--------------------------------------------------- ClusterRecordProcessor
+    /**
+     * Adds a change log record to the pending records. The pending records
+     * are applied first if they belong to another workspace, if there are
+     * too many of them, or if the record adds an item that they delete or
+     * deletes an item that they add. A merged change log can not both
+     * delete and add the same item, and it drops an item that is added and
+     * then deleted, which would leave the item cached on this node.
+     *
+     * @param record change log record
+     */
+    private void coalesce(ChangeLogRecord record) {
+        if (!pendingChanges.isEmpty()) {
+            String workspace = pendingChanges.get(0).getWorkspace();
+            if (pendingChanges.size() >= MAX_COALESCED_RECORDS
+                    || (workspace == null
+                        ? record.getWorkspace() != null
+                        : !workspace.equals(record.getWorkspace()))
+                    || conflictsWithPending(record)) {
+                processPendingChanges();
+            }
+        }
+        if (pendingChanges.isEmpty()) {
+            resumeRevision = -1;
+            pendingRevision = consumedRevision != 0 ? consumedRevision : getRevision();
+        }
+        pendingChanges.add(record);
+        for (ItemState state : record.getChanges().deletedStates()) {
+            pendingDeletes.add(state.getId());
+        }
+        for (ItemState state : record.getChanges().addedStates()) {
+            pendingAdds.add(state.getId());
+        }
+    }
 
     /**
-     * {@inheritDoc}
+     * Checks whether a change log record adds an item that is deleted by
+     * the pending change log records, or deletes an item that they add.
+     *
+     * @param record change log record
+     * @return <code>true</code> if the record adds a deleted item or
+     *         deletes an added item
      */
-    public void process(ChangeLogRecord record) {
-        String workspace = record.getWorkspace();
+    private boolean conflictsWithPending(ChangeLogRecord record) {
+        if (!pendingDeletes.isEmpty()) {
+            for (ItemState state : record.getChanges().addedStates()) {
+                if (pendingDeletes.contains(state.getId())) {
+                    return true;
+                }
+            }
+        }
+        if (!pendingAdds.isEmpty()) {
+            for (ItemState state : record.getChanges().deletedStates()) {
+                if (pendingAdds.contains(state.getId())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
 
+    /**
+     * Applies the pending change log records. They are applied in one update
+     * if the update listener of their workspace is a
+     * {@link CoalescedUpdateEventListener}, otherwise one by one.
+     *
+     * @throws IllegalStateException if the update listener is in an illegal
+     *                               state; the revision preceding the pending
+     *                               records that were not applied will be
+     *                               restored
+     */
+    private void processPendingChanges() {
+        if (pendingChanges.isEmpty()) {
+            return;
+        }
+        List<ChangeLogRecord> records = new ArrayList<ChangeLogRecord>(pendingChanges);
+        pendingChanges.clear();
+        pendingDeletes.clear();
+        pendingAdds.clear();
+        try {
+            UpdateEventListener listener = null;
+            if (records.size() > 1) {
+                listener = getUpdateListener(records.get(0).getWorkspace());
+            }
+            if (listener instanceof CoalescedUpdateEventListener) {
+                process(records, (CoalescedUpdateEventListener) listener);
+            } else {
+                for (ChangeLogRecord record : records) {
+                    process(record);
+                    pendingRevision = record.getRevision();
+                }
+            }
+        } catch (IllegalStateException e) {
+            resumeRevision = pendingRevision;
+            throw e;
+        }
+    }
+
+    /**
+     * Applies consecutive change log records of the same workspace in one
+     * update. The events of the records are delivered in the order of the
+     * records.
+     *
+     * @param records change log records
+     * @param listener update listener of the workspace of the records
+     */
+    private void process(List<ChangeLogRecord> records,
+                         CoalescedUpdateEventListener listener) {
+        String workspace = records.get(0).getWorkspace();
+        try {
+            ChangeLog changes = new ChangeLog();
+            for (ChangeLogRecord record : records) {
+                List<EventState> eventStates = record.getEvents();
+
+                String path = getFirstUserId(eventStates)
+                        + "@" + workspace
+                        + ":" + EventState.getCommonPath(eventStates, null);
+
+                updateCount.compareAndSet(Integer.MAX_VALUE, 0);
+                auditLogger.info("[{}] {} {}", new Object[]{updateCount.incrementAndGet(),
+                        record.getRevision(), path});
+
+                changes.merge(record.getChanges());
+            }
+            log.debug("Applying {} records of workspace {} at once",
+                    records.size(), workspace);
+
+            listener.externalUpdate(changes, records);
+        } catch (RepositoryException e) {
+            String msg = "Unable to deliver update events: " + e.getMessage();
+            log.error(msg);
+            if (e.getCause() instanceof IllegalStateException) {
+                throw (IllegalStateException) e.getCause();
+            }
+        }
+    }
+
+    /**
+     * Returns the listener for the updates of a workspace.
+     *
+     * @param workspace workspace name or <code>null</code> for the version
+     *                  storage
+     * @return listener or <code>null</code> if it is unavailable
+     */
+    private UpdateEventListener getUpdateListener(String workspace) {
         UpdateEventListener listener = null;
         if (workspace != null) {
             listener = wspUpdateListeners.get(workspace);
@@ -899,7 +1277,6 @@ public class ClusterNode implements Runnable,
                 if (listener ==  null) {
                     String msg = "Update listener unavailable for workspace: " + workspace;
                     log.error(msg);
-                    return;
                 }
             }
         } else {
@@ -908,9 +1285,23 @@ public class ClusterNode implements Runnable,
             } else {
                 String msg = "Version update listener unavailable.";
                 log.error(msg);
-                return;
             }
         }
+        return listener;
+    }
+
+    //--------------------------------------------------- ClusterRecordProcessor
+
+    /**
+     * {@inheritDoc}
+     */
+    public void process(ChangeLogRecord record) {
+        String workspace = record.getWorkspace();
+
+        UpdateEventListener listener = getUpdateListener(workspace);
+        if (listener == null) {
+            return;
+        }
         try {
             List<EventState> eventStates = record.getEvents();
 
@@ -1072,7 +1463,8 @@ public class ClusterNode implements Runnable,
             record = new WorkspaceRecord(workspaceName, inputSource, producer.append());
             record.write();
             record.update();
-            setRevision(record.getRevision());
+            setInstanceRevision(record.getRevision());
+            announce(record.getRevision());
             succeeded = true;
         } catch (JournalException e) {
             String msg = "Unable to create log entry: " + e.getMessage();
@@ -1105,7 +1497,8 @@ public class ClusterNode implements Runnable,
             if (successful) {
                 record.write();
                 record.update();
-                setRevision(record.getRevision());
+                setInstanceRevision(record.getRevision());
+                announce(record.getRevision());
                 succeeded = true;
             }
         } catch (JournalException e) {
@@ -20,7 +20,9 @@ import org.apache.jackrabbit.core.journal.JournalException;
 import org.apache.jackrabbit.core.journal.Record;
 
 /**
- * Deserialize a record written by a <code>ClusterNode</code>.
+ * Deserialize a record written by a <code>ClusterNode</code>. Records in the
+ * original and in the compact format are both supported, as the underlying
+ * record detects its format when it is first read.
  */
 public class ClusterRecordDeserializer {
 
@@ -0,0 +1,45 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cluster;
+
+import java.util.List;
+
+import org.apache.jackrabbit.core.state.ChangeLog;
+import javax.jcr.RepositoryException;
+
+/**
+ * Update event listener that can handle several consecutive external updates
+ * at once. Listeners that do not implement this interface receive a separate
+ * call to {@link #externalUpdate(ChangeLog, List, long, String)} for each
+ * update.
+ */
+public interface CoalescedUpdateEventListener extends UpdateEventListener {
+
+    /**
+     * Handle several consecutive external updates at once. The changes are
+     * applied together, the events of the records are delivered in the
+     * order of the records.
+     *
+     * @param changes the external changes of all records, merged into one
+     *                change log.
+     * @param records the change log records, in the order of their revision.
+     * @throws RepositoryException if the updates cannot be processed
+     */
+    void externalUpdate(ChangeLog changes, List<ChangeLogRecord> records)
+            throws RepositoryException;
+
+}
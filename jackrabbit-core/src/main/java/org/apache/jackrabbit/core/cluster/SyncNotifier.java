@@ -0,0 +1,217 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cluster;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Announces the revisions a cluster node appends to the journal on a
+ * multicast group, and lets the cluster node synchronize as soon as another
+ * node announces a revision. The announcements are a best effort: a lost
+ * datagram only delays the synchronization until the next periodic sync.
+ * <p>
+ * An announcement consists of the magic number {@link #MAGIC}, the id of
+ * the announcing cluster node and the revision.
+ */
+class SyncNotifier implements Runnable {
+
+    /**
+     * Logger.
+     */
+    private static Logger log = LoggerFactory.getLogger(SyncNotifier.class);
+
+    /**
+     * Identifies the datagrams of a sync notification.
+     */
+    private static final int MAGIC = 0x4a524e31;
+
+    /**
+     * Maximum size of an announcement.
+     */
+    private static final int MAX_SIZE = 512;
+
+    /**
+     * Cluster node to notify.
+     */
+    private final ClusterNode clusterNode;
+
+    /**
+     * Id of the cluster node, used to ignore its own announcements.
+     */
+    private final String clusterNodeId;
+
+    /**
+     * Multicast group.
+     */
+    private final InetAddress group;
+
+    /**
+     * Port of the multicast group.
+     */
+    private final int port;
+
+    /**
+     * Socket used to send and receive announcements.
+     */
+    private final MulticastSocket socket;
+
+    /**
+     * Receiving thread.
+     */
+    private Thread thread;
+
+    /**
+     * Flag indicating whether this notifier is closed.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Creates a new notifier and joins the multicast group.
+     *
+     * @param clusterNode cluster node to notify
+     * @param clusterNodeId id of the cluster node
+     * @param address multicast group and port, like
+     *                <code>239.255.27.1:45678</code>
+     * @throws IOException if the address is invalid or the group can not
+     *                     be joined
+     */
+    SyncNotifier(ClusterNode clusterNode, String clusterNodeId, String address)
+            throws IOException {
+        int colon = address.lastIndexOf(':');
+        if (colon <= 0) {
+            throw new IOException(
+                    "Sync notification address must be group:port: " + address);
+        }
+        try {
+            port = Integer.parseInt(address.substring(colon + 1).trim());
+        } catch (NumberFormatException e) {
+            throw new IOException(
+                    "Invalid sync notification port: " + address);
+        }
+        group = InetAddress.getByName(address.substring(0, colon).trim());
+        if (!group.isMulticastAddress()) {
+            throw new IOException(
+                    "Not a multicast address: " + address);
+        }
+        this.clusterNode = clusterNode;
+        this.clusterNodeId = clusterNodeId;
+
+        socket = new MulticastSocket(port);
+        try {
+            socket.joinGroup(group);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Starts receiving announcements of other cluster nodes.
+     */
+    public synchronized void start() {
+        if (thread == null && !closed) {
+            Thread t = new Thread(this, "SyncNotifier-" + clusterNodeId);
+            t.setDaemon(true);
+            t.start();
+            thread = t;
+        }
+    }
+
+    /**
+     * Announces a revision appended by this cluster node. Failures are
+     * logged, the other nodes will see the revision on their next
+     * periodic sync.
+     *
+     * @param revision the appended revision
+     */
+    public void announce(long revision) {
+        if (closed) {
+            return;
+        }
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(buffer);
+            out.writeInt(MAGIC);
+            out.writeUTF(clusterNodeId);
+            out.writeLong(revision);
+            out.close();
+            byte[] data = buffer.toByteArray();
+            socket.send(new DatagramPacket(data, data.length, group, port));
+        } catch (IOException e) {
+            log.warn("Unable to announce revision " + revision + ": "
+                    + e.getMessage());
+        }
+    }
+
+    /**
+     * Leaves the multicast group and stops receiving announcements.
+     */
+    public void close() {
+        closed = true;
+        try {
+            socket.leaveGroup(group);
+        } catch (IOException e) {
+            log.debug("Unable to leave multicast group: " + e.getMessage());
+        }
+        socket.close();
+    }
+
+    /**
+     * Receives announcements until this notifier is closed.
+     */
+    public void run() {
+        byte[] data = new byte[MAX_SIZE];
+        while (!closed) {
+            DatagramPacket packet = new DatagramPacket(data, data.length);
+            try {
+                socket.receive(packet);
+            } catch (IOException e) {
+                if (!closed) {
+                    log.warn("Unable to receive sync notification: "
+                            + e.getMessage());
+                }
+                continue;
+            }
+            try {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                        packet.getData(), packet.getOffset(), packet.getLength()));
+                if (in.readInt() != MAGIC) {
+                    continue;
+                }
+                String id = in.readUTF();
+                long revision = in.readLong();
+                if (!clusterNodeId.equals(id)) {
+                    log.debug("Cluster node {} announced revision {}", id, revision);
+                    clusterNode.syncNotified(revision);
+                }
+            } catch (IOException e) {
+                log.debug("Ignoring malformed sync notification from "
+                        + packet.getAddress());
+            }
+        }
+    }
+}
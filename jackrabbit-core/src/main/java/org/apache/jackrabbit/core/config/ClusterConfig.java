@@ -42,6 +42,12 @@ public class ClusterConfig implements JournalFactory {
      */
     private final long stopDelay;
 
+    /**
+     * Multicast group and port of the sync notification, or
+     * <code>null</code> if the cluster nodes only poll the journal.
+     */
+    private final String syncNotification;
+
     /**
      * Journal factory.
      */
@@ -68,9 +74,25 @@ public class ClusterConfig implements JournalFactory {
      */
     public ClusterConfig(String id, long syncDelay,
                          long stopDelay, JournalFactory jf) {
+        this(id, syncDelay, stopDelay, null, jf);
+    }
+
+    /**
+     * Creates a new cluster configuration.
+     *
+     * @param id custom cluster node id
+     * @param syncDelay syncDelay, in milliseconds
+     * @param stopDelay stopDelay in milliseconds
+     * @param syncNotification multicast group and port of the sync
+     *                         notification, or <code>null</code>
+     * @param jf journal factory
+     */
+    public ClusterConfig(String id, long syncDelay, long stopDelay,
+                         String syncNotification, JournalFactory jf) {
         this.id = id;
         this.syncDelay = syncDelay;
         this.stopDelay = stopDelay < 0 ? syncDelay * 10 : stopDelay;
+        this.syncNotification = syncNotification;
         this.jf = jf;
     }
 
@@ -99,6 +121,16 @@ public class ClusterConfig implements JournalFactory {
         return stopDelay;
     }
 
+    /**
+     * Return the syncNotification configuration attribute value.
+     *
+     * @return multicast group and port, like <code>239.255.27.1:45678</code>,
+     *         or <code>null</code> if not configured
+     */
+    public String getSyncNotification() {
+        return syncNotification;
+    }
+
     /**
      * Returns an initialized journal instance.
      *
@@ -181,6 +181,9 @@ public class RepositoryConfigurationParser extends ConfigurationParser {
     /** Name of the stopDelay configuration attribute. */
     public static final String STOP_DELAY_ATTRIBUTE = "stopDelay";
 
+    /** Name of the syncNotification configuration attribute. */
+    public static final String SYNC_NOTIFICATION_ATTRIBUTE = "syncNotification";
+
     /** Name of the default search index implementation class. */
     public static final String DEFAULT_QUERY_HANDLER =
         "org.apache.jackrabbit.core.query.lucene.SearchIndex";
@@ -842,7 +845,7 @@ public class RepositoryConfigurationParser extends ConfigurationParser {
     /**
      * Parses cluster configuration. Cluster configuration uses the following format:
      * <pre>
-     *   &lt;Cluster&gt;
+     *   &lt;Cluster id="..." syncDelay="..." syncNotification="group:port"&gt;
      *     &lt;Journal ...&gt;
      *   &lt;/Journal&gt;
      * </pre>
@@ -893,9 +896,15 @@ public class RepositoryConfigurationParser extends ConfigurationParser {
                         element, SYNC_DELAY_ATTRIBUTE, DEFAULT_SYNC_DELAY)));
                 long stopDelay = Long.parseLong(replaceVariables(getAttribute(
                         element, STOP_DELAY_ATTRIBUTE, "-1")));
+                String syncNotification = getAttribute(
+                        element, SYNC_NOTIFICATION_ATTRIBUTE, null);
+                if (syncNotification != null) {
+                    syncNotification = replaceVariables(syncNotification);
+                }
 
                 JournalFactory jf = getJournalFactory(element, home, id);
-                return new ClusterConfig(id, syncDelay, stopDelay, jf);
+                return new ClusterConfig(
+                        id, syncDelay, stopDelay, syncNotification, jf);
             }
         }
         return null;
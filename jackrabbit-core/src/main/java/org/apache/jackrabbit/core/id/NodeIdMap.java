@@ -0,0 +1,492 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.id;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Insertion-ordered map from node identifiers to values that stores the
+ * two longs of each key in primitive arrays. Unlike a {@link java.util.HashMap}
+ * this map does not allocate an entry object per mapping, and lookups do not
+ * allocate at all.
+ * <p>
+ * The keys and values are kept in parallel arrays in insertion order. A
+ * separate open-addressing hash table with linear probing maps the hash of
+ * a key to its position in these arrays. Removed mappings leave a gap in
+ * the arrays that is reclaimed when the arrays need to grow. Replacing the
+ * value of an existing key keeps its position.
+ * <p>
+ * <code>null</code> values are not supported. This class is not
+ * thread-safe.
+ *
+ * @param <V> value type
+ */
+public class NodeIdMap<V> {
+
+    private static final long[] NO_KEYS = new long[0];
+
+    private static final Object[] NO_VALUES = new Object[0];
+
+    private static final int[] NO_TABLE = new int[0];
+
+    /**
+     * The shared empty map returned by {@link #emptyMap()}.
+     */
+    private static final NodeIdMap<Object> EMPTY_MAP = new EmptyNodeIdMap();
+
+    /**
+     * Most significant bits of the keys, in insertion order.
+     */
+    private long[] msbs = NO_KEYS;
+
+    /**
+     * Least significant bits of the keys, in insertion order.
+     */
+    private long[] lsbs = NO_KEYS;
+
+    /**
+     * Values in insertion order, or <code>null</code> for removed mappings.
+     */
+    private Object[] values = NO_VALUES;
+
+    /**
+     * Hash table of positions in the key and value arrays, plus one.
+     * A zero entry marks an empty slot. The length is zero or a power of two
+     * that is at least twice the length of the key and value arrays.
+     */
+    private int[] table = NO_TABLE;
+
+    /**
+     * Number of used positions in the key and value arrays, including
+     * those of removed mappings.
+     */
+    private int used;
+
+    /**
+     * Number of mappings.
+     */
+    private int size;
+
+    /**
+     * Creates an empty map.
+     */
+    public NodeIdMap() {
+    }
+
+    /**
+     * Creates a map with the same mappings, in the same order, as the
+     * given map.
+     *
+     * @param map the map to copy
+     */
+    public NodeIdMap(NodeIdMap<? extends V> map) {
+        if (map.size > 0) {
+            this.msbs = map.msbs.clone();
+            this.lsbs = map.lsbs.clone();
+            this.values = map.values.clone();
+            this.table = map.table.clone();
+            this.used = map.used;
+            this.size = map.size;
+        }
+    }
+
+    /**
+     * Returns a shared empty map that can not be modified.
+     *
+     * @param <V> value type
+     * @return the empty map
+     */
+    @SuppressWarnings("unchecked")
+    public static <V> NodeIdMap<V> emptyMap() {
+        return (NodeIdMap<V>) EMPTY_MAP;
+    }
+
+    /**
+     * Returns the value mapped to the given identifier.
+     *
+     * @param id node identifier
+     * @return the value, or <code>null</code> if there is no mapping
+     */
+    public V get(NodeId id) {
+        return get(id.getMostSignificantBits(), id.getLeastSignificantBits());
+    }
+
+    /**
+     * Returns the value mapped to the identifier with the given bits.
+     *
+     * @param msb most significant bits of the node identifier
+     * @param lsb least significant bits of the node identifier
+     * @return the value, or <code>null</code> if there is no mapping
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long msb, long lsb) {
+        int slot = findSlot(msb, lsb);
+        if (slot >= 0) {
+            return (V) values[table[slot] - 1];
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Checks whether the given identifier is mapped to a value.
+     *
+     * @param id node identifier
+     * @return <code>true</code> if there is a mapping
+     */
+    public boolean containsKey(NodeId id) {
+        return findSlot(
+                id.getMostSignificantBits(), id.getLeastSignificantBits()) >= 0;
+    }
+
+    /**
+     * Maps the given identifier to the given value. An existing mapping of
+     * the identifier keeps its position in the iteration order.
+     *
+     * @param id node identifier
+     * @param value the value, not <code>null</code>
+     * @return the previous value, or <code>null</code> if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V put(NodeId id, V value) {
+        if (value == null) {
+            throw new NullPointerException("null values are not supported");
+        }
+        long msb = id.getMostSignificantBits();
+        long lsb = id.getLeastSignificantBits();
+        int slot = findSlot(msb, lsb);
+        if (slot >= 0) {
+            int pos = table[slot] - 1;
+            V previous = (V) values[pos];
+            values[pos] = value;
+            return previous;
+        }
+
+        if (used == values.length) {
+            // compact if at least a quarter of the positions are gaps,
+            // otherwise grow
+            if (size <= used - used / 4 && used > 0) {
+                rebuild(values.length);
+            } else {
+                rebuild(Math.max(4, values.length * 2));
+            }
+            slot = findSlot(msb, lsb);
+        }
+        msbs[used] = msb;
+        lsbs[used] = lsb;
+        values[used] = value;
+        table[-slot - 1] = ++used;
+        size++;
+        return null;
+    }
+
+    /**
+     * Removes the mapping of the given identifier.
+     *
+     * @param id node identifier
+     * @return the removed value, or <code>null</code> if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(NodeId id) {
+        int slot = findSlot(
+                id.getMostSignificantBits(), id.getLeastSignificantBits());
+        if (slot < 0) {
+            return null;
+        }
+
+        int pos = table[slot] - 1;
+        V previous = (V) values[pos];
+        values[pos] = null;
+        size--;
+        while (used > 0 && values[used - 1] == null) {
+            used--;
+        }
+
+        // backward shift deletion keeps the probe sequences intact
+        int mask = table.length - 1;
+        int i = slot;
+        int j = slot;
+        while (true) {
+            j = (j + 1) & mask;
+            if (table[j] == 0) {
+                break;
+            }
+            int p = table[j] - 1;
+            int k = hash(msbs[p], lsbs[p]) & mask;
+            if (i <= j ? (k <= i || k > j) : (k <= i && k > j)) {
+                table[i] = table[j];
+                i = j;
+            }
+        }
+        table[i] = 0;
+        return previous;
+    }
+
+    /**
+     * Removes all mappings.
+     */
+    public void clear() {
+        msbs = NO_KEYS;
+        lsbs = NO_KEYS;
+        values = NO_VALUES;
+        table = NO_TABLE;
+        used = 0;
+        size = 0;
+    }
+
+    /**
+     * Returns the number of mappings.
+     *
+     * @return number of mappings
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Checks whether this map is empty.
+     *
+     * @return <code>true</code> if there are no mappings
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the values that follow the mapping of the given identifier in
+     * insertion order. Only the returned values are visited, so the cost
+     * does not depend on the position of the identifier in the map.
+     *
+     * @param id node identifier
+     * @param max maximum number of values to return
+     * @return the following values, or an empty list if the identifier
+     *         is not mapped
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> valuesAfter(NodeId id, int max) {
+        int slot = findSlot(
+                id.getMostSignificantBits(), id.getLeastSignificantBits());
+        if (slot < 0 || max <= 0) {
+            return Collections.emptyList();
+        }
+        List<V> following = new ArrayList<V>(Math.min(max, size));
+        for (int i = table[slot]; i < used && following.size() < max; i++) {
+            if (values[i] != null) {
+                following.add((V) values[i]);
+            }
+        }
+        return following;
+    }
+
+    /**
+     * Returns a view of the values of this map in insertion order. The
+     * view does not support modification, and the behaviour of its
+     * iterators is undefined if the map is modified during iteration.
+     *
+     * @return values
+     */
+    public Collection<V> values() {
+        return new AbstractCollection<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                return new ValueIterator();
+            }
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    //--------------------------------------------------------------< Object >
+
+    /**
+     * Two maps are equal if they contain the same mappings, regardless
+     * of their order.
+     */
+    @Override
+    public boolean equals(Object object) {
+        if (this == object) {
+            return true;
+        } else if (object instanceof NodeIdMap<?>) {
+            NodeIdMap<?> that = (NodeIdMap<?>) object;
+            if (size != that.size) {
+                return false;
+            }
+            for (int i = 0; i < used; i++) {
+                if (values[i] != null
+                        && !values[i].equals(that.get(msbs[i], lsbs[i]))) {
+                    return false;
+                }
+            }
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 0;
+        for (int i = 0; i < used; i++) {
+            if (values[i] != null) {
+                hash += hash(msbs[i], lsbs[i]) ^ values[i].hashCode();
+            }
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        for (int i = 0; i < used; i++) {
+            if (values[i] != null) {
+                if (builder.length() > 1) {
+                    builder.append(", ");
+                }
+                builder.append(new NodeId(msbs[i], lsbs[i]));
+                builder.append('=');
+                builder.append(values[i]);
+            }
+        }
+        return builder.append('}').toString();
+    }
+
+    //------------------------------------------------------------< internal >
+
+    private static int hash(long msb, long lsb) {
+        int h = (int) ((msb >>> 32) ^ msb ^ (lsb >>> 32) ^ lsb);
+        h *= 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Returns the hash table slot of the given key if it is present,
+     * or <code>-slot - 1</code> of the empty slot where it would be
+     * inserted. Returns -1 if the table has not been allocated yet.
+     */
+    private int findSlot(long msb, long lsb) {
+        if (table.length == 0) {
+            return -1;
+        }
+        int mask = table.length - 1;
+        int slot = hash(msb, lsb) & mask;
+        int p;
+        while ((p = table[slot]) != 0) {
+            if (msbs[p - 1] == msb && lsbs[p - 1] == lsb) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -slot - 1;
+    }
+
+    /**
+     * Moves all mappings to new arrays of the given capacity, dropping the
+     * gaps of removed mappings, and rebuilds the hash table.
+     */
+    private void rebuild(int capacity) {
+        long[] oldMsbs = msbs;
+        long[] oldLsbs = lsbs;
+        Object[] oldValues = values;
+        int oldUsed = used;
+
+        msbs = new long[capacity];
+        lsbs = new long[capacity];
+        values = new Object[capacity];
+        table = new int[Integer.highestOneBit(capacity) * 4];
+        used = 0;
+
+        int mask = table.length - 1;
+        for (int i = 0; i < oldUsed; i++) {
+            if (oldValues[i] != null) {
+                msbs[used] = oldMsbs[i];
+                lsbs[used] = oldLsbs[i];
+                values[used] = oldValues[i];
+                int slot = hash(oldMsbs[i], oldLsbs[i]) & mask;
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = ++used;
+            }
+        }
+    }
+
+    /**
+     * Empty map that throws an {@link UnsupportedOperationException} on
+     * any modification.
+     */
+    private static final class EmptyNodeIdMap extends NodeIdMap<Object> {
+
+        /**
+         * @throws UnsupportedOperationException always.
+         */
+        @Override
+        public Object put(NodeId id, Object value) {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * @throws UnsupportedOperationException always.
+         */
+        @Override
+        public Object remove(NodeId id) {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * @throws UnsupportedOperationException always.
+         */
+        @Override
+        public void clear() {
+            throw new UnsupportedOperationException();
+        }
+
+    }
+
+    private class ValueIterator implements Iterator<V> {
+
+        private int position = 0;
+
+        public boolean hasNext() {
+            while (position < used && values[position] == null) {
+                position++;
+            }
+            return position < used;
+        }
+
+        @SuppressWarnings("unchecked")
+        public V next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return (V) values[position++];
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+    }
+
+}
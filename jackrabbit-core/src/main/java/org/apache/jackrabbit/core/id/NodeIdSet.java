@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.id;
+
+/**
+ * Set of node identifiers that is backed by a {@link NodeIdMap}, so that
+ * membership checks do not allocate. This class is not thread-safe.
+ */
+public class NodeIdSet {
+
+    private static final Object PRESENT = new Object();
+
+    private final NodeIdMap<Object> map = new NodeIdMap<Object>();
+
+    /**
+     * Adds the given identifier to this set.
+     *
+     * @param id node identifier
+     * @return <code>true</code> if the identifier was not already contained
+     */
+    public boolean add(NodeId id) {
+        return map.put(id, PRESENT) == null;
+    }
+
+    /**
+     * Checks whether the given identifier is contained in this set.
+     *
+     * @param id node identifier
+     * @return <code>true</code> if the identifier is contained
+     */
+    public boolean contains(NodeId id) {
+        return map.containsKey(id);
+    }
+
+    /**
+     * Checks whether the identifier with the given bits is contained in
+     * this set.
+     *
+     * @param msb most significant bits of the node identifier
+     * @param lsb least significant bits of the node identifier
+     * @return <code>true</code> if the identifier is contained
+     */
+    public boolean contains(long msb, long lsb) {
+        return map.get(msb, lsb) != null;
+    }
+
+    /**
+     * Removes the given identifier from this set.
+     *
+     * @param id node identifier
+     * @return <code>true</code> if the identifier was contained
+     */
+    public boolean remove(NodeId id) {
+        return map.remove(id) != null;
+    }
+
+    /**
+     * Removes all identifiers from this set.
+     */
+    public void clear() {
+        map.clear();
+    }
+
+    /**
+     * Returns the number of identifiers in this set.
+     *
+     * @return number of identifiers
+     */
+    public int size() {
+        return map.size();
+    }
+
+    /**
+     * Checks whether this set is empty.
+     *
+     * @return <code>true</code> if the set is empty
+     */
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+}
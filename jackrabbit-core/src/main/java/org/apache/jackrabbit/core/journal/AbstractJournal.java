@@ -80,6 +80,11 @@ public abstract class AbstractJournal implements Journal {
      */
     private String revision;
 
+    /**
+     * Flag indicating whether records are appended in the compact format.
+     */
+    private boolean compactRecords;
+
     /**
      * Repository home.
      */
@@ -90,6 +95,12 @@ public abstract class AbstractJournal implements Journal {
      */
     private InternalVersionManagerImpl internalVersionManager;
 
+    /**
+     * Versioning read lock held while the journal is locked, if records
+     * are consumed on append. Guarded by the write lock of the journal.
+     */
+    private VersioningLock.ReadLock appendLock;
+
     /**
      * {@inheritDoc}
      */
@@ -164,7 +175,7 @@ public abstract class AbstractJournal implements Journal {
     /**
      * Return the minimal revision of all registered consumers.
      */
-    private long getMinimalRevision() {
+    protected long getMinimalRevision() {
         long minimalRevision = Long.MAX_VALUE;
 
         synchronized (consumers) {
@@ -183,9 +194,8 @@ public abstract class AbstractJournal implements Journal {
      */
     public void sync(boolean startup) throws JournalException {
         for (;;) {
-            if (internalVersionManager != null) {
-                VersioningLock.ReadLock lock =
-                        internalVersionManager.acquireReadLock();
+            VersioningLock.ReadLock lock = acquireVersioningReadLock();
+            if (lock != null) {
                 try {
                     internalSync(startup);
                 } finally {
@@ -264,12 +274,22 @@ public abstract class AbstractJournal implements Journal {
         }
 
         if (stopRevision > 0) {
-            for (RecordConsumer consumer : consumers.values()) {
-                consumer.setRevision(stopRevision);
-            }
+            setConsumerRevision(stopRevision);
             log.debug("Synchronized from revision " + startRevision + " to revision: " + stopRevision);
         }
     }
+
+    /**
+     * Sets the revision of all registered consumers, after they have seen
+     * all records up to and including the given revision.
+     *
+     * @param revision the revision
+     */
+    protected void setConsumerRevision(long revision) {
+        for (RecordConsumer consumer : consumers.values()) {
+            consumer.setRevision(revision);
+        }
+    }
     
     /**
      * Return a flag indicating whether synchronization should continue
@@ -289,20 +309,41 @@ public abstract class AbstractJournal implements Journal {
      * @throws JournalException if an error occurs
      */
     public void lockAndSync() throws JournalException {
-        if (internalVersionManager != null) {
-            VersioningLock.ReadLock lock =
-                internalVersionManager.acquireReadLock();
+        lockAndSync(null);
+    }
+
+    /**
+     * Lock a partition of the journal, disallowing changes to that partition
+     * from other sources until {@link #unlock} has been called, and
+     * synchronizes to the latest change. Journals that do not support
+     * partitions lock the whole journal.
+     *
+     * @param partition the partition or <code>null</code> for the default
+     *                  partition
+     * @throws JournalException if an error occurs
+     */
+    public void lockAndSync(String partition) throws JournalException {
+        VersioningLock.ReadLock lock = acquireVersioningReadLock();
+        if (lock != null) {
             try {
-                internalLockAndSync();
+                internalLockAndSync(partition);
+                if (syncOnAppend()) {
+                    // records are consumed again on append, keep the lock
+                    // so that they are consumed in the same order (JCR-2753)
+                    appendLock = lock;
+                    lock = null;
+                }
             } finally {
-                lock.release();
+                if (lock != null) {
+                    lock.release();
+                }
             }
         } else {
-            internalLockAndSync();
+            internalLockAndSync(partition);
         }
     }
 
-    private void internalLockAndSync() throws JournalException {
+    private void internalLockAndSync(String partition) throws JournalException {
         try {
             rwLock.writeLock().acquire();
         } catch (InterruptedException e) {
@@ -314,7 +355,7 @@ public abstract class AbstractJournal implements Journal {
 
         try {
             // lock
-            doLock();
+            doLock(partition);
             try {
                 // and sync
                 doSync(getMinimalRevision());
@@ -343,10 +384,44 @@ public abstract class AbstractJournal implements Journal {
     	} finally {
     		//Should not happen that a RuntimeException will be thrown in subCode, but it's safer
     		//to release the rwLock in finally block.
+            VersioningLock.ReadLock lock = appendLock;
+            appendLock = null;
             rwLock.writeLock().release();
+            if (lock != null) {
+                lock.release();
+            }
     	}
     }
 
+    /**
+     * Acquires the read lock of the internal version manager, which
+     * consuming a version record requires.
+     *
+     * @return the read lock or <code>null</code> if no internal version
+     *         manager is set
+     */
+    protected VersioningLock.ReadLock acquireVersioningReadLock() {
+        if (internalVersionManager != null) {
+            return internalVersionManager.acquireReadLock();
+        }
+        return null;
+    }
+
+    /**
+     * Return a flag indicating whether records of other sources are
+     * consumed while a record is appended, after the journal has been
+     * locked and synchronized. If so, the versioning read lock is held
+     * until the journal is unlocked, because consuming a version record
+     * needs it, and a checkin holding the versioning write lock may be
+     * waiting for the journal lock. Subclass overridable.
+     *
+     * @return <code>true</code> if records are consumed on append;
+     *         <code>false</code> otherwise
+     */
+    protected boolean syncOnAppend() {
+        return false;
+    }
+
     /**
      * Lock the journal revision. Subclass responsibility.
      *
@@ -354,6 +429,19 @@ public abstract class AbstractJournal implements Journal {
      */
     protected abstract void doLock() throws JournalException;
 
+    /**
+     * Lock a partition of the journal revision. The default implementation
+     * locks the whole journal revision. May be overridden by subclasses that
+     * allow appends to different partitions at the same time.
+     *
+     * @param partition the partition or <code>null</code> for the default
+     *                  partition
+     * @throws JournalException if an error occurs
+     */
+    protected void doLock(String partition) throws JournalException {
+        doLock();
+    }
+
     /**
      * Notification method called by an appended record at creation time.
      * May be overridden by subclasses to save some context information
@@ -457,4 +545,24 @@ public abstract class AbstractJournal implements Journal {
      public void setRevision(String revision) {
          this.revision = revision;
      }
+
+     /**
+      * @return <code>true</code> if records are appended in the compact format
+      */
+     public boolean isCompactRecords() {
+         return compactRecords;
+     }
+
+     /**
+      * Set whether records are appended in the compact binary format instead
+      * of the original format. Records in either format can always be read,
+      * but cluster nodes of older versions only read the original format, so
+      * this should only be enabled once all cluster nodes are upgraded.
+      *
+      * @param compactRecords <code>true</code> to append records in the
+      *                       compact format
+      */
+     public void setCompactRecords(boolean compactRecords) {
+         this.compactRecords = compactRecords;
+     }
 }
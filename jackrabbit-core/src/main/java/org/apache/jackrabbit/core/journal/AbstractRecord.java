@@ -19,8 +19,11 @@ package org.apache.jackrabbit.core.journal;
 import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.jcr.NamespaceException;
@@ -33,11 +36,13 @@ import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.id.PropertyId;
 import org.apache.jackrabbit.spi.Name;
 import org.apache.jackrabbit.spi.Path;
+import org.apache.jackrabbit.spi.PathFactory;
 import org.apache.jackrabbit.spi.PrivilegeDefinition;
 import org.apache.jackrabbit.spi.QNodeTypeDefinition;
 import org.apache.jackrabbit.spi.commons.conversion.MalformedPathException;
 import org.apache.jackrabbit.spi.commons.conversion.NameException;
 import org.apache.jackrabbit.spi.commons.conversion.NamePathResolver;
+import org.apache.jackrabbit.spi.commons.name.NameFactoryImpl;
 import org.apache.jackrabbit.spi.commons.name.PathFactoryImpl;
 import org.apache.jackrabbit.spi.commons.namespace.NamespaceMapping;
 import org.apache.jackrabbit.spi.commons.namespace.NamespaceResolver;
@@ -48,9 +53,54 @@ import org.apache.jackrabbit.spi.commons.privilege.PrivilegeDefinitionWriter;
 
 /**
  * Base implementation for a record.
+ * <p>
+ * A record is either written in the original format, where names and paths
+ * are written as JCR strings, or in the compact format. A record in the
+ * compact format starts with the {@link #COMPACT_FORMAT} byte and writes
+ * strings as UTF-8 with variable length sizes, integers and characters as
+ * variable length integers, names by index into dictionaries of the names
+ * and namespace URIs of the record, and paths element by element.
  */
 public abstract class AbstractRecord implements Record {
 
+    /**
+     * First byte of a record in the compact format. A record in the
+     * original format starts with the null flag of a string, so its first
+     * byte is either 0 or 1.
+     */
+    protected static final byte COMPACT_FORMAT = 2;
+
+    /**
+     * UTF-8 character set used for strings in the compact format.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Path element type for the root element in the compact format.
+     */
+    private static final int ROOT_ELEMENT = 0;
+
+    /**
+     * Path element type for the current element in the compact format.
+     */
+    private static final int CURRENT_ELEMENT = 1;
+
+    /**
+     * Path element type for the parent element in the compact format.
+     */
+    private static final int PARENT_ELEMENT = 2;
+
+    /**
+     * Path element type for an identifier element in the compact format.
+     */
+    private static final int IDENTIFIER_ELEMENT = 3;
+
+    /**
+     * Path element type for a named element in the compact format. The
+     * index of the element is added to the type.
+     */
+    private static final int NAMED_ELEMENT = 4;
+
     /**
      * Indicator for a literal UUID.
      */
@@ -66,6 +116,31 @@ public abstract class AbstractRecord implements Record {
      */
     private final BidiMap nodeIdIndex = new DualHashBidiMap();
 
+    /**
+     * Maps names to their index in the compact format.
+     */
+    private final Map<Name, Integer> nameIndex = new HashMap<Name, Integer>();
+
+    /**
+     * Names read in the compact format, by index.
+     */
+    private final List<Name> names = new ArrayList<Name>();
+
+    /**
+     * Maps namespace URIs to their index in the compact format.
+     */
+    private final Map<String, Integer> uriIndex = new HashMap<String, Integer>();
+
+    /**
+     * Namespace URIs read in the compact format, by index.
+     */
+    private final List<String> uris = new ArrayList<String>();
+
+    /**
+     * Flag indicating whether this record uses the compact format.
+     */
+    private boolean compact;
+
     /**
      * Namespace resolver.
      */
@@ -90,6 +165,10 @@ public abstract class AbstractRecord implements Record {
      * {@inheritDoc}
      */
     public void writeQName(Name name) throws JournalException {
+        if (compact) {
+            writeCompactName(name);
+            return;
+        }
         try {
             writeString(resolver.getJCRName(name));
         } catch (NamespaceException e) {
@@ -110,6 +189,10 @@ public abstract class AbstractRecord implements Record {
      * {@inheritDoc}
      */
     public void writePath(Path path) throws JournalException {
+        if (compact) {
+            writeCompactPath(path);
+            return;
+        }
         try {
             writeString(resolver.getJCRPath(path));
         } catch (NamespaceException e) {
@@ -122,6 +205,10 @@ public abstract class AbstractRecord implements Record {
      * {@inheritDoc}
      */
     public void writeNodeId(NodeId nodeId) throws JournalException {
+        if (compact) {
+            writeCompactNodeId(nodeId);
+            return;
+        }
         if (nodeId == null) {
             writeByte(UUID_INDEX);
             writeInt(-1);
@@ -194,6 +281,9 @@ public abstract class AbstractRecord implements Record {
      * {@inheritDoc}
      */
     public Name readQName() throws JournalException {
+        if (compact) {
+            return readCompactName();
+        }
         try {
             return resolver.getQName(readString());
         } catch (NameException e) {
@@ -210,7 +300,12 @@ public abstract class AbstractRecord implements Record {
      */
     public Path readPathElement() throws JournalException {
         try {
-            Name name = resolver.getQName(readString());
+            Name name;
+            if (compact) {
+                name = readCompactName();
+            } else {
+                name = resolver.getQName(readString());
+            }
             int index = readInt();
             if (index != 0) {
                 return PathFactoryImpl.getInstance().create(name, index);
@@ -230,6 +325,9 @@ public abstract class AbstractRecord implements Record {
      * {@inheritDoc}
      */
     public Path readPath() throws JournalException {
+        if (compact) {
+            return readCompactPath();
+        }
         try {
             return resolver.getQPath(readString());
         } catch (MalformedPathException e) {
@@ -248,6 +346,9 @@ public abstract class AbstractRecord implements Record {
      * {@inheritDoc}
      */
     public NodeId readNodeId() throws JournalException {
+        if (compact) {
+            return readCompactNodeId();
+        }
         byte uuidType = readByte();
         if (uuidType == UUID_INDEX) {
             int index = readInt();
@@ -334,4 +435,272 @@ public abstract class AbstractRecord implements Record {
             return index;
         }
     }
-}
\ No newline at end of file
+
+    //-----------------------------------------------------< compact format >---
+
+    /**
+     * Return a flag indicating whether this record uses the compact format.
+     *
+     * @return <code>true</code> if this record uses the compact format
+     */
+    protected boolean isCompact() {
+        return compact;
+    }
+
+    /**
+     * Set the flag indicating whether this record uses the compact format.
+     *
+     * @param compact <code>true</code> if this record uses the compact format
+     */
+    protected void setCompact(boolean compact) {
+        this.compact = compact;
+    }
+
+    /**
+     * Write a non-negative integer in a variable number of bytes, seven bits
+     * per byte, least significant bits first.
+     *
+     * @param n integer
+     * @throws JournalException if an error occurs
+     */
+    protected void writeVarInt(int n) throws JournalException {
+        while ((n & ~0x7F) != 0) {
+            writeByte((n & 0x7F) | 0x80);
+            n >>>= 7;
+        }
+        writeByte(n);
+    }
+
+    /**
+     * Read an integer written by {@link #writeVarInt(int)}.
+     *
+     * @return integer
+     * @throws JournalException if an error occurs
+     */
+    protected int readVarInt() throws JournalException {
+        int n = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = readByte();
+            n |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return n;
+            }
+        }
+        throw new JournalException("Malformed variable length integer.");
+    }
+
+    /**
+     * Write a string in the compact format: its length in UTF-8 bytes plus
+     * one, or 0 for <code>null</code>, followed by the UTF-8 bytes.
+     *
+     * @param s string, may be <code>null</code>
+     * @throws JournalException if an error occurs
+     */
+    protected void writeCompactString(String s) throws JournalException {
+        if (s == null) {
+            writeVarInt(0);
+        } else {
+            byte[] b = s.getBytes(UTF8);
+            writeVarInt(b.length + 1);
+            write(b);
+        }
+    }
+
+    /**
+     * Read a string written by {@link #writeCompactString(String)}.
+     *
+     * @return string, may be <code>null</code>
+     * @throws JournalException if an error occurs
+     */
+    protected String readCompactString() throws JournalException {
+        int length = readVarInt();
+        if (length == 0) {
+            return null;
+        }
+        byte[] b = new byte[length - 1];
+        readFully(b);
+        return new String(b, UTF8);
+    }
+
+    /**
+     * Write a name in the compact format: its index plus one if the name
+     * was written before, otherwise 0 followed by its namespace URI and
+     * local name.
+     *
+     * @param name name
+     * @throws JournalException if an error occurs
+     */
+    private void writeCompactName(Name name) throws JournalException {
+        Integer index = nameIndex.get(name);
+        if (index != null) {
+            writeVarInt(index + 1);
+        } else {
+            writeVarInt(0);
+            String uri = name.getNamespaceURI();
+            Integer uriIndexValue = uriIndex.get(uri);
+            if (uriIndexValue != null) {
+                writeVarInt(uriIndexValue + 1);
+            } else {
+                writeVarInt(0);
+                writeCompactString(uri);
+                uriIndex.put(uri, uriIndex.size());
+            }
+            writeCompactString(name.getLocalName());
+            nameIndex.put(name, nameIndex.size());
+        }
+    }
+
+    /**
+     * Read a name written by {@link #writeCompactName(Name)}.
+     *
+     * @return name
+     * @throws JournalException if an error occurs
+     */
+    private Name readCompactName() throws JournalException {
+        int index = readVarInt();
+        if (index > 0) {
+            return getIndexed(names, index - 1, "name");
+        }
+        String uri;
+        int uriIndexValue = readVarInt();
+        if (uriIndexValue > 0) {
+            uri = getIndexed(uris, uriIndexValue - 1, "namespace URI");
+        } else {
+            uri = readCompactString();
+            uris.add(uri);
+        }
+        Name name = NameFactoryImpl.getInstance().create(
+                uri, readCompactString());
+        names.add(name);
+        return name;
+    }
+
+    /**
+     * Write a path in the compact format: its number of elements followed
+     * by the elements. Named elements are written as {@link #NAMED_ELEMENT}
+     * plus their index, followed by their name.
+     *
+     * @param path path
+     * @throws JournalException if an error occurs
+     */
+    private void writeCompactPath(Path path) throws JournalException {
+        Path.Element[] elements = path.getElements();
+        writeVarInt(elements.length);
+        for (Path.Element element : elements) {
+            if (element.denotesRoot()) {
+                writeVarInt(ROOT_ELEMENT);
+            } else if (element.denotesCurrent()) {
+                writeVarInt(CURRENT_ELEMENT);
+            } else if (element.denotesParent()) {
+                writeVarInt(PARENT_ELEMENT);
+            } else if (element.denotesIdentifier()) {
+                writeVarInt(IDENTIFIER_ELEMENT);
+                writeCompactString(element.getIdentifier());
+            } else {
+                writeVarInt(NAMED_ELEMENT + element.getIndex());
+                writeCompactName(element.getName());
+            }
+        }
+    }
+
+    /**
+     * Read a path written by {@link #writeCompactPath(Path)}.
+     *
+     * @return path
+     * @throws JournalException if an error occurs
+     */
+    private Path readCompactPath() throws JournalException {
+        PathFactory factory = PathFactoryImpl.getInstance();
+        Path.Element[] elements = new Path.Element[readVarInt()];
+        try {
+            for (int i = 0; i < elements.length; i++) {
+                int type = readVarInt();
+                switch (type) {
+                case ROOT_ELEMENT:
+                    elements[i] = factory.getRootElement();
+                    break;
+                case CURRENT_ELEMENT:
+                    elements[i] = factory.getCurrentElement();
+                    break;
+                case PARENT_ELEMENT:
+                    elements[i] = factory.getParentElement();
+                    break;
+                case IDENTIFIER_ELEMENT:
+                    elements[i] = factory.createElement(readCompactString());
+                    break;
+                default:
+                    elements[i] = factory.createElement(
+                            readCompactName(), type - NAMED_ELEMENT);
+                }
+            }
+            return factory.create(elements);
+        } catch (IllegalArgumentException e) {
+            String msg = "Malformed path error while reading path.";
+            throw new JournalException(msg, e);
+        }
+    }
+
+    /**
+     * Write a node id in the compact format: 0 for <code>null</code>, 1
+     * followed by the 16 bytes of the id if it was not written before,
+     * otherwise its index plus two.
+     *
+     * @param nodeId node id, may be <code>null</code>
+     * @throws JournalException if an error occurs
+     */
+    private void writeCompactNodeId(NodeId nodeId) throws JournalException {
+        if (nodeId == null) {
+            writeVarInt(0);
+        } else {
+            int index = getOrCreateIndex(nodeId);
+            if (index != -1) {
+                writeVarInt(index + 2);
+            } else {
+                writeVarInt(1);
+                write(nodeId.getRawBytes());
+            }
+        }
+    }
+
+    /**
+     * Read a node id written by {@link #writeCompactNodeId(NodeId)}.
+     *
+     * @return node id, may be <code>null</code>
+     * @throws JournalException if an error occurs
+     */
+    private NodeId readCompactNodeId() throws JournalException {
+        int index = readVarInt();
+        if (index == 0) {
+            return null;
+        } else if (index == 1) {
+            byte[] b = new byte[NodeId.UUID_BYTE_LENGTH];
+            readFully(b);
+            NodeId nodeId = new NodeId(b);
+            nodeIdIndex.put(nodeId, nodeIdIndex.size());
+            return nodeId;
+        } else {
+            NodeId nodeId = (NodeId) nodeIdIndex.getKey(index - 2);
+            if (nodeId == null) {
+                throw new JournalException("Unknown node id index: " + index);
+            }
+            return nodeId;
+        }
+    }
+
+    /**
+     * Return an entry of a dictionary of the compact format.
+     *
+     * @param list dictionary
+     * @param index index of the entry
+     * @param type type of the entry, used in the error message
+     * @return entry
+     * @throws JournalException if the index is unknown
+     */
+    private static <T> T getIndexed(List<T> list, int index, String type)
+            throws JournalException {
+        if (index >= list.size()) {
+            throw new JournalException("Unknown " + type + " index: " + index);
+        }
+        return list.get(index);
+    }
+}
@@ -147,6 +147,20 @@ public class AppendRecord extends AbstractRecord {
         this.revision = revision;
     }
 
+    /**
+     * Switch this record to the compact format by writing its first byte.
+     * Must be called before anything else is written to this record.
+     *
+     * @throws JournalException if an error occurs
+     */
+    public void writeCompactFormat() throws JournalException {
+        if (dataOut.size() != 0) {
+            throw new IllegalStateException("Record already written to.");
+        }
+        writeByte(COMPACT_FORMAT);
+        setCompact(true);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -165,6 +179,10 @@ public class AppendRecord extends AbstractRecord {
      * {@inheritDoc}
      */
     public void writeChar(char c) throws JournalException {
+        if (isCompact()) {
+            writeVarInt(c);
+            return;
+        }
         checkOutput();
 
         try {
@@ -193,6 +211,11 @@ public class AppendRecord extends AbstractRecord {
      * {@inheritDoc}
      */
     public void writeInt(int n) throws JournalException {
+        if (isCompact()) {
+            // zigzag encoding keeps small negative numbers short
+            writeVarInt((n << 1) ^ (n >> 31));
+            return;
+        }
         checkOutput();
 
         try {
@@ -221,6 +244,10 @@ public class AppendRecord extends AbstractRecord {
      * {@inheritDoc}
      */
     public void writeString(String s) throws JournalException {
+        if (isCompact()) {
+            writeCompactString(s);
+            return;
+        }
         checkOutput();
 
         try {
@@ -35,6 +35,8 @@ import java.io.InputStreamReader;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Calendar;
+import java.util.HashSet;
+import java.util.Set;
 
 import javax.jcr.RepositoryException;
 import javax.sql.DataSource;
@@ -68,6 +70,11 @@ import javax.sql.DataSource;
  * thread initiates its first run (default = <code>3</code> which means 3:00 at night)</li>
  * <li><code>schemaCheckEnabled</code>:  whether the schema check during initialization is enabled
  * (default = <code>true</code>)</li>
+ * <li><code>partitions</code>: the number of partitions the changes of the
+ * workspaces are spread over; if greater than 0, a save locks only the row of
+ * its partition in the table <code>JOURNAL_PARTITIONS</code> and the global
+ * revision is locked only while the record is appended (default = <code>0</code>,
+ * every save locks the global revision)</li>
  * <p>
  * JNDI can be used to get the connection. In this case, use the javax.naming.InitialContext as the driver,
  * and the JNDI name as the URL. If the user and password are configured in the JNDI resource,
@@ -90,6 +97,11 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
      */
     private static final String LOCAL_REVISIONS_TABLE = "LOCAL_REVISIONS";
 
+    /**
+     * Partitions table name, used to check schema completeness.
+     */
+    private static final String PARTITIONS_TABLE = "JOURNAL_PARTITIONS";
+
     /**
      * Logger.
      */
@@ -173,6 +185,12 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
      */
     private boolean schemaCheckEnabled = true;
 
+    /**
+     * Number of partitions for the changes of the workspaces, or 0 if every
+     * append locks the global revision.
+     */
+    private int partitions = 0;
+
     /**
      * The instance that manages the local revision.
      */
@@ -223,6 +241,21 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
      */
     protected String updateLocalRevisionStmtSQL;
 
+    /**
+     * SQL statement locking the row of a partition.
+     */
+    protected String lockPartitionStmtSQL;
+
+    /**
+     * SQL statement returning the ids of the partitions.
+     */
+    protected String selectPartitionsStmtSQL;
+
+    /**
+     * SQL statement adding a partition.
+     */
+    protected String insertPartitionStmtSQL;
+
     /**
      * Schema object prefix, bean property.
      */
@@ -268,10 +301,16 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
 
             // Make sure that the LOCAL_REVISIONS table exists (see JCR-1087)
             if (isSchemaCheckEnabled()) {
-                checkLocalRevisionSchema();
+                checkTableSchema(LOCAL_REVISIONS_TABLE);
+                if (partitions > 0) {
+                    checkTableSchema(PARTITIONS_TABLE);
+                }
             }
 
             buildSQLStatements();
+            if (partitions > 0) {
+                initPartitions();
+            }
             initInstanceRevisionAndJanitor();
         } catch (Exception e) {
             String msg = "Unable to create connection.";
@@ -474,7 +513,6 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
      * appended record, because a save may entail multiple appends (JCR-884).
      */
     protected void doLock() throws JournalException {
-        ResultSet rs = null;
         boolean succeeded = false;
 
         try {
@@ -483,21 +521,136 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
             throw new JournalException("Unable to set autocommit to false.", e);
         }
 
+        try {
+            lockedRevision = lockGlobalRevision();
+            succeeded = true;
+        } catch (SQLException e) {
+            throw new JournalException("Unable to lock global revision table.", e);
+        } finally {
+            if (!succeeded) {
+                doUnlock(false);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If partitions are configured, only the row of the partition in the
+     * table named <code>JOURNAL_PARTITIONS</code> is locked. Saves to
+     * different partitions do not touch the same items, so they may run at
+     * the same time on different cluster nodes. The global revision is
+     * locked only when the record is appended.
+     */
+    protected void doLock(String partition) throws JournalException {
+        if (partitions <= 0) {
+            doLock();
+            return;
+        }
+
+        boolean succeeded = false;
+
+        try {
+            startBatch();
+        } catch (SQLException e) {
+            throw new JournalException("Unable to set autocommit to false.", e);
+        }
+
+        try {
+            String id = getPartitionId(partition);
+            if (conHelper.update(lockPartitionStmtSQL, id) == 0) {
+                throw new JournalException("No journal partition " + id + " available.");
+            }
+            succeeded = true;
+        } catch (SQLException e) {
+            throw new JournalException("Unable to lock journal partition table.", e);
+        } finally {
+            if (!succeeded) {
+                doUnlock(false);
+            }
+        }
+    }
+
+    /**
+     * Increments and thereby locks the global revision. The lock is held
+     * until the current batch ends.
+     *
+     * @return the new global revision
+     * @throws SQLException if an error occurs
+     * @throws JournalException if no revision is available
+     */
+    private long lockGlobalRevision() throws SQLException, JournalException {
+        ResultSet rs = null;
         try {
             conHelper.exec(updateGlobalStmtSQL);
             rs = conHelper.exec(selectGlobalStmtSQL, null, false, 0);
             if (!rs.next()) {
                  throw new JournalException("No revision available.");
             }
-            lockedRevision = rs.getLong(1);
-            succeeded = true;
-        } catch (SQLException e) {
-            throw new JournalException("Unable to lock global revision table.", e);
+            return rs.getLong(1);
         } finally {
             DbUtility.close(rs);
-            if (!succeeded) {
-                doUnlock(false);
+        }
+    }
+
+    /**
+     * Returns the id of the row that locks a partition. The default
+     * partition has its own row, the workspaces are spread over the other
+     * rows by the hash code of their name.
+     *
+     * @param partition the partition or <code>null</code> for the default
+     *                  partition
+     * @return the row id
+     */
+    private String getPartitionId(String partition) {
+        if (partition == null) {
+            return "0";
+        }
+        return String.valueOf(1 + (partition.hashCode() & Integer.MAX_VALUE) % partitions);
+    }
+
+    /**
+     * Adds the rows of the partitions that do not exist yet. No lock is
+     * taken, so that starting a cluster node does not increment the global
+     * revision. If a cluster node starting at the same time adds the same
+     * row, the insert fails on the unique index and is ignored.
+     *
+     * @throws SQLException if an error occurs
+     */
+    private void initPartitions() throws SQLException {
+        Set<String> ids = getPartitionIds();
+        for (int i = 0; i <= partitions; i++) {
+            String id = String.valueOf(i);
+            if (!ids.contains(id)) {
+                try {
+                    conHelper.exec(insertPartitionStmtSQL, 0L, id);
+                } catch (SQLException e) {
+                    if (!getPartitionIds().contains(id)) {
+                        throw e;
+                    }
+                    log.debug("Journal partition {} added concurrently", id);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the ids of the existing partition rows.
+     *
+     * @return the partition row ids
+     * @throws SQLException if an error occurs
+     */
+    private Set<String> getPartitionIds() throws SQLException {
+        ResultSet rs = null;
+        try {
+            Set<String> ids = new HashSet<String>();
+            rs = conHelper.exec(selectPartitionsStmtSQL, null, false, 0);
+            while (rs.next()) {
+                ids.add(rs.getString(1));
             }
+            return ids;
+        } finally {
+            DbUtility.close(rs);
         }
     }
 
@@ -527,26 +680,52 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
     /**
      * {@inheritDoc}
      * <p>
-     * Save away the locked revision inside the newly appended record.
+     * Save away the locked revision inside the newly appended record. If
+     * partitions are configured, the revision is assigned when the record
+     * is appended.
      */
     protected void appending(AppendRecord record) {
-        record.setRevision(lockedRevision);
+        if (partitions <= 0) {
+            record.setRevision(lockedRevision);
+        }
     }
 
     /**
      * {@inheritDoc}
      * <p>
-     * We have already saved away the revision for this record.
+     * Records are consumed on append if partitions are configured.
+     */
+    @Override
+    protected boolean syncOnAppend() {
+        return partitions > 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * We have already saved away the revision for this record, unless
+     * partitions are configured. In that case the global revision is locked
+     * now and the records other cluster nodes appended to other partitions
+     * since this journal was locked are consumed first, so that the
+     * revision of the consumers can be advanced to the appended record.
+     * The versioning read lock is still held at that point, see
+     * {@link #syncOnAppend()}.
      */
     protected void append(AppendRecord record, InputStream in, int length)
             throws JournalException {
 
         try {
+            if (partitions > 0) {
+                record.setRevision(lockGlobalRevision());
+                doSync(getMinimalRevision());
+            }
             conHelper.exec(insertRevisionStmtSQL, record.getRevision(), getId(), record.getProducerId(),
                 new StreamWrapper(in, length));
-
+            if (partitions > 0) {
+                setConsumerRevision(record.getRevision());
+            }
         } catch (SQLException e) {
-            String msg = "Unable to append revision " + lockedRevision + ".";
+            String msg = "Unable to append revision " + record.getRevision() + ".";
             throw new JournalException(msg, e);
         }
     }
@@ -561,23 +740,23 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
     }
 
     /**
-     * Checks if the local revision schema objects exist and creates them if they
-     * don't exist yet.
+     * Checks if the schema objects of a table that was added after the
+     * initial schema exist and creates them if they don't exist yet.
      *
+     * @param table the table name without schema object prefix
      * @throws Exception if an error occurs
      */
-    private void checkLocalRevisionSchema() throws Exception {
-        InputStream localRevisionDDLStream = null;
+    private void checkTableSchema(String table) throws Exception {
+        StringBuilder ddl = new StringBuilder();
         InputStream in = DatabaseJournal.class.getResourceAsStream(databaseType + ".ddl");
         try {
             BufferedReader reader = new BufferedReader(new InputStreamReader(in));
             String sql = reader.readLine();
             while (sql != null) {
-                // Skip comments and empty lines, and select only the statement to create the LOCAL_REVISIONS
-                // table.
-                if (!sql.startsWith("#") && sql.length() > 0 && sql.indexOf(LOCAL_REVISIONS_TABLE) != -1) {
-                    localRevisionDDLStream = new ByteArrayInputStream(sql.getBytes());
-                    break;
+                // Skip comments and empty lines, and select only the statements for the table
+                if (!sql.startsWith("#") && sql.length() > 0
+                        && sql.indexOf("}" + table + " ") != -1) {
+                    ddl.append(sql).append('\n');
                 }
                 // read next sql stmt
                 sql = reader.readLine();
@@ -586,8 +765,8 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
             IOUtils.closeQuietly(in);
         }
         // Run the schema check for the single table
-        new CheckSchemaOperation(conHelper, localRevisionDDLStream, schemaObjectPrefix
-                + LOCAL_REVISIONS_TABLE).addVariableReplacement(
+        new CheckSchemaOperation(conHelper, new ByteArrayInputStream(ddl.toString().getBytes()),
+                schemaObjectPrefix + table).addVariableReplacement(
             CheckSchemaOperation.SCHEMA_OBJECT_PREFIX_VARIABLE, schemaObjectPrefix).run();
     }
 
@@ -622,6 +801,14 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
         updateLocalRevisionStmtSQL =
             "update " + schemaObjectPrefix + "LOCAL_REVISIONS "
             + "set REVISION_ID = ? where JOURNAL_ID = ?";
+        lockPartitionStmtSQL =
+            "update " + schemaObjectPrefix + "JOURNAL_PARTITIONS "
+            + "set REVISION_ID = REVISION_ID + 1 where JOURNAL_ID = ?";
+        selectPartitionsStmtSQL =
+            "select JOURNAL_ID from " + schemaObjectPrefix + "JOURNAL_PARTITIONS";
+        insertPartitionStmtSQL =
+            "insert into " + schemaObjectPrefix + "JOURNAL_PARTITIONS "
+            + "(REVISION_ID, JOURNAL_ID) values (?,?)";
     }
 
     /**
@@ -763,6 +950,22 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
         schemaCheckEnabled = enabled;
     }
 
+    /**
+     * @return the number of partitions for the changes of the workspaces
+     */
+    public int getPartitions() {
+        return partitions;
+    }
+
+    /**
+     * @param partitions the number of partitions for the changes of the
+     *                   workspaces, or 0 to lock the global revision on
+     *                   every append
+     */
+    public void setPartitions(int partitions) {
+        this.partitions = partitions;
+    }
+
     /**
      * This class manages the local revision of the cluster node. It
      * persists the local revision in the LOCAL_REVISIONS table in the
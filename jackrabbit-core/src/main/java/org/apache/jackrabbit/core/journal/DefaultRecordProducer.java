@@ -46,13 +46,24 @@ public class DefaultRecordProducer implements RecordProducer {
      * {@inheritDoc}
      */
     public Record append() throws JournalException {
+        return append(null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Record append(String partition) throws JournalException {
         AppendRecord record = null;
 
-        journal.lockAndSync();
+        journal.lockAndSync(partition);
 
         try {
-            record = createRecord();
-            journal.appending(record);
+            AppendRecord created = createRecord();
+            if (journal.isCompactRecords()) {
+                created.writeCompactFormat();
+            }
+            journal.appending(created);
+            record = created;
             return record;
         } finally {
             if (record == null) {
@@ -22,6 +22,7 @@ import org.apache.jackrabbit.spi.Name;
 
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.io.PushbackInputStream;
 
 /**
  * Record used for reading.
@@ -46,7 +47,7 @@ public class ReadRecord extends AbstractRecord {
     /**
      * Underlying data input.
      */
-    private final DataInputStream dataIn;
+    private DataInputStream dataIn;
 
     /**
      * This record's length.
@@ -58,6 +59,11 @@ public class ReadRecord extends AbstractRecord {
      */
     private boolean consumed;
 
+    /**
+     * Flag indicating whether the format of this record was detected.
+     */
+    private boolean formatDetected;
+
     /**
      * Create a new instance of this class.
      */
@@ -100,6 +106,7 @@ public class ReadRecord extends AbstractRecord {
      */
     public byte readByte() throws JournalException {
         consumed = true;
+        detectFormat();
 
         try {
             return dataIn.readByte();
@@ -114,6 +121,11 @@ public class ReadRecord extends AbstractRecord {
      */
     public char readChar() throws JournalException {
         consumed = true;
+        detectFormat();
+
+        if (isCompact()) {
+            return (char) readVarInt();
+        }
 
         try {
             return dataIn.readChar();
@@ -128,6 +140,7 @@ public class ReadRecord extends AbstractRecord {
      */
     public boolean readBoolean() throws JournalException {
         consumed = true;
+        detectFormat();
 
         try {
             return dataIn.readBoolean();
@@ -142,6 +155,12 @@ public class ReadRecord extends AbstractRecord {
      */
     public int readInt() throws JournalException {
         consumed = true;
+        detectFormat();
+
+        if (isCompact()) {
+            int n = readVarInt();
+            return (n >>> 1) ^ -(n & 1);
+        }
 
         try {
             return dataIn.readInt();
@@ -156,6 +175,7 @@ public class ReadRecord extends AbstractRecord {
      */
     public long readLong() throws JournalException {
         consumed = true;
+        detectFormat();
 
         try {
             return dataIn.readLong();
@@ -170,6 +190,11 @@ public class ReadRecord extends AbstractRecord {
      */
     public String readString() throws JournalException {
         consumed = true;
+        detectFormat();
+
+        if (isCompact()) {
+            return readCompactString();
+        }
 
         try {
             boolean isNull = dataIn.readBoolean();
@@ -189,6 +214,7 @@ public class ReadRecord extends AbstractRecord {
      */
     public void readFully(byte[] b) throws JournalException {
         consumed = true;
+        detectFormat();
 
         try {
             dataIn.readFully(b);
@@ -198,6 +224,32 @@ public class ReadRecord extends AbstractRecord {
         }
     }
 
+    /**
+     * Detect the format of this record on the first read. A record in the
+     * compact format starts with a marker byte, which is skipped. Otherwise
+     * the first byte is pushed back, as it belongs to the data of the record.
+     *
+     * @throws JournalException if an I/O error occurs
+     */
+    private void detectFormat() throws JournalException {
+        if (!formatDetected) {
+            formatDetected = true;
+            PushbackInputStream in = new PushbackInputStream(dataIn, 1);
+            try {
+                int b = in.read();
+                if (b == COMPACT_FORMAT) {
+                    setCompact(true);
+                } else if (b != -1) {
+                    in.unread(b);
+                }
+            } catch (IOException e) {
+                String msg = "I/O error while reading record format.";
+                throw new JournalException(msg, e);
+            }
+            dataIn = new DataInputStream(in);
+        }
+    }
+
     /**
      * Close this record, eventually skipping unconsumed bytes.
      *
@@ -31,4 +31,18 @@ public interface RecordProducer {
      */
     Record append() throws JournalException;
 
+    /**
+     * Append a record to a partition of the journal, like the changes of a
+     * workspace. This operation implicitly locks the partition, or the whole
+     * journal revision if the journal does not support partitions, and must
+     * be followed by either {@link Record#update} or
+     * {@link Record#cancelUpdate} on the record returned.
+     *
+     * @param partition the partition or <code>null</code> for the default
+     *                  partition
+     * @return appended record
+     * @throws JournalException if an error occurs
+     */
+    Record append(String partition) throws JournalException;
+
 }
@@ -22,6 +22,7 @@ import org.apache.jackrabbit.spi.Path;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 
@@ -100,6 +101,37 @@ public class DelegatingObservationDispatcher extends EventDispatcher {
                 events.getPathPrefix(), events.getUserData());
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Every dispatcher gets the events of all collections at once, so that
+     * its {@link CoalescedEventListener}s are notified only once.
+     */
+    void dispatchEvents(List<EventStateCollection> events) {
+        ObservationDispatcher[] disp;
+        synchronized (dispatchers) {
+            disp = (ObservationDispatcher[]) dispatchers.toArray(
+                    new ObservationDispatcher[dispatchers.size()]);
+        }
+        for (int i = 0; i < disp.length; i++) {
+            List<EventStateCollection> list =
+                    new ArrayList<EventStateCollection>(events.size());
+            try {
+                for (EventStateCollection esc : events) {
+                    EventStateCollection copy = new EventStateCollection(
+                            disp[i], esc.getSession(), esc.getPathPrefix());
+                    copy.setUserData(esc.getUserData());
+                    copy.addAll(esc.getEvents());
+                    copy.prepare();
+                    list.add(copy);
+                }
+                disp[i].dispatchEvents(list);
+            } catch (Exception e) {
+                log.error("Error while dispatching events.", e);
+            }
+        }
+    }
+
     /**
      * Dispatchers a list of events to all registered dispatchers. A new
      * {@link EventStateCollection} is created for every dispatcher, fille with
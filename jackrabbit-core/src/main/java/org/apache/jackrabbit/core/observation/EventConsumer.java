@@ -19,6 +19,7 @@ package org.apache.jackrabbit.core.observation;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.WeakHashMap;
@@ -29,6 +30,8 @@ import javax.jcr.observation.Event;
 import javax.jcr.observation.EventIterator;
 import javax.jcr.observation.EventListener;
 
+import org.apache.commons.collections.iterators.IteratorChain;
+import org.apache.jackrabbit.commons.iterator.EventIteratorAdapter;
 import org.apache.jackrabbit.core.SessionImpl;
 import org.apache.jackrabbit.core.id.ItemId;
 import org.apache.jackrabbit.core.security.authorization.Permission;
@@ -218,6 +221,62 @@ class EventConsumer {
      *               to dispatch.
      */
     void consumeEvents(EventStateCollection events) throws RepositoryException {
+        EventIterator it = filterEvents(events);
+        // check if filtered iterator has at least one event
+        if (it != null && it.hasNext()) {
+            deliverEvents(it);
+        } else {
+            // otherwise skip this listener
+        }
+    }
+
+    /**
+     * Dispatches the events of several consecutive updates to the
+     * <code>EventListener</code>. A {@link CoalescedEventListener} is called
+     * once with the events of all updates, other listeners are called once
+     * per update.
+     *
+     * @param events the collections of {@link EventState}s to dispatch, in
+     *               the order of the updates.
+     */
+    void consumeEvents(List<EventStateCollection> events)
+            throws RepositoryException {
+        if (!(listener instanceof CoalescedEventListener)) {
+            for (EventStateCollection esc : events) {
+                try {
+                    consumeEvents(esc);
+                } catch (Throwable t) {
+                    log.error("EventListener threw exception.", t);
+                    // move on to next update
+                }
+            }
+            return;
+        }
+        IteratorChain chain = new IteratorChain();
+        for (EventStateCollection esc : events) {
+            EventIterator it = filterEvents(esc);
+            if (it == null) {
+                return;
+            }
+            if (it.hasNext()) {
+                chain.addIterator(it);
+            }
+        }
+        if (chain.hasNext()) {
+            deliverEvents(new EventIteratorAdapter(chain));
+        }
+    }
+
+    /**
+     * Returns the events of a collection this <code>EventConsumer</code> is
+     * allowed to see and that pass its filter.
+     *
+     * @param events a collection of {@link EventState}s.
+     * @return the filtered events or <code>null</code> if the session is not
+     *         live anymore.
+     */
+    private EventIterator filterEvents(EventStateCollection events)
+            throws RepositoryException {
         // Set of ItemIds of denied ItemStates
         Set<ItemId> denied = accessDenied.remove(events);
         if (denied == null) {
@@ -238,22 +297,25 @@ class EventConsumer {
         }
         // only deliver if session is still live
         if (!session.isLive()) {
-            return;
+            return null;
         }
-        // check if filtered iterator has at least one event
-        EventIterator it = new FilteredEventIterator(
+        return new FilteredEventIterator(
                 session, events.iterator(), events.getTimestamp(),
                 events.getUserData(), filter, denied, false);
-        if (it.hasNext()) {
-            long time = System.currentTimeMillis();
-            listener.onEvent(it);
-            time = System.currentTimeMillis() - time;
-            if (log.isDebugEnabled()) {
-                log.debug("listener {} processed events in {} ms.",
-                        listener.getClass().getName(), time);
-            }
-        } else {
-            // otherwise skip this listener
+    }
+
+    /**
+     * Calls the <code>EventListener</code> with a non-empty iterator.
+     *
+     * @param it the events.
+     */
+    private void deliverEvents(EventIterator it) {
+        long time = System.currentTimeMillis();
+        listener.onEvent(it);
+        time = System.currentTimeMillis() - time;
+        if (log.isDebugEnabled()) {
+            log.debug("listener {} processed events in {} ms.",
+                    listener.getClass().getName(), time);
         }
     }
 
@@ -16,6 +16,8 @@
  */
 package org.apache.jackrabbit.core.observation;
 
+import java.util.List;
+
 import org.apache.jackrabbit.core.state.ChangeLog;
 
 /**
@@ -47,4 +49,17 @@ abstract class EventDispatcher {
      * @param events the {@link EventState}s to dispatch.
      */
     abstract void dispatchEvents(EventStateCollection events);
+
+    /**
+     * Dispatches the events of several consecutive updates, in the order of
+     * the updates. The default implementation dispatches one collection
+     * after the other.
+     *
+     * @param events the collections of {@link EventState}s to dispatch.
+     */
+    void dispatchEvents(List<EventStateCollection> events) {
+        for (EventStateCollection esc : events) {
+            dispatchEvents(esc);
+        }
+    }
 }
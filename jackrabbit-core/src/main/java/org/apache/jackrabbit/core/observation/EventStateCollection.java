@@ -475,6 +475,20 @@ public final class EventStateCollection {
         dispatcher.dispatchEvents(this);
     }
 
+    /**
+     * Dispatches the events of several consecutive updates to the
+     * {@link javax.jcr.observation.EventListener}s, in the order of the
+     * updates. The collections must have been created for the same
+     * dispatcher.
+     *
+     * @param events the event state collections of the updates.
+     */
+    public static void dispatch(List<EventStateCollection> events) {
+        if (!events.isEmpty()) {
+            events.get(0).dispatcher.dispatchEvents(events);
+        }
+    }
+
     /**
      * Returns the path prefix for this event state collection or <code>null</code>
      * if no path prefix was set in the constructor of this collection. See
@@ -26,6 +26,7 @@ import org.slf4j.LoggerFactory;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -232,6 +233,35 @@ public final class ObservationDispatcher extends EventDispatcher
         eventQueueSize.addAndGet(events.size());
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Synchronous listeners that implement {@link CoalescedEventListener}
+     * are notified once with the events of all collections. The collections
+     * are queued one after the other for the asynchronous listeners.
+     */
+    void dispatchEvents(List<EventStateCollection> events) {
+        if (events.size() == 1) {
+            dispatchEvents(events.get(0));
+            return;
+        }
+        // notify synchronous listeners
+        Set<EventConsumer> synchronous = getSynchronousConsumers();
+        for (EventConsumer c : synchronous) {
+            try {
+                c.consumeEvents(events);
+            } catch (Throwable t) {
+                log.error("Synchronous EventConsumer threw exception.", t);
+                // move on to next consumer
+            }
+        }
+        Set<EventConsumer> asynchronous = getAsynchronousConsumers();
+        for (EventStateCollection esc : events) {
+            eventQueue.add(new DispatchAction(esc, asynchronous));
+            eventQueueSize.addAndGet(esc.size());
+        }
+    }
+
     /**
      * Checks if the observation event queue contains more than the
      * configured {@link #MAX_QUEUED_EVENTS maximum number of events},
@@ -0,0 +1,39 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.persistence;
+
+/**
+ * Interface of a persistence manager that writes change logs stored
+ * concurrently by different threads together in one transaction. Grouping
+ * only pays off if change logs actually reach the persistence manager
+ * concurrently, so the shared item state manager tells whether its
+ * locking strategy allows that.
+ */
+public interface GroupCommitPersistenceManager extends PersistenceManager {
+
+    /**
+     * Sets whether change logs may be stored concurrently. If not, each
+     * change log is written in its own transaction without waiting for
+     * others to join it.
+     *
+     * @param concurrent <code>true</code> if the item state manager may call
+     *                   {@link #store(org.apache.jackrabbit.core.state.ChangeLog)}
+     *                   from several threads at the same time
+     */
+    void setConcurrentStores(boolean concurrent);
+
+}
@@ -0,0 +1,52 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.persistence;
+
+import java.util.Collection;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.state.ItemStateException;
+
+/**
+ * Interface that is used by the shared item state manager to ask a
+ * persistence manager to load a number of node states into its cache in
+ * as few round trips to the underlying storage as possible, for example
+ * the siblings of a node that is being read during a traversal.
+ */
+public interface PrefetchingPersistenceManager extends PersistenceManager {
+
+    /**
+     * Returns the maximum number of sibling node states the shared item
+     * state manager asks this persistence manager to prefetch once it
+     * detects that the child nodes of a node are read in order.
+     *
+     * @return maximum number of prefetched siblings, zero if prefetching
+     *         is disabled
+     */
+    int getPrefetchSize();
+
+    /**
+     * Loads the identified node states into the cache of this persistence
+     * manager. Nodes that are already cached or that do not exist are
+     * ignored.
+     *
+     * @param ids identifiers of the nodes to prefetch
+     * @throws ItemStateException if an error occurs while loading
+     */
+    void prefetch(Collection<NodeId> ids) throws ItemStateException;
+
+}
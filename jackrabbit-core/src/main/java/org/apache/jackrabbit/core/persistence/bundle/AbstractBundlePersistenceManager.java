@@ -20,9 +20,16 @@ import static org.apache.jackrabbit.spi.commons.name.NameConstants.JCR_MIXINTYPE
 import static org.apache.jackrabbit.spi.commons.name.NameConstants.JCR_PRIMARYTYPE;
 import static org.apache.jackrabbit.spi.commons.name.NameConstants.JCR_UUID;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
@@ -31,9 +38,13 @@ import javax.jcr.PropertyType;
 import javax.jcr.RepositoryException;
 
 import org.apache.jackrabbit.api.stats.RepositoryStatistics;
+import org.apache.jackrabbit.core.cache.AbstractCache;
 import org.apache.jackrabbit.core.cache.Cache;
 import org.apache.jackrabbit.core.cache.CacheAccessListener;
+import org.apache.jackrabbit.core.cache.CacheManager;
+import org.apache.jackrabbit.core.cache.ClockCache;
 import org.apache.jackrabbit.core.cache.ConcurrentCache;
+import org.apache.jackrabbit.core.cache.KeyValueCache;
 import org.apache.jackrabbit.core.cluster.UpdateEventChannel;
 import org.apache.jackrabbit.core.fs.FileSystem;
 import org.apache.jackrabbit.core.fs.FileSystemResource;
@@ -44,14 +55,17 @@ import org.apache.jackrabbit.core.persistence.CachingPersistenceManager;
 import org.apache.jackrabbit.core.persistence.IterablePersistenceManager;
 import org.apache.jackrabbit.core.persistence.PMContext;
 import org.apache.jackrabbit.core.persistence.PersistenceManager;
+import org.apache.jackrabbit.core.persistence.PrefetchingPersistenceManager;
 import org.apache.jackrabbit.core.persistence.check.ConsistencyCheckListener;
 import org.apache.jackrabbit.core.persistence.check.ConsistencyChecker;
 import org.apache.jackrabbit.core.persistence.check.ConsistencyReport;
 import org.apache.jackrabbit.core.persistence.util.BLOBStore;
+import org.apache.jackrabbit.core.persistence.util.BundleBinding;
 import org.apache.jackrabbit.core.persistence.util.FileBasedIndex;
 import org.apache.jackrabbit.core.persistence.util.NodeInfo;
 import org.apache.jackrabbit.core.persistence.util.NodePropBundle;
 import org.apache.jackrabbit.core.persistence.util.NodePropBundle.PropertyEntry;
+import org.apache.jackrabbit.core.persistence.util.OffHeapBundleCache;
 import org.apache.jackrabbit.core.state.ChangeLog;
 import org.apache.jackrabbit.core.state.ItemState;
 import org.apache.jackrabbit.core.state.ItemStateException;
@@ -89,13 +103,44 @@ import org.slf4j.LoggerFactory;
  * because a lot of {@link #exists(NodeId)} calls are issued that would result
  * in a useless persistence lookup if the desired bundle does not exist.
  * <p>
+ * Optionally, a second level {@link OffHeapBundleCache} can be configured that
+ * keeps serialized bundles outside of the Java heap. It is consulted after a
+ * miss in the bundle cache and before loading the bundle from the underlying
+ * system, which allows the bundle cache to stay small while the working set
+ * still fits into memory.
+ * <p>
+ * If the persistence manager context provides a {@link CacheManager}, the
+ * bundle cache is added to it with its configured size as budget. When
+ * adaptive cache sizing is enabled, the cache manager then moves memory
+ * between the bundle caches and the item state caches by the measured cost
+ * of their cache misses. The off-heap bundle cache is added as an unmanaged
+ * cache, so it keeps its configured size and its direct memory is never
+ * handed to the heap caches.
+ * <p>
+ * The bundle cache is a {@link ConcurrentCache} by default. Setting the
+ * <code>bundleCacheType</code> parameter to "clock" selects a
+ * {@link ClockCache} instead, which does not lock on cache hits and scales
+ * better when many threads read the same bundles concurrently.
+ * <p>
+ * In a cluster, the bundle cache entries of nodes changed by other cluster
+ * nodes are normally evicted and loaded again on the next access. When the
+ * <code>maxJournalBundleSize</code> parameter is set, the serialized bundles
+ * of stored nodes up to that size are attached to the change log, so that
+ * they are sent along with the journal record and other cluster nodes can
+ * replace their cached bundles without loading them.
+ * <p>
  * Configuration:<br>
  * <ul>
  * <li>&lt;param name="{@link #setBundleCacheSize(String) bundleCacheSize}" value="8"/>
+ * <li>&lt;param name="{@link #setBundleCacheType(String) bundleCacheType}" value="lru"/>
+ * <li>&lt;param name="{@link #setOffHeapBundleCacheSize(String) offHeapBundleCacheSize}" value="0"/>
+ * <li>&lt;param name="{@link #setMaxJournalBundleSize(String) maxJournalBundleSize}" value="0"/>
+ * <li>&lt;param name="{@link #setPrefetchSize(String) prefetchSize}" value="0"/>
  * </ul>
  */
 public abstract class AbstractBundlePersistenceManager implements
-    PersistenceManager, CachingPersistenceManager, IterablePersistenceManager, CacheAccessListener, ConsistencyChecker {
+    PersistenceManager, CachingPersistenceManager, IterablePersistenceManager,
+    PrefetchingPersistenceManager, CacheAccessListener, ConsistencyChecker {
 
     /** the audit logger */
     private static Logger auditLogger = LoggerFactory.getLogger("org.apache.jackrabbit.core.audit");
@@ -115,14 +160,18 @@ public abstract class AbstractBundlePersistenceManager implements
     /** the name of the namespace-index resource */
     protected static final String RES_NS_INDEX = "/namespaces.properties";
 
+    /** the name of the file that records the progress of a consistency check */
+    private static final String CONSISTENCY_CHECKPOINT = "consistencyCheck.properties";
+
     /** Sentinel instance used to mark a non-existent bundle in the cache */
     private static final NodePropBundle MISSING =
         new NodePropBundle(NodeId.randomId());
 
     /**
      * The size estimate for the MISSING NodePropBundle. The sum of:
-     * - ConcurrentCache.E: 32 bytes
-     * - LinkedHashMap.Entry: 64 bytes
+     * - ConcurrentCache.E or ClockCache.E: 32 bytes
+     * - the map entry, a LinkedHashMap.Entry of a ConcurrentCache segment
+     *   or a ConcurrentHashMap entry of a ClockCache: at most 64 bytes
      * - NodeId: 32 bytes
      */
     private static final long MISSING_SIZE_ESTIMATE = 128;
@@ -134,7 +183,10 @@ public abstract class AbstractBundlePersistenceManager implements
     private StringIndex nameIndex;
 
     /** the cache of loaded bundles */
-    private ConcurrentCache<NodeId, NodePropBundle> bundles;
+    private KeyValueCache<NodeId, NodePropBundle> bundles;
+
+    /** the second level cache of serialized bundles, or <code>null</code> */
+    private OffHeapBundleCache offHeapBundles;
 
     /** The default minimum stats logging interval (in ms). */
     private static final int DEFAULT_LOG_STATS_INTERVAL = 60 * 1000;
@@ -154,6 +206,18 @@ public abstract class AbstractBundlePersistenceManager implements
     /** default size of the bundle cache */
     private long bundleCacheSize = 8 * 1024 * 1024;
 
+    /** type of the bundle cache, "lru" or "clock" */
+    private String bundleCacheType = "lru";
+
+    /** default size of the off-heap bundle cache (disabled) */
+    private long offHeapBundleCacheSize = 0;
+
+    /** maximum size of a bundle sent along with a journal record (disabled) */
+    private int maxJournalBundleSize = 0;
+
+    /** maximum number of prefetched sibling bundles (disabled) */
+    private int prefetchSize = 0;
+
     /** Counter of read operations. */
     private AtomicLong readCounter;
 
@@ -175,6 +239,15 @@ public abstract class AbstractBundlePersistenceManager implements
     /** Counter of bundle cache size. */
     private AtomicLong cacheSizeCounter;
 
+    /** Counter of off-heap bundle cache hits. */
+    private AtomicLong offHeapCacheHitCounter;
+
+    /** Counter of off-heap bundle cache misses. */
+    private AtomicLong offHeapCacheMissCounter;
+
+    /** Counter of off-heap bundle cache size. */
+    private AtomicLong offHeapCacheSizeCounter;
+
     /** The update event channel to use by the consistency checker when fixing inconsistencies */
     private UpdateEventChannel eventChannel;
 
@@ -196,6 +269,95 @@ public abstract class AbstractBundlePersistenceManager implements
         this.bundleCacheSize = Long.parseLong(bundleCacheSize) * 1024 * 1024;
     }
 
+    /**
+     * Returns the type of the bundle cache.
+     * @return "lru" or "clock"
+     */
+    public String getBundleCacheType() {
+        return bundleCacheType;
+    }
+
+    /**
+     * Sets the type of the bundle cache. "lru", the default, selects a
+     * segmented LRU cache where every access locks one of the segments.
+     * "clock" selects a cache that approximates LRU with the CLOCK
+     * algorithm and does not lock on cache hits.
+     *
+     * @param bundleCacheType "lru" or "clock"
+     */
+    public void setBundleCacheType(String bundleCacheType) {
+        if (!"lru".equals(bundleCacheType)
+                && !"clock".equals(bundleCacheType)) {
+            throw new IllegalArgumentException(
+                    "Unknown bundle cache type: " + bundleCacheType);
+        }
+        this.bundleCacheType = bundleCacheType;
+    }
+
+    /**
+     * Returns the size of the off-heap bundle cache in megabytes.
+     * @return the size of the off-heap bundle cache in megabytes.
+     */
+    public String getOffHeapBundleCacheSize() {
+        return String.valueOf(offHeapBundleCacheSize / (1024 * 1024));
+    }
+
+    /**
+     * Sets the size of the off-heap bundle cache in megabytes. The memory
+     * is allocated as direct memory when the persistence manager is
+     * initialized, so the JVM needs to be started with a large enough
+     * <code>-XX:MaxDirectMemorySize</code>. The default is 0, which
+     * disables the off-heap bundle cache.
+     *
+     * @param offHeapBundleCacheSize the off-heap bundle cache size in megabytes.
+     */
+    public void setOffHeapBundleCacheSize(String offHeapBundleCacheSize) {
+        this.offHeapBundleCacheSize =
+            Long.parseLong(offHeapBundleCacheSize) * 1024 * 1024;
+    }
+
+    /**
+     * Returns the maximum size in bytes of a serialized bundle that is sent
+     * along with the journal record of a change.
+     * @return the maximum size of a journal bundle in bytes.
+     */
+    public String getMaxJournalBundleSize() {
+        return String.valueOf(maxJournalBundleSize);
+    }
+
+    /**
+     * Sets the maximum size in bytes of a serialized bundle that is sent
+     * along with the journal record of a change. Other cluster nodes use
+     * these bundles to update their bundle cache, and evict the bundles of
+     * changed nodes that exceed this size as usual. The default is 0, which
+     * disables sending bundles. All cluster nodes must support reading
+     * bundles from journal records before this is enabled.
+     *
+     * @param maxJournalBundleSize the maximum size of a journal bundle in bytes.
+     */
+    public void setMaxJournalBundleSize(String maxJournalBundleSize) {
+        this.maxJournalBundleSize = Integer.parseInt(maxJournalBundleSize);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getPrefetchSize() {
+        return prefetchSize;
+    }
+
+    /**
+     * Sets the maximum number of sibling bundles that are loaded with a
+     * single call to {@link #loadBundles(Collection)} when the shared item
+     * state manager detects that the child nodes of a node are read in
+     * order. The default is 0, which disables prefetching.
+     *
+     * @param prefetchSize the maximum number of prefetched bundles.
+     */
+    public void setPrefetchSize(String prefetchSize) {
+        this.prefetchSize = Integer.parseInt(prefetchSize);
+    }
+
     /**
      * Creates the folder path for the given node id that is suitable for
      * storing states in a filesystem.
@@ -350,15 +512,50 @@ public abstract class AbstractBundlePersistenceManager implements
      * {@inheritDoc}
      */
     public synchronized void onExternalUpdate(ChangeLog changes) {
+        Map<NodeId, byte[]> data = changes.getBundles();
         for (ItemState state : changes.modifiedStates()) {
-            bundles.remove(getBundleId(state));
+            updateBundle(getBundleId(state), data);
         }
         for (ItemState state : changes.deletedStates()) {
-            bundles.remove(getBundleId(state));
+            evictBundle(getBundleId(state));
         }
         for (ItemState state : changes.addedStates()) {
             // There may have been a cache miss entry
-            bundles.remove(getBundleId(state));
+            updateBundle(getBundleId(state), data);
+        }
+    }
+
+    /**
+     * Replaces a cached bundle that was changed by another cluster node with
+     * the serialized bundle sent along with the change, or evicts it if
+     * there is none. Like in {@link #putBundle(NodePropBundle)}, bundles
+     * are only cached if they already are.
+     *
+     * @param id the id of the changed bundle
+     * @param data serialized bundles of the change
+     */
+    private void updateBundle(NodeId id, Map<NodeId, byte[]> data) {
+        byte[] bytes = data.get(id);
+        BundleBinding binding = getBundleBinding();
+        if (bytes == null || binding == null) {
+            evictBundle(id);
+            return;
+        }
+        if (bundles.containsKey(id)) {
+            try {
+                NodePropBundle bundle =
+                    binding.readBundle(new ByteArrayInputStream(bytes), id);
+                bundle.markOld();
+                bundles.put(id, bundle, bundle.getSize());
+            } catch (IOException e) {
+                log.warn("Failed to read bundle " + id
+                        + " of an external update", e);
+                evictBundle(id);
+                return;
+            }
+        }
+        if (offHeapBundles != null && offHeapBundles.containsKey(id)) {
+            offHeapBundles.put(id, bytes);
         }
     }
 
@@ -382,6 +579,37 @@ public abstract class AbstractBundlePersistenceManager implements
         return infos;
     }
 
+    /**
+     * Returns the bundles with identifiers greater than <code>after</code>
+     * in the order of {@link #getAllNodeIds(NodeId, int)}. The bundles are
+     * read from the underlying system and are not added to the bundle
+     * cache, so this method can be used to scan all bundles without
+     * displacing the cached ones. The default implementation loads the
+     * bundles of the returned node ids with {@link #loadBundles(Collection)};
+     * subclasses should override this method if the underlying system can
+     * read the identifiers and bundles in a single pass.
+     *
+     * @param after the lower limit, or null for no limit.
+     * @param maxCount the maximum number of bundles to return, or 0 for no
+     *                 limit.
+     * @return the bundles
+     * @throws ItemStateException if an error while loading occurs.
+     * @throws RepositoryException if a repository exception occurs.
+     */
+    public List<NodePropBundle> getAllBundles(NodeId after, int maxCount)
+            throws ItemStateException, RepositoryException {
+        List<NodeId> ids = getAllNodeIds(after, maxCount);
+        Map<NodeId, NodePropBundle> loaded = loadBundles(ids);
+        List<NodePropBundle> bundles = new ArrayList<NodePropBundle>(ids.size());
+        for (NodeId id : ids) {
+            NodePropBundle bundle = loaded.get(id);
+            if (bundle != null) {
+                bundles.add(bundle);
+            }
+        }
+        return bundles;
+    }
+
     //----------------------------------------------------------------< spi >---
 
     /**
@@ -395,6 +623,30 @@ public abstract class AbstractBundlePersistenceManager implements
     protected abstract NodePropBundle loadBundle(NodeId id)
             throws ItemStateException;
 
+    /**
+     * Loads a number of bundles from the underlying system. The default
+     * implementation calls {@link #loadBundle(NodeId)} for each of the given
+     * identifiers. Subclasses should override this method if the underlying
+     * system can load several bundles in a single round trip.
+     *
+     * @param ids the node ids of the bundles
+     * @return the loaded bundles, keyed by node id. Bundles that do not
+     *         exist are not included.
+     * @throws ItemStateException if an error while loading occurs.
+     */
+    protected Map<NodeId, NodePropBundle> loadBundles(Collection<NodeId> ids)
+            throws ItemStateException {
+        Map<NodeId, NodePropBundle> result =
+            new HashMap<NodeId, NodePropBundle>(ids.size() * 2);
+        for (NodeId id : ids) {
+            NodePropBundle bundle = loadBundle(id);
+            if (bundle != null) {
+                result.put(id, bundle);
+            }
+        }
+        return result;
+    }
+
     /**
      * Stores a bundle to the underlying system.
      *
@@ -439,6 +691,18 @@ public abstract class AbstractBundlePersistenceManager implements
      */
     protected abstract BLOBStore getBlobStore();
 
+    /**
+     * Returns the bundle binding used by this persistence manager to
+     * serialize bundles. The binding is used to keep bundles in the
+     * off-heap bundle cache. The default implementation returns
+     * <code>null</code>, which disables the off-heap bundle cache.
+     *
+     * @return bundle binding, or <code>null</code>
+     */
+    protected BundleBinding getBundleBinding() {
+        return null;
+    }
+
     //-------------------------------------------------< PersistenceManager >---
 
     /**
@@ -449,9 +713,17 @@ public abstract class AbstractBundlePersistenceManager implements
     public void init(PMContext context) throws Exception {
         this.context = context;
         // init bundle cache
-        bundles = new ConcurrentCache<NodeId, NodePropBundle>(context.getHomeDir().getName() + "BundleCache");
+        String bundleCacheName = context.getHomeDir().getName() + "BundleCache";
+        if ("clock".equals(bundleCacheType)) {
+            bundles = new ClockCache<NodeId, NodePropBundle>(bundleCacheName);
+        } else {
+            bundles = new ConcurrentCache<NodeId, NodePropBundle>(bundleCacheName);
+        }
         bundles.setMaxMemorySize(bundleCacheSize);
         bundles.setAccessListener(this);
+        if (context.getCacheManager() != null) {
+            context.getCacheManager().add(bundles, bundleCacheSize);
+        }
 
         // statistics
         RepositoryStatisticsImpl stats = context.getRepositoryStatistics();
@@ -469,6 +741,24 @@ public abstract class AbstractBundlePersistenceManager implements
                 RepositoryStatistics.Type.BUNDLE_CACHE_MISS_COUNTER);
         cacheMissDuration = stats.getCounter(
                 RepositoryStatistics.Type.BUNDLE_CACHE_MISS_DURATION);
+        offHeapCacheHitCounter = stats.getCounter(
+                RepositoryStatistics.Type.BUNDLE_OFFHEAP_CACHE_HIT_COUNTER);
+        offHeapCacheMissCounter = stats.getCounter(
+                RepositoryStatistics.Type.BUNDLE_OFFHEAP_CACHE_MISS_COUNTER);
+        offHeapCacheSizeCounter = stats.getCounter(
+                RepositoryStatistics.Type.BUNDLE_OFFHEAP_CACHE_SIZE_COUNTER);
+
+        // init off-heap bundle cache
+        if (offHeapBundleCacheSize > 0) {
+            offHeapBundles = new OffHeapBundleCache(
+                    context.getHomeDir().getName() + "OffHeapBundleCache",
+                    offHeapBundleCacheSize);
+            offHeapBundles.setSizeCounter(offHeapCacheSizeCounter);
+            if (context.getCacheManager() != null) {
+                // direct memory must not be handed to the heap caches
+                context.getCacheManager().addUnmanaged(offHeapBundles);
+            }
+        }
     }
 
     /**
@@ -477,8 +767,13 @@ public abstract class AbstractBundlePersistenceManager implements
      *  Closes the persistence manager, release acquired resources.
      */
     public void close() throws Exception {
-        // clear caches
-        bundles.clear();
+        clearBundleCache();
+        if (context != null && context.getCacheManager() != null) {
+            context.getCacheManager().remove(bundles);
+            if (offHeapBundles != null) {
+                context.getCacheManager().remove(offHeapBundles);
+            }
+        }
     }
 
     /**
@@ -502,36 +797,52 @@ public abstract class AbstractBundlePersistenceManager implements
     public PropertyState load(PropertyId id) throws NoSuchItemStateException, ItemStateException {
         NodePropBundle bundle = getBundle(id.getParentId());
         if (bundle != null) {
-            PropertyState state = createNew(id);
-            PropertyEntry p = bundle.getPropertyEntry(id.getName());
-            if (p != null) {
-                state.setMultiValued(p.isMultiValued());
-                state.setType(p.getType());
-                state.setValues(p.getValues());
-                state.setModCount(p.getModCount());
-            } else if (id.getName().equals(JCR_UUID)) {
-                state.setType(PropertyType.STRING);
-                state.setMultiValued(false);
-                state.setValues(new InternalValue[] {
-                        InternalValue.create(id.getParentId().toString()) });
-            } else if (id.getName().equals(JCR_PRIMARYTYPE)) {
-                state.setType(PropertyType.NAME);
-                state.setMultiValued(false);
-                state.setValues(new InternalValue[] {
-                        InternalValue.create(bundle.getNodeTypeName()) });
-            } else if (id.getName().equals(JCR_MIXINTYPES)) {
-                state.setType(PropertyType.NAME);
-                state.setMultiValued(true);
-                Set<Name> mixins = bundle.getMixinTypeNames();
-                state.setValues(InternalValue.create(
-                        mixins.toArray(new Name[mixins.size()])));
-            } else {
-                throw new NoSuchItemStateException(id.toString());
-            }
-            return state;
+            return createPropertyState(bundle, id);
+        } else {
+            throw new NoSuchItemStateException(id.toString());
+        }
+    }
+
+    /**
+     * Creates the state of a property of the given bundle. The
+     * <code>jcr:uuid</code>, <code>jcr:primaryType</code> and
+     * <code>jcr:mixinTypes</code> properties are created from the bundle
+     * fields.
+     *
+     * @param bundle the bundle of the parent node of the property
+     * @param id the property id
+     * @return the property state
+     * @throws NoSuchItemStateException if the bundle has no such property
+     */
+    public PropertyState createPropertyState(NodePropBundle bundle, PropertyId id)
+            throws NoSuchItemStateException {
+        PropertyState state = createNew(id);
+        PropertyEntry p = bundle.getPropertyEntry(id.getName());
+        if (p != null) {
+            state.setMultiValued(p.isMultiValued());
+            state.setType(p.getType());
+            state.setValues(p.getValues());
+            state.setModCount(p.getModCount());
+        } else if (id.getName().equals(JCR_UUID)) {
+            state.setType(PropertyType.STRING);
+            state.setMultiValued(false);
+            state.setValues(new InternalValue[] {
+                    InternalValue.create(id.getParentId().toString()) });
+        } else if (id.getName().equals(JCR_PRIMARYTYPE)) {
+            state.setType(PropertyType.NAME);
+            state.setMultiValued(false);
+            state.setValues(new InternalValue[] {
+                    InternalValue.create(bundle.getNodeTypeName()) });
+        } else if (id.getName().equals(JCR_MIXINTYPES)) {
+            state.setType(PropertyType.NAME);
+            state.setMultiValued(true);
+            Set<Name> mixins = bundle.getMixinTypeNames();
+            state.setValues(InternalValue.create(
+                    mixins.toArray(new Name[mixins.size()])));
         } else {
             throw new NoSuchItemStateException(id.toString());
         }
+        return state;
     }
 
     /**
@@ -563,6 +874,40 @@ public abstract class AbstractBundlePersistenceManager implements
         return getBundle(id) != null;
     }
 
+    //--------------------------------------< PrefetchingPersistenceManager >--
+
+    /**
+     * {@inheritDoc}
+     *
+     * Loads all bundles that are not yet in the bundle cache with a single
+     * call to {@link #loadBundles(Collection)}. This method synchronizes on
+     * the persistence manager instance to prevent it from caching a bundle
+     * that is concurrently being stored.
+     */
+    public synchronized void prefetch(Collection<NodeId> ids)
+            throws ItemStateException {
+        List<NodeId> missing = new ArrayList<NodeId>(ids.size());
+        for (NodeId id : ids) {
+            if (!bundles.containsKey(id)) {
+                missing.add(id);
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+
+        long time = System.nanoTime();
+        log.debug("Prefetching {} bundles", missing.size());
+        Map<NodeId, NodePropBundle> loaded = loadBundles(missing);
+        cacheMissDuration.addAndGet(System.nanoTime() - time);
+        cacheMissCounter.addAndGet(missing.size());
+        for (NodePropBundle bundle : loaded.values()) {
+            bundle.markOld();
+            bundles.put(bundle.getId(), bundle, bundle.getSize());
+            putOffHeapBundle(bundle);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -594,7 +939,7 @@ public abstract class AbstractBundlePersistenceManager implements
             success = true;
         } finally {
             if (!success) {
-                bundles.clear();
+                clearBundleCache();
             }
         }
     }
@@ -714,6 +1059,9 @@ public abstract class AbstractBundlePersistenceManager implements
         for (NodePropBundle bundle : modified.values()) {
             putBundle(bundle);
             updateSize += bundle.getSize();
+            if (maxJournalBundleSize > 0) {
+                putJournalBundle(changeLog, bundle);
+            }
         }
         changeLog.setUpdateSize(updateSize);
 
@@ -762,11 +1110,21 @@ public abstract class AbstractBundlePersistenceManager implements
      */
     private NodePropBundle getBundleCacheMiss(NodeId id)
             throws ItemStateException {
-        long time = System.nanoTime();
-        log.debug("Loading bundle {}", id);
-        NodePropBundle bundle = loadBundle(id);
-        cacheMissDuration.addAndGet(System.nanoTime() - time);
-        cacheMissCounter.incrementAndGet();
+        long start = System.nanoTime();
+        NodePropBundle bundle = getOffHeapBundle(id);
+        if (bundle == null) {
+            long time = System.nanoTime();
+            log.debug("Loading bundle {}", id);
+            bundle = loadBundle(id);
+            cacheMissDuration.addAndGet(System.nanoTime() - time);
+            cacheMissCounter.incrementAndGet();
+            if (bundle != null) {
+                putOffHeapBundle(bundle);
+            }
+        }
+        if (bundles instanceof AbstractCache) {
+            ((AbstractCache) bundles).recordMissDuration(System.nanoTime() - start);
+        }
         if (bundle != null) {
             bundle.markOld();
             bundles.put(id, bundle, bundle.getSize());
@@ -786,6 +1144,89 @@ public abstract class AbstractBundlePersistenceManager implements
         destroyBundle(bundle);
         bundle.removeAllProperties(getBlobStore());
         bundles.put(bundle.getId(), MISSING, MISSING_SIZE_ESTIMATE);
+        if (offHeapBundles != null) {
+            offHeapBundles.remove(bundle.getId());
+        }
+    }
+
+    /**
+     * Returns the bundle with the given id from the off-heap bundle cache.
+     *
+     * @param id the id of the bundle
+     * @return the deserialized bundle, or <code>null</code> if the off-heap
+     *         cache is disabled or does not contain the bundle
+     */
+    private NodePropBundle getOffHeapBundle(NodeId id) {
+        BundleBinding binding = getBundleBinding();
+        if (offHeapBundles == null || binding == null) {
+            return null;
+        }
+        byte[] data = offHeapBundles.get(id);
+        if (data == null) {
+            offHeapCacheMissCounter.incrementAndGet();
+            return null;
+        }
+        try {
+            NodePropBundle bundle =
+                binding.readBundle(new ByteArrayInputStream(data), id);
+            offHeapCacheHitCounter.incrementAndGet();
+            return bundle;
+        } catch (IOException e) {
+            log.warn("Failed to read bundle " + id
+                    + " from the off-heap bundle cache", e);
+            offHeapBundles.remove(id);
+            offHeapCacheMissCounter.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Serializes the given bundle to the off-heap bundle cache, if enabled.
+     * Failures are logged and otherwise ignored, as the bundle can always
+     * be loaded from the underlying system.
+     *
+     * @param bundle the bundle to cache
+     */
+    private void putOffHeapBundle(NodePropBundle bundle) {
+        BundleBinding binding = getBundleBinding();
+        if (offHeapBundles == null || binding == null) {
+            return;
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+            binding.writeBundle(out, bundle);
+            offHeapBundles.put(bundle.getId(), out.toByteArray());
+        } catch (IOException e) {
+            log.warn("Failed to write bundle " + bundle.getId()
+                    + " to the off-heap bundle cache", e);
+            offHeapBundles.remove(bundle.getId());
+        }
+    }
+
+    /**
+     * Attaches the serialized bundle to the change log, so that it is sent
+     * along with the journal record of the change, unless it is larger than
+     * the configured maximum. Failures are logged and otherwise ignored, as
+     * other cluster nodes then evict the bundle from their cache.
+     *
+     * @param changeLog the change log that is stored
+     * @param bundle the stored bundle
+     */
+    private void putJournalBundle(ChangeLog changeLog, NodePropBundle bundle) {
+        BundleBinding binding = getBundleBinding();
+        if (binding == null) {
+            return;
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+            binding.writeBundle(out, bundle);
+            if (out.size() <= maxJournalBundleSize) {
+                changeLog.setBundle(bundle.getId(), out.toByteArray());
+            }
+        } catch (IOException e) {
+            log.warn("Failed to write bundle " + bundle.getId()
+                    + " to the journal", e);
+        }
     }
 
     /**
@@ -811,6 +1252,9 @@ public abstract class AbstractBundlePersistenceManager implements
         if (bundles.containsKey(bundle.getId())) {
             bundles.put(bundle.getId(), bundle, bundle.getSize());
         }
+        if (offHeapBundles != null && offHeapBundles.containsKey(bundle.getId())) {
+            putOffHeapBundle(bundle);
+        }
     }
 
     /**
@@ -818,7 +1262,7 @@ public abstract class AbstractBundlePersistenceManager implements
      */
     public void checkConsistency(String[] uuids, boolean recursive, boolean fix) {
         try {
-            ConsistencyCheckerImpl checker = new ConsistencyCheckerImpl(this, null, null, eventChannel);
+            ConsistencyCheckerImpl checker = createConsistencyChecker(null, null);
             checker.check(uuids, recursive);
             checker.doubleCheckErrors();
             if (fix) {
@@ -839,7 +1283,7 @@ public abstract class AbstractBundlePersistenceManager implements
     public ConsistencyReport check(String[] uuids, boolean recursive,
             boolean fix, String lostNFoundId, ConsistencyCheckListener listener)
             throws RepositoryException {
-        ConsistencyCheckerImpl checker = new ConsistencyCheckerImpl(this, listener, lostNFoundId, eventChannel);
+        ConsistencyCheckerImpl checker = createConsistencyChecker(lostNFoundId, listener);
         checker.check(uuids, recursive);
         checker.doubleCheckErrors();
         if (fix) {
@@ -848,6 +1292,24 @@ public abstract class AbstractBundlePersistenceManager implements
         return checker.getReport();
     }
 
+    /**
+     * Creates a consistency checker that records the progress of a check of
+     * all nodes in the home directory of this persistence manager, so that
+     * an interrupted check can be resumed if that is explicitly requested
+     * with the <code>org.apache.jackrabbit.checker.resume</code> system
+     * property.
+     */
+    private ConsistencyCheckerImpl createConsistencyChecker(
+            String lostNFoundId, ConsistencyCheckListener listener) {
+        ConsistencyCheckerImpl checker = new ConsistencyCheckerImpl(
+                this, listener, lostNFoundId, eventChannel);
+        if (context != null && context.getHomeDir() != null) {
+            checker.setCheckpointFile(
+                    new File(context.getHomeDir(), CONSISTENCY_CHECKPOINT));
+        }
+        return checker;
+    }
+
     /**
      * Evicts the bundle with <code>id</code> from the bundle cache.
      *
@@ -855,6 +1317,21 @@ public abstract class AbstractBundlePersistenceManager implements
      */
     protected void evictBundle(NodeId id) {
         bundles.remove(id);
+        if (offHeapBundles != null) {
+            offHeapBundles.remove(id);
+        }
+    }
+
+    /**
+     * Removes all bundles from the bundle caches. Used when the cached
+     * bundles may no longer match the persistent state, for example after
+     * a failed store operation.
+     */
+    protected void clearBundleCache() {
+        bundles.clear();
+        if (offHeapBundles != null) {
+            offHeapBundles.clear();
+        }
     }
 
     public void cacheAccessed(long accessCount) {
@@ -870,6 +1347,9 @@ public abstract class AbstractBundlePersistenceManager implements
                 return;
             }
             log.info(bundles.getCacheInfoAsString());
+            if (offHeapBundles != null) {
+                log.info(offHeapBundles.getCacheInfoAsString());
+            }
             nextLogStats = now + minLogStatsInterval;
         }
     }
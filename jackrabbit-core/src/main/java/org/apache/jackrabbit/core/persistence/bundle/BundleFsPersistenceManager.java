@@ -52,6 +52,7 @@ import java.util.List;
  * <ul>
  * <li>&lt;param name="{@link #setBlobFSBlockSize(String) blobFSBlockSize}" value="0"/>
  * <li>&lt;param name="{@link #setMinBlobSize(String) minBlobSize}" value="4096"/>
+ * <li>&lt;param name="{@link #setCompressBundles(String) compressBundles}" value="false"/>
  * <li>&lt;param name="{@link #setErrorHandling(String) errorHandling}" value=""/>
  * </ul>
  */
@@ -78,6 +79,12 @@ public class BundleFsPersistenceManager extends AbstractBundlePersistenceManager
      */
     private int minBlobSize = 0x1000;
 
+    /**
+     * flag indicating if large bundles are written in compressed form
+     * @see #setCompressBundles(String)
+     */
+    private boolean compressBundles = false;
+
     /**
      * the filesystem where the items are stored
      */
@@ -151,6 +158,26 @@ public class BundleFsPersistenceManager extends AbstractBundlePersistenceManager
         this.minBlobSize = Integer.decode(minBlobSize).intValue();
     }
 
+    /**
+     * Returns whether large bundles are compressed.
+     * @return "true" if large bundles are compressed.
+     */
+    public String getCompressBundles() {
+        return Boolean.toString(compressBundles);
+    }
+
+    /**
+     * Sets whether large bundles are compressed before they are written.
+     * Compressed and uncompressed bundles can always be read, so this can
+     * be changed on an existing workspace.
+     *
+     * @param compressBundles "true" to compress large bundles
+     * @see BundleBinding#setCompressBundles(boolean)
+     */
+    public void setCompressBundles(String compressBundles) {
+        this.compressBundles = Boolean.valueOf(compressBundles).booleanValue();
+    }
+
     /**
      * Sets the error handling behaviour of this manager. See {@link ErrorHandling}
      * for details about the flags.
@@ -196,6 +223,7 @@ public class BundleFsPersistenceManager extends AbstractBundlePersistenceManager
         // load namespaces
         binding = new BundleBinding(errorHandling, blobStore, getNsIndex(), getNameIndex(), context.getDataStore());
         binding.setMinBlobSize(minBlobSize);
+        binding.setCompressBundles(compressBundles);
 
         initialized = true;
     }
@@ -208,6 +236,14 @@ public class BundleFsPersistenceManager extends AbstractBundlePersistenceManager
         return blobStore;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected BundleBinding getBundleBinding() {
+        return binding;
+    }
+
     /**
      * {@inheritDoc}
      */
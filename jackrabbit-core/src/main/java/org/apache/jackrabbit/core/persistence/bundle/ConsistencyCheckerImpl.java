@@ -16,6 +16,12 @@
  */
 package org.apache.jackrabbit.core.persistence.bundle;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -23,8 +29,13 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import javax.jcr.RepositoryException;
 
@@ -60,6 +71,23 @@ public class ConsistencyCheckerImpl {
      */
     private static final int NODESATONCE = Integer.getInteger("org.apache.jackrabbit.checker.nodesatonce", 1024 * 8);
 
+    /**
+     * The number of threads that check ranges of nodes in parallel. Defaults to the number of processors.
+     */
+    private static final int THREADS = Integer.getInteger(
+            "org.apache.jackrabbit.checker.threads", Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Whether a check of all nodes resumes after the node recorded in the checkpoint file. Defaults to false.
+     */
+    private static final boolean RESUME = Boolean.getBoolean("org.apache.jackrabbit.checker.resume");
+
+    /**
+     * Checkpoint property names.
+     */
+    private static final String CHECKPOINT_ID = "lastId";
+    private static final String CHECKPOINT_COUNT = "count";
+
     /**
      * Attribute name used to store the size of the update.
      */
@@ -73,6 +101,9 @@ public class ConsistencyCheckerImpl {
     private List<ConsistencyCheckerError> errors;
     private int nodeCount;
     private long elapsedTime;
+    private int threads = THREADS;
+    private File checkpointFile;
+    private boolean resume = RESUME;
 
     public ConsistencyCheckerImpl(AbstractBundlePersistenceManager pm, ConsistencyCheckListener listener,
                                   String lostNFoundId, final UpdateEventChannel eventChannel) {
@@ -86,6 +117,42 @@ public class ConsistencyCheckerImpl {
         }
     }
 
+    /**
+     * Sets the number of threads used to check all nodes.
+     *
+     * @param threads number of threads, at least one
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Sets the file used to record the progress of a check of all nodes.
+     * If {@link #setResume(boolean) resume} is enabled and the file exists
+     * when a check of all nodes starts, the check resumes after the recorded
+     * node. The file is deleted once all nodes have been checked.
+     *
+     * @param checkpointFile checkpoint file, or <code>null</code> to always
+     *                       check all nodes
+     */
+    public void setCheckpointFile(File checkpointFile) {
+        this.checkpointFile = checkpointFile;
+    }
+
+    /**
+     * Sets whether a check of all nodes resumes after the node recorded in
+     * the {@link #setCheckpointFile(File) checkpoint file} of an interrupted
+     * check. The errors found by the interrupted check are then not
+     * reported, so resuming must be requested explicitly. By default the
+     * system property <code>org.apache.jackrabbit.checker.resume</code>
+     * decides.
+     *
+     * @param resume <code>true</code> to resume an interrupted check
+     */
+    public void setResume(boolean resume) {
+        this.resume = resume;
+    }
+
     /**
      * Check the database for inconsistencies.
      *
@@ -222,38 +289,7 @@ public class ConsistencyCheckerImpl {
         if (uuids == null) {
             // check all nodes
             try {
-                Map<NodeId, NodeInfo> batch = pm.getAllNodeInfos(null, NODESATONCE);
-                Map<NodeId, NodeInfo> allInfos = batch;
-
-                NodeId lastId = null;
-                while (!batch.isEmpty()) {
-
-                    for (Map.Entry<NodeId, NodeInfo> entry : batch.entrySet()) {
-                        lastId = entry.getKey();
-
-                        count++;
-                        if (count % 1000 == 0) {
-                            log.info(pm + ": loaded " + count + " infos...");
-                        }
-
-                    }
-
-                    batch = pm.getAllNodeInfos(lastId, NODESATONCE);
-
-                    allInfos.putAll(batch);
-                }
-
-                if (pm.exists(lastId)) {
-                    for (Map.Entry<NodeId, NodeInfo> entry : allInfos.entrySet()) {
-                        checkBundleConsistency(entry.getKey(), entry.getValue(), allInfos);
-                    }
-                } else {
-                    log.info("Failed to read all nodes, starting over");
-                    internalCheckConsistency(uuids, recursive);
-                }
-
-            } catch (ItemStateException e) {
-                throw new RepositoryException("Error loading nodes", e);
+                count = checkAllNodes();
             } finally {
                 NodeInfo.clearPool();
             }
@@ -302,6 +338,311 @@ public class ConsistencyCheckerImpl {
         return count;
     }
 
+    /**
+     * Checks all nodes of the persistence manager. The nodes are read in
+     * ranges of {@link #NODESATONCE} in the iteration order of the
+     * persistence manager, and the ranges are checked in parallel. Parent
+     * and child nodes outside of a range are loaded when the range is
+     * checked, so only the ranges in progress need to be kept in memory.
+     * <p>
+     * If a checkpoint file is set, the last node of the completed ranges is
+     * recorded after each range. Only if {@link #setResume(boolean) resume}
+     * is enabled, a later check resumes after that node, and the errors
+     * found before the interruption are not reported again. The checkpoint
+     * is deleted once all nodes have been checked.
+     *
+     * @return number of nodes checked
+     */
+    private int checkAllNodes() throws RepositoryException {
+        CheckRun run = new CheckRun(resume ? readCheckpoint() : new Properties());
+        try {
+            if (run.startId != null) {
+                if (pm.exists(run.startId)) {
+                    info(null, "Resuming consistency check after node " + run.startId
+                            + " (" + run.startCount + " nodes checked before)");
+                } else {
+                    info(null, "Checkpoint node " + run.startId
+                            + " no longer exists, checking all nodes");
+                    run = new CheckRun(new Properties());
+                }
+            }
+            while (!checkRanges(run)) {
+                log.info("Failed to read all nodes, starting over");
+                synchronized (this) {
+                    errors.clear();
+                }
+                run = new CheckRun(new Properties());
+            }
+        } catch (ItemStateException e) {
+            throw new RepositoryException("Error loading nodes", e);
+        }
+        deleteCheckpoint();
+        return (int) run.count;
+    }
+
+    /**
+     * Reads the ranges of nodes after the start node of the given run and
+     * checks them in parallel.
+     *
+     * @return <code>false</code> if the last node of a range was removed
+     *         before the next range could be read, and the check needs to
+     *         start over
+     */
+    private boolean checkRanges(CheckRun run)
+            throws ItemStateException, RepositoryException {
+        boolean complete = true;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        // bound the number of ranges kept in memory
+        Semaphore permits = new Semaphore(threads * 2);
+        try {
+            NodeId lastId = run.startId;
+            long index = 0;
+            while (run.failure == null) {
+                Map<NodeId, NodeInfo> infos = pm.getAllNodeInfos(lastId, NODESATONCE);
+                if (infos.isEmpty()) {
+                    break;
+                }
+                for (NodeId id : infos.keySet()) {
+                    lastId = id;
+                }
+                permits.acquire();
+                executor.execute(new RangeCheck(run, index++, infos, lastId, permits));
+                if (!pm.exists(lastId)) {
+                    complete = false;
+                    break;
+                }
+            }
+            executor.shutdown();
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                // wait for the remaining ranges
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RepositoryException("Consistency check interrupted", e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (run.failure != null) {
+            throw new RepositoryException("Error checking nodes", run.failure);
+        }
+        return complete;
+    }
+
+    /**
+     * Checks the nodes of a single range. The nodes referenced by the range
+     * that are not part of it are loaded in a single batch.
+     */
+    private void checkRange(Map<NodeId, NodeInfo> infos) throws ItemStateException {
+        Set<NodeId> missing = new HashSet<NodeId>();
+        for (NodeInfo info : infos.values()) {
+            if (!isRoot(info.getId()) && isVirtualNode(info.getId())) {
+                continue;
+            }
+            for (NodeId childId : info.getChildren()) {
+                if (!isVirtualNode(childId) && !infos.containsKey(childId)) {
+                    missing.add(childId);
+                }
+            }
+            NodeId parentId = info.getParentId();
+            if (parentId != null && !infos.containsKey(parentId)) {
+                missing.add(parentId);
+            }
+        }
+
+        Map<NodeId, NodeInfo> lookup = new HashMap<NodeId, NodeInfo>(infos);
+        for (NodePropBundle bundle : pm.loadBundles(missing).values()) {
+            lookup.put(bundle.getId(), new NodeInfo(bundle));
+        }
+        for (Map.Entry<NodeId, NodeInfo> entry : infos.entrySet()) {
+            checkBundleConsistency(entry.getKey(), entry.getValue(), lookup);
+        }
+    }
+
+    /**
+     * Returns the estimated position of the given node in the iteration
+     * order of the persistence manager, between 0 and 1. Assumes random node
+     * identifiers iterated in the order of their binary representation.
+     */
+    private static double getPosition(NodeId id) {
+        if (id == null) {
+            return 0;
+        }
+        return (id.getMostSignificantBits() >>> 11) / (double) (1L << 53);
+    }
+
+    private void reportProgress(CheckRun run, NodeId lastId, long count) {
+        long elapsed = System.currentTimeMillis() - run.startTime;
+        long checked = count - run.startCount;
+        StringBuilder builder = new StringBuilder();
+        builder.append("Checked ").append(count).append(" nodes");
+        if (elapsed > 0) {
+            builder.append(" (").append(checked * 1000 / elapsed).append(" nodes/s)");
+        }
+        double start = getPosition(run.startId);
+        double done = (getPosition(lastId) - start) / (1 - start);
+        if (done > 0 && done <= 1) {
+            long eta = (long) (elapsed * (1 - done) / done) / 1000;
+            builder.append(", about ").append((int) (done * 100)).append("% done, ETA ");
+            builder.append(String.format("%d:%02d:%02d", eta / 3600, eta / 60 % 60, eta % 60));
+        }
+        info(null, builder.toString());
+    }
+
+    private Properties readCheckpoint() {
+        Properties checkpoint = new Properties();
+        if (checkpointFile != null && checkpointFile.exists()) {
+            try {
+                InputStream in = new FileInputStream(checkpointFile);
+                try {
+                    checkpoint.load(in);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                log.warn("Failed to read checkpoint " + checkpointFile + ", checking all nodes", e);
+                checkpoint.clear();
+            }
+        }
+        return checkpoint;
+    }
+
+    private void writeCheckpoint(NodeId lastId, long count) {
+        if (checkpointFile == null) {
+            return;
+        }
+        Properties checkpoint = new Properties();
+        checkpoint.setProperty(CHECKPOINT_ID, lastId.toString());
+        checkpoint.setProperty(CHECKPOINT_COUNT, Long.toString(count));
+        File temp = new File(checkpointFile.getPath() + ".tmp");
+        try {
+            OutputStream out = new FileOutputStream(temp);
+            try {
+                checkpoint.store(out, "Consistency check of " + pm);
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(checkpointFile)) {
+                checkpointFile.delete();
+                if (!temp.renameTo(checkpointFile)) {
+                    log.warn("Failed to write checkpoint " + checkpointFile);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Failed to write checkpoint " + checkpointFile, e);
+        }
+    }
+
+    private void deleteCheckpoint() {
+        if (checkpointFile != null && checkpointFile.exists()
+                && !checkpointFile.delete()) {
+            log.warn("Failed to delete checkpoint " + checkpointFile);
+        }
+    }
+
+    /**
+     * State of a check of all nodes. The ranges may complete in any order;
+     * the checkpoint only advances over ranges that have completed along
+     * with all ranges before them.
+     */
+    private class CheckRun {
+
+        private final NodeId startId;
+
+        private final long startCount;
+
+        private final long startTime = System.currentTimeMillis();
+
+        /**
+         * The last node and the number of nodes of completed ranges that
+         * can not yet be included in the checkpoint, by range index.
+         */
+        private final Map<Long, NodeId> pendingIds = new HashMap<Long, NodeId>();
+        private final Map<Long, Integer> pendingCounts = new HashMap<Long, Integer>();
+
+        private long nextIndex;
+
+        private long checkpointCount;
+
+        private long count;
+
+        private volatile Throwable failure;
+
+        private CheckRun(Properties checkpoint) {
+            String id = checkpoint.getProperty(CHECKPOINT_ID);
+            String count = checkpoint.getProperty(CHECKPOINT_COUNT);
+            if (id != null && count != null) {
+                startId = new NodeId(id);
+                startCount = Long.parseLong(count);
+            } else {
+                startId = null;
+                startCount = 0;
+            }
+            checkpointCount = startCount;
+        }
+
+        private void rangeCompleted(long index, NodeId lastId, int size) {
+            NodeId checkpointId = null;
+            long total;
+            synchronized (this) {
+                count += size;
+                pendingIds.put(index, lastId);
+                pendingCounts.put(index, size);
+                while (pendingIds.containsKey(nextIndex)) {
+                    checkpointId = pendingIds.remove(nextIndex);
+                    checkpointCount += pendingCounts.remove(nextIndex);
+                    nextIndex++;
+                }
+                if (checkpointId == null) {
+                    return;
+                }
+                total = checkpointCount;
+                // the pool only needs to deduplicate the ids of a range
+                NodeInfo.clearPool();
+                writeCheckpoint(checkpointId, total);
+            }
+            reportProgress(this, checkpointId, total);
+        }
+
+    }
+
+    private class RangeCheck implements Runnable {
+
+        private final CheckRun run;
+
+        private final long index;
+
+        private final Map<NodeId, NodeInfo> infos;
+
+        private final NodeId lastId;
+
+        private final Semaphore permits;
+
+        private RangeCheck(CheckRun run, long index, Map<NodeId, NodeInfo> infos,
+                           NodeId lastId, Semaphore permits) {
+            this.run = run;
+            this.index = index;
+            this.infos = infos;
+            this.lastId = lastId;
+            this.permits = permits;
+        }
+
+        public void run() {
+            try {
+                if (run.failure == null) {
+                    checkRange(infos);
+                    run.rangeCompleted(index, lastId, infos.size());
+                }
+            } catch (Throwable t) {
+                log.error(pm + ": Error checking nodes after " + lastId, t);
+                run.failure = t;
+            } finally {
+                permits.release();
+            }
+        }
+
+    }
+
     /**
      * Checks a single bundle for inconsistencies, ie. inexistent child nodes, inexistent parents, and other
      * structural inconsistencies.
@@ -318,7 +659,9 @@ public class ConsistencyCheckerImpl {
         }
 
         if (listener != null) {
-            listener.startCheck(nodeId.toString());
+            synchronized (this) {
+                listener.startCheck(nodeId.toString());
+            }
         }
 
         // check the children
@@ -374,14 +717,14 @@ public class ConsistencyCheckerImpl {
         return "cafebabe-cafe-babe-cafe-babecafebabe".equals(nodeId.toString());
     }
 
-    private void addError(ConsistencyCheckerError error) {
+    private synchronized void addError(ConsistencyCheckerError error) {
         if (listener != null) {
             listener.report(error.getReportItem());
         }
         errors.add(error);
     }
 
-    private void info(String id, String message) {
+    private synchronized void info(String id, String message) {
         if (this.listener == null) {
             String idstring = id == null ? "" : ("Node " + id + ": ");
             log.info(idstring + message);
@@ -390,7 +733,7 @@ public class ConsistencyCheckerImpl {
         }
     }
 
-    private void error(String id, String message) {
+    private synchronized void error(String id, String message) {
         if (this.listener == null) {
             String idstring = id == null ? "" : ("Node " + id + ": ");
             log.error(idstring + message);
@@ -399,7 +742,7 @@ public class ConsistencyCheckerImpl {
         }
     }
 
-    private void error(String id, String message, Throwable ex) {
+    private synchronized void error(String id, String message, Throwable ex) {
         String idstring = id == null ? "" : ("Node " + id + ": ");
         log.error(idstring + message, ex);
         if (listener != null) {
@@ -0,0 +1,392 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.persistence.bundle;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.persistence.PMContext;
+import org.apache.jackrabbit.core.persistence.util.NodePropBundle;
+import org.apache.jackrabbit.core.persistence.util.SegmentStore;
+import org.apache.jackrabbit.core.state.ChangeLog;
+import org.apache.jackrabbit.core.state.ItemStateException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistence manager that appends the {@link NodePropBundle}s to large
+ * memory-mapped segment files instead of writing each bundle to a file of
+ * its own. Bundles are read directly from the mapped segments, and all
+ * bundles of a change log are written sequentially and committed together.
+ * See {@link SegmentStore} for the file format.
+ * <p>
+ * Superseded bundle versions are removed by a background thread that
+ * compacts segments in which the superseded versions take up more than a
+ * configurable part of the space. The node references and the BLOBs are
+ * stored like in the {@link BundleFsPersistenceManager}.
+ * <p>
+ * The segments are stored in the <code>segments</code> folder of the home
+ * directory of the persistence manager, which must be on a local file
+ * system. The index of the segments is kept in memory and is rebuilt when
+ * the persistence manager is started, so this persistence manager is best
+ * suited for embedded and single node deployments.
+ * <p>
+ * Configuration:<br>
+ * <ul>
+ * <li>&lt;param name="{@link #setSegmentSize(String) segmentSize}" value="64"/>
+ * <li>&lt;param name="{@link #setCompactionThreshold(String) compactionThreshold}" value="50"/>
+ * <li>&lt;param name="{@link #setCompactionInterval(String) compactionInterval}" value="60"/>
+ * <li>&lt;param name="{@link #setSyncOnCommit(String) syncOnCommit}" value="true"/>
+ * <li>&lt;param name="{@link #setBlobFSBlockSize(String) blobFSBlockSize}" value="0"/>
+ * <li>&lt;param name="{@link #setMinBlobSize(String) minBlobSize}" value="4096"/>
+ * <li>&lt;param name="{@link #setCompressBundles(String) compressBundles}" value="false"/>
+ * <li>&lt;param name="{@link #setErrorHandling(String) errorHandling}" value=""/>
+ * </ul>
+ */
+public class SegmentBundlePersistenceManager extends BundleFsPersistenceManager {
+
+    /** the default logger */
+    private static Logger log = LoggerFactory.getLogger(SegmentBundlePersistenceManager.class);
+
+    /**
+     * the size of new segment files, in MB
+     * @see #setSegmentSize(String)
+     */
+    private int segmentSize = 64;
+
+    /**
+     * the percentage of superseded data above which a segment is compacted
+     * @see #setCompactionThreshold(String)
+     */
+    private int compactionThreshold = 50;
+
+    /**
+     * the interval between background compactions, in seconds
+     * @see #setCompactionInterval(String)
+     */
+    private int compactionInterval = 60;
+
+    /**
+     * flag indicating if the segments are forced to disk on every commit
+     * @see #setSyncOnCommit(String)
+     */
+    private boolean syncOnCommit = true;
+
+    /**
+     * the segment store
+     */
+    private SegmentStore store;
+
+    /**
+     * the background compaction task, or <code>null</code>
+     */
+    private Compaction compaction;
+
+    /**
+     * the background compaction thread, or <code>null</code>
+     */
+    private Thread compactionThread;
+
+    /**
+     * flag indicating if a change log is being stored, in which case the
+     * bundles are committed together at the end
+     */
+    private boolean storingChangeLog;
+
+    public String getSegmentSize() {
+        return String.valueOf(segmentSize);
+    }
+
+    /**
+     * Sets the size of new segment files in MB. Bundles larger than this
+     * size get a segment of their own. The default is 64, the maximum is
+     * 1024.
+     *
+     * @param segmentSize segment size in MB
+     */
+    public void setSegmentSize(String segmentSize) {
+        this.segmentSize = Math.max(1, Math.min(1024, Integer.parseInt(segmentSize)));
+    }
+
+    public String getCompactionThreshold() {
+        return String.valueOf(compactionThreshold);
+    }
+
+    /**
+     * Sets the percentage of a segment that has to be taken by superseded
+     * or deleted bundles before the segment is compacted. The default is 50.
+     *
+     * @param compactionThreshold percentage between 1 and 100
+     */
+    public void setCompactionThreshold(String compactionThreshold) {
+        this.compactionThreshold = Integer.parseInt(compactionThreshold);
+    }
+
+    public String getCompactionInterval() {
+        return String.valueOf(compactionInterval);
+    }
+
+    /**
+     * Sets the interval between background compactions in seconds. The
+     * default is 60. If set to 0, segments are only compacted when
+     * {@link #compact()} is called.
+     *
+     * @param compactionInterval interval in seconds
+     */
+    public void setCompactionInterval(String compactionInterval) {
+        this.compactionInterval = Integer.parseInt(compactionInterval);
+    }
+
+    public String getSyncOnCommit() {
+        return Boolean.toString(syncOnCommit);
+    }
+
+    /**
+     * Sets whether the segments are forced to disk when changes are
+     * committed. The default is true. If set to false, the most recent
+     * changes may be lost when the operating system crashes, but the
+     * segments are still consistent after a restart.
+     *
+     * @param syncOnCommit "true" to force the segments to disk on commit
+     */
+    public void setSyncOnCommit(String syncOnCommit) {
+        this.syncOnCommit = Boolean.valueOf(syncOnCommit).booleanValue();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void init(PMContext context) throws Exception {
+        super.init(context);
+
+        store = createSegmentStore(new File(context.getHomeDir(), "segments"));
+        store.open();
+
+        if (compactionInterval > 0) {
+            compaction = new Compaction();
+            compactionThread = new Thread(
+                    compaction, "Jackrabbit-SegmentCompaction-" + this);
+            compactionThread.setDaemon(true);
+            compactionThread.start();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void close() throws Exception {
+        if (!initialized) {
+            throw new IllegalStateException("not initialized");
+        }
+        try {
+            if (compactionThread != null) {
+                // let a running compaction finish before the files are closed
+                compaction.stop();
+                try {
+                    compactionThread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                compaction = null;
+                compactionThread = null;
+            }
+            store.close();
+        } finally {
+            super.close();
+        }
+    }
+
+    /**
+     * Creates the segment store with the configured segment size.
+     *
+     * @param directory the directory of the segments
+     * @return the segment store, not yet opened
+     */
+    protected SegmentStore createSegmentStore(File directory) {
+        return new SegmentStore(directory, segmentSize * 1024 * 1024, syncOnCommit);
+    }
+
+    /**
+     * Compacts the segments in which the superseded or deleted bundles take
+     * up more than the configured compaction threshold.
+     *
+     * @return number of compacted segments
+     * @throws IOException if the segments can not be compacted
+     */
+    public int compact() throws IOException {
+        return store.compact(compactionThreshold / 100.0);
+    }
+
+    /**
+     * Stores the bundles of the change log in a single commit of the
+     * segment store, and rolls back the changes if the change log can not
+     * be stored. The bundle cache is cleared in that case, as it may hold
+     * bundles that were never committed.
+     */
+    @Override
+    public synchronized void store(ChangeLog changeLog)
+            throws ItemStateException {
+        boolean success = false;
+        storingChangeLog = true;
+        try {
+            super.store(changeLog);
+            store.commit();
+            success = true;
+        } catch (IOException e) {
+            String msg = "failed to commit changes";
+            log.error(msg, e);
+            throw new ItemStateException(msg, e);
+        } finally {
+            storingChangeLog = false;
+            if (!success) {
+                clearBundleCache();
+                try {
+                    store.rollback();
+                } catch (IOException e) {
+                    log.error("failed to roll back changes", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected NodePropBundle loadBundle(NodeId id) throws ItemStateException {
+        byte[] data = store.get(id);
+        if (data == null) {
+            return null;
+        }
+        try {
+            return binding.readBundle(new ByteArrayInputStream(data), id);
+        } catch (Exception e) {
+            String msg = "failed to read bundle: " + id + ": " + e;
+            log.error(msg);
+            throw new ItemStateException(msg, e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected synchronized void storeBundle(NodePropBundle bundle)
+            throws ItemStateException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            binding.writeBundle(out, bundle);
+            store.put(bundle.getId(), out.toByteArray());
+            if (!storingChangeLog) {
+                store.commit();
+            }
+        } catch (Exception e) {
+            String msg = "failed to write bundle: " + bundle.getId();
+            log.error(msg, e);
+            throw new ItemStateException(msg, e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected synchronized void destroyBundle(NodePropBundle bundle)
+            throws ItemStateException {
+        try {
+            store.remove(bundle.getId());
+            if (!storingChangeLog) {
+                store.commit();
+            }
+        } catch (IOException e) {
+            String msg = "failed to delete bundle: " + bundle.getId();
+            log.error(msg, e);
+            throw new ItemStateException(msg, e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<NodeId> getAllNodeIds(NodeId bigger, int maxCount) {
+        return store.getIds(bigger, maxCount);
+    }
+
+    /**
+     * Background task that periodically compacts the segments until it is
+     * stopped. The task is not interrupted, so a compaction in progress
+     * never has its file channels closed.
+     */
+    private class Compaction implements Runnable {
+
+        /**
+         * whether the task has been stopped, guarded by this task
+         */
+        private boolean stopped;
+
+        public void run() {
+            while (awaitInterval()) {
+                try {
+                    int count = compact();
+                    if (count > 0) {
+                        log.info(SegmentBundlePersistenceManager.this
+                                + ": compacted " + count + " segments");
+                    }
+                } catch (Exception e) {
+                    log.warn(SegmentBundlePersistenceManager.this
+                            + ": segment compaction failed", e);
+                }
+            }
+        }
+
+        /**
+         * Stops the task. A compaction in progress is completed.
+         */
+        synchronized void stop() {
+            stopped = true;
+            notifyAll();
+        }
+
+        /**
+         * Waits for the compaction interval.
+         *
+         * @return <code>false</code> if the task was stopped
+         */
+        private synchronized boolean awaitInterval() {
+            long end = System.currentTimeMillis() + compactionInterval * 1000L;
+            long remaining = end - System.currentTimeMillis();
+            while (!stopped && remaining > 0) {
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    return false;
+                }
+                remaining = end - System.currentTimeMillis();
+            }
+            return !stopped;
+        }
+
+    }
+
+}
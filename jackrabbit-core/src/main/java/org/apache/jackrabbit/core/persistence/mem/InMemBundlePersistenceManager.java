@@ -125,6 +125,12 @@ public class InMemBundlePersistenceManager extends AbstractBundlePersistenceMana
      */
     private int minBlobSize = 0x1000;
 
+    /**
+     * flag indicating if large bundles are written in compressed form
+     * @see #setCompressBundles(String)
+     */
+    private boolean compressBundles = false;
+
     /**
      * Flag for error handling.
      */
@@ -235,6 +241,14 @@ public class InMemBundlePersistenceManager extends AbstractBundlePersistenceMana
         this.minBlobSize = Integer.decode(minBlobSize).intValue();
     }
 
+    public String getCompressBundles() {
+        return Boolean.toString(compressBundles);
+    }
+
+    public void setCompressBundles(String compressBundles) {
+        this.compressBundles = Boolean.valueOf(compressBundles).booleanValue();
+    }
+
     /**
      * Reads the content of the hash maps from the file system
      *
@@ -402,6 +416,7 @@ public class InMemBundlePersistenceManager extends AbstractBundlePersistenceMana
         // load namespaces
         binding = new BundleBinding(errorHandling, blobStore, getNsIndex(), getNameIndex(), context.getDataStore());
         binding.setMinBlobSize(minBlobSize);
+        binding.setCompressBundles(compressBundles);
 
         if (persistent) {
             // deserialize contents of the stores
@@ -559,6 +574,14 @@ public class InMemBundlePersistenceManager extends AbstractBundlePersistenceMana
         return blobStore;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected BundleBinding getBundleBinding() {
+        return binding;
+    }
+
     /**
      * Helper interface for closeable stores
      */
@@ -26,6 +26,8 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -39,6 +41,7 @@ import org.apache.jackrabbit.core.fs.FileSystemResource;
 import org.apache.jackrabbit.core.fs.local.LocalFileSystem;
 import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.id.PropertyId;
+import org.apache.jackrabbit.core.persistence.GroupCommitPersistenceManager;
 import org.apache.jackrabbit.core.persistence.PMContext;
 import org.apache.jackrabbit.core.persistence.bundle.AbstractBundlePersistenceManager;
 import org.apache.jackrabbit.core.persistence.util.BLOBStore;
@@ -69,9 +72,11 @@ import org.slf4j.LoggerFactory;
  * Configuration:<br>
  * <ul>
  * <li>&lt;param name="{@link #setBundleCacheSize(String) bundleCacheSize}" value="8"/>
+ * <li>&lt;param name="{@link #setOffHeapBundleCacheSize(String) offHeapBundleCacheSize}" value="0"/>
  * <li>&lt;param name="{@link #setConsistencyCheck(String) consistencyCheck}" value="false"/>
  * <li>&lt;param name="{@link #setConsistencyFix(String) consistencyFix}" value="false"/>
  * <li>&lt;param name="{@link #setMinBlobSize(String) minBlobSize}" value="4096"/>
+ * <li>&lt;param name="{@link #setCompressBundles(String) compressBundles}" value="false"/>
  * <li>&lt;param name="{@link #setDriver(String) driver}" value=""/>
  * <li>&lt;param name="{@link #setUrl(String) url}" value=""/>
  * <li>&lt;param name="{@link #setUser(String) user}" value=""/>
@@ -81,10 +86,12 @@ import org.slf4j.LoggerFactory;
  * <li>&lt;param name="{@link #setErrorHandling(String) errorHandling}" value=""/>
  * <li>&lt;param name="{@link #setBlockOnConnectionLoss(String) blockOnConnectionLoss}" value="false"/>
  * <li>&lt;param name="{@link #setSchemaCheckEnabled(String) schemaCheckEnabled}" value="true"/>
+ * <li>&lt;param name="{@link #setGroupCommitDelay(String) groupCommitDelay}" value="0"/>
  * </ul>
  */
 public class BundleDbPersistenceManager
-        extends AbstractBundlePersistenceManager implements DatabaseAware {
+        extends AbstractBundlePersistenceManager
+        implements DatabaseAware, GroupCommitPersistenceManager {
 
     /** the default logger */
     private static Logger log = LoggerFactory.getLogger(BundleDbPersistenceManager.class);
@@ -122,6 +129,12 @@ public class BundleDbPersistenceManager
     /** the prefix for the database objects */
     protected String schemaObjectPrefix;
 
+    /**
+     * The maximum number of bundles that are loaded with a single
+     * statement by {@link #loadBundles(Collection)}.
+     */
+    protected static final int MAX_BUNDLE_BATCH_SIZE = 100;
+
     /** flag indicating if a consistency check should be issued during startup */
     protected boolean consistencyCheck;
 
@@ -165,6 +178,12 @@ public class BundleDbPersistenceManager
      */
     private int minBlobSize = 0x1000;
 
+    /**
+     * flag indicating if large bundles are written in compressed form
+     * @see #setCompressBundles(String)
+     */
+    private boolean compressBundles = false;
+
     /**
      * flag for error handling
      */
@@ -190,6 +209,58 @@ public class BundleDbPersistenceManager
      */
     private ConnectionFactory connectionFactory;
 
+    /**
+     * Number of milliseconds during which concurrent change logs are
+     * collected before they are written together, or zero if each change
+     * log is written in its own transaction.
+     * @see #setGroupCommitDelay(String)
+     */
+    private long groupCommitDelay = 0;
+
+    /**
+     * Whether the item state manager may store change logs concurrently.
+     * Group commit is only used if it does.
+     * @see #setConcurrentStores(boolean)
+     */
+    private volatile boolean concurrentStores = false;
+
+    /**
+     * The change logs that wait to be written by the group commit leader.
+     */
+    private final List<GroupCommitEntry> groupCommitQueue =
+        new ArrayList<GroupCommitEntry>();
+
+    /**
+     * Whether a thread is currently collecting and writing a group of
+     * change logs. Guarded by {@link #groupCommitQueue}.
+     */
+    private boolean groupCommitLeader = false;
+
+    /**
+     * The number of groups of change logs that were written in a single
+     * transaction. Guarded by {@link #groupCommitQueue}.
+     */
+    private long groupCommitCount = 0;
+
+    /**
+     * The number of change logs that were written as part of a group.
+     * Guarded by {@link #groupCommitQueue}.
+     */
+    private long groupedChangeLogCount = 0;
+
+    /**
+     * The bundle insert, update and delete statements of the group of
+     * change logs that is currently being written, in execution order, or
+     * <code>null</code> if bundles are written immediately.
+     */
+    private List<Object[]> bundleBatch;
+
+    /**
+     * The thread that writes the current group of change logs. Only this
+     * thread may execute the statements in {@link #bundleBatch}.
+     */
+    private Thread bundleBatchOwner;
+
     /**
      * {@inheritDoc}
      */
@@ -409,6 +480,26 @@ public class BundleDbPersistenceManager
         this.minBlobSize = Integer.decode(minBlobSize).intValue();
     }
 
+    /**
+     * Returns whether large bundles are compressed.
+     * @return "true" if large bundles are compressed.
+     */
+    public String getCompressBundles() {
+        return Boolean.toString(compressBundles);
+    }
+
+    /**
+     * Sets whether large bundles are compressed before they are written.
+     * Compressed and uncompressed bundles can always be read, so this can
+     * be changed on an existing workspace.
+     *
+     * @param compressBundles "true" to compress large bundles
+     * @see BundleBinding#setCompressBundles(boolean)
+     */
+    public void setCompressBundles(String compressBundles) {
+        this.compressBundles = Boolean.valueOf(compressBundles).booleanValue();
+    }
+
     /**
      * Sets the error handling behaviour of this manager. See {@link ErrorHandling}
      * for details about the flags.
@@ -435,6 +526,72 @@ public class BundleDbPersistenceManager
         return Boolean.toString(blockOnConnectionLoss);
     }
 
+    /**
+     * Returns the group commit delay in milliseconds.
+     *
+     * @return the group commit delay
+     */
+    public String getGroupCommitDelay() {
+        return Long.toString(groupCommitDelay);
+    }
+
+    /**
+     * Sets the number of milliseconds during which change logs that are
+     * stored concurrently by different threads are collected before they
+     * are written together in a single database transaction. The bundles
+     * of such a group are written with JDBC batch statements. Each
+     * {@link #store(ChangeLog)} call still only returns once its changes
+     * are committed, so a save stays durable, but there is only one commit
+     * per group. The default value 0 disables group commit.
+     * <p>
+     * Group commit is only used with a locking strategy of the item state
+     * manager that lets change logs of different threads be stored at the
+     * same time, like the
+     * {@link org.apache.jackrabbit.core.state.StripedISMLocking}. With the
+     * default locking the stores never overlap and a save would only wait
+     * for the delay without ever sharing a transaction.
+     *
+     * @param delay the group commit delay in milliseconds
+     */
+    public void setGroupCommitDelay(String delay) {
+        this.groupCommitDelay = Long.parseLong(delay);
+    }
+
+    /**
+     * Returns the number of groups of change logs that were written in a
+     * single transaction.
+     *
+     * @return the number of group commits
+     */
+    public long getGroupCommitCount() {
+        synchronized (groupCommitQueue) {
+            return groupCommitCount;
+        }
+    }
+
+    /**
+     * Returns the number of change logs that were written as part of a
+     * group. Change logs that were written on their own are not counted.
+     *
+     * @return the number of grouped change logs
+     */
+    public long getGroupedChangeLogCount() {
+        synchronized (groupCommitQueue) {
+            return groupedChangeLogCount;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setConcurrentStores(boolean concurrent) {
+        if (groupCommitDelay > 0 && !concurrent) {
+            log.info("Group commit disabled, the locking strategy of the"
+                    + " workspace does not allow concurrent stores");
+        }
+        this.concurrentStores = concurrent;
+    }
+
     /**
      * Returns <code>true</code> if the blobs are stored in the DB.
      * @return <code>true</code> if the blobs are stored in the DB.
@@ -468,11 +625,29 @@ public class BundleDbPersistenceManager
     /**
      * {@inheritDoc}
      *
-     * Basically wraps a JDBC transaction around super.store().
-     * 
+     * Basically wraps a JDBC transaction around super.store(). If a
+     * {@link #setGroupCommitDelay(String) group commit delay} is configured
+     * and the change logs may be {@link #setConcurrentStores(boolean)
+     * stored concurrently}, change logs that are stored concurrently share
+     * a single transaction.
+     */
+    public void store(final ChangeLog changeLog) throws ItemStateException {
+        if (groupCommitDelay > 0 && concurrentStores) {
+            storeGrouped(changeLog);
+        } else {
+            storeChangeLog(changeLog);
+        }
+    }
+
+    /**
+     * Stores the given change log in its own JDBC transaction.
+     *
      * FIXME: the retry logic is almost a duplicate of {@code ConnectionHelper.RetryManager}.
+     *
+     * @param changeLog the change log to store
+     * @throws ItemStateException if the change log could not be stored
      */
-    public synchronized void store(final ChangeLog changeLog) throws ItemStateException {
+    private synchronized void storeChangeLog(final ChangeLog changeLog) throws ItemStateException {
         int failures = 0;
         ItemStateException lastException = null;
         boolean sleepInterrupted = false;
@@ -516,6 +691,248 @@ public class BundleDbPersistenceManager
         throw lastException;
     }
 
+    /**
+     * Adds the given change log to the group commit queue and waits until
+     * it is stored. The first thread that finds no active leader becomes
+     * the leader: it waits for the group commit delay so that other
+     * threads can add their change logs, and then stores all queued change
+     * logs with {@link #storeGroup(List)}. If that fails, the change logs
+     * are stored one by one so that a single faulty change log does not
+     * fail the whole group.
+     *
+     * @param changeLog the change log to store
+     * @throws ItemStateException if the change log could not be stored
+     */
+    private void storeGrouped(ChangeLog changeLog) throws ItemStateException {
+        GroupCommitEntry entry = new GroupCommitEntry(changeLog);
+        boolean interrupted = false;
+        synchronized (groupCommitQueue) {
+            groupCommitQueue.add(entry);
+            while (!entry.done && groupCommitLeader) {
+                try {
+                    groupCommitQueue.wait();
+                } catch (InterruptedException e) {
+                    // the change log is queued and will be stored anyway
+                    interrupted = true;
+                }
+            }
+            if (!entry.done) {
+                groupCommitLeader = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (!entry.done) {
+            List<GroupCommitEntry> group;
+            try {
+                if (!interrupted) {
+                    try {
+                        Thread.sleep(groupCommitDelay);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                synchronized (groupCommitQueue) {
+                    group = new ArrayList<GroupCommitEntry>(groupCommitQueue);
+                    groupCommitQueue.clear();
+                }
+                storeGroupEntries(group);
+            } finally {
+                synchronized (groupCommitQueue) {
+                    groupCommitLeader = false;
+                    groupCommitQueue.notifyAll();
+                }
+            }
+        }
+
+        if (entry.exception != null) {
+            throw entry.exception;
+        }
+    }
+
+    /**
+     * Stores the given group of queued change logs and marks each entry
+     * as done, recording the exception of change logs that failed.
+     *
+     * @param group the queued change logs
+     */
+    private void storeGroupEntries(List<GroupCommitEntry> group) {
+        try {
+            if (group.size() > 1) {
+                List<ChangeLog> changeLogs = new ArrayList<ChangeLog>();
+                for (GroupCommitEntry entry : group) {
+                    changeLogs.add(entry.changeLog);
+                }
+                try {
+                    storeGroup(changeLogs);
+                    synchronized (groupCommitQueue) {
+                        groupCommitCount++;
+                        groupedChangeLogCount += group.size();
+                    }
+                    return;
+                } catch (ItemStateException e) {
+                    log.warn("Failed to persist a group of " + group.size()
+                            + " ChangeLogs, storing them one by one: " + e);
+                }
+            }
+            for (GroupCommitEntry entry : group) {
+                try {
+                    storeChangeLog(entry.changeLog);
+                } catch (ItemStateException e) {
+                    entry.exception = e;
+                }
+            }
+        } catch (RuntimeException e) {
+            for (GroupCommitEntry entry : group) {
+                if (entry.exception == null) {
+                    entry.exception = new ItemStateException(
+                            "Failed to persist ChangeLog", e);
+                }
+            }
+            throw e;
+        } finally {
+            synchronized (groupCommitQueue) {
+                for (GroupCommitEntry entry : group) {
+                    entry.done = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Stores the given change logs in a single JDBC transaction. The bundle
+     * statements are collected and executed as JDBC batches just before the
+     * transaction is committed, or when a bundle needs to be read from the
+     * database in between. No retry is attempted on failure.
+     *
+     * @param changeLogs the change logs to store
+     * @throws ItemStateException if the change logs could not be stored
+     */
+    private synchronized void storeGroup(List<ChangeLog> changeLogs)
+            throws ItemStateException {
+        boolean success = false;
+        bundleBatch = new ArrayList<Object[]>();
+        bundleBatchOwner = Thread.currentThread();
+        try {
+            conHelper.startBatch();
+            try {
+                for (ChangeLog changeLog : changeLogs) {
+                    super.store(changeLog);
+                }
+                flushBundleBatch();
+            } catch (ItemStateException e) {
+                try {
+                    conHelper.endBatch(false);
+                } catch (SQLException e2) {
+                    DbUtility.logException("rollback failed", e2);
+                }
+                throw e;
+            }
+            conHelper.endBatch(true);
+            success = true;
+        } catch (SQLException e) {
+            throw new ItemStateException(e.getMessage(), e);
+        } finally {
+            bundleBatch = null;
+            bundleBatchOwner = null;
+            if (!success) {
+                // the cache may contain bundles of rolled back change logs
+                clearBundleCache();
+            }
+        }
+    }
+
+    /**
+     * Executes the collected bundle statements of the current group commit.
+     * Consecutive executions of the same statement are sent to the database
+     * as a single JDBC batch.
+     *
+     * @throws ItemStateException if a statement fails
+     */
+    private void flushBundleBatch() throws ItemStateException {
+        try {
+            int start = 0;
+            while (start < bundleBatch.size()) {
+                String sql = (String) bundleBatch.get(start)[0];
+                List<Object[]> paramsList = new ArrayList<Object[]>();
+                int end = start;
+                while (end < bundleBatch.size()
+                        && sql.equals(bundleBatch.get(end)[0])) {
+                    paramsList.add((Object[]) bundleBatch.get(end)[1]);
+                    end++;
+                }
+                conHelper.updateBatch(sql, paramsList);
+                start = end;
+            }
+        } catch (SQLException e) {
+            String msg;
+            if (isIntegrityConstraintViolation(e)) {
+                msg = "FATAL error while writing a batch of bundles";
+            } else {
+                msg = "failed to write a batch of bundles";
+            }
+            log.error(msg, e);
+            throw new ItemStateException(msg, e);
+        } finally {
+            bundleBatch.clear();
+        }
+    }
+
+    /**
+     * Executes the given bundle statement, or adds it to the current batch
+     * if a group of change logs is being written.
+     *
+     * @param sql the statement
+     * @param params the parameters of the statement
+     * @throws SQLException if the statement fails
+     */
+    private void updateBundle(String sql, Object[] params) throws SQLException {
+        if (bundleBatch != null) {
+            bundleBatch.add(new Object[] { sql, params });
+        } else {
+            conHelper.update(sql, params);
+        }
+    }
+
+    /**
+     * A change log that waits in the group commit queue.
+     */
+    private static class GroupCommitEntry {
+
+        private final ChangeLog changeLog;
+
+        /**
+         * Whether the change log has been processed. Guarded by the
+         * group commit queue.
+         */
+        private boolean done = false;
+
+        /**
+         * The exception if storing the change log failed.
+         */
+        private ItemStateException exception;
+
+        public GroupCommitEntry(ChangeLog changeLog) {
+            this.changeLog = changeLog;
+        }
+
+    }
+
+    /**
+     * Makes sure that the pending bundle statements of the current group
+     * commit are visible before a bundle is read from the database by the
+     * thread that writes the group.
+     *
+     * @throws ItemStateException if a pending statement fails
+     */
+    private void flushPendingBundles() throws ItemStateException {
+        if (bundleBatchOwner == Thread.currentThread() && !bundleBatch.isEmpty()) {
+            flushBundleBatch();
+        }
+    }
+
     private boolean isIntegrityConstraintViolation(Throwable t) {
         if (t instanceof SQLException) {
             String state = ((SQLException) t).getSQLState();
@@ -554,6 +971,7 @@ public class BundleDbPersistenceManager
         // load namespaces
         binding = new BundleBinding(errorHandling, blobStore, getNsIndex(), getNameIndex(), context.getDataStore());
         binding.setMinBlobSize(minBlobSize);
+        binding.setCompressBundles(compressBundles);
 
         initialized = true;
 
@@ -612,6 +1030,14 @@ public class BundleDbPersistenceManager
         return blobStore;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected BundleBinding getBundleBinding() {
+        return binding;
+    }
+
     /**
      * Creates a suitable blobstore
      * @return a blobstore
@@ -828,6 +1254,22 @@ public class BundleDbPersistenceManager
      */
     @Override
     public synchronized Map<NodeId, NodeInfo> getAllNodeInfos(NodeId bigger, int maxCount) throws ItemStateException {
+        Map<NodeId, NodeInfo> result = new LinkedHashMap<NodeId, NodeInfo>(maxCount);
+        for (NodePropBundle bundle : getAllBundles(bigger, maxCount)) {
+            NodeInfo nodeInfo = new NodeInfo(bundle);
+            result.put(nodeInfo.getId(), nodeInfo);
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Reads the identifiers and the bundles with a single select statement.
+     */
+    @Override
+    public synchronized List<NodePropBundle> getAllBundles(NodeId bigger, int maxCount)
+            throws ItemStateException {
         ResultSet rs = null;
         try {
             String sql = bundleSelectAllBundlesSQL;
@@ -838,15 +1280,16 @@ public class BundleDbPersistenceManager
                 lowId = bigger;
                 keys = getKey(bigger);
             }
+            int maxRows = maxCount;
             if (getStorageModel() == SM_LONGLONG_KEYS && maxCount > 0) {
                 // get some more rows, in case the first row is smaller
                 // only required for SM_LONGLONG_KEYS
                 // probability is very low to get get the wrong first key, < 1 : 2^64
                 // see also bundleSelectAllIdsFrom SQL statement
-                maxCount += 10;
+                maxRows += 10;
             }
-            rs = conHelper.exec(sql, keys, false, maxCount);
-            Map<NodeId, NodeInfo> result = new LinkedHashMap<NodeId, NodeInfo>(maxCount);
+            rs = conHelper.exec(sql, keys, false, maxRows);
+            List<NodePropBundle> result = new ArrayList<NodePropBundle>();
             while ((maxCount == 0 || result.size() < maxCount) && rs.next()) {
                 NodeId current;
                 if (getStorageModel() == SM_BINARY_KEYS) {
@@ -862,13 +1305,11 @@ public class BundleDbPersistenceManager
                         continue;
                     }
                 }
-                NodePropBundle bundle = readBundle(current, rs, getStorageModel() == SM_LONGLONG_KEYS ? 3 : 2);
-                NodeInfo nodeInfo = new NodeInfo(bundle);
-                result.put(nodeInfo.getId(), nodeInfo);
+                result.add(readBundle(current, rs, getStorageModel() == SM_LONGLONG_KEYS ? 3 : 2));
             }
             return result;
         } catch (SQLException e) {
-            String msg = "getAllNodeIds failed.";
+            String msg = "getAllBundles failed.";
             log.error(msg, e);
             throw new ItemStateException(msg, e);
         } finally {
@@ -881,6 +1322,7 @@ public class BundleDbPersistenceManager
      */
     @Override
     protected NodePropBundle loadBundle(NodeId id) throws ItemStateException {
+        flushPendingBundles();
         try {
             ResultSet rs =
                 conHelper.exec(bundleSelectSQL, getKey(id), false, 0);
@@ -903,6 +1345,109 @@ public class BundleDbPersistenceManager
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Loads the bundles with one select statement per
+     * {@link #MAX_BUNDLE_BATCH_SIZE} bundles.
+     */
+    @Override
+    protected Map<NodeId, NodePropBundle> loadBundles(Collection<NodeId> ids)
+            throws ItemStateException {
+        flushPendingBundles();
+        Map<NodeId, NodePropBundle> result =
+            new HashMap<NodeId, NodePropBundle>(ids.size() * 2);
+        List<NodeId> batch = new ArrayList<NodeId>(MAX_BUNDLE_BATCH_SIZE);
+        for (NodeId id : ids) {
+            batch.add(id);
+            if (batch.size() == MAX_BUNDLE_BATCH_SIZE) {
+                loadBundleBatch(batch, result);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            loadBundleBatch(batch, result);
+        }
+        return result;
+    }
+
+    /**
+     * Loads the given bundles with a single select statement.
+     *
+     * @param ids the node ids of the bundles
+     * @param result map to which the loaded bundles are added
+     * @throws ItemStateException if an error while loading occurs.
+     */
+    private void loadBundleBatch(List<NodeId> ids, Map<NodeId, NodePropBundle> result)
+            throws ItemStateException {
+        if (ids.size() == 1) {
+            NodePropBundle bundle = loadBundle(ids.get(0));
+            if (bundle != null) {
+                result.put(bundle.getId(), bundle);
+            }
+            return;
+        }
+
+        List<Object> params = new ArrayList<Object>();
+        for (NodeId id : ids) {
+            for (Object key : getKey(id)) {
+                params.add(key);
+            }
+        }
+        ResultSet rs = null;
+        try {
+            rs = conHelper.exec(
+                    buildBundleSelectBatchSQL(ids.size()), params.toArray(), false, 0);
+            while (rs.next()) {
+                NodeId current;
+                if (getStorageModel() == SM_BINARY_KEYS) {
+                    current = new NodeId(rs.getBytes(1));
+                } else {
+                    current = new NodeId(rs.getLong(1), rs.getLong(2));
+                }
+                NodePropBundle bundle = readBundle(
+                        current, rs, getStorageModel() == SM_LONGLONG_KEYS ? 3 : 2);
+                result.put(current, bundle);
+            }
+        } catch (SQLException e) {
+            String msg = "failed to read " + ids.size()
+                + " bundles (stacktrace on DEBUG log level): " + e;
+            log.error(msg);
+            log.debug("failed to read bundles: " + ids, e);
+            throw new ItemStateException(msg, e);
+        } finally {
+            DbUtility.close(rs);
+        }
+    }
+
+    /**
+     * Returns the SQL statement that selects the given number of bundles,
+     * together with their node ids.
+     *
+     * @param count the number of bundles to select
+     * @return the SQL statement
+     */
+    protected String buildBundleSelectBatchSQL(int count) {
+        StringBuilder sql = new StringBuilder();
+        if (getStorageModel() == SM_BINARY_KEYS) {
+            sql.append("select NODE_ID, BUNDLE_DATA from ");
+            sql.append(schemaObjectPrefix);
+            sql.append("BUNDLE where NODE_ID in (?");
+            for (int i = 1; i < count; i++) {
+                sql.append(", ?");
+            }
+            sql.append(")");
+        } else {
+            sql.append("select NODE_ID_HI, NODE_ID_LO, BUNDLE_DATA from ");
+            sql.append(schemaObjectPrefix);
+            sql.append("BUNDLE where (NODE_ID_HI = ? and NODE_ID_LO = ?)");
+            for (int i = 1; i < count; i++) {
+                sql.append(" or (NODE_ID_HI = ? and NODE_ID_LO = ?)");
+            }
+        }
+        return sql.toString();
+    }
+
     /**
      * Reads and parses a bundle from the BLOB in the given column of the
      * current row of the given result set. This is a helper method to
@@ -947,7 +1492,7 @@ public class BundleDbPersistenceManager
 
             String sql = bundle.isNew() ? bundleInsertSQL : bundleUpdateSQL;
             Object[] params = createParams(bundle.getId(), out.toByteArray(), true);
-            conHelper.update(sql, params);
+            updateBundle(sql, params);
         } catch (Exception e) {
             String msg;
 
@@ -970,7 +1515,7 @@ public class BundleDbPersistenceManager
      */
     protected synchronized void destroyBundle(NodePropBundle bundle) throws ItemStateException {
         try {
-            conHelper.update(bundleDeleteSQL, getKey(bundle.getId()));
+            updateBundle(bundleDeleteSQL, getKey(bundle.getId()));
         } catch (Exception e) {
             if (e instanceof NoSuchItemStateException) {
                 throw (NoSuchItemStateException) e;
@@ -16,9 +16,14 @@
  */
 package org.apache.jackrabbit.core.persistence.util;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import org.apache.jackrabbit.core.data.DataStore;
 import org.apache.jackrabbit.core.id.NodeId;
@@ -58,10 +63,22 @@ public class BundleBinding {
     static final int VERSION_3 = 3;
 
     /**
-     * current version
+     * serialization version 4: a complete version 3 serialization
+     * (including its version byte) compressed with deflate
+     */
+    static final int VERSION_4 = 4;
+
+    /**
+     * current version of the uncompressed serialization
      */
     static final int VERSION_CURRENT = VERSION_3;
 
+    /**
+     * Bundles whose uncompressed serialization is smaller than this number
+     * of bytes are never compressed, as they would hardly get any smaller.
+     */
+    static final int MIN_COMPRESSED_SIZE = 256;
+
     /**
      * the namespace index
      */
@@ -92,6 +109,11 @@ public class BundleBinding {
      */
     protected final DataStore dataStore;
 
+    /**
+     * whether large bundles are written in the compressed format
+     */
+    protected boolean compressBundles = false;
+
     /**
      * Creates a new bundle binding
      *
@@ -131,6 +153,29 @@ public class BundleBinding {
         this.minBlobSize = minBlobSize;
     }
 
+    /**
+     * Returns whether large bundles are written in the compressed format.
+     * @see #setCompressBundles(boolean)
+     * @return <code>true</code> if bundles are compressed
+     */
+    public boolean isCompressBundles() {
+        return compressBundles;
+    }
+
+    /**
+     * Sets whether large bundles are written in the compressed format. If
+     * enabled, a bundle whose serialization is at least
+     * {@link #MIN_COMPRESSED_SIZE} bytes long is compressed with deflate and
+     * written in version 4 of the format when that makes it smaller. Both
+     * formats are always readable, so existing bundles are converted
+     * lazily when they are next written. Default is <code>false</code>.
+     *
+     * @param compressBundles whether to compress bundles
+     */
+    public void setCompressBundles(boolean compressBundles) {
+        this.compressBundles = compressBundles;
+    }
+
     /**
      * Returns the blob store that is associated with this binding.
      * @return the blob store
@@ -149,7 +194,21 @@ public class BundleBinding {
      */
     public NodePropBundle readBundle(InputStream in, NodeId id)
             throws IOException {
-        return new BundleReader(this, in).readBundle(id);
+        PushbackInputStream pin = new PushbackInputStream(in);
+        int version = pin.read();
+        if (version == VERSION_4) {
+            Inflater inflater = new Inflater();
+            try {
+                return new BundleReader(
+                        this, new InflaterInputStream(pin, inflater)).readBundle(id);
+            } finally {
+                inflater.end();
+            }
+        }
+        if (version != -1) {
+            pin.unread(version);
+        }
+        return new BundleReader(this, pin).readBundle(id);
     }
 
     /**
@@ -161,7 +220,48 @@ public class BundleBinding {
      */
     public void writeBundle(OutputStream out, NodePropBundle bundle)
             throws IOException {
-        new BundleWriter(this, out).writeBundle(bundle);
+        if (compressBundles) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            new BundleWriter(this, buffer).writeBundle(bundle);
+            byte[] data = buffer.toByteArray();
+            byte[] compressed = null;
+            if (data.length >= MIN_COMPRESSED_SIZE) {
+                compressed = compress(data);
+            }
+            if (compressed != null && compressed.length + 1 < data.length) {
+                out.write(VERSION_4);
+                out.write(compressed);
+            } else {
+                out.write(data);
+            }
+        } else {
+            new BundleWriter(this, out).writeBundle(bundle);
+        }
+    }
+
+    /**
+     * Compresses the given serialized bundle with deflate. Uses the fastest
+     * compression level, as bundles are written on every save.
+     *
+     * @param data serialized bundle
+     * @return compressed bundle
+     */
+    private static byte[] compress(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out =
+                new ByteArrayOutputStream(data.length / 2);
+            byte[] buffer = new byte[Math.max(64, data.length / 2)];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
     }
 
 }
@@ -25,6 +25,7 @@ import java.util.Calendar;
 import java.util.GregorianCalendar;
 import java.util.TimeZone;
 import java.util.UUID;
+import java.util.zip.InflaterInputStream;
 
 /**
  * This utility class can dump the contents of a node bundle. This class is
@@ -38,6 +39,7 @@ public class BundleDumper {
     private static final int VERSION_1 = 1;
     private static final int VERSION_2 = 2;
     private static final int VERSION_3 = 3;
+    private static final int VERSION_4 = 4;
 
     private static final int BINARY_IN_BLOB_STORE = -1;
     private static final int BINARY_IN_DATA_STORE = -2;
@@ -128,6 +130,12 @@ public class BundleDumper {
             this.in = new DataInputStream(bin);
             version = in.readUnsignedByte();
             buffer.append("version: ").append(version).append("\n");
+            if (version == VERSION_4) {
+                // compressed bundle
+                this.in = new DataInputStream(new InflaterInputStream(bin));
+                version = in.readUnsignedByte();
+                buffer.append("compressed version: ").append(version).append("\n");
+            }
             if (version >= VERSION_3) {
                 readBundleNew();
             } else {
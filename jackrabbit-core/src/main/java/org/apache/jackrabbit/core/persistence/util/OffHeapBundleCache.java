@@ -0,0 +1,394 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.persistence.util;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.jackrabbit.core.cache.AbstractCache;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Second level bundle cache that keeps bundles in their serialized
+ * {@link BundleBinding} form outside of the Java heap. The cache is split
+ * into a number of segments, each of which is a fixed size direct
+ * {@link ByteBuffer} that is used as a ring buffer of records:
+ * <pre>
+ * +-------------+-------------+------------+------------------+
+ * | msb (long)  | lsb (long)  | size (int) | serialized data  |
+ * +-------------+-------------+------------+------------------+
+ * </pre>
+ * New records are appended at the tail of the ring and the oldest records
+ * are evicted from the head when there is not enough space left, so the
+ * eviction algorithm is FIFO per segment. Only a small index from node id
+ * to record offset is kept on the heap. None of the methods of this class
+ * are synchronized, but they are all thread-safe.
+ */
+public class OffHeapBundleCache extends AbstractCache {
+
+    /**
+     * The logger instance for this class.
+     */
+    private static final Logger log = LoggerFactory.getLogger(OffHeapBundleCache.class);
+
+    /**
+     * Number of cache segments. Each segment is guarded by its own lock.
+     */
+    private static final int NUMBER_OF_SEGMENTS = 16;
+
+    /**
+     * Size of the record header: two longs for the node id and an int
+     * for the length of the serialized bundle.
+     */
+    private static final int HEADER_SIZE = 8 + 8 + 4;
+
+    private final String name;
+
+    private final Segment[] segments;
+
+    /**
+     * Counter that is kept in sync with the memory used by the cached
+     * bundles, or <code>null</code>.
+     */
+    private volatile AtomicLong sizeCounter;
+
+    /**
+     * Creates a new off-heap bundle cache that allocates the given amount
+     * of direct memory.
+     *
+     * @param name name of this cache
+     * @param maxMemorySize size of the cache in bytes
+     */
+    public OffHeapBundleCache(String name, long maxMemorySize) {
+        this.name = name;
+        int segmentSize = (int) Math.min(
+                Integer.MAX_VALUE, maxMemorySize / NUMBER_OF_SEGMENTS);
+        this.segments = new Segment[NUMBER_OF_SEGMENTS];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment(segmentSize);
+        }
+        super.setMaxMemorySize((long) segmentSize * NUMBER_OF_SEGMENTS);
+    }
+
+    private Segment getSegment(NodeId id) {
+        return segments[(id.hashCode() >>> 1) % segments.length];
+    }
+
+    /**
+     * Returns a copy of the serialized bundle with the given id.
+     *
+     * @param id bundle id
+     * @return serialized bundle, or <code>null</code> if not found
+     */
+    public byte[] get(NodeId id) {
+        recordCacheAccess();
+        byte[] data = getSegment(id).get(id);
+        if (data == null) {
+            recordCacheMiss();
+        }
+        return data;
+    }
+
+    /**
+     * Adds the given serialized bundle to the cache, replacing any
+     * previous entry with the same id. Bundles that are larger than a
+     * cache segment are not cached.
+     *
+     * @param id bundle id
+     * @param data serialized bundle
+     */
+    public void put(NodeId id, byte[] data) {
+        getSegment(id).put(id, data);
+    }
+
+    /**
+     * Checks if the identified bundle is cached.
+     *
+     * @param id bundle id
+     * @return <code>true</code> if the bundle is cached,
+     *         <code>false</code> otherwise
+     */
+    public boolean containsKey(NodeId id) {
+        return getSegment(id).containsKey(id);
+    }
+
+    /**
+     * Removes the identified bundle from the cache.
+     *
+     * @param id bundle id
+     */
+    public void remove(NodeId id) {
+        getSegment(id).remove(id);
+    }
+
+    /**
+     * Removes all bundles from the cache.
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * Changes the amount of memory the cached bundles may use. The direct
+     * memory is allocated when the cache is created, so the size can not
+     * grow beyond the initial size. A smaller size evicts the oldest bundles
+     * right away.
+     *
+     * @param size the new size in bytes
+     */
+    @Override
+    public void setMaxMemorySize(long size) {
+        int limit = (int) Math.max(0, Math.min(
+                segments[0].getCapacity(), size / NUMBER_OF_SEGMENTS));
+        if ((long) limit * NUMBER_OF_SEGMENTS < size) {
+            log.debug("{} can not grow beyond its initial size of {} bytes",
+                    this, (long) limit * NUMBER_OF_SEGMENTS);
+        }
+        for (Segment segment : segments) {
+            segment.setLimit(limit);
+        }
+        super.setMaxMemorySize((long) limit * NUMBER_OF_SEGMENTS);
+    }
+
+    /**
+     * Sets a counter that is kept in sync with the memory used by the cached
+     * bundles. Every change of the memory use, including evictions and
+     * removals, is added to the counter, so the same counter can be shared
+     * by several caches.
+     *
+     * @param counter the size counter, or <code>null</code>
+     */
+    public void setSizeCounter(AtomicLong counter) {
+        AtomicLong previous = sizeCounter;
+        if (previous != null) {
+            previous.addAndGet(-getMemoryUsed());
+        }
+        if (counter != null) {
+            counter.addAndGet(getMemoryUsed());
+        }
+        sizeCounter = counter;
+    }
+
+    @Override
+    protected void recordSizeChange(long delta) {
+        super.recordSizeChange(delta);
+        AtomicLong counter = sizeCounter;
+        if (counter != null) {
+            counter.addAndGet(delta);
+        }
+    }
+
+    public long getElementCount() {
+        long count = 0;
+        for (Segment segment : segments) {
+            count += segment.getElementCount();
+        }
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return name + "[" + getClass().getSimpleName() + "@"
+                + Integer.toHexString(hashCode()) + "]";
+    }
+
+    /**
+     * A single ring buffer of bundle records.
+     */
+    private class Segment {
+
+        private final ByteBuffer buffer;
+
+        /**
+         * Offsets of the current records of all cached bundles.
+         */
+        private final Map<NodeId, Integer> index =
+            new HashMap<NodeId, Integer>();
+
+        /**
+         * Offset of the oldest record in the ring.
+         */
+        private int head;
+
+        /**
+         * Offset at which the next record is written.
+         */
+        private int tail;
+
+        /**
+         * Offset at which the records before the wrap point end. Only
+         * meaningful while the ring is wrapped.
+         */
+        private int wrapAt;
+
+        /**
+         * Whether the tail has wrapped around to the start of the buffer
+         * while the head has not.
+         */
+        private boolean wrapped;
+
+        /**
+         * Number of records in the ring, including replaced ones that have
+         * not yet been reclaimed.
+         */
+        private int records;
+
+        /**
+         * Number of bytes of the records in the ring, including replaced
+         * ones that have not yet been reclaimed.
+         */
+        private int used;
+
+        /**
+         * Maximum number of bytes of the records in the ring, at most the
+         * capacity of the buffer.
+         */
+        private int limit;
+
+        public Segment(int size) {
+            this.buffer = ByteBuffer.allocateDirect(size);
+            this.wrapAt = size;
+            this.limit = size;
+        }
+
+        public int getCapacity() {
+            return buffer.capacity();
+        }
+
+        public synchronized void setLimit(int limit) {
+            this.limit = limit;
+            while (used > limit) {
+                evictHead();
+            }
+        }
+
+        public synchronized byte[] get(NodeId id) {
+            Integer offset = index.get(id);
+            if (offset != null) {
+                int pos = offset.intValue();
+                byte[] data = new byte[buffer.getInt(pos + 16)];
+                buffer.position(pos + HEADER_SIZE);
+                buffer.get(data);
+                return data;
+            } else {
+                return null;
+            }
+        }
+
+        public synchronized boolean containsKey(NodeId id) {
+            return index.containsKey(id);
+        }
+
+        public synchronized int getElementCount() {
+            return index.size();
+        }
+
+        public synchronized void put(NodeId id, byte[] data) {
+            remove(id);
+
+            int size = HEADER_SIZE + data.length;
+            if (size > limit) {
+                return;
+            }
+            while (used + size > limit) {
+                evictHead();
+            }
+
+            while (true) {
+                if (records == 0) {
+                    head = 0;
+                    tail = 0;
+                    wrapAt = buffer.capacity();
+                    wrapped = false;
+                }
+                if (!wrapped) {
+                    if (buffer.capacity() - tail >= size) {
+                        break;
+                    }
+                    wrapAt = tail;
+                    tail = 0;
+                    wrapped = true;
+                } else if (head - tail >= size) {
+                    break;
+                } else {
+                    evictHead();
+                }
+            }
+
+            buffer.putLong(tail, id.getMostSignificantBits());
+            buffer.putLong(tail + 8, id.getLeastSignificantBits());
+            buffer.putInt(tail + 16, data.length);
+            buffer.position(tail + HEADER_SIZE);
+            buffer.put(data);
+
+            index.put(id, tail);
+            recordSizeChange(size);
+            tail += size;
+            used += size;
+            records++;
+        }
+
+        public synchronized void remove(NodeId id) {
+            Integer offset = index.remove(id);
+            if (offset != null) {
+                recordSizeChange(
+                        -(HEADER_SIZE + buffer.getInt(offset.intValue() + 16)));
+            }
+        }
+
+        public synchronized void clear() {
+            for (Integer offset : index.values()) {
+                recordSizeChange(
+                        -(HEADER_SIZE + buffer.getInt(offset.intValue() + 16)));
+            }
+            index.clear();
+            records = 0;
+            used = 0;
+        }
+
+        /**
+         * Reclaims the space of the oldest record in the ring. The index
+         * entry is only removed if it still points to this record, as the
+         * bundle may have been replaced by a newer record in the meantime.
+         */
+        private void evictHead() {
+            NodeId id = new NodeId(buffer.getLong(head), buffer.getLong(head + 8));
+            int size = HEADER_SIZE + buffer.getInt(head + 16);
+            Integer offset = index.get(id);
+            if (offset != null && offset.intValue() == head) {
+                index.remove(id);
+                recordSizeChange(-size);
+            }
+            head += size;
+            used -= size;
+            records--;
+            if (head >= wrapAt) {
+                head = 0;
+                wrapAt = buffer.capacity();
+                wrapped = false;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,694 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.persistence.util;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.CRC32;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only store of serialized bundles in memory-mapped segment files.
+ * Each segment is a file of a fixed size that starts with a magic number
+ * and a version, followed by a sequence of records:
+ * <pre>
+ * +--------------+-------------+-------------+-------------+--------------+------------------+
+ * | length (int) | type (byte) | msb (long)  | lsb (long)  | crc32 (int)  | serialized data  |
+ * +--------------+-------------+-------------+-------------+--------------+------------------+
+ * </pre>
+ * A record either stores a bundle, deletes a bundle, or commits or rolls
+ * back all preceding bundle and delete records since the last commit or
+ * rollback. The unused part of a segment is zero filled, so a record type
+ * of zero marks the end of the segment.
+ * <p>
+ * New records are always appended to the last segment, and a new segment
+ * is started when it is full. An index from node id to the location of the
+ * latest record of that node is kept in memory. It is rebuilt on startup by
+ * reading all segments in order, which also discards uncommitted changes
+ * and records that have only partially been written.
+ * <p>
+ * Superseded records are garbage. The {@link #compact(double)} method
+ * copies the live records of segments with too much garbage to the end of
+ * the last segment and removes those segments. Delete records are kept
+ * until they reach the oldest segment, as older segments may still contain
+ * a previous version of the deleted bundle.
+ * <p>
+ * Reads are not synchronized and only access the mapped segments and the
+ * concurrent index. All modifications are synchronized on this store.
+ */
+public class SegmentStore {
+
+    private static Logger log = LoggerFactory.getLogger(SegmentStore.class);
+
+    /**
+     * Magic number at the start of each segment ("JRSG").
+     */
+    private static final int MAGIC = 0x4a525347;
+
+    private static final int VERSION = 1;
+
+    /**
+     * Size of the segment header: the magic number and the version.
+     */
+    private static final int SEGMENT_HEADER_SIZE = 4 + 4;
+
+    /**
+     * Size of the record header: the length of the data, the type, the
+     * two longs of the node id and the checksum.
+     */
+    private static final int RECORD_HEADER_SIZE = 4 + 1 + 8 + 8 + 4;
+
+    private static final byte END = 0;
+
+    private static final byte BUNDLE = 1;
+
+    private static final byte DELETE = 2;
+
+    private static final byte COMMIT = 3;
+
+    private static final byte ROLLBACK = 4;
+
+    private static final String SUFFIX = ".seg";
+
+    private final File directory;
+
+    private final int segmentSize;
+
+    private final boolean sync;
+
+    /**
+     * The location of the latest record of each bundle: the segment number
+     * in the upper and the offset in the lower 32 bits.
+     */
+    private final ConcurrentNavigableMap<NodeId, Long> index =
+        new ConcurrentSkipListMap<NodeId, Long>();
+
+    private final ConcurrentMap<Integer, Segment> segments =
+        new ConcurrentHashMap<Integer, Segment>();
+
+    /**
+     * The segment new records are appended to, or <code>null</code>.
+     */
+    private Segment active;
+
+    /**
+     * The changes since the last commit or rollback, in order, with the
+     * previous location of the bundle (or <code>null</code>).
+     */
+    private final List<Change> uncommitted = new ArrayList<Change>();
+
+    /**
+     * Segments that have been written to since the last commit.
+     */
+    private final Set<Segment> dirty = new HashSet<Segment>();
+
+    /**
+     * Creates a segment store in the given directory.
+     *
+     * @param directory directory of the segment files
+     * @param segmentSize size of new segments, in bytes
+     * @param sync whether to force the changes to disk on commit
+     */
+    public SegmentStore(File directory, int segmentSize, boolean sync) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.sync = sync;
+    }
+
+    /**
+     * Opens the existing segments and rebuilds the index. Uncommitted
+     * changes and partially written records at the end of the last segment
+     * are discarded.
+     *
+     * @throws IOException if the segments can not be read
+     */
+    public synchronized void open() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create directory " + directory);
+        }
+        long start = System.currentTimeMillis();
+
+        File[] files = directory.listFiles(new FileFilter() {
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().endsWith(SUFFIX);
+            }
+        });
+        Arrays.sort(files, new Comparator<File>() {
+            public int compare(File a, File b) {
+                return getNumber(a) - getNumber(b);
+            }
+        });
+
+        Map<NodeId, Long> changes = new LinkedHashMap<NodeId, Long>();
+        for (File file : files) {
+            Segment segment = openSegment(file);
+            if (segment == null) {
+                continue;
+            }
+            segments.put(segment.number, segment);
+            active = segment;
+
+            ByteBuffer buffer = segment.buffer.duplicate();
+            int offset = SEGMENT_HEADER_SIZE;
+            boolean valid = true;
+            while (offset + RECORD_HEADER_SIZE <= buffer.capacity()) {
+                byte type = buffer.get(offset + 4);
+                if (type == END) {
+                    break;
+                }
+                NodeId id = readRecord(buffer, offset);
+                if (id == null) {
+                    log.warn("Invalid record at offset " + offset + " of "
+                            + file + ", ignoring the rest of the segment");
+                    valid = false;
+                    break;
+                }
+                if (type == BUNDLE) {
+                    changes.put(id, getLocation(segment.number, offset));
+                } else if (type == DELETE) {
+                    changes.put(id, null);
+                } else if (type == COMMIT) {
+                    for (Map.Entry<NodeId, Long> change : changes.entrySet()) {
+                        setLocation(change.getKey(), change.getValue());
+                    }
+                    changes.clear();
+                } else {
+                    changes.clear();
+                }
+                offset += RECORD_HEADER_SIZE + buffer.getInt(offset);
+            }
+            segment.position = offset;
+            if (!valid) {
+                // clear the partially written record so that it can not be
+                // mistaken for the continuation of the records appended next
+                for (int i = offset; i < buffer.capacity(); i++) {
+                    buffer.put(i, END);
+                }
+                dirty.add(segment);
+            }
+        }
+
+        if (!changes.isEmpty()) {
+            log.warn("Discarding " + changes.size()
+                    + " uncommitted changes in " + directory);
+            append(ROLLBACK, null, null);
+        }
+        force();
+        log.info("Opened " + segments.size() + " segments with "
+                + index.size() + " bundles in " + directory + " in "
+                + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * Commits any pending changes and releases the segments. The mapped
+     * segment files are unmapped once they are garbage collected.
+     *
+     * @throws IOException if the changes can not be written
+     */
+    public synchronized void close() throws IOException {
+        commit();
+        for (Segment segment : segments.values()) {
+            segment.buffer.force();
+        }
+        segments.clear();
+        index.clear();
+        active = null;
+    }
+
+    /**
+     * Returns a copy of the serialized bundle with the given id.
+     *
+     * @param id bundle id
+     * @return serialized bundle, or <code>null</code> if not found
+     */
+    public byte[] get(NodeId id) {
+        while (true) {
+            Long location = index.get(id);
+            if (location == null) {
+                return null;
+            }
+            Segment segment = segments.get(getSegmentNumber(location));
+            if (segment != null) {
+                ByteBuffer buffer = segment.buffer.duplicate();
+                int offset = getOffset(location);
+                byte[] data = new byte[buffer.getInt(offset)];
+                buffer.position(offset + RECORD_HEADER_SIZE);
+                buffer.get(data);
+                return data;
+            }
+            // the record has concurrently been moved by a compaction,
+            // so the index already contains the new location
+        }
+    }
+
+    /**
+     * Checks if a bundle with the given id exists.
+     *
+     * @param id bundle id
+     * @return <code>true</code> if the bundle exists
+     */
+    public boolean containsKey(NodeId id) {
+        return index.containsKey(id);
+    }
+
+    /**
+     * Returns the ids of the stored bundles in ascending order.
+     *
+     * @param after the id after which to start, or <code>null</code>
+     * @param maxCount the maximum number of ids to return, or 0 for all
+     * @return bundle ids
+     */
+    public List<NodeId> getIds(NodeId after, int maxCount) {
+        Map<NodeId, Long> map = index;
+        if (after != null) {
+            map = index.tailMap(after, false);
+        }
+        List<NodeId> ids = new ArrayList<NodeId>();
+        for (NodeId id : map.keySet()) {
+            if (maxCount > 0 && ids.size() >= maxCount) {
+                break;
+            }
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the number of stored bundles.
+     *
+     * @return number of bundles
+     */
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Returns the number of segment files.
+     *
+     * @return number of segments
+     */
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Appends the given serialized bundle. The change is visible to readers
+     * immediately, but only persistent once it is committed.
+     *
+     * @param id bundle id
+     * @param data serialized bundle
+     * @throws IOException if the bundle can not be written
+     */
+    public synchronized void put(NodeId id, byte[] data) throws IOException {
+        long location = append(BUNDLE, id, data);
+        uncommitted.add(new Change(id, setLocation(id, location)));
+    }
+
+    /**
+     * Removes the identified bundle. The change is visible to readers
+     * immediately, but only persistent once it is committed.
+     *
+     * @param id bundle id
+     * @throws IOException if the change can not be written
+     */
+    public synchronized void remove(NodeId id) throws IOException {
+        if (index.containsKey(id)) {
+            append(DELETE, id, null);
+            uncommitted.add(new Change(id, setLocation(id, null)));
+        }
+    }
+
+    /**
+     * Makes all changes since the last commit or rollback persistent.
+     *
+     * @throws IOException if the changes can not be written
+     */
+    public synchronized void commit() throws IOException {
+        if (!uncommitted.isEmpty()) {
+            append(COMMIT, null, null);
+            uncommitted.clear();
+            if (sync) {
+                force();
+            }
+        }
+    }
+
+    /**
+     * Reverts all changes since the last commit or rollback.
+     *
+     * @throws IOException if the rollback can not be written
+     */
+    public synchronized void rollback() throws IOException {
+        if (!uncommitted.isEmpty()) {
+            for (int i = uncommitted.size() - 1; i >= 0; i--) {
+                Change change = uncommitted.get(i);
+                setLocation(change.id, change.previous);
+            }
+            uncommitted.clear();
+            append(ROLLBACK, null, null);
+            if (sync) {
+                force();
+            }
+        }
+    }
+
+    /**
+     * Compacts all segments, except the last one, in which the given ratio
+     * of the space or more is taken by superseded records. The live records
+     * are copied to the end of the last segment and the compacted segments
+     * are removed. Each segment is compacted in its own transaction, so
+     * writers are only blocked while a single segment is compacted.
+     *
+     * @param threshold minimum ratio of garbage, between 0 and 1
+     * @return number of compacted segments
+     * @throws IOException if the segments can not be compacted
+     */
+    public int compact(double threshold) throws IOException {
+        List<Integer> numbers = new ArrayList<Integer>(segments.keySet());
+        Collections.sort(numbers);
+        int count = 0;
+        for (Integer number : numbers) {
+            if (compact(number, threshold)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private synchronized boolean compact(int number, double threshold)
+            throws IOException {
+        Segment segment = segments.get(number);
+        if (segment == null || segment == active || !uncommitted.isEmpty()) {
+            return false;
+        }
+        long used = segment.position - SEGMENT_HEADER_SIZE;
+        if (used > 0 && 1 - (double) segment.live / used < threshold) {
+            return false;
+        }
+
+        boolean oldest = true;
+        for (Integer other : segments.keySet()) {
+            if (other < number) {
+                oldest = false;
+            }
+        }
+
+        ByteBuffer buffer = segment.buffer.duplicate();
+        int offset = SEGMENT_HEADER_SIZE;
+        int moved = 0;
+        while (offset < segment.position) {
+            byte type = buffer.get(offset + 4);
+            int length = buffer.getInt(offset);
+            NodeId id = new NodeId(
+                    buffer.getLong(offset + 5), buffer.getLong(offset + 13));
+            if (type == BUNDLE) {
+                Long location = index.get(id);
+                if (location != null
+                        && location == getLocation(number, offset)) {
+                    byte[] data = new byte[length];
+                    buffer.position(offset + RECORD_HEADER_SIZE);
+                    buffer.get(data);
+                    setLocation(id, append(BUNDLE, id, data));
+                    moved++;
+                }
+            } else if (type == DELETE && !oldest && !index.containsKey(id)) {
+                append(DELETE, id, null);
+            }
+            offset += RECORD_HEADER_SIZE + length;
+        }
+        append(COMMIT, null, null);
+        force();
+
+        // invalidate the segment before deleting it, in case the file
+        // can not be deleted while it is still mapped
+        segments.remove(number);
+        segment.buffer.putInt(0, 0);
+        segment.buffer.force();
+        if (!segment.file.delete()) {
+            log.warn("Failed to delete compacted segment " + segment.file
+                    + ", it will be removed on startup");
+        }
+        log.debug("Compacted segment " + segment.file + ", moved "
+                + moved + " bundles");
+        return true;
+    }
+
+    //-------------------------------------------------------------< internal >
+
+    /**
+     * Appends a record to the active segment, starting a new segment if
+     * needed.
+     *
+     * @return location of the record
+     */
+    private long append(byte type, NodeId id, byte[] data)
+            throws IOException {
+        int length = data == null ? 0 : data.length;
+        int size = RECORD_HEADER_SIZE + length;
+        if (active == null || active.position + size > active.buffer.capacity()) {
+            int number = active == null ? 1 : active.number + 1;
+            active = createSegment(
+                    number, Math.max(segmentSize, SEGMENT_HEADER_SIZE + size));
+            segments.put(number, active);
+        }
+
+        long msb = id == null ? 0 : id.getMostSignificantBits();
+        long lsb = id == null ? 0 : id.getLeastSignificantBits();
+        int offset = active.position;
+        ByteBuffer buffer = active.buffer.duplicate();
+        buffer.position(offset);
+        buffer.putInt(length);
+        buffer.put(type);
+        buffer.putLong(msb);
+        buffer.putLong(lsb);
+        buffer.putInt(checksum(type, msb, lsb, data));
+        if (data != null) {
+            buffer.put(data);
+        }
+        active.position += size;
+        dirty.add(active);
+        return getLocation(active.number, offset);
+    }
+
+    /**
+     * Reads and verifies the record at the given offset.
+     *
+     * @return the node id of the record, or <code>null</code> if the record
+     *         is invalid
+     */
+    private static NodeId readRecord(ByteBuffer buffer, int offset) {
+        int length = buffer.getInt(offset);
+        byte type = buffer.get(offset + 4);
+        if (length < 0 || type < BUNDLE || type > ROLLBACK
+                || length > buffer.capacity() - offset - RECORD_HEADER_SIZE) {
+            return null;
+        }
+        long msb = buffer.getLong(offset + 5);
+        long lsb = buffer.getLong(offset + 13);
+        byte[] data = null;
+        if (length > 0) {
+            data = new byte[length];
+            ByteBuffer duplicate = buffer.duplicate();
+            duplicate.position(offset + RECORD_HEADER_SIZE);
+            duplicate.get(data);
+        }
+        if (checksum(type, msb, lsb, data) != buffer.getInt(offset + 21)) {
+            return null;
+        }
+        return new NodeId(msb, lsb);
+    }
+
+    private static int checksum(byte type, long msb, long lsb, byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            crc.update((int) (msb >>> shift));
+            crc.update((int) (lsb >>> shift));
+        }
+        if (data != null) {
+            crc.update(data);
+        }
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Updates the index and the live record sizes of the affected segments.
+     *
+     * @param id bundle id
+     * @param location new location, or <code>null</code> if deleted
+     * @return the previous location, or <code>null</code>
+     */
+    private Long setLocation(NodeId id, Long location) {
+        Long previous;
+        if (location != null) {
+            previous = index.put(id, location);
+            updateLive(location, 1);
+        } else {
+            previous = index.remove(id);
+        }
+        if (previous != null) {
+            updateLive(previous, -1);
+        }
+        return previous;
+    }
+
+    private void updateLive(long location, int sign) {
+        Segment segment = segments.get(getSegmentNumber(location));
+        if (segment != null) {
+            int offset = getOffset(location);
+            segment.live += sign
+                * (RECORD_HEADER_SIZE + segment.buffer.getInt(offset));
+        }
+    }
+
+    private void force() {
+        for (Segment segment : dirty) {
+            segment.buffer.force();
+        }
+        dirty.clear();
+    }
+
+    private Segment createSegment(int number, int size) throws IOException {
+        File file = new File(directory, getFileName(number));
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            MappedByteBuffer buffer =
+                raf.getChannel().map(MapMode.READ_WRITE, 0, size);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            return new Segment(number, file, buffer);
+        } finally {
+            // the mapping stays valid after the file is closed
+            raf.close();
+        }
+    }
+
+    /**
+     * Maps an existing segment file.
+     *
+     * @return the segment, or <code>null</code> if the segment has been
+     *         invalidated by a compaction and was removed
+     */
+    private Segment openSegment(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        MappedByteBuffer buffer;
+        try {
+            buffer = raf.getChannel().map(MapMode.READ_WRITE, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+        if (buffer.capacity() < SEGMENT_HEADER_SIZE || buffer.getInt(0) == 0) {
+            if (!file.delete()) {
+                log.warn("Failed to delete compacted segment " + file);
+            }
+            return null;
+        } else if (buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a segment file: " + file);
+        } else if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported segment version "
+                    + buffer.getInt(4) + ": " + file);
+        }
+        return new Segment(getNumber(file), file, buffer);
+    }
+
+    private static String getFileName(int number) {
+        String name = Integer.toString(number);
+        while (name.length() < 8) {
+            name = "0" + name;
+        }
+        return name + SUFFIX;
+    }
+
+    private static int getNumber(File file) {
+        String name = file.getName();
+        return Integer.parseInt(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    private static long getLocation(int number, int offset) {
+        return ((long) number << 32) | (offset & 0xffffffffL);
+    }
+
+    private static int getSegmentNumber(long location) {
+        return (int) (location >>> 32);
+    }
+
+    private static int getOffset(long location) {
+        return (int) location;
+    }
+
+    private static class Segment {
+
+        private final int number;
+
+        private final File file;
+
+        private final MappedByteBuffer buffer;
+
+        /**
+         * The offset of the end of the records. Guarded by the store.
+         */
+        private int position = SEGMENT_HEADER_SIZE;
+
+        /**
+         * The total size of the records referenced by the index. Guarded
+         * by the store.
+         */
+        private long live;
+
+        Segment(int number, File file, MappedByteBuffer buffer) {
+            this.number = number;
+            this.file = file;
+            this.buffer = buffer;
+        }
+
+    }
+
+    private static class Change {
+
+        private final NodeId id;
+
+        private final Long previous;
+
+        Change(NodeId id, Long previous) {
+            this.id = id;
+            this.previous = previous;
+        }
+
+    }
+
+}
@@ -22,12 +22,15 @@ import org.apache.jackrabbit.core.CachingHierarchyManager;
 import org.apache.jackrabbit.core.HierarchyManager;
 import org.apache.jackrabbit.core.NamespaceRegistryImpl;
 import org.apache.jackrabbit.core.RepositoryContext;
+import org.apache.jackrabbit.core.RepositoryImpl;
+import org.apache.jackrabbit.core.cache.CacheManager;
 import org.apache.jackrabbit.core.cluster.ClusterNode;
 import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.nodetype.NodeTypeRegistry;
 import org.apache.jackrabbit.core.persistence.PersistenceManager;
 import org.apache.jackrabbit.core.state.ItemStateManager;
 import org.apache.jackrabbit.core.state.SharedItemStateManager;
+import org.apache.jackrabbit.stats.QueryStatCore;
 
 /**
  * Acts as an argument for the {@link QueryHandler} to keep the interface
@@ -224,4 +227,27 @@ public class QueryHandlerContext {
     public String getWorkspace() {
         return workspace;
     }
+
+    /**
+     * Returns the cache manager of this repository, or <code>null</code> if
+     * the caches are not managed.
+     *
+     * @return cache manager
+     */
+    public CacheManager getCacheManager() {
+        RepositoryImpl repository = repositoryContext.getRepository();
+        if (repository == null) {
+            return null;
+        }
+        return repository.getCacheManager();
+    }
+
+    /**
+     * Returns the query statistics of the repository.
+     *
+     * @return query statistics
+     */
+    public QueryStatCore getQueryStat() {
+        return repositoryContext.getStatManager().getQueryStat();
+    }
 }
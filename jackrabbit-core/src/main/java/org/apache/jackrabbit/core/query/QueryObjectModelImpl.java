@@ -146,6 +146,30 @@ public class QueryObjectModelImpl extends QueryImpl implements QueryObjectModel
         return result;
     }
 
+    /**
+     * Returns the plan of this query without executing it: the order and
+     * strategy of its joins and the estimated number of rows of each
+     * selector.
+     *
+     * @return the plan of this query.
+     * @throws RepositoryException if the query cannot be planned.
+     */
+    public String explain() throws RepositoryException {
+        return sessionContext.getSessionState().perform(
+                new SessionOperation<String>() {
+                    public String perform(SessionContext context)
+                            throws RepositoryException {
+                        QueryEngine engine = new QueryEngine(
+                                sessionContext.getSessionImpl(), lqf, variables);
+                        return engine.explain(getSource(), getConstraint());
+                    }
+
+                    public String toString() {
+                        return "query.explain(" + statement + ")";
+                    }
+                });
+    }
+
     @Override
     public String[] getBindVariableNames() {
         return variables.keySet().toArray(new String[variables.size()]);
@@ -98,6 +98,12 @@ abstract class AbstractIndex {
      */
     private DocNumberCache cache;
 
+    /**
+     * The cache of frequently read term docs, or <code>null</code> if term
+     * docs are not cached for this index.
+     */
+    private TermDocsCache termDocsCache;
+
     /** The shared IndexReader for all read-only IndexReaders */
     private SharedIndexReader sharedReader;
 
@@ -311,7 +317,7 @@ abstract class AbstractIndex {
             // create new shared reader
             IndexReader reader = IndexReader.open(getDirectory(), termInfosIndexDivisor);
             CachingIndexReader cr = new CachingIndexReader(
-                    reader, cache, initCache);
+                    reader, cache, termDocsCache, initCache);
             sharedReader = new SharedIndexReader(cr);
         }
         readOnlyReader = new ReadOnlyIndexReader(sharedReader, 
@@ -555,6 +561,16 @@ abstract class AbstractIndex {
         this.termInfosIndexDivisor = termInfosIndexDivisor;
     }
 
+    /**
+     * Sets the cache of frequently read term docs. The cache is used by the
+     * readers that are opened after this call.
+     *
+     * @param termDocsCache the term docs cache or <code>null</code>.
+     */
+    void setTermDocsCache(TermDocsCache termDocsCache) {
+        this.termDocsCache = termDocsCache;
+    }
+
     //------------------------------< internal >--------------------------------
 
     /**
@@ -113,4 +113,15 @@ public abstract class AbstractQueryImpl implements ExecutableQuery {
      *         /jcr:system to be queried; <code>false</code> otherwise.
      */
     public abstract boolean needsSystemTree();
+
+    /**
+     * Returns the statement that identifies this query in the query result
+     * cache of the search index.
+     *
+     * @return the statement or <code>null</code> if the hits of this query
+     *         must not be cached.
+     */
+    public String getCacheStatement() {
+        return null;
+    }
 }
@@ -0,0 +1,507 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.BitSet;
+
+import javax.jcr.ItemNotFoundException;
+import javax.jcr.RepositoryException;
+
+import org.apache.jackrabbit.core.SessionImpl;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.security.AccessManager;
+import org.apache.jackrabbit.core.security.authorization.AccessControlConstants;
+import org.apache.jackrabbit.spi.Name;
+import org.apache.jackrabbit.spi.commons.conversion.IllegalNameException;
+import org.apache.jackrabbit.spi.commons.name.NameConstants;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Filter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <code>AccessControlFilter</code> is a lucene filter that only lets pass
+ * the documents of nodes the session is allowed to read. The filter is
+ * compiled from the access controlled nodes (<code>rep:AccessControllable</code>)
+ * in the index: the read permission of a node is the read permission of its
+ * nearest access controlled ancestor-or-self, which is evaluated once with
+ * the access manager of the session. The documents are evaluated lazily
+ * while the query is scored, and the result is remembered for all the
+ * documents between a node and its access controlled ancestor.
+ * <p>
+ * The filter may let pass documents that are not readable, but never drops
+ * readable ones. Subtrees of access controlled nodes with restricted
+ * entries (<code>rep:glob</code>), access control content, shared nodes and
+ * nodes that cannot be evaluated are always passed. The query result still
+ * checks each node it returns with {@link AccessManager#canRead}.
+ * <p>
+ * This filter assumes the resource based access control of the
+ * <code>acl</code> provider, where the entries are stored with the access
+ * controlled nodes. The {@link SearchIndex} only applies it to sessions of
+ * that provider, and keeps the {@link Compiled compiled} filter of a
+ * session until the index changes.
+ */
+public class AccessControlFilter extends Filter {
+
+    /**
+     * The logger instance for this class.
+     */
+    private static final Logger log = LoggerFactory.getLogger(AccessControlFilter.class);
+
+    /**
+     * The read permission of a document has not been evaluated yet.
+     */
+    private static final byte UNKNOWN = 0;
+
+    /**
+     * The document is readable.
+     */
+    private static final byte GRANTED = 1;
+
+    /**
+     * The document is not readable.
+     */
+    private static final byte DENIED = 2;
+
+    /**
+     * The read permission of the document cannot be derived from its access
+     * controlled ancestor. The document is passed to the access check of
+     * the query result.
+     */
+    private static final byte UNDECIDED = 3;
+
+    /**
+     * The session that executes the query.
+     */
+    private final SessionImpl session;
+
+    /**
+     * The index reader the filter is compiled for.
+     */
+    private final IndexReader reader;
+
+    /**
+     * The hierarchy resolver of the index reader.
+     */
+    private final HierarchyResolver resolver;
+
+    /**
+     * The access controlled nodes and the read permissions evaluated so far.
+     */
+    private final Compiled compiled;
+
+    /**
+     * Creates a new access control filter for the given reader.
+     *
+     * @param session    the session that executes the query.
+     * @param reader     the index reader, which must implement
+     *                   {@link HierarchyResolver}.
+     * @param nsMappings the namespace mappings of the index.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    public AccessControlFilter(SessionImpl session,
+                               IndexReader reader,
+                               NamespaceMappings nsMappings)
+            throws IOException {
+        this(session, reader, new Compiled(reader, nsMappings));
+    }
+
+    /**
+     * Creates a new access control filter for the given reader that
+     * continues with the read permissions evaluated by an earlier filter of
+     * the same session.
+     *
+     * @param session  the session that executes the query.
+     * @param reader   the index reader, which must implement
+     *                 {@link HierarchyResolver}.
+     * @param compiled the compiled filter of the session, which must be
+     *                 {@link Compiled#isCompiledFor(IndexReader) compiled
+     *                 for} the reader.
+     */
+    AccessControlFilter(SessionImpl session,
+                        IndexReader reader,
+                        Compiled compiled) {
+        this.session = session;
+        this.reader = reader;
+        this.resolver = (HierarchyResolver) reader;
+        this.compiled = compiled;
+    }
+
+    /**
+     * @return the access controlled nodes and the read permissions evaluated
+     *         by this filter, which may be shared with later filters of the
+     *         session.
+     */
+    Compiled getCompiled() {
+        return compiled;
+    }
+
+    /**
+     * Returns <code>true</code> if the document with the given number may
+     * be readable by the session, that is, if the filter lets it pass.
+     *
+     * @param doc a document number of the reader the filter is compiled
+     *            for.
+     * @return <code>false</code> if the node of the document is not
+     *         readable.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    public boolean isReadable(int doc) throws IOException {
+        if (reader.isDeleted(doc)) {
+            return false;
+        }
+        return getState(doc) != DENIED;
+    }
+
+    /**
+     * Returns a filtered view of the given hits that only contains the
+     * nodes that may be readable.
+     *
+     * @param hits the query hits.
+     * @return the filtered hits.
+     */
+    public QueryHits filter(final QueryHits hits) {
+        return new AbstractQueryHits() {
+
+            public ScoreNode nextScoreNode() throws IOException {
+                ScoreNode sn;
+                do {
+                    sn = hits.nextScoreNode();
+                } while (sn != null && !isReadable(sn.getDoc(reader)));
+                return sn;
+            }
+
+            public void close() throws IOException {
+                hits.close();
+            }
+        };
+    }
+
+    //---------------------------------< Filter >-------------------------------
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Documents of readers other than the one this filter is compiled for
+     * are all passed.
+     */
+    @Override
+    public DocIdSet getDocIdSet(final IndexReader r) throws IOException {
+        final boolean all = r != reader;
+        if (all) {
+            log.debug("Filter is not compiled for reader {}, passing all documents", r);
+        }
+        return new DocIdSet() {
+            @Override
+            public DocIdSetIterator iterator() {
+                return new ReadableDocs(r.maxDoc(), all);
+            }
+        };
+    }
+
+    //--------------------------------< internal >------------------------------
+
+    /**
+     * Evaluates the read permission of a document. The hierarchy is walked
+     * up to the nearest document whose permission is known or that decides
+     * the permission, and the result is stored for all documents on the way.
+     *
+     * @param doc the document number.
+     * @return the read permission of the document.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    private byte getState(int doc) throws IOException {
+        byte[] states = compiled.states;
+        byte state = states[doc];
+        if (state != UNKNOWN) {
+            return state;
+        }
+        int[] path = new int[16];
+        int[] parents = new int[1];
+        int length = 0;
+        int n = doc;
+        for (;;) {
+            state = states[n];
+            if (state != UNKNOWN) {
+                break;
+            }
+            if (length == path.length) {
+                int[] tmp = new int[path.length * 2];
+                System.arraycopy(path, 0, tmp, 0, length);
+                path = tmp;
+            }
+            path[length++] = n;
+            if (compiled.undecided.get(n)) {
+                state = UNDECIDED;
+                break;
+            }
+            parents = resolver.getParents(n, parents);
+            if (parents.length == 0) {
+                // root node or orphan, nothing is inherited
+                state = evaluate(n);
+                break;
+            } else if (parents.length > 1) {
+                // shareable node, readable if one of its paths is readable
+                state = UNDECIDED;
+                break;
+            } else if (compiled.accessControlled.get(n)) {
+                // restricted entries of an ancestor may apply to this subtree
+                state = getState(parents[0]) == UNDECIDED ? UNDECIDED : evaluate(n);
+                break;
+            }
+            n = parents[0];
+        }
+        for (int i = 0; i < length; i++) {
+            states[path[i]] = state;
+        }
+        return state;
+    }
+
+    /**
+     * Checks the read permission of the node of the given document with
+     * the access manager of the session.
+     *
+     * @param doc the document number.
+     * @return {@link #GRANTED}, {@link #DENIED} or {@link #UNDECIDED} if the
+     *         permission cannot be checked.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    private byte evaluate(int doc) throws IOException {
+        NodeId id = new NodeId(reader.document(
+                doc, FieldSelectors.UUID).get(FieldNames.UUID));
+        try {
+            if (session.getAccessManager().canRead(null, id)) {
+                return GRANTED;
+            } else {
+                return DENIED;
+            }
+        } catch (ItemNotFoundException e) {
+            // node deleted while the query is executed
+            return UNDECIDED;
+        } catch (RepositoryException e) {
+            log.warn("Unable to check read access on " + id, e);
+            return UNDECIDED;
+        }
+    }
+
+    /**
+     * Sets the documents that contain the given term in <code>docs</code>.
+     *
+     * @param reader the index reader.
+     * @param term   a term.
+     * @param docs   the document numbers.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    private static void collect(IndexReader reader, Term term, BitSet docs)
+            throws IOException {
+        TermDocs tDocs = reader.termDocs(term);
+        try {
+            while (tDocs.next()) {
+                docs.set(tDocs.doc());
+            }
+        } finally {
+            tDocs.close();
+        }
+    }
+
+    /**
+     * Creates a term for a name valued property.
+     *
+     * @param field      the translated property name.
+     * @param value      the value.
+     * @param nsMappings the namespace mappings of the index.
+     * @return the term.
+     * @throws IllegalNameException if the value cannot be translated.
+     */
+    private static Term propertyTerm(String field,
+                                     Name value,
+                                     NamespaceMappings nsMappings)
+            throws IllegalNameException {
+        return new Term(FieldNames.PROPERTIES, FieldNames.createNamedValue(
+                field, nsMappings.translateName(value)));
+    }
+
+    /**
+     * The access controlled nodes of an index reader and the read
+     * permissions of its documents evaluated for a session. It does not
+     * reference the session, and can be kept with the session for the
+     * filters of its queries as long as the index does not change.
+     */
+    static final class Compiled {
+
+        /**
+         * The sub readers the document numbers refer to.
+         */
+        private final WeakReference<IndexReader>[] segments;
+
+        /**
+         * The documents of the access controlled nodes.
+         */
+        private final BitSet accessControlled = new BitSet();
+
+        /**
+         * The documents whose read permission cannot be derived from an
+         * access controlled ancestor.
+         */
+        private final BitSet undecided = new BitSet();
+
+        /**
+         * The evaluated read permissions, indexed by document number.
+         */
+        private final byte[] states;
+
+        /**
+         * Collects the access controlled nodes of the given reader.
+         *
+         * @param reader     the index reader, which must implement
+         *                   {@link HierarchyResolver}.
+         * @param nsMappings the namespace mappings of the index.
+         * @throws IOException if an error occurs while reading from the index.
+         */
+        @SuppressWarnings("unchecked")
+        private Compiled(IndexReader reader, NamespaceMappings nsMappings)
+                throws IOException {
+            IndexReader[] readers = getSegments(reader);
+            this.segments = new WeakReference[readers.length];
+            for (int i = 0; i < readers.length; i++) {
+                segments[i] = new WeakReference<IndexReader>(readers[i]);
+            }
+            this.states = new byte[reader.maxDoc()];
+            HierarchyResolver resolver = (HierarchyResolver) reader;
+            try {
+                String mixinTypes = nsMappings.translateName(NameConstants.JCR_MIXINTYPES);
+                String primaryType = nsMappings.translateName(NameConstants.JCR_PRIMARYTYPE);
+                collect(reader, propertyTerm(mixinTypes,
+                        AccessControlConstants.NT_REP_ACCESS_CONTROLLABLE, nsMappings),
+                        accessControlled);
+                collect(reader, propertyTerm(mixinTypes,
+                        AccessControlConstants.NT_REP_REPO_ACCESS_CONTROLLABLE, nsMappings),
+                        accessControlled);
+                // access control content is checked with READ_AC and not READ
+                collect(reader, propertyTerm(primaryType,
+                        AccessControlConstants.NT_REP_ACL, nsMappings), undecided);
+                collect(reader, propertyTerm(primaryType,
+                        AccessControlConstants.NT_REP_GRANT_ACE, nsMappings), undecided);
+                collect(reader, propertyTerm(primaryType,
+                        AccessControlConstants.NT_REP_DENY_ACE, nsMappings), undecided);
+                // restricted entries: ace -> acl -> access controlled node
+                BitSet restricted = new BitSet();
+                collect(reader, new Term(FieldNames.PROPERTIES_SET, nsMappings.translateName(
+                        AccessControlConstants.P_GLOB)), restricted);
+                for (int i = restricted.nextSetBit(0); i >= 0; i = restricted.nextSetBit(i + 1)) {
+                    int[] acl = resolver.getParents(i, new int[1]);
+                    for (int aclDoc : acl) {
+                        for (int node : resolver.getParents(aclDoc, new int[1])) {
+                            undecided.set(node);
+                        }
+                    }
+                }
+            } catch (IllegalNameException e) {
+                throw Util.createIOException(e);
+            }
+        }
+
+        /**
+         * Returns <code>true</code> if the document numbers of the given
+         * reader are the ones this filter was compiled for, that is, if the
+         * reader reads the same sub readers with the same deletions.
+         *
+         * @param reader an index reader.
+         * @return whether this filter can be used for the reader.
+         */
+        boolean isCompiledFor(IndexReader reader) {
+            IndexReader[] readers = getSegments(reader);
+            if (readers.length != segments.length) {
+                return false;
+            }
+            for (int i = 0; i < readers.length; i++) {
+                if (segments[i].get() != readers[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Returns the sub readers of a reader. The sub readers are replaced
+         * whenever documents are added to or deleted from them.
+         *
+         * @param reader an index reader.
+         * @return the index segments.
+         */
+        private static IndexReader[] getSegments(IndexReader reader) {
+            if (reader instanceof MultiIndexReader) {
+                return ((MultiIndexReader) reader).getIndexReaders();
+            }
+            return new IndexReader[]{reader};
+        }
+    }
+
+    /**
+     * Iterates over the documents that may be readable.
+     */
+    private final class ReadableDocs extends DocIdSetIterator {
+
+        /**
+         * The number of documents.
+         */
+        private final int maxDoc;
+
+        /**
+         * Whether all documents are passed.
+         */
+        private final boolean all;
+
+        /**
+         * The current document.
+         */
+        private int doc = -1;
+
+        ReadableDocs(int maxDoc, boolean all) {
+            this.maxDoc = maxDoc;
+            this.all = all;
+        }
+
+        @Override
+        public int docID() {
+            return doc;
+        }
+
+        @Override
+        public int nextDoc() throws IOException {
+            return advance(doc + 1);
+        }
+
+        @Override
+        public int advance(int target) throws IOException {
+            for (int d = Math.max(target, doc + 1); d < maxDoc; d++) {
+                if (all || isReadable(d)) {
+                    doc = d;
+                    return doc;
+                }
+            }
+            doc = NO_MORE_DOCS;
+            return doc;
+        }
+    }
+}
@@ -16,8 +16,12 @@
  */
 package org.apache.jackrabbit.core.query.lucene;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
 import java.text.NumberFormat;
 import java.util.Arrays;
 import java.util.BitSet;
@@ -28,6 +32,7 @@ import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.collections.map.LRUMap;
 import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.query.lucene.directory.FSDirectoryManager;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.FieldSelector;
 import org.apache.lucene.index.CorruptIndexException;
@@ -37,6 +42,7 @@ import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.TermDocs;
 import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.IndexInput;
 import org.apache.lucene.store.IndexOutput;
 import org.apache.lucene.util.ReaderUtil;
@@ -47,6 +53,17 @@ import org.slf4j.LoggerFactory;
  * Implements an <code>IndexReader</code> that maintains caches to resolve
  * {@link #getParent(int, BitSet)} calls efficiently.
  * <p>
+ * Once initialized, the parent document numbers are persisted in a file
+ * next to the segments of the index. The file is memory mapped when the
+ * index is stored in the file system, so that the hierarchy cache of an
+ * index is available right away when the index is opened again and is not
+ * kept on the heap. The mapping is read-only, changes to the parent relation
+ * are kept in memory until the cache is saved again.
+ * <p>
+ * Please note that a memory mapped file is only unmapped when the buffer is
+ * garbage collected. On Windows, the directory of an obsolete index can
+ * therefore not be deleted as long as the mapping exists. The deletion is
+ * retried later in that case.
  */
 class CachingIndexReader extends FilterIndexReader {
 
@@ -75,11 +92,18 @@ class CachingIndexReader extends FilterIndexReader {
     private final BitSet shareableNodes;
 
     /**
-     * Cache of nodes parent relation. If an entry in the array is >= 0,
-     * then that means the node with the document number = array-index has the
-     * node with the value at that position as parent.
+     * Cache of nodes parent relation. If an entry in the buffer is >= 0,
+     * then that means the node with the document number = buffer-index has
+     * the node with the value at that position as parent. The buffer is
+     * either backed by an array or by the memory mapped cache file.
+     */
+    private volatile IntBuffer inSegmentParents;
+
+    /**
+     * Changes to the parent relation of a memory mapped and therefore read-only
+     * {@link #inSegmentParents}, which are kept until the cache is saved again.
      */
-    private final int[] inSegmentParents;
+    private final Map<Integer, Integer> updatedParents = new ConcurrentHashMap<Integer, Integer>();
 
     /**
      * Cache of nodes parent relation that point to a foreign index segment.
@@ -108,7 +132,8 @@ class CachingIndexReader extends FilterIndexReader {
     private final Map<Integer, NodeId> docNumber2id;
 
     /**
-     * A cache of TermDocs that are regularly read from the index.
+     * A cache of TermDocs that are regularly read from the index, or
+     * <code>null</code> if term docs are not cached.
      */
     private final TermDocsCache termDocsCache;
 
@@ -123,24 +148,51 @@ class CachingIndexReader extends FilterIndexReader {
      *                  when this index reader is constructed.
      * @throws IOException if an error occurs while reading from the index.
      */
+    CachingIndexReader(IndexReader delegatee,
+                       DocNumberCache cache,
+                       boolean initCache)
+            throws IOException {
+        this(delegatee, cache, null, initCache);
+    }
+
+    /**
+     * Creates a new <code>CachingIndexReader</code> based on
+     * <code>delegatee</code>
+     *
+     * @param delegatee     the base <code>IndexReader</code>.
+     * @param cache         a document number cache, or <code>null</code> if
+     *                      not available to this reader.
+     * @param termDocsCache a cache of frequently read term docs, or
+     *                      <code>null</code> if term docs are not cached.
+     * @param initCache     if the parent caches should be initialized
+     *                      when this index reader is constructed.
+     * @throws IOException if an error occurs while reading from the index.
+     */
     @SuppressWarnings("unchecked")
     CachingIndexReader(IndexReader delegatee,
                        DocNumberCache cache,
+                       TermDocsCache termDocsCache,
                        boolean initCache)
             throws IOException {
         super(delegatee);
         this.cache = cache;
-        this.inSegmentParents = new int[delegatee.maxDoc()];
-        Arrays.fill(this.inSegmentParents, -1);
+        this.termDocsCache = termDocsCache;
         this.shareableNodes = initShareableNodes(delegatee);
         this.cacheInitializer = new CacheInitializer(delegatee);
-        if (initCache) {
-            cacheInitializer.run();
+        IntBuffer parents = cacheInitializer.loadCacheFromFile();
+        if (parents != null) {
+            this.inSegmentParents = parents;
+        } else {
+            int[] array = new int[delegatee.maxDoc()];
+            Arrays.fill(array, -1);
+            this.inSegmentParents = IntBuffer.wrap(array);
+            if (initCache) {
+                cacheInitializer.run();
+            }
         }
         // limit cache to 1% of maxDoc(), but at least 10.
         this.docNumber2id = Collections.synchronizedMap(
                 new LRUMap(Math.max(10, delegatee.maxDoc() / 100)));
-        this.termDocsCache = new TermDocsCache(delegatee, FieldNames.PROPERTIES);
     }
 
     private BitSet initShareableNodes(IndexReader delegatee) throws IOException {
@@ -170,7 +222,8 @@ class CachingIndexReader extends FilterIndexReader {
     DocId getParent(int n, BitSet deleted) throws IOException {
         DocId parent;
         boolean existing = false;
-        int parentDocNum = inSegmentParents[n];
+        IntBuffer parents = inSegmentParents;
+        int parentDocNum = getInSegmentParent(parents, n);
         if (parentDocNum != -1) {
             parent = DocId.create(parentDocNum);
         } else {
@@ -226,7 +279,7 @@ class CachingIndexReader extends FilterIndexReader {
             // finally put to cache
             if (plainDocId != -1) {
                 // PlainDocId
-                inSegmentParents[n] = plainDocId;
+                setInSegmentParent(parents, n, plainDocId);
             } else {
                 // UUIDDocId
                 foreignParentDocIds.put(n, parent);
@@ -235,7 +288,7 @@ class CachingIndexReader extends FilterIndexReader {
                     // inSegmentParents, which was invalid and is replaced
                     // with a UUIDDocId (points to a foreign segment).
                     // mark as unknown
-                    inSegmentParents[n] = -1;
+                    setInSegmentParent(parents, n, -1);
                 }
             }
         }
@@ -339,7 +392,10 @@ class CachingIndexReader extends FilterIndexReader {
                 }
             }
         }
-        return termDocsCache.termDocs(term);
+        if (termDocsCache != null) {
+            return termDocsCache.termDocs(in, term);
+        }
+        return in.termDocs(term);
     }
 
     /**
@@ -351,11 +407,49 @@ class CachingIndexReader extends FilterIndexReader {
         } catch (InterruptedException e) {
             // ignore
         }
+        if (termDocsCache != null) {
+            termDocsCache.clear(in);
+        }
+        // release a memory mapped cache file as early as possible
+        inSegmentParents = null;
+        updatedParents.clear();
         super.doClose();
     }
 
     //----------------------< internal >----------------------------------------
 
+    /**
+     * Returns the parent document number of <code>n</code> in this segment,
+     * or -1 if unknown.
+     *
+     * @param parents the current {@link #inSegmentParents}.
+     * @param n the document number.
+     * @return the parent document number or -1.
+     */
+    private int getInSegmentParent(IntBuffer parents, int n) {
+        Integer updated = updatedParents.get(n);
+        if (updated != null) {
+            return updated;
+        }
+        return parents.get(n);
+    }
+
+    /**
+     * Sets the parent document number of <code>n</code> in this segment. If
+     * <code>parents</code> is read-only, the change is kept in memory.
+     *
+     * @param parents the current {@link #inSegmentParents}.
+     * @param n the document number.
+     * @param parent the parent document number or -1 if unknown.
+     */
+    private void setInSegmentParent(IntBuffer parents, int n, int parent) {
+        if (parents.isReadOnly()) {
+            updatedParents.put(n, parent);
+        } else {
+            parents.put(n, parent);
+        }
+    }
+
     /**
      * Returns the next creation tick value.
      *
@@ -376,7 +470,18 @@ class CachingIndexReader extends FilterIndexReader {
         /**
          * The {@link #inSegmentParents} is persisted using this filename.
          */
-        private static final String FILE_CACHE_NAME_ARRAY = "cache.inSegmentParents";
+        private static final String FILE_CACHE_NAME_ARRAY = "cache.parents";
+
+        /**
+         * The file name used by previous versions, which did not record the
+         * segments the persisted cache belongs to.
+         */
+        private static final String FILE_CACHE_NAME_ARRAY_OLD = "cache.inSegmentParents";
+
+        /**
+         * Marks the start of a persisted cache file.
+         */
+        private static final int FILE_CACHE_MAGIC = 0x4A524843;
 
         /**
          * From where to read.
@@ -414,13 +519,10 @@ class CachingIndexReader extends FilterIndexReader {
                     // immediately return when stop is requested
                     return;
                 }
-                boolean initCacheFromFile = loadCacheFromFile();
-                if (!initCacheFromFile) {
-                    // file-based cache is not available, load from the
-                    // repository
-                    log.debug("persisted cache is not available, will load directly from the repository.");
-                    initializeParents(reader);
-                }
+                // file-based cache is not available, load from the
+                // repository
+                log.debug("persisted cache is not available, will load directly from the repository.");
+                initializeParents(reader);
             } catch (Exception e) {
                 // only log warn message during regular operation
                 if (!stopRequested) {
@@ -549,7 +651,7 @@ class CachingIndexReader extends FilterIndexReader {
                         }
                     }
                     if (parentDocId != -1) {
-                        inSegmentParents[info.docId] = parentDocId;
+                        setInSegmentParent(inSegmentParents, info.docId, parentDocId);
                     } else if (info.parent != null) {
                         foreignParents++;
                         foreignParentDocIds.put(info.docId, DocId.create(info.parent));
@@ -567,12 +669,12 @@ class CachingIndexReader extends FilterIndexReader {
                 NumberFormat nf = NumberFormat.getPercentInstance();
                 nf.setMaximumFractionDigits(1);
                 time = System.currentTimeMillis() - time;
-                if (inSegmentParents.length > 0) {
-                    foreignParents /= inSegmentParents.length;
+                if (inSegmentParents.capacity() > 0) {
+                    foreignParents /= inSegmentParents.capacity();
                 }
                 log.debug("initialized {} DocIds in {} ms, {} foreign parents",
                         new Object[]{
-                            inSegmentParents.length,
+                            inSegmentParents.capacity(),
                             time,
                             nf.format(foreignParents)
                         });
@@ -626,16 +728,31 @@ class CachingIndexReader extends FilterIndexReader {
         /**
          * Persists the cache info {@link #inSegmentParents} to a file:
          * {@link #FILE_CACHE_NAME_ARRAY}, for faster init times on startup.
+         * The file starts with the number of documents and the names of
+         * the segments of the index, which are checked when the file is
+         * loaded again. If the index is stored in the file system, the
+         * cache is memory mapped from the file afterwards.
          * 
          * see https://issues.apache.org/jira/browse/JCR-3107
          */
         public void saveCacheToFile() throws IOException {
+            String segments = Util.getSegmentNames(reader);
+            if (segments == null) {
+                // cannot be validated when loaded again
+                return;
+            }
             IndexOutput io = null;
+            boolean saved = false;
             try {
                 io = reader.directory().createOutput(FILE_CACHE_NAME_ARRAY);
-                for (int parent : inSegmentParents) {
-                    io.writeInt(parent);
+                io.writeInt(FILE_CACHE_MAGIC);
+                io.writeInt(reader.maxDoc());
+                io.writeString(segments);
+                IntBuffer parents = inSegmentParents;
+                for (int i = 0; i < parents.capacity(); i++) {
+                    io.writeInt(getInSegmentParent(parents, i));
                 }
+                saved = true;
             } catch (Exception e) {
                 log.error(
                         "Error saving " + FILE_CACHE_NAME_ARRAY + ": "
@@ -645,30 +762,77 @@ class CachingIndexReader extends FilterIndexReader {
                     io.close();
                 }
             }
+            if (saved && FSDirectoryManager.getFileSystemDirectory(
+                    reader.directory()) != null) {
+                IntBuffer mapped = loadCacheFromFile();
+                if (mapped != null) {
+                    inSegmentParents = mapped;
+                    updatedParents.clear();
+                }
+            }
         }
 
         /**
          * Loads the cache info {@link #inSegmentParents} from the file
-         * {@link #FILE_CACHE_NAME_ARRAY}.
+         * {@link #FILE_CACHE_NAME_ARRAY}. The file is memory mapped read-only
+         * if the index is stored in the file system, otherwise it is read into
+         * an array. A file that was written for different segments is deleted.
          * 
          * see https://issues.apache.org/jira/browse/JCR-3107
          * 
-         * @return true if the cache has been initialized of false if the cache
-         *         file does not exist yet, or an error happened
+         * @return the persisted cache or <code>null</code> if the cache file
+         *         does not exist yet, is outdated, or an error happened
+         * @throws IOException if a corrupt cache file cannot be deleted.
          */
-        private boolean loadCacheFromFile() throws IOException {
+        IntBuffer loadCacheFromFile() throws IOException {
+            Directory dir = reader.directory();
+            if (dir.fileExists(FILE_CACHE_NAME_ARRAY_OLD)) {
+                dir.deleteFile(FILE_CACHE_NAME_ARRAY_OLD);
+            }
+            String segments = Util.getSegmentNames(reader);
+            if (segments == null) {
+                return null;
+            }
             IndexInput ii = null;
             try {
                 long time = System.currentTimeMillis();
-                ii = reader.directory().openInput(FILE_CACHE_NAME_ARRAY);
-                for (int i = 0; i < inSegmentParents.length; i++) {
-                    inSegmentParents[i] = ii.readInt();
+                ii = dir.openInput(FILE_CACHE_NAME_ARRAY);
+                int maxDoc = reader.maxDoc();
+                if (ii.readInt() != FILE_CACHE_MAGIC
+                        || ii.readInt() != maxDoc
+                        || !segments.equals(ii.readString())
+                        || ii.length() != ii.getFilePointer() + 4L * maxDoc) {
+                    log.debug("persisted cache {} is outdated",
+                            FILE_CACHE_NAME_ARRAY);
+                    ii.close();
+                    ii = null;
+                    dir.deleteFile(FILE_CACHE_NAME_ARRAY);
+                    return null;
+                }
+                IntBuffer parents;
+                File fsDir = FSDirectoryManager.getFileSystemDirectory(dir);
+                if (fsDir != null) {
+                    RandomAccessFile file = new RandomAccessFile(
+                            new File(fsDir, FILE_CACHE_NAME_ARRAY), "r");
+                    try {
+                        parents = file.getChannel().map(
+                                FileChannel.MapMode.READ_ONLY,
+                                ii.getFilePointer(), 4L * maxDoc).asIntBuffer();
+                    } finally {
+                        file.close();
+                    }
+                } else {
+                    int[] array = new int[maxDoc];
+                    for (int i = 0; i < array.length; i++) {
+                        array[i] = ii.readInt();
+                    }
+                    parents = IntBuffer.wrap(array);
                 }
                 log.debug(
                         "persisted cache initialized {} DocIds in {} ms",
-                        new Object[] { inSegmentParents.length,
+                        new Object[] { maxDoc,
                                 System.currentTimeMillis() - time });
-                return true;
+                return parents;
             } catch (FileNotFoundException ignore) {
                 // expected in the case where the file-based cache has not been
                 // initialized yet
@@ -679,13 +843,17 @@ class CachingIndexReader extends FilterIndexReader {
                 // In the case where is a read error, the cache file is removed
                 // so it can be recreated after
                 // the cache loads the data from the repository directly
-                reader.directory().deleteFile(FILE_CACHE_NAME_ARRAY);
+                if (ii != null) {
+                    ii.close();
+                    ii = null;
+                }
+                dir.deleteFile(FILE_CACHE_NAME_ARRAY);
             } finally {
                 if (ii != null) {
                     ii.close();
                 }
             }
-            return false;
+            return null;
         }
     }
 
@@ -93,6 +93,15 @@ abstract public class FieldComparatorBase extends FieldComparator {
         return Util.compare(val1, val2);
     }
 
+    /**
+     * Compares the values of two slots as returned by {@link #value(int)},
+     * when the hits of several index segments are merged.
+     */
+    @Override
+    public int compareValues(Object first, Object second) {
+        return compare((Comparable<?>) first, (Comparable<?>) second);
+    }
+
     @Override
     public void copy(int slot, int doc) throws IOException {
         setValue(slot, sortValue(doc));
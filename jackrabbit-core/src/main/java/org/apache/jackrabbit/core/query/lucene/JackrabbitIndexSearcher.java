@@ -17,6 +17,12 @@
 package org.apache.jackrabbit.core.query.lucene;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.jackrabbit.core.SessionImpl;
 import org.apache.jackrabbit.core.query.lucene.constraint.EvaluationContext;
@@ -24,9 +30,19 @@ import org.apache.jackrabbit.core.state.ItemStateManager;
 import org.apache.jackrabbit.spi.Name;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.FilteredQuery;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MultiPhraseQuery;
+import org.apache.lucene.search.PhraseQuery;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
 import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopFieldCollector;
+import org.apache.lucene.search.Weight;
 
 /**
  * <code>JackrabbitIndexSearcher</code> implements an index searcher with
@@ -36,6 +52,11 @@ public class JackrabbitIndexSearcher
         extends IndexSearcher
         implements EvaluationContext {
 
+    /**
+     * The minimum number of documents scored by one thread of a query.
+     */
+    private static final int MIN_DOCS_PER_RANGE = 1024;
+
     /**
      * The session that executes the query.
      */
@@ -51,6 +72,23 @@ public class JackrabbitIndexSearcher
      */
     private final ItemStateManager ism;
 
+    /**
+     * The filter that drops the documents of nodes the session cannot read,
+     * or <code>null</code> if the results are not pre-filtered.
+     */
+    private AccessControlFilter accessControlFilter;
+
+    /**
+     * The executor that scores index segments concurrently, or
+     * <code>null</code> if the segments are scored on the calling thread.
+     */
+    private Executor executor;
+
+    /**
+     * The maximum number of threads that score the segments of one query.
+     */
+    private int searchThreads = 1;
+
     /**
      * Creates a new jackrabbit index searcher.
      *
@@ -67,6 +105,35 @@ public class JackrabbitIndexSearcher
         this.ism = ism;
     }
 
+    /**
+     * Sets the filter that is applied to the hits returned by
+     * {@link #execute(Query, Sort, long, Name)}. The documents of nodes the
+     * session cannot read are then dropped before they are scored and
+     * sorted. The filter is not applied to the sub queries evaluated through
+     * {@link #evaluate(Query)}, because nodes below an unreadable node may
+     * still be readable.
+     *
+     * @param filter the access control filter or <code>null</code>.
+     */
+    public void setAccessControlFilter(AccessControlFilter filter) {
+        this.accessControlFilter = filter;
+    }
+
+    /**
+     * Sets the executor that scores ranges of the index concurrently when
+     * the top hits of a sorted query are collected. The calling thread
+     * scores ranges as well, so a query uses at most <code>threads</code>
+     * threads including the calling thread and never waits for a range
+     * that is still queued on a busy executor.
+     *
+     * @param executor the executor or <code>null</code>.
+     * @param threads  the maximum number of threads per query.
+     */
+    public void setSearchExecutor(Executor executor, int threads) {
+        this.executor = executor;
+        this.searchThreads = Math.max(1, threads);
+    }
+
     /**
      * Executes the query and returns the hits that match the query.
      *
@@ -82,8 +149,13 @@ public class JackrabbitIndexSearcher
                                         long resultFetchHint,
                                         Name selectorName)
             throws IOException {
-        return new QueryHitsAdapter(
-                evaluate(query, sort, resultFetchHint), selectorName);
+        QueryHits hits;
+        if (accessControlFilter == null) {
+            hits = evaluate(query, sort, resultFetchHint);
+        } else {
+            hits = evaluate(query, sort, resultFetchHint, accessControlFilter);
+        }
+        return new QueryHitsAdapter(hits, selectorName);
     }
 
     /**
@@ -97,12 +169,37 @@ public class JackrabbitIndexSearcher
      */
     public QueryHits evaluate(Query query, Sort sort, long resultFetchHint)
             throws IOException {
+        return evaluate(query, sort, resultFetchHint, null);
+    }
+
+    /**
+     * Evaluates the query and returns the hits that match the query and
+     * pass the given access control filter.
+     *
+     * @param query           the query to execute.
+     * @param sort            the sort criteria.
+     * @param resultFetchHint a hint on how many results should be fetched.
+     * @param filter          the access control filter or <code>null</code>.
+     * @return the query hits.
+     * @throws IOException if an error occurs while executing the query.
+     */
+    public QueryHits evaluate(Query query,
+                              Sort sort,
+                              long resultFetchHint,
+                              AccessControlFilter filter)
+            throws IOException {
         query = query.rewrite(reader);
         QueryHits hits = null;
         if (query instanceof JackrabbitQuery) {
             hits = ((JackrabbitQuery) query).execute(this, session, sort);
+            if (hits != null && filter != null) {
+                hits = filter.filter(hits);
+            }
         }
         if (hits == null) {
+            if (filter != null) {
+                query = new FilteredQuery(query, filter);
+            }
             if (sort.getSort().length == 0) {
                 hits = new LuceneQueryHits(reader, this, query);
             } else {
@@ -113,6 +210,147 @@ public class JackrabbitIndexSearcher
         return hits;
     }
 
+    /**
+     * Collects the top <code>n</code> hits of the weight in sort order. If
+     * a search executor is set and the index is large enough, the documents
+     * of the index are split into contiguous ranges that are scored
+     * concurrently, and the top hits of the ranges are merged. Jackrabbit
+     * queries resolve the hierarchy with the document numbers of the whole
+     * index, so the ranges are scored on the top level reader instead of on
+     * the segment readers. Hits that sort equal are returned in document
+     * order either way.
+     *
+     * @param weight the weight of the query.
+     * @param sort   the sort criteria.
+     * @param n      the number of hits to collect.
+     * @return the top hits with the total number of hits.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    TopDocs search(final Weight weight, final Sort sort, final int n)
+            throws IOException {
+        int maxDoc = reader.maxDoc();
+        int threads = Math.min(searchThreads, maxDoc / MIN_DOCS_PER_RANGE);
+        if (executor == null || threads < 2 || !isSplittable(weight.getQuery())) {
+            // in order collectors do not compare doc ids on ties
+            TopFieldCollector collector = TopFieldCollector.create(sort, n,
+                    false, true, false, !weight.scoresDocsOutOfOrder());
+            search(weight, null, collector);
+            return collector.topDocs();
+        }
+
+        final int[] starts = new int[threads + 1];
+        for (int i = 0; i <= threads; i++) {
+            starts[i] = (int) ((long) maxDoc * i / threads);
+        }
+        final TopDocs[] rangeHits = new TopDocs[threads];
+        final AtomicInteger next = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicReference<Throwable> error =
+                new AtomicReference<Throwable>();
+        Runnable worker = new Runnable() {
+            public void run() {
+                int i;
+                while ((i = next.getAndIncrement()) < rangeHits.length) {
+                    try {
+                        if (error.get() == null) {
+                            rangeHits[i] = search(
+                                    weight, sort, n, starts[i], starts[i + 1]);
+                        }
+                    } catch (Throwable t) {
+                        error.compareAndSet(null, t);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }
+        };
+        try {
+            for (int i = 1; i < threads; i++) {
+                executor.execute(worker);
+            }
+        } catch (RejectedExecutionException e) {
+            // score the remaining ranges with the threads already started
+        }
+        worker.run();
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                    "Interrupted while searching the index");
+        }
+
+        Throwable t = error.get();
+        if (t instanceof IOException) {
+            throw (IOException) t;
+        } else if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        } else if (t != null) {
+            throw Util.createIOException(t);
+        }
+        return TopDocs.merge(sort, n, rangeHits);
+    }
+
+    /**
+     * Returns whether the scorers of the given query can be advanced to the
+     * first document of a range. Many of the jackrabbit specific scorers
+     * only support advancing to a document after they were positioned with
+     * <code>nextDoc()</code>, so only queries built of the common lucene and
+     * jackrabbit term, range and wildcard queries are split.
+     *
+     * @param query a rewritten query.
+     * @return <code>true</code> if the query can be scored in ranges.
+     */
+    private static boolean isSplittable(Query query) {
+        if (query instanceof BooleanQuery) {
+            for (BooleanClause clause : ((BooleanQuery) query).getClauses()) {
+                if (!isSplittable(clause.getQuery())) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (query instanceof FilteredQuery) {
+            return isSplittable(((FilteredQuery) query).getQuery());
+        } else {
+            return query instanceof TermQuery
+                    || query instanceof PhraseQuery
+                    || query instanceof MultiPhraseQuery
+                    || query instanceof RangeQuery
+                    || query instanceof WildcardQuery
+                    || query instanceof MatchAllQuery;
+        }
+    }
+
+    /**
+     * Collects the top <code>n</code> hits of the weight in a range of
+     * documents. The sort values are filled in for merging the hits of all
+     * ranges.
+     *
+     * @param weight the weight of the query.
+     * @param sort   the sort criteria.
+     * @param n      the number of hits to collect.
+     * @param start  the first document of the range.
+     * @param end    the first document after the range.
+     * @return the top hits of the range.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    private TopDocs search(Weight weight, Sort sort, int n, int start, int end)
+            throws IOException {
+        TopFieldCollector collector = TopFieldCollector.create(
+                sort, n, true, true, false, true);
+        collector.setNextReader(reader, 0);
+        Scorer scorer = weight.scorer(reader, true, false);
+        if (scorer != null) {
+            collector.setScorer(scorer);
+            for (int doc = scorer.advance(start); doc < end; doc = scorer.nextDoc()) {
+                collector.collect(doc);
+            }
+        }
+        return collector.topDocs();
+    }
+
     //---------------------------< IndexSearcher >------------------------------
 
     @Override
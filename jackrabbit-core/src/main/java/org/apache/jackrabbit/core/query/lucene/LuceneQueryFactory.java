@@ -52,6 +52,7 @@ import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 import javax.jcr.ItemNotFoundException;
 import javax.jcr.Node;
@@ -98,6 +99,7 @@ import org.apache.jackrabbit.core.query.lucene.join.ValueComparator;
 import org.apache.jackrabbit.spi.Name;
 import org.apache.jackrabbit.spi.commons.conversion.IllegalNameException;
 import org.apache.jackrabbit.spi.commons.conversion.NamePathResolver;
+import org.apache.jackrabbit.spi.commons.name.NameFactoryImpl;
 import org.apache.jackrabbit.spi.commons.query.qom.FullTextSearchImpl;
 import org.apache.jackrabbit.spi.commons.query.qom.PropertyExistenceImpl;
 import org.apache.lucene.index.IndexReader;
@@ -108,6 +110,8 @@ import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TotalHitCountCollector;
 
 /**
  * Factory that creates Lucene queries from QOM elements.
@@ -146,6 +150,11 @@ public class LuceneQueryFactory {
 
     private final PerQueryCache cache = new PerQueryCache();
 
+    /**
+     * The bind variable values of the query.
+     */
+    private final Map<String, Value> bindVariables;
+
     /**
      * Creates a new lucene query factory.
      *
@@ -161,6 +170,7 @@ public class LuceneQueryFactory {
         this.index = index;
         this.nsMappings = index.getNamespaceMappings();
         this.npResolver = NamePathResolverImpl.create(nsMappings);
+        this.bindVariables = bindVariables;
         this.evaluator =
             new OperandEvaluator(session.getValueFactory(), bindVariables);
         this.mixinTypesField = nsMappings.translateName(JCR_MIXINTYPES);
@@ -184,23 +194,27 @@ public class LuceneQueryFactory {
      * @throws IOException
      */
     public List<Row> execute(Map<String, PropertyValue> columns,
-            Selector selector, Constraint constraint, Sort sort,
+            final Selector selector, Constraint constraint, final Sort sort,
             boolean externalSort, long offsetIn, long limitIn)
             throws RepositoryException, IOException {
+        // the generation must be read before the reader is opened
+        final long generation = index.getGeneration(true);
         final IndexReader reader = index.getIndexReader(true);
         final int offset = offsetIn < 0 ? 0 : (int) offsetIn;
         final int limit = limitIn < 0 ? Integer.MAX_VALUE : (int) limitIn;
 
-        QueryHits hits = null;
+        MultiColumnQueryHits hits = null;
         try {
-            JackrabbitIndexSearcher searcher = new JackrabbitIndexSearcher(
+            final JackrabbitIndexSearcher searcher = new JackrabbitIndexSearcher(
                     session, reader, index.getContext().getItemStateManager());
             searcher.setSimilarity(index.getSimilarity());
+            searcher.setSearchExecutor(index.getContext().getExecutor(),
+                    index.getSearchThreads());
 
             Predicate filter = Predicate.TRUE;
             BooleanQuery query = new BooleanQuery();
 
-            QueryPair qp = new QueryPair(query);
+            final QueryPair qp = new QueryPair(query);
 
             query.add(create(selector), MUST);
             if (constraint != null) {
@@ -216,11 +230,27 @@ public class LuceneQueryFactory {
 
             // TODO depending on the filters, we could push the offset info
             // into the searcher
-            hits = searcher.evaluate(qp.mainQuery, sort, offset + limit);
+            hits = index.executeCached(session,
+                    getCacheStatement(selector, constraint, sort),
+                    new QueryResultCache.Execution() {
+                        public MultiColumnQueryHits execute()
+                                throws IOException {
+                            return new QueryHitsAdapter(searcher.evaluate(
+                                    qp.mainQuery, sort, offset + limit,
+                                    index.createAccessControlFilter(
+                                            session, reader)),
+                                    NameFactoryImpl.getInstance().create(
+                                            "", selector.getSelectorName()));
+                        }
+                        public long getGeneration() {
+                            // the query always reads the same reader
+                            return generation;
+                        }
+                    });
             int currentNode = 0;
             int addedNodes = 0;
 
-            ScoreNode node = hits.nextScoreNode();
+            ScoreNode node = nextScoreNode(hits);
             while (node != null) {
                 Row row = null;
                 try {
@@ -249,7 +279,7 @@ public class LuceneQueryFactory {
                         }
                     }
                 }
-                node = hits.nextScoreNode();
+                node = nextScoreNode(hits);
             }
             return rows;
         } finally {
@@ -260,6 +290,120 @@ public class LuceneQueryFactory {
         }
     }
 
+    /**
+     * Returns the statement that identifies the hits of a selector in the
+     * query result cache, or their number in the estimates of the search
+     * index. The statement contains the selector, the constraint, the sort
+     * fields and the values of the bind variables.
+     *
+     * @param selector   the selector.
+     * @param constraint the constraint on the selector or <code>null</code>.
+     * @param sort       the sort order of the hits or <code>null</code>.
+     * @return the statement.
+     * @throws RepositoryException if a bind variable value cannot be read.
+     */
+    private String getCacheStatement(
+            Selector selector, Constraint constraint, Sort sort)
+            throws RepositoryException {
+        StringBuilder statement = new StringBuilder("JCR-SQL2: SELECT * FROM ");
+        statement.append(selector);
+        if (constraint != null) {
+            statement.append(" WHERE ").append(constraint);
+        }
+        if (sort != null) {
+            String separator = " ORDER BY ";
+            for (SortField field : sort.getSort()) {
+                statement.append(separator).append(field.getField());
+                statement.append(' ').append(field.getType());
+                statement.append(field.getReverse() ? " DESC" : " ASC");
+                separator = ", ";
+            }
+        }
+        for (Map.Entry<String, Value> entry
+                : new TreeMap<String, Value>(bindVariables).entrySet()) {
+            Value value = entry.getValue();
+            statement.append(" $").append(entry.getKey()).append('=');
+            if (value != null) {
+                statement.append(PropertyType.nameFromValue(value.getType()));
+                statement.append(':').append(value.getString());
+            }
+        }
+        return statement.toString();
+    }
+
+    /**
+     * @param hits the hits of a selector.
+     * @return the next score node of the hits or <code>null</code> if there
+     *         are no more hits.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    private static ScoreNode nextScoreNode(MultiColumnQueryHits hits)
+            throws IOException {
+        ScoreNode[] sn = hits.nextScoreNodes();
+        return sn != null ? sn[0] : null;
+    }
+
+    /**
+     * Estimates the number of nodes that match the given selector and
+     * constraint, without reading the nodes. The number of nodes of the
+     * selected node types is taken from the document frequencies of the
+     * node type terms. If there is a constraint, the matching documents are
+     * counted. Constraints that cannot be evaluated on the index are
+     * ignored, so the estimate is an upper bound of the number of rows.
+     * The counts are cached by the search index until the index changes.
+     *
+     * @param selector   the selector.
+     * @param constraint the constraint on the selector or <code>null</code>.
+     * @return the estimated number of rows.
+     * @throws RepositoryException if the query cannot be created.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    public int estimate(Selector selector, Constraint constraint)
+            throws RepositoryException, IOException {
+        String statement = null;
+        // the generation must be read before the reader is opened
+        long generation = index.getGeneration(true);
+        if (constraint != null && !session.isNamespacePrefixRemapped()) {
+            statement = getCacheStatement(selector, constraint, null);
+            Integer estimate = index.getEstimate(statement, generation);
+            if (estimate != null) {
+                return estimate;
+            }
+        }
+        IndexReader reader = index.getIndexReader(true);
+        try {
+            if (constraint != null) {
+                JackrabbitIndexSearcher searcher = new JackrabbitIndexSearcher(
+                        session, reader, index.getContext().getItemStateManager());
+                BooleanQuery query = new BooleanQuery();
+                QueryPair qp = new QueryPair(query);
+                query.add(create(selector), MUST);
+                NodeType type = ntManager.getNodeType(selector.getNodeTypeName());
+                try {
+                    mapConstraintToQueryAndFilter(qp, constraint,
+                            Collections.singletonMap(selector.getSelectorName(), type),
+                            searcher, reader);
+                    TotalHitCountCollector collector = new TotalHitCountCollector();
+                    searcher.search(qp.mainQuery, collector);
+                    if (statement != null) {
+                        index.putEstimate(
+                                statement, generation, collector.getTotalHits());
+                    }
+                    return collector.getTotalHits();
+                } catch (UnsupportedRepositoryOperationException e) {
+                    // not evaluated on the index, count the selected nodes
+                }
+            }
+            int count = 0;
+            for (Term term : getNodeTypeTerms(selector)) {
+                count += reader.docFreq(term);
+            }
+            return count;
+        } finally {
+            Util.closeOrRelease(reader);
+        }
+    }
+
     /**
      * Creates a lucene query for the given QOM selector.
      *
@@ -268,6 +412,29 @@ public class LuceneQueryFactory {
      * @throws RepositoryException if an error occurs while creating the query.
      */
     public Query create(Selector selector) throws RepositoryException {
+        List<Term> terms = getNodeTypeTerms(selector);
+        if (terms.size() == 1) {
+            return new JackrabbitTermQuery(terms.get(0));
+        } else {
+            BooleanQuery b = new BooleanQuery();
+            for (Term term : terms) {
+                b.add(new JackrabbitTermQuery(term), SHOULD);
+            }
+            return b;
+        }
+    }
+
+    /**
+     * Returns the terms of the node type of the given selector and all its
+     * sub types.
+     *
+     * @param selector the selector.
+     * @return the node type terms.
+     * @throws RepositoryException if an error occurs while reading the node
+     *                             types.
+     */
+    protected List<Term> getNodeTypeTerms(Selector selector)
+            throws RepositoryException {
         List<Term> terms = new ArrayList<Term>();
 
         String name = selector.getNodeTypeName();
@@ -278,16 +445,7 @@ public class LuceneQueryFactory {
                 terms.add(createNodeTypeTerm(nt));
             }
         }
-
-        if (terms.size() == 1) {
-            return new JackrabbitTermQuery(terms.get(0));
-        } else {
-            BooleanQuery b = new BooleanQuery();
-            for (Term term : terms) {
-                b.add(new JackrabbitTermQuery(term), SHOULD);
-            }
-            return b;
-        }
+        return terms;
     }
 
     protected Term createNodeTypeTerm(NodeType type) throws RepositoryException {
@@ -26,7 +26,6 @@ import org.apache.lucene.search.Similarity;
 
 import java.io.IOException;
 import java.util.BitSet;
-import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -128,13 +127,8 @@ class MatchAllScorer extends Scorer {
      * @throws IOException if an error occurs while reading from
      *                     the search index.
      */
-    @SuppressWarnings({"unchecked"})
     private void calculateDocFilter(PerQueryCache cache) throws IOException {
-        Map<String, BitSet> readerCache = (Map<String, BitSet>) cache.get(MatchAllScorer.class, reader);
-        if (readerCache == null) {
-            readerCache = new HashMap<String, BitSet>();
-            cache.put(MatchAllScorer.class, reader, readerCache);
-        }
+        Map<String, BitSet> readerCache = cache.getMap(MatchAllScorer.class, reader);
         // get BitSet for field
         docFilter = readerCache.get(field);
 
@@ -143,8 +137,28 @@ class MatchAllScorer extends Scorer {
             return;
         }
 
-        // otherwise calculate new
-        docFilter = new BitSet(reader.maxDoc());
+        // the ranges of a query may be scored concurrently, calculate the
+        // filter only once per reader and query
+        synchronized (readerCache) {
+            docFilter = readerCache.get(field);
+            if (docFilter == null) {
+                docFilter = collectDocFilter();
+                // put BitSet into cache
+                readerCache.put(field, docFilter);
+            }
+        }
+    }
+
+    /**
+     * Collects the ids of the documents that have content in the properties
+     * according to the field name of this MatchAllScorer.
+     *
+     * @return the ids of the matching documents.
+     * @throws IOException if an error occurs while reading from
+     *                     the search index.
+     */
+    private BitSet collectDocFilter() throws IOException {
+        BitSet filter = new BitSet(reader.maxDoc());
         // we match all terms
         String namedValue = FieldNames.createNamedValue(field, "");
         TermEnum terms = reader.terms(new Term(FieldNames.PROPERTIES, namedValue));
@@ -156,7 +170,7 @@ class MatchAllScorer extends Scorer {
                         && terms.term().text().startsWith(namedValue)) {
                     docs.seek(terms);
                     while (docs.next()) {
-                        docFilter.set(docs.doc());
+                        filter.set(docs.doc());
                     }
                     terms.next();
                 }
@@ -166,8 +180,6 @@ class MatchAllScorer extends Scorer {
         } finally {
             terms.close();
         }
-
-        // put BitSet into cache
-        readerCache.put(field, docFilter);
+        return filter;
     }
 }
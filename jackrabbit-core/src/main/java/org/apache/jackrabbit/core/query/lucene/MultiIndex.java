@@ -26,16 +26,28 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.jcr.RepositoryException;
 
 import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.persistence.PersistenceManager;
+import org.apache.jackrabbit.core.persistence.bundle.AbstractBundlePersistenceManager;
+import org.apache.jackrabbit.core.persistence.util.NodePropBundle;
 import org.apache.jackrabbit.core.query.lucene.directory.DirectoryManager;
 import org.apache.jackrabbit.core.state.ChildNodeEntry;
 import org.apache.jackrabbit.core.state.ItemStateException;
@@ -50,6 +62,7 @@ import org.apache.jackrabbit.spi.commons.name.PathFactoryImpl;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
 import org.apache.lucene.store.Directory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -92,6 +105,24 @@ public class MultiIndex {
      */
     private static final PathFactory PATH_FACTORY = PathFactoryImpl.getInstance();
 
+    /**
+     * The number of documents a parallel reindexing task adds to its index
+     * at once.
+     */
+    private static final int REINDEX_BATCH_SIZE = 100;
+
+    /**
+     * The maximum number of nodes above the subtrees that are indexed
+     * concurrently by a parallel reindexing.
+     */
+    private static final int REINDEX_MAX_SHALLOW_NODES = 10000;
+
+    /**
+     * The number of bundles read at once when the initial index is created
+     * by scanning the persistence manager.
+     */
+    private static final int REINDEX_SCAN_BATCH_SIZE = 1000;
+
     /**
      * Names of active persistent index directories.
      */
@@ -158,6 +189,12 @@ public class MultiIndex {
      */
     private CachingMultiIndexReader multiReader;
 
+    /**
+     * The generation of this index. Incremented whenever the
+     * {@link #multiReader} is released because the index changed.
+     */
+    private volatile long generation = 0;
+
     /**
      * Shared document number cache across all persistent indexes.
      */
@@ -223,6 +260,11 @@ public class MultiIndex {
      */
     private long currentTransactionId = -1;
 
+    /**
+     * The subtrees indexed by an interrupted parallel initial index creation.
+     */
+    private final ReindexCheckpoint reindexCheckpoint;
+
     /**
      * Flag indicating whether re-indexing is running.
      */
@@ -289,6 +331,7 @@ public class MultiIndex {
                     handler.getMaxHistoryAge());
             index.setUseCompoundFile(handler.getUseCompoundFile());
             index.setTermInfosIndexDivisor(handler.getTermInfosIndexDivisor());
+            index.setTermDocsCache(handler.getTermDocsCache());
             indexes.add(index);
             merger.indexAdded(index.getName(), index.getNumDocuments());
         }
@@ -312,6 +355,12 @@ public class MultiIndex {
         // run recovery
         Recovery.run(this, redoLog);
 
+        // keep the segments of an interrupted parallel initial index creation
+        reindexCheckpoint = new ReindexCheckpoint(indexDir);
+        if (indexNames.size() > 0) {
+            reindexCheckpoint.clear();
+        }
+
         // enqueue unused segments for deletion
         enqueueUnusedSegments();
         attemptDelete();
@@ -383,12 +432,27 @@ public class MultiIndex {
                 // traverse and index workspace
                 executeAndLog(new Start(Action.INTERNAL_TRANSACTION));
                 NodeState rootState = (NodeState) stateMgr.getItemState(rootId);
-                count = createIndex(rootState, rootPath, stateMgr, count);
+                int threads = handler.getReindexThreads();
+                PersistenceManager pm =
+                    handler.getContext().getPersistenceManager();
+                if (handler.isReindexFromPersistenceManager()
+                        && rootPath.denotesRoot()
+                        && pm instanceof AbstractBundlePersistenceManager) {
+                    count = createIndexFromPersistenceManager(
+                            (AbstractBundlePersistenceManager) pm,
+                            rootId, rootPath);
+                } else if (threads > 1) {
+                    count = createIndexParallel(
+                            rootState, rootPath, stateMgr, threads);
+                } else {
+                    count = createIndex(rootState, rootPath, stateMgr, count);
+                }
                 checkIndexingQueue(true);
                 executeAndLog(new Commit(getTransactionId()));
                 log.debug("Created initial index for {} nodes", count);
                 releaseMultiReader();
                 safeFlush();
+                reindexCheckpoint.clear();
             } catch (Exception e) {
                 String msg = "Error indexing workspace";
                 IOException ex = new IOException(msg);
@@ -564,8 +628,9 @@ public class MultiIndex {
     }
 
     /**
-     * Creates a new Persistent index. The new index is not registered with this
-     * <code>MultiIndex</code>.
+     * Returns the open persistent index with the given name, or opens or
+     * creates it. The index is added to the open indexes of this
+     * <code>MultiIndex</code>, but not to its index infos.
      *
      * @param indexName the name of the index to open, or <code>null</code> if
      *                  an index with a new name should be created.
@@ -601,6 +666,7 @@ public class MultiIndex {
             throw e;
         }
         index.setUseCompoundFile(handler.getUseCompoundFile());
+        index.setTermDocsCache(handler.getTermDocsCache());
         index.setTermInfosIndexDivisor(handler.getTermInfosIndexDivisor());
 
         // add to list of open indexes and return it
@@ -758,6 +824,18 @@ public class MultiIndex {
         }
     }
 
+    /**
+     * Returns the generation of this index. The generation changes whenever
+     * documents are added to or removed from the index, or its segments are
+     * merged. Query results read from a reader of this index remain valid
+     * as long as the generation does not change.
+     *
+     * @return the generation of this index.
+     */
+    long getGeneration() {
+        return generation;
+    }
+
     /**
      * Returns the volatile index.
      *
@@ -861,6 +939,22 @@ public class MultiIndex {
         return handler.createDocument(node, nsMappings, version);
     }
 
+    /**
+     * Returns a lucene Document for the <code>node</code>, reading the
+     * properties and the parent of the node from the given item state
+     * manager.
+     *
+     * @param node          the node to index.
+     * @param stateProvider the item state manager.
+     * @return the index document.
+     * @throws RepositoryException if an error occurs while reading from the
+     *                             workspace.
+     */
+    Document createDocument(NodeState node, ItemStateManager stateProvider)
+            throws RepositoryException {
+        return handler.createDocument(node, nsMappings, version, stateProvider);
+    }
+
     /**
      * Returns a lucene Document for the Node with <code>id</code>.
      *
@@ -993,6 +1087,7 @@ public class MultiIndex {
      * @throws IOException if an error occurs while releasing the reader.
      */
     void releaseMultiReader() throws IOException {
+        generation++;
         if (multiReader != null) {
             try {
                 multiReader.release();
@@ -1043,7 +1138,8 @@ public class MultiIndex {
     private void enqueueUnusedSegments() throws IOException {
         // walk through index segments
         for (String name : directoryManager.getDirectoryNames()) {
-            if (!name.startsWith("_")) {
+            if (!name.startsWith("_")
+                    || reindexCheckpoint.containsSegment(name)) {
                 continue;
             }
             long lastUse = indexHistory.getLastUseOf(name);
@@ -1227,17 +1323,8 @@ public class MultiIndex {
         for (ChildNodeEntry child : node.getChildNodeEntries()) {
             Path childPath = PATH_FACTORY.create(path, child.getName(),
                     child.getIndex(), false);
-            NodeState childState = null;
-            try {
-                childState = (NodeState) stateMgr.getItemState(child.getId());
-            } catch (NoSuchItemStateException e) {
-                handler.getOnWorkspaceInconsistencyHandler().handleMissingChildNode(
-                        e, handler, path, node, child);
-            } catch (ItemStateException e) {
-                // JCR-3268 log bundle corruption and continue
-                handler.getOnWorkspaceInconsistencyHandler().logError(e,
-                        handler, childPath, node, child);
-            }
+            NodeState childState = getChildNodeState(
+                    node, path, child, childPath, stateMgr);
             if (childState != null) {
                 count = createIndex(childState, childPath, stateMgr, count);
             }
@@ -1245,6 +1332,298 @@ public class MultiIndex {
         return count;
     }
 
+    /**
+     * Creates an index starting with the NodeState <code>root</code> using
+     * <code>threads</code> concurrent threads. The node hierarchy is split
+     * breadth first into subtrees below the root, which are distributed to
+     * tasks that each index their subtrees into a new persistent index. The
+     * nodes above the subtrees are indexed by a separate task. Completed
+     * tasks are recorded in the {@link #reindexCheckpoint}, and tasks that
+     * were completed by an interrupted previous run are not executed again.
+     * When all tasks are completed, the persistent indexes are added to this
+     * multi index and subsequently merged by the {@link IndexMerger}.
+     *
+     * @param root     the root NodeState.
+     * @param rootPath the path of the <code>root</code> state.
+     * @param stateMgr the shared item state manager.
+     * @param threads  the number of threads.
+     * @return the number of nodes indexed.
+     * @throws IOException         if an error occurs while writing to the
+     *                             index.
+     * @throws ItemStateException  if an node state cannot be found.
+     * @throws RepositoryException if any other error occurs
+     */
+    private long createIndexParallel(NodeState root,
+                                     Path rootPath,
+                                     ItemStateManager stateMgr,
+                                     int threads)
+            throws IOException, ItemStateException, RepositoryException {
+        int maxTasks = threads * 8;
+        List<NodeState> shallowNodes = new ArrayList<NodeState>();
+        List<Path> shallowPaths = new ArrayList<Path>();
+        LinkedList<NodeState> nodes = new LinkedList<NodeState>();
+        LinkedList<Path> paths = new LinkedList<Path>();
+        nodes.add(root);
+        paths.add(rootPath);
+        while (!nodes.isEmpty() && nodes.size() < maxTasks
+                && shallowNodes.size() < REINDEX_MAX_SHALLOW_NODES) {
+            NodeState node = nodes.removeFirst();
+            Path path = paths.removeFirst();
+            if (excludedIDs.contains(node.getNodeId())) {
+                continue;
+            }
+            shallowNodes.add(node);
+            shallowPaths.add(path);
+            for (ChildNodeEntry child : node.getChildNodeEntries()) {
+                Path childPath = PATH_FACTORY.create(path, child.getName(),
+                        child.getIndex(), false);
+                NodeState childState = getChildNodeState(
+                        node, path, child, childPath, stateMgr);
+                if (childState != null) {
+                    nodes.add(childState);
+                    paths.add(childPath);
+                }
+            }
+        }
+
+        ReindexProgress progress = new ReindexProgress();
+        List<ReindexTask> tasks = new ArrayList<ReindexTask>();
+        if (!shallowNodes.isEmpty()) {
+            tasks.add(new ReindexTask(shallowNodes, shallowPaths, false,
+                    stateMgr, progress));
+        }
+        int perTask = (nodes.size() + maxTasks - 1) / maxTasks;
+        while (!nodes.isEmpty()) {
+            List<NodeState> taskNodes = new ArrayList<NodeState>();
+            List<Path> taskPaths = new ArrayList<Path>();
+            while (!nodes.isEmpty() && taskNodes.size() < perTask) {
+                taskNodes.add(nodes.removeFirst());
+                taskPaths.add(paths.removeFirst());
+            }
+            tasks.add(new ReindexTask(taskNodes, taskPaths, true,
+                    stateMgr, progress));
+        }
+
+        // reuse the indexes of tasks completed by an interrupted run
+        List<String> segments = new ArrayList<String>();
+        List<PersistentIndex> resumed = new ArrayList<PersistentIndex>();
+        long count = 0;
+        for (Iterator<ReindexTask> it = tasks.iterator(); it.hasNext(); ) {
+            ReindexTask task = it.next();
+            String name = reindexCheckpoint.getSegment(task.getKey());
+            if (name != null && directoryManager.hasDirectory(name)) {
+                PersistentIndex index = getOrCreateIndex(name);
+                segments.add(name);
+                resumed.add(index);
+                count += index.getNumDocuments();
+                it.remove();
+            }
+        }
+        if (!reindexCheckpoint.isEmpty()) {
+            log.info("Resuming initial index creation, {} of {} tasks"
+                    + " already completed", resumed.size(),
+                    resumed.size() + tasks.size());
+        }
+        progress.setTaskCount(tasks.size());
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                threads, new ThreadFactory() {
+                    private int counter = 0;
+                    public synchronized Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "Jackrabbit-Reindex-" + ++counter);
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        try {
+            List<Future<String>> futures = new ArrayList<Future<String>>();
+            for (ReindexTask task : tasks) {
+                futures.add(executor.submit(task));
+            }
+            for (Future<String> future : futures) {
+                segments.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RepositoryException("Initial index creation interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof ItemStateException) {
+                throw (ItemStateException) cause;
+            } else if (cause instanceof RepositoryException) {
+                throw (RepositoryException) cause;
+            } else {
+                throw new RepositoryException(
+                        "Error indexing workspace", cause);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        count += progress.getCount();
+
+        // add the indexes and enqueue the pending text extraction jobs
+        // of the indexes created by an interrupted run
+        for (String name : segments) {
+            executeAndLog(new CreateIndex(getTransactionId(), name));
+            executeAndLog(new AddIndex(getTransactionId(), name));
+        }
+        for (PersistentIndex index : resumed) {
+            requeuePendingDocuments(index);
+        }
+
+        // the indexes of tasks that do not exist anymore can be deleted
+        synchronized (deletable) {
+            for (String name : directoryManager.getDirectoryNames()) {
+                if (reindexCheckpoint.containsSegment(name)
+                        && !segments.contains(name)) {
+                    deletable.put(name, Long.MIN_VALUE);
+                }
+            }
+        }
+        attemptDelete();
+        return count;
+    }
+
+    /**
+     * Creates an index of the workspace by scanning all bundles of the
+     * given persistence manager in storage order. The bundles are indexed
+     * without going through the shared item state cache; the names of the
+     * nodes are resolved through a temporary {@link OffHeapParentMap} that
+     * is filled with the child node entries of the scanned bundles. Only
+     * the parents of nodes that are scanned before their parent are loaded
+     * from the persistence manager. Once all bundles are scanned, the nodes
+     * that are not reachable from the root node or that are below an
+     * excluded node are removed from the index again.
+     *
+     * @param pm       the persistence manager of the workspace.
+     * @param rootId   the id of the root node.
+     * @param rootPath the path of the root node.
+     * @return the number of nodes indexed.
+     * @throws IOException         if an error occurs while writing to the
+     *                             index.
+     * @throws ItemStateException  if the bundles cannot be read.
+     * @throws RepositoryException if any other error occurs
+     */
+    private long createIndexFromPersistenceManager(
+            AbstractBundlePersistenceManager pm, NodeId rootId, Path rootPath)
+            throws IOException, ItemStateException, RepositoryException {
+        PathResolver resolver = new DefaultNamePathResolver(
+                handler.getContext().getNamespaceRegistry());
+        OffHeapParentMap parents = new OffHeapParentMap(REINDEX_SCAN_BATCH_SIZE);
+        ScanItemStateManager stateMgr = new ScanItemStateManager(pm, parents);
+        long start = System.currentTimeMillis();
+        long count = 0;
+        long scanned = 0;
+        NodeId after = null;
+        List<NodePropBundle> bundles;
+        while (!(bundles = pm.getAllBundles(
+                after, REINDEX_SCAN_BATCH_SIZE)).isEmpty()) {
+            for (NodePropBundle bundle : bundles) {
+                stateMgr.addChildren(bundle);
+            }
+            scanned += bundles.size();
+            for (NodePropBundle bundle : bundles) {
+                after = bundle.getId();
+                NodeState node = stateMgr.setCurrent(bundle);
+                if (excludedIDs.contains(after)) {
+                    continue;
+                }
+                Document doc;
+                try {
+                    doc = createDocument(node, stateMgr);
+                } catch (RepositoryException e) {
+                    // the node is not reachable from the root node
+                    // if its parent can not be read, see below
+                    log.warn("Unable to index node {}: {}", after, e.getMessage());
+                    continue;
+                }
+                executeAndLog(new AddNode(getTransactionId(), doc));
+                if (++count % 100 == 0) {
+                    Path path = parents.getPath(after, rootId, rootPath);
+                    long time = Math.max(1, System.currentTimeMillis() - start);
+                    log.info("indexing... {} ({}, {} nodes/s)", new Object[] {
+                            path != null ? resolver.getJCRPath(path) : after,
+                            count, count * 1000 / time});
+                }
+                if (count % 10 == 0) {
+                    checkIndexingQueue(true);
+                }
+                checkVolatileCommit();
+            }
+        }
+
+        List<NodeId> unreachable = parents.getUnreachable(rootId, excludedIDs);
+        for (NodeId id : unreachable) {
+            executeAndLog(new DeleteNode(getTransactionId(), id));
+        }
+        log.info("Scanned {} bundles, loaded {} parent nodes, removed {}"
+                + " nodes outside of the indexed hierarchy", new Object[] {
+                scanned, stateMgr.getParentLoads(), unreachable.size()});
+        return count;
+    }
+
+    /**
+     * Returns the state of the child node <code>child</code> or
+     * <code>null</code> if the child node cannot be read, in which case the
+     * {@link SearchIndex#getOnWorkspaceInconsistencyHandler()} is notified.
+     *
+     * @param node      the parent NodeState.
+     * @param path      the path of the parent node.
+     * @param child     the child node entry.
+     * @param childPath the path of the child node.
+     * @param stateMgr  the shared item state manager.
+     * @return the child NodeState or <code>null</code>.
+     * @throws RepositoryException if the inconsistency handler fails.
+     * @throws ItemStateException  if an node state cannot be found.
+     */
+    private NodeState getChildNodeState(NodeState node,
+                                        Path path,
+                                        ChildNodeEntry child,
+                                        Path childPath,
+                                        ItemStateManager stateMgr)
+            throws RepositoryException, ItemStateException {
+        try {
+            return (NodeState) stateMgr.getItemState(child.getId());
+        } catch (NoSuchItemStateException e) {
+            handler.getOnWorkspaceInconsistencyHandler().handleMissingChildNode(
+                    e, handler, path, node, child);
+        } catch (ItemStateException e) {
+            // JCR-3268 log bundle corruption and continue
+            handler.getOnWorkspaceInconsistencyHandler().logError(e,
+                    handler, childPath, node, child);
+        }
+        return null;
+    }
+
+    /**
+     * Adds the nodes of the documents in the given index that are marked
+     * with {@link FieldNames#REINDEXING_REQUIRED} to the indexing queue.
+     *
+     * @param index the persistent index.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    private void requeuePendingDocuments(PersistentIndex index)
+            throws IOException {
+        IndexReader reader = index.getIndexReader();
+        TermDocs tDocs = reader.termDocs(
+                new Term(FieldNames.REINDEXING_REQUIRED, ""));
+        try {
+            while (tDocs.next()) {
+                String uuid = reader.document(tDocs.doc(),
+                        FieldSelectors.UUID).get(FieldNames.UUID);
+                try {
+                    indexingQueue.addDocument(createDocument(new NodeId(uuid)));
+                } catch (RepositoryException e) {
+                    log.warn("Unable to index node " + uuid, e);
+                }
+            }
+        } finally {
+            tDocs.close();
+        }
+    }
+
     /**
      * Attempts to delete all files that are older than
      *{@link SearchIndex#getMaxHistoryAge()}.
@@ -1378,6 +1757,186 @@ public class MultiIndex {
         }
     }
 
+    //------------------------< parallel reindexing >---------------------------
+
+    /**
+     * Keeps track of the progress of a parallel initial index creation.
+     */
+    private class ReindexProgress {
+
+        /**
+         * The number of indexed nodes.
+         */
+        private final AtomicLong count = new AtomicLong();
+
+        /**
+         * The number of completed tasks.
+         */
+        private final AtomicInteger completed = new AtomicInteger();
+
+        /**
+         * The time when the indexing started.
+         */
+        private final long start = System.currentTimeMillis();
+
+        /**
+         * The number of tasks.
+         */
+        private volatile int taskCount;
+
+        void setTaskCount(int taskCount) {
+            this.taskCount = taskCount;
+        }
+
+        long getCount() {
+            return count.get();
+        }
+
+        /**
+         * Counts an indexed node and logs the progress every 100 nodes.
+         *
+         * @param path the path of the indexed node.
+         * @throws RepositoryException if the path cannot be resolved.
+         */
+        void nodeIndexed(Path path) throws RepositoryException {
+            long n = count.incrementAndGet();
+            if (n % 100 == 0) {
+                PathResolver resolver = new DefaultNamePathResolver(
+                        handler.getContext().getNamespaceRegistry());
+                log.info("indexing... {} ({}, {} nodes/s)", new Object[] {
+                        resolver.getJCRPath(path), n, getRate(n)});
+            }
+        }
+
+        /**
+         * Logs the completion of a task.
+         */
+        void taskCompleted() {
+            long n = count.get();
+            log.info("Completed {} of {} indexing tasks ({} nodes, {} nodes/s)",
+                    new Object[] {completed.incrementAndGet(), taskCount,
+                            n, getRate(n)});
+        }
+
+        private long getRate(long n) {
+            long time = System.currentTimeMillis() - start;
+            return n * 1000 / Math.max(1, time);
+        }
+    }
+
+    /**
+     * Indexes a list of nodes, and optionally their descendants, into a new
+     * persistent index. The index is added to the open indexes of this multi
+     * index, but it is only added to the index infos once all tasks are
+     * completed. Until then it is recorded in the {@link #reindexCheckpoint}
+     * once it is committed.
+     */
+    private class ReindexTask implements Callable<String> {
+
+        /**
+         * The nodes to index.
+         */
+        private final List<NodeState> nodes;
+
+        /**
+         * The paths of the nodes to index.
+         */
+        private final List<Path> paths;
+
+        /**
+         * Whether the descendants of the nodes are indexed as well.
+         */
+        private final boolean recursive;
+
+        /**
+         * The shared item state manager.
+         */
+        private final ItemStateManager stateMgr;
+
+        /**
+         * The progress of the initial index creation.
+         */
+        private final ReindexProgress progress;
+
+        /**
+         * Documents that are not yet added to the index.
+         */
+        private final List<Document> documents = new ArrayList<Document>();
+
+        ReindexTask(List<NodeState> nodes,
+                    List<Path> paths,
+                    boolean recursive,
+                    ItemStateManager stateMgr,
+                    ReindexProgress progress) {
+            this.nodes = nodes;
+            this.paths = paths;
+            this.recursive = recursive;
+            this.stateMgr = stateMgr;
+            this.progress = progress;
+        }
+
+        /**
+         * Returns the key of this task in the checkpoint. The key consists
+         * of the identifier of the first node and the number of nodes, which
+         * identifies the task as long as the workspace does not change.
+         *
+         * @return the key of this task.
+         */
+        String getKey() {
+            return (recursive ? "tree-" : "nodes-")
+                    + nodes.get(0).getNodeId() + "-" + nodes.size();
+        }
+
+        /**
+         * Indexes the nodes and returns the name of the new index.
+         */
+        public String call() throws Exception {
+            PersistentIndex index = getOrCreateIndex(null);
+            for (int i = 0; i < nodes.size(); i++) {
+                index(index, nodes.get(i), paths.get(i));
+            }
+            addDocuments(index);
+            index.commit();
+            reindexCheckpoint.add(getKey(), index.getName());
+            progress.taskCompleted();
+            return index.getName();
+        }
+
+        private void index(PersistentIndex index, NodeState node, Path path)
+                throws IOException, ItemStateException, RepositoryException {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new RepositoryException("Indexing task interrupted");
+            }
+            if (excludedIDs.contains(node.getNodeId())) {
+                return;
+            }
+            documents.add(createDocument(node));
+            if (documents.size() >= REINDEX_BATCH_SIZE) {
+                addDocuments(index);
+            }
+            progress.nodeIndexed(path);
+            if (recursive) {
+                for (ChildNodeEntry child : node.getChildNodeEntries()) {
+                    Path childPath = PATH_FACTORY.create(path, child.getName(),
+                            child.getIndex(), false);
+                    NodeState childState = getChildNodeState(
+                            node, path, child, childPath, stateMgr);
+                    if (childState != null) {
+                        index(index, childState, childPath);
+                    }
+                }
+            }
+        }
+
+        private void addDocuments(PersistentIndex index) throws IOException {
+            if (!documents.isEmpty()) {
+                index.addDocuments(
+                        documents.toArray(new Document[documents.size()]));
+                documents.clear();
+            }
+        }
+    }
+
     //------------------------< Actions >---------------------------------------
 
     /**
@@ -2118,6 +2677,10 @@ public class MultiIndex {
             PersistentIndex persistentIndex = index.getOrCreateIndex(targetIndex);
             persistentIndex.copyIndex(volatileIndex);
             index.resetVolatileIndex();
+            if (index.handler.isInitializeHierarchyCache()) {
+                // persist the hierarchy cache of the new segment
+                persistentIndex.getReadOnlyIndexReader(true).release();
+            }
         }
 
         /**
@@ -98,7 +98,7 @@ class MultiScorer extends Scorer {
         if (target == NO_MORE_DOCS) {
             // exhaust all the internal scorers
             for (Scorer s : scorers) {
-                if (s.docID() != target) {
+                if (s != null && s.docID() != target) {
                     s.advance(target);
                 }
             }
@@ -107,8 +107,9 @@ class MultiScorer extends Scorer {
         }
 
         currentScorer = scorerIndex(target);
-        if (scorers[currentScorer].advance(target - starts[currentScorer]) != NO_MORE_DOCS) {
-            currentDoc = scorers[currentScorer].docID() + starts[currentScorer];
+        Scorer scorer = scorers[currentScorer];
+        if (scorer != null && scorer.advance(target - starts[currentScorer]) != NO_MORE_DOCS) {
+            currentDoc = scorer.docID() + starts[currentScorer];
             return currentDoc;
         } else {
             if (++currentScorer < scorers.length) {
@@ -0,0 +1,463 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.spi.Name;
+import org.apache.jackrabbit.spi.NameFactory;
+import org.apache.jackrabbit.spi.Path;
+import org.apache.jackrabbit.spi.PathFactory;
+import org.apache.jackrabbit.spi.commons.name.NameFactoryImpl;
+import org.apache.jackrabbit.spi.commons.name.PathFactoryImpl;
+
+/**
+ * Temporary map from node identifiers to the identifier of the parent node
+ * and the name of the node, which is used to resolve the hierarchy while
+ * the bundles of a workspace are scanned in storage order. The entries and
+ * the names are kept in direct byte buffers outside of the Java heap, so the
+ * map can hold all nodes of a large workspace.
+ * <p>
+ * The entries are stored in an open-addressing hash table with linear
+ * probing, which is split into buffers of 2^20 entries. Each entry consists
+ * of the node identifier, the identifier of the parent node, the offset of
+ * the name in the name buffer and a number of flags. The name buffer
+ * contains the index of the namespace URI and the UTF-8 encoded local name
+ * of each added child node entry. Entries can not be removed.
+ * <p>
+ * This class is not thread-safe.
+ */
+class OffHeapParentMap {
+
+    private static final NameFactory NAME_FACTORY = NameFactoryImpl.getInstance();
+
+    private static final PathFactory PATH_FACTORY = PathFactoryImpl.getInstance();
+
+    /**
+     * Size of an entry: msb, lsb, parent msb, parent lsb, name offset, flags.
+     */
+    private static final int ENTRY_SIZE = 40;
+
+    private static final int MSB = 0;
+
+    private static final int LSB = 8;
+
+    private static final int PARENT_MSB = 16;
+
+    private static final int PARENT_LSB = 24;
+
+    private static final int NAME = 32;
+
+    private static final int FLAGS = 36;
+
+    /**
+     * The number of bits of the slot number within a table buffer.
+     */
+    private static final int BUFFER_BITS = 20;
+
+    private static final int BUFFER_MASK = (1 << BUFFER_BITS) - 1;
+
+    /**
+     * Flag of used entries.
+     */
+    private static final int USED = 1;
+
+    /**
+     * Flag of the entries of nodes that have been scanned.
+     */
+    private static final int SCANNED = 2;
+
+    /**
+     * Flag of the entries of nodes that are reachable from the root node.
+     */
+    private static final int REACHABLE = 4;
+
+    /**
+     * Flag of the entries of nodes that are not reachable from the root
+     * node, or that are below an excluded node.
+     */
+    private static final int UNREACHABLE = 8;
+
+    /**
+     * Name offset of entries without a name.
+     */
+    private static final int NO_NAME = -1;
+
+    /**
+     * The buffers of the hash table.
+     */
+    private ByteBuffer[] table;
+
+    /**
+     * The number of entries the hash table can hold.
+     */
+    private int capacity;
+
+    /**
+     * The number of entries.
+     */
+    private int size;
+
+    /**
+     * The names of the child node entries.
+     */
+    private ByteBuffer names;
+
+    /**
+     * The namespace URIs of the names.
+     */
+    private final List<String> uris = new ArrayList<String>();
+
+    /**
+     * The indexes of the namespace URIs in {@link #uris}.
+     */
+    private final Map<String, Integer> uriIndexes =
+        new HashMap<String, Integer>();
+
+    /**
+     * Creates an empty map.
+     *
+     * @param expectedSize the expected number of nodes.
+     */
+    OffHeapParentMap(int expectedSize) {
+        capacity = Integer.highestOneBit(Math.max(16, expectedSize) * 2) * 2;
+        table = allocateTable(capacity);
+        names = ByteBuffer.allocateDirect(Math.max(1024, expectedSize * 16));
+    }
+
+    /**
+     * @return the number of nodes in this map.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Adds a child node entry of the given parent node. Only the first
+     * child node entry of a shareable node is kept.
+     *
+     * @param parentId the identifier of the parent node.
+     * @param name     the name of the child node.
+     * @param childId  the identifier of the child node.
+     */
+    void addChild(NodeId parentId, Name name, NodeId childId) {
+        int slot = getOrAddSlot(childId);
+        if (getInt(slot, NAME) != NO_NAME) {
+            return;
+        }
+        putLong(slot, PARENT_MSB, parentId.getMostSignificantBits());
+        putLong(slot, PARENT_LSB, parentId.getLeastSignificantBits());
+        putInt(slot, NAME, addName(name));
+    }
+
+    /**
+     * Marks the given node as scanned.
+     *
+     * @param id the node identifier.
+     */
+    void setScanned(NodeId id) {
+        int slot = getOrAddSlot(id);
+        putInt(slot, FLAGS, getInt(slot, FLAGS) | SCANNED);
+    }
+
+    /**
+     * Returns the identifier of the parent node of the given node.
+     *
+     * @param id the node identifier.
+     * @return the parent node identifier, or <code>null</code> if no child
+     *         node entry of the node has been added yet.
+     */
+    NodeId getParentId(NodeId id) {
+        int slot = findSlot(id.getMostSignificantBits(),
+                id.getLeastSignificantBits());
+        if (slot < 0 || getInt(slot, NAME) == NO_NAME) {
+            return null;
+        }
+        return new NodeId(getLong(slot, PARENT_MSB), getLong(slot, PARENT_LSB));
+    }
+
+    /**
+     * Returns the name of the given node.
+     *
+     * @param id the node identifier.
+     * @return the name, or <code>null</code> if no child node entry of the
+     *         node has been added yet.
+     */
+    Name getName(NodeId id) {
+        int slot = findSlot(id.getMostSignificantBits(),
+                id.getLeastSignificantBits());
+        if (slot < 0) {
+            return null;
+        }
+        int offset = getInt(slot, NAME);
+        if (offset == NO_NAME) {
+            return null;
+        }
+        String uri = uris.get(names.getInt(offset));
+        byte[] local = new byte[names.getInt(offset + 4)];
+        for (int i = 0; i < local.length; i++) {
+            local[i] = names.get(offset + 8 + i);
+        }
+        try {
+            return NAME_FACTORY.create(uri, new String(local, "UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the path of the given node. Same name sibling indexes are
+     * not resolved.
+     *
+     * @param id       the node identifier.
+     * @param rootId   the identifier of the root node.
+     * @param rootPath the path of the root node.
+     * @return the path, or <code>null</code> if the path can not be
+     *         resolved (yet).
+     */
+    Path getPath(NodeId id, NodeId rootId, Path rootPath) {
+        List<Name> elements = new ArrayList<Name>();
+        NodeId current = id;
+        while (!current.equals(rootId)) {
+            Name name = getName(current);
+            if (name == null || elements.size() > size) {
+                return null;
+            }
+            elements.add(name);
+            current = getParentId(current);
+        }
+        try {
+            Path path = rootPath;
+            for (int i = elements.size() - 1; i >= 0; i--) {
+                path = PATH_FACTORY.create(path, elements.get(i), false);
+            }
+            return path;
+        } catch (RepositoryException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the scanned nodes that are not reachable from the root node
+     * through the added child node entries, or that are below one of the
+     * excluded nodes.
+     *
+     * @param rootId   the identifier of the root node.
+     * @param excluded the identifiers of the excluded nodes.
+     * @return the unreachable nodes.
+     */
+    List<NodeId> getUnreachable(NodeId rootId, Set<NodeId> excluded) {
+        List<NodeId> unreachable = new ArrayList<NodeId>();
+        List<Integer> chain = new ArrayList<Integer>();
+        for (int slot = 0; slot < capacity; slot++) {
+            if ((getInt(slot, FLAGS) & SCANNED) == 0) {
+                continue;
+            }
+            int status = 0;
+            chain.clear();
+            int current = slot;
+            while (status == 0) {
+                status = getInt(current, FLAGS) & (REACHABLE | UNREACHABLE);
+                if (status != 0) {
+                    break;
+                }
+                chain.add(current);
+                NodeId id = new NodeId(
+                        getLong(current, MSB), getLong(current, LSB));
+                if (excluded.contains(id)) {
+                    status = UNREACHABLE;
+                } else if (id.equals(rootId)) {
+                    status = REACHABLE;
+                } else if (getInt(current, NAME) == NO_NAME
+                        || chain.size() > size) {
+                    status = UNREACHABLE;
+                } else {
+                    current = findSlot(getLong(current, PARENT_MSB),
+                            getLong(current, PARENT_LSB));
+                    if (current < 0) {
+                        status = UNREACHABLE;
+                    }
+                }
+            }
+            for (int s : chain) {
+                putInt(s, FLAGS, getInt(s, FLAGS) | status);
+            }
+            if (status == UNREACHABLE) {
+                unreachable.add(new NodeId(
+                        getLong(slot, MSB), getLong(slot, LSB)));
+            }
+        }
+        return unreachable;
+    }
+
+    //------------------------------------------------------------< internal >
+
+    private static int hash(long msb, long lsb) {
+        int h = (int) ((msb >>> 32) ^ msb ^ (lsb >>> 32) ^ lsb);
+        h *= 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    private static ByteBuffer[] allocateTable(int capacity) {
+        int perBuffer = Math.min(capacity, 1 << BUFFER_BITS);
+        ByteBuffer[] buffers = new ByteBuffer[capacity / perBuffer];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = ByteBuffer.allocateDirect(perBuffer * ENTRY_SIZE);
+        }
+        return buffers;
+    }
+
+    private long getLong(int slot, int field) {
+        return table[slot >>> BUFFER_BITS].getLong(
+                (slot & BUFFER_MASK) * ENTRY_SIZE + field);
+    }
+
+    private void putLong(int slot, int field, long value) {
+        table[slot >>> BUFFER_BITS].putLong(
+                (slot & BUFFER_MASK) * ENTRY_SIZE + field, value);
+    }
+
+    private int getInt(int slot, int field) {
+        return table[slot >>> BUFFER_BITS].getInt(
+                (slot & BUFFER_MASK) * ENTRY_SIZE + field);
+    }
+
+    private void putInt(int slot, int field, int value) {
+        table[slot >>> BUFFER_BITS].putInt(
+                (slot & BUFFER_MASK) * ENTRY_SIZE + field, value);
+    }
+
+    /**
+     * Returns the slot of the given node in the table, or <code>-1</code>
+     * if there is no such entry.
+     */
+    private int findSlot(long msb, long lsb) {
+        int mask = capacity - 1;
+        int slot = hash(msb, lsb) & mask;
+        while (true) {
+            if (getInt(slot, FLAGS) == 0) {
+                return -1;
+            } else if (getLong(slot, MSB) == msb && getLong(slot, LSB) == lsb) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Returns the slot of the given node in the table, and adds an entry
+     * without a name if there is none.
+     */
+    private int getOrAddSlot(NodeId id) {
+        long msb = id.getMostSignificantBits();
+        long lsb = id.getLeastSignificantBits();
+        int slot = findSlot(msb, lsb);
+        if (slot >= 0) {
+            return slot;
+        }
+        if (size >= capacity / 2) {
+            if (capacity >= 1 << 30) {
+                throw new IllegalStateException("Too many nodes");
+            }
+            rehash(capacity * 2);
+        }
+        slot = insert(msb, lsb);
+        putInt(slot, NAME, NO_NAME);
+        putInt(slot, FLAGS, USED);
+        size++;
+        return slot;
+    }
+
+    /**
+     * Returns a free slot for the given node in the table and sets its
+     * identifier.
+     */
+    private int insert(long msb, long lsb) {
+        int mask = capacity - 1;
+        int slot = hash(msb, lsb) & mask;
+        while (getInt(slot, FLAGS) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        putLong(slot, MSB, msb);
+        putLong(slot, LSB, lsb);
+        return slot;
+    }
+
+    private void rehash(int newCapacity) {
+        ByteBuffer[] oldTable = table;
+        int oldCapacity = capacity;
+        table = allocateTable(newCapacity);
+        capacity = newCapacity;
+        int perBuffer = oldCapacity / oldTable.length;
+        for (int i = 0; i < oldCapacity; i++) {
+            ByteBuffer buffer = oldTable[i / perBuffer];
+            int old = (i % perBuffer) * ENTRY_SIZE;
+            if (buffer.getInt(old + FLAGS) != 0) {
+                int slot = insert(buffer.getLong(old + MSB),
+                        buffer.getLong(old + LSB));
+                putLong(slot, PARENT_MSB, buffer.getLong(old + PARENT_MSB));
+                putLong(slot, PARENT_LSB, buffer.getLong(old + PARENT_LSB));
+                putInt(slot, NAME, buffer.getInt(old + NAME));
+                putInt(slot, FLAGS, buffer.getInt(old + FLAGS));
+            }
+        }
+    }
+
+    /**
+     * Appends the given name to the name buffer and returns its offset.
+     */
+    private int addName(Name name) {
+        Integer uri = uriIndexes.get(name.getNamespaceURI());
+        if (uri == null) {
+            uri = uris.size();
+            uris.add(name.getNamespaceURI());
+            uriIndexes.put(name.getNamespaceURI(), uri);
+        }
+        byte[] local;
+        try {
+            local = name.getLocalName().getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        if (names.remaining() < local.length + 8) {
+            long needed = (long) names.position() + local.length + 8;
+            int newCapacity = (int) Math.min(Integer.MAX_VALUE,
+                    Math.max(needed, names.capacity() * 2L));
+            if (newCapacity < needed) {
+                throw new IllegalStateException("Too many names");
+            }
+            ByteBuffer newNames = ByteBuffer.allocateDirect(newCapacity);
+            names.flip();
+            newNames.put(names);
+            names = newNames;
+        }
+        int offset = names.position();
+        names.putInt(uri);
+        names.putInt(local.length);
+        names.put(local);
+        return offset;
+    }
+}
@@ -16,8 +16,11 @@
  */
 package org.apache.jackrabbit.core.query.lucene;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * A cache of arbitrarily typed values used during the execution of a
@@ -26,9 +29,11 @@ import java.util.Map;
 class PerQueryCache {
 
     /**
-     * The internal map of this <code>PerQueryCache</code>.
+     * The internal map of this <code>PerQueryCache</code>. Synchronized,
+     * because the index segments of a query may be scored concurrently.
      */
-    private final Map<Key, Object> map = new HashMap<Key, Object>();
+    private final Map<Key, Object> map =
+            Collections.synchronizedMap(new HashMap<Key, Object>());
 
     /**
      * Returns the value from the cache with the given <code>type</code> and
@@ -57,6 +62,28 @@ class PerQueryCache {
         return map.put(new Key(type, key), value);
     }
 
+    /**
+     * Returns the map of values assigned to <code>type</code> and
+     * <code>key</code> and creates it if there is none yet. The map is safe
+     * for use by the threads that score the ranges of a query concurrently.
+     *
+     * @param type the query type.
+     * @param key  the key object.
+     * @return the map assigned to <code>type</code> and <code>key</code>.
+     */
+    @SuppressWarnings("unchecked")
+    <V> ConcurrentMap<String, V> getMap(Class<?> type, Object key) {
+        synchronized (map) {
+            Key k = new Key(type, key);
+            ConcurrentMap<String, V> m = (ConcurrentMap<String, V>) map.get(k);
+            if (m == null) {
+                m = new ConcurrentHashMap<String, V>();
+                map.put(k, m);
+            }
+            return m;
+        }
+    }
+
     /**
      * Simple key class.
      */
@@ -69,6 +69,11 @@ public class QueryImpl extends AbstractQueryImpl {
      */
     protected final QueryRootNode root;
 
+    /**
+     * The language and statement of this query.
+     */
+    private final String cacheStatement;
+
     /**
      * Creates a new query instance from a query string.
      *
@@ -90,6 +95,7 @@ public class QueryImpl extends AbstractQueryImpl {
         // build query tree using the passed factory
         this.root = QueryParser.parse(
                 statement, language, sessionContext, factory);
+        this.cacheStatement = language + ": " + statement.trim();
     }
 
     /**
@@ -139,6 +145,13 @@ public class QueryImpl extends AbstractQueryImpl {
                 offset, limit);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public String getCacheStatement() {
+        return cacheStatement;
+    }
+
     /**
      * Returns the columns for this query.
      *
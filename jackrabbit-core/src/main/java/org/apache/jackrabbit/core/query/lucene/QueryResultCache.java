@@ -0,0 +1,452 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.jackrabbit.core.cache.AbstractCache;
+import org.apache.jackrabbit.spi.Name;
+import org.apache.jackrabbit.stats.QueryStatCore;
+
+/**
+ * <code>QueryResultCache</code> caches the hits of frequently executed
+ * queries. A query is identified by its statement, which includes the
+ * values bound to its variables, and by the principals the access control
+ * filter of the executing session depends on.
+ * <p>
+ * An entry holds the hits a client has read so far, together with the
+ * generation of the index they were read from. Entries of an older
+ * generation are dropped when they are looked up. When a client reads past
+ * the cached hits, the query is executed and the additional hits are added
+ * to the entry. If the index changed in the meantime, the hits are
+ * continued from the changed index like the hits of a query that is not
+ * cached, and they are not added to the entry. The access
+ * rights of the session are still checked on each
+ * hit by the query result. The least recently used entries are dropped when
+ * the memory used exceeds the maximum memory size, which can be adjusted by
+ * the {@link org.apache.jackrabbit.core.cache.CacheManager}.
+ */
+class QueryResultCache extends AbstractCache {
+
+    /**
+     * The estimated memory of a cache entry without its statement and hits.
+     */
+    private static final int ENTRY_OVERHEAD = 128;
+
+    /**
+     * The estimated memory of a score node and its node id.
+     */
+    private static final int SCORE_NODE_SIZE = 64;
+
+    /**
+     * The name of this cache.
+     */
+    private final String name;
+
+    /**
+     * The query statistics that record cache hits and misses, or
+     * <code>null</code> if none are available.
+     */
+    private final QueryStatCore queryStat;
+
+    /**
+     * The cached hits in access order.
+     */
+    private final Map<Key, Entry> cache =
+            new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+
+    /**
+     * Creates a new cache.
+     *
+     * @param name          the name of the cache.
+     * @param maxMemorySize the maximum memory size in bytes.
+     * @param queryStat     the query statistics or <code>null</code>.
+     */
+    QueryResultCache(String name, long maxMemorySize, QueryStatCore queryStat) {
+        this.name = name;
+        this.queryStat = queryStat;
+        setMaxMemorySize(maxMemorySize);
+    }
+
+    /**
+     * Returns the hits of a query. If the query is in the cache and was
+     * read from the given index generation, the cached hits are returned.
+     * Otherwise the hits of the given execution are returned, and recorded
+     * when they are closed.
+     *
+     * @param statement  the normalized statement of the query.
+     * @param principals the names of the principals that the hits depend
+     *                   on, or an empty set.
+     * @param generation the generation of the index the execution reads.
+     * @param execution  executes the query on the index.
+     * @return the hits of the query.
+     * @throws IOException if an error occurs while executing the query.
+     */
+    MultiColumnQueryHits execute(String statement, Set<String> principals,
+                                 long generation, Execution execution)
+            throws IOException {
+        Key key = new Key(statement, principals);
+        Entry entry;
+        recordCacheAccess();
+        synchronized (cache) {
+            entry = cache.get(key);
+            if (entry != null && entry.generation != generation) {
+                // the index changed
+                cache.remove(key);
+                recordSizeChange(-entry.memory);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            recordCacheMiss();
+        }
+        if (queryStat != null) {
+            queryStat.logCacheAccess(entry != null);
+        }
+        return new CachingHits(key, generation, entry, execution);
+    }
+
+    //------------------------------------------------------------< Cache >
+
+    /**
+     * Sets the maximum memory size and drops the least recently used
+     * entries that do not fit anymore.
+     */
+    @Override
+    public void setMaxMemorySize(long size) {
+        super.setMaxMemorySize(size);
+        synchronized (cache) {
+            shrink();
+        }
+    }
+
+    public long getElementCount() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    //------------------------------------------------------------< internal >
+
+    /**
+     * Adds the hits of a query, unless they would take more than a quarter
+     * of the maximum memory size.
+     *
+     * @param key   the query.
+     * @param entry the hits of the query.
+     */
+    private void put(Key key, Entry entry) {
+        if (entry.memory > getMaxMemorySize() / 4) {
+            return;
+        }
+        synchronized (cache) {
+            Entry previous = cache.get(key);
+            if (previous != null && previous.generation > entry.generation) {
+                // do not replace hits of a newer index generation
+                return;
+            }
+            cache.put(key, entry);
+            if (previous != null) {
+                recordSizeChange(-previous.memory);
+            }
+            recordSizeChange(entry.memory);
+            shrink();
+        }
+    }
+
+    /**
+     * Drops the least recently used entries until the cache fits into the
+     * maximum memory size. The caller must synchronize on {@link #cache}.
+     */
+    private void shrink() {
+        Iterator<Entry> it = cache.values().iterator();
+        while (isTooBig() && it.hasNext()) {
+            recordSizeChange(-it.next().memory);
+            it.remove();
+        }
+    }
+
+    /**
+     * Returns a copy of the given score nodes, so that changes to the score
+     * of the nodes returned to a client do not affect the cache. The
+     * document numbers are not copied, because they are only valid for the
+     * index reader that created the score nodes.
+     *
+     * @param nodes the score nodes.
+     * @return a copy of the score nodes.
+     */
+    private static ScoreNode[] copy(ScoreNode[] nodes) {
+        ScoreNode[] copy = new ScoreNode[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            if (nodes[i] != null) {
+                copy[i] = new ScoreNode(
+                        nodes[i].getNodeId(), nodes[i].getScore());
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Executes a query on the index.
+     */
+    interface Execution {
+
+        /**
+         * @return the hits of the query.
+         * @throws IOException if an error occurs while executing the query.
+         */
+        MultiColumnQueryHits execute() throws IOException;
+
+        /**
+         * Returns the generation of the index that {@link #execute()} reads.
+         * The generation must be read before the index reader of the query
+         * is opened.
+         *
+         * @return the generation of the index.
+         */
+        long getGeneration();
+    }
+
+    /**
+     * Hits that are read from a cache entry and, past the cached hits, from
+     * the executed query. The hits read from the query are added to the
+     * cache when the hits are closed.
+     */
+    private final class CachingHits implements MultiColumnQueryHits {
+
+        private final Key key;
+
+        private final long generation;
+
+        private final Execution execution;
+
+        /**
+         * The cached hits followed by the recorded hits.
+         */
+        private final List<ScoreNode[]> rows;
+
+        /**
+         * The number of hits that were taken from the cache.
+         */
+        private final int cached;
+
+        private Name[] selectorNames;
+
+        private int size;
+
+        /**
+         * <code>true</code> if {@link #rows} contains all hits of the query.
+         */
+        private boolean complete;
+
+        /**
+         * The estimated memory of {@link #rows}.
+         */
+        private long memory;
+
+        /**
+         * Set to <code>false</code> when the hits get too large for the cache.
+         */
+        private boolean recording = true;
+
+        /**
+         * The executed query or <code>null</code> if the query was not
+         * executed yet.
+         */
+        private MultiColumnQueryHits hits;
+
+        /**
+         * The position of the next hit.
+         */
+        private int position = 0;
+
+        private CachingHits(Key key, long generation, Entry entry,
+                            Execution execution) throws IOException {
+            this.key = key;
+            this.generation = generation;
+            this.execution = execution;
+            if (entry != null) {
+                rows = new ArrayList<ScoreNode[]>(Arrays.asList(entry.rows));
+                cached = entry.rows.length;
+                selectorNames = entry.selectorNames;
+                size = entry.size;
+                complete = entry.complete;
+                memory = entry.memory;
+            } else {
+                rows = new ArrayList<ScoreNode[]>();
+                cached = 0;
+                hits = execution.execute();
+                selectorNames = hits.getSelectorNames();
+                size = hits.getSize();
+                memory = ENTRY_OVERHEAD + key.statement.length() * 2;
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public ScoreNode[] nextScoreNodes() throws IOException {
+            if (position < rows.size()) {
+                return copy(rows.get(position++));
+            }
+            if (complete) {
+                return null;
+            }
+            if (hits == null) {
+                // read past the cached hits, which are only continued by
+                // the hits of the same index generation
+                hits = execution.execute();
+                checkGeneration();
+                hits.skip(position);
+            }
+            ScoreNode[] sn = hits.nextScoreNodes();
+            if (sn == null) {
+                complete = true;
+                return null;
+            }
+            if (recording) {
+                rows.add(copy(sn));
+                memory += 16 + sn.length * (4 + SCORE_NODE_SIZE);
+                recording = memory <= getMaxMemorySize() / 4;
+            }
+            position++;
+            return sn;
+        }
+
+        /**
+         * Checks that the query still reads the index generation the cached
+         * hits were read from. Otherwise the hits are continued from the
+         * changed index, like the hits of a query that is not cached, and
+         * they are not recorded anymore.
+         */
+        private void checkGeneration() {
+            if (execution.getGeneration() != generation) {
+                recording = false;
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public Name[] getSelectorNames() {
+            return selectorNames;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public int getSize() {
+            return hits != null ? hits.getSize() : size;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void skip(int n) throws IOException {
+            while (n-- > 0 && nextScoreNodes() != null) {
+                // skip
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void close() throws IOException {
+            if (hits == null) {
+                return;
+            }
+            size = hits.getSize();
+            try {
+                hits.close();
+            } finally {
+                if (recording && (complete || rows.size() > cached)) {
+                    put(key, new Entry(
+                            rows.toArray(new ScoreNode[rows.size()][]),
+                            selectorNames, size, complete, generation, memory));
+                }
+            }
+        }
+    }
+
+    /**
+     * A query statement and the principals its hits depend on.
+     */
+    private static final class Key {
+
+        private final String statement;
+
+        private final Set<String> principals;
+
+        private Key(String statement, Set<String> principals) {
+            this.statement = statement;
+            this.principals = principals;
+        }
+
+        public int hashCode() {
+            return statement.hashCode() * 31 + principals.hashCode();
+        }
+
+        public boolean equals(Object obj) {
+            if (obj instanceof Key) {
+                Key other = (Key) obj;
+                return statement.equals(other.statement)
+                        && principals.equals(other.principals);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * The cached hits of a query.
+     */
+    private static final class Entry {
+
+        private final ScoreNode[][] rows;
+
+        private final Name[] selectorNames;
+
+        private final int size;
+
+        private final boolean complete;
+
+        private final long generation;
+
+        private final long memory;
+
+        private Entry(ScoreNode[][] rows, Name[] selectorNames, int size,
+                      boolean complete, long generation, long memory) {
+            this.rows = rows;
+            this.selectorNames = selectorNames;
+            this.size = size;
+            this.complete = complete;
+            this.generation = generation;
+            this.memory = memory;
+        }
+    }
+}
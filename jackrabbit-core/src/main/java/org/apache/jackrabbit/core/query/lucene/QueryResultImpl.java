@@ -286,7 +286,21 @@ public abstract class QueryResultImpl implements JackrabbitQueryResult {
         try {
             long time = System.currentTimeMillis();
             long r1 = IOCounters.getReads();
-            result = executeQuery(maxResultSize);
+            // the hits before the requested results are read as well
+            final long resultFetchHint = offset + invalid + maxResultSize;
+            result = index.executeCached(sessionContext.getSessionImpl(),
+                    queryImpl.getCacheStatement(),
+                    new QueryResultCache.Execution() {
+                        public MultiColumnQueryHits execute()
+                                throws IOException {
+                            return executeQuery(resultFetchHint);
+                        }
+                        public long getGeneration() {
+                            // the query opens a new index reader
+                            return index.getGeneration(
+                                    queryImpl.needsSystemTree());
+                        }
+                    });
             long r2 = IOCounters.getReads();
             log.debug("query executed in {} ms ({})",
                     System.currentTimeMillis() - time, r2 - r1);
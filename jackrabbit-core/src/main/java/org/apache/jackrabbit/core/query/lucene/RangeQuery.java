@@ -35,7 +35,6 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.BitSet;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -301,7 +300,7 @@ public class RangeQuery extends Query implements Transformable {
         /**
          * The documents ids that match this range query.
          */
-        private final BitSet hits;
+        private BitSet hits;
 
         /**
          * Set to <code>true</code> when the hits have been calculated.
@@ -328,7 +327,6 @@ public class RangeQuery extends Query implements Transformable {
          * @param similarity the similarity implementation.
          * @param reader the index reader to use.
          */
-        @SuppressWarnings({"unchecked"})
         RangeQueryScorer(
                 Similarity similarity, IndexReader reader,
                 PerQueryCache cache) {
@@ -346,20 +344,9 @@ public class RangeQuery extends Query implements Transformable {
             key.append(transform);
             this.cacheKey = key.toString();
             // check cache
-            Map<String, BitSet> m = (Map<String, BitSet>) cache.get(RangeQueryScorer.class, reader);
-            if (m == null) {
-                m = new HashMap<String, BitSet>();
-                cache.put(RangeQueryScorer.class, reader, m);
-            }
-            resultMap = m;
-
-            BitSet result = resultMap.get(cacheKey);
-            if (result == null) {
-                result = new BitSet(reader.maxDoc());
-            } else {
-                hitsCalculated = true;
-            }
-            hits = result;
+            resultMap = cache.getMap(RangeQueryScorer.class, reader);
+            hits = resultMap.get(cacheKey);
+            hitsCalculated = hits != null;
         }
 
         @Override
@@ -414,7 +401,25 @@ public class RangeQuery extends Query implements Transformable {
             if (hitsCalculated) {
                 return;
             }
+            // the ranges of a query may be scored concurrently, calculate
+            // the hits only once per reader and query
+            synchronized (resultMap) {
+                hits = resultMap.get(cacheKey);
+                if (hits == null) {
+                    hits = collectHits();
+                    resultMap.put(cacheKey, hits);
+                }
+            }
+            hitsCalculated = true;
+        }
 
+        /**
+         * Collects the ids of the documents matching this range query.
+         * @return the ids of the matching documents.
+         * @throws IOException if an error occurs while reading from the index.
+         */
+        private BitSet collectHits() throws IOException {
+            BitSet result = new BitSet(reader.maxDoc());
             String testField = getField();
 
             boolean checkLower = false;
@@ -490,7 +495,7 @@ public class RangeQuery extends Query implements Transformable {
 
                                 docs.seek(terms);
                                 while (docs.next()) {
-                                    hits.set(docs.doc());
+                                    result.set(docs.doc());
                                 }
                             } else {
                                 break;
@@ -503,10 +508,7 @@ public class RangeQuery extends Query implements Transformable {
                     terms.close();
                 }
             }
-
-            hitsCalculated = true;
-            // put to cache
-            resultMap.put(cacheKey, hits);
+            return result;
         }
 
         /**
@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.jackrabbit.core.query.lucene.directory.IndexInputStream;
+import org.apache.jackrabbit.core.query.lucene.directory.IndexOutputStream;
+import org.apache.lucene.store.Directory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <code>ReindexCheckpoint</code> keeps track of the subtrees that have been
+ * indexed by a parallel initial index creation, together with the names of
+ * the index segments that contain them. The segments are only registered
+ * with the multi index when the whole workspace has been indexed, so this
+ * file allows an interrupted initial index creation to resume with the
+ * subtrees that are still missing.
+ */
+class ReindexCheckpoint {
+
+    /**
+     * The logger instance for this class.
+     */
+    private static final Logger log = LoggerFactory.getLogger(ReindexCheckpoint.class);
+
+    /**
+     * Encoding of the checkpoint file.
+     */
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * Name of the checkpoint file.
+     */
+    private static final String CHECKPOINT_FILE = "reindex_checkpoint.log";
+
+    /**
+     * The segment names of the indexed subtrees.
+     * Key = subtree key, Value = segment name
+     */
+    private final Map<String, String> segments =
+        new LinkedHashMap<String, String>();
+
+    /**
+     * The directory where the checkpoint file is stored.
+     */
+    private final Directory dir;
+
+    /**
+     * Creates a new <code>ReindexCheckpoint</code> and reads the checkpoint
+     * file if it exists in the given directory.
+     *
+     * @param directory the directory to use.
+     * @throws IOException if an error occurs while reading the checkpoint.
+     */
+    ReindexCheckpoint(Directory directory) throws IOException {
+        this.dir = directory;
+        if (dir.fileExists(CHECKPOINT_FILE)) {
+            InputStream in = new IndexInputStream(dir.openInput(CHECKPOINT_FILE));
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(in, ENCODING));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int idx = line.indexOf(' ');
+                    if (idx == -1) {
+                        log.warn("invalid line in {}: {}", CHECKPOINT_FILE, line);
+                    } else {
+                        segments.put(line.substring(0, idx),
+                                line.substring(idx + 1));
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * @return <code>true</code> if no subtree has been recorded.
+     */
+    synchronized boolean isEmpty() {
+        return segments.isEmpty();
+    }
+
+    /**
+     * Returns the name of the segment that contains the subtree with the
+     * given key.
+     *
+     * @param key the subtree key.
+     * @return the segment name, or <code>null</code> if the subtree has not
+     *         been indexed.
+     */
+    synchronized String getSegment(String key) {
+        return segments.get(key);
+    }
+
+    /**
+     * Returns <code>true</code> if the segment with the given name contains
+     * one of the recorded subtrees.
+     *
+     * @param segmentName the name of an index segment.
+     * @return <code>true</code> if the segment is recorded.
+     */
+    synchronized boolean containsSegment(String segmentName) {
+        return segments.containsValue(segmentName);
+    }
+
+    /**
+     * Records that the subtree with the given key has been indexed into the
+     * segment with the given name, and writes the checkpoint file.
+     *
+     * @param key         the subtree key.
+     * @param segmentName the name of the segment.
+     * @throws IOException if the checkpoint file cannot be written.
+     */
+    synchronized void add(String key, String segmentName) throws IOException {
+        segments.put(key, segmentName);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new IndexOutputStream(dir.createOutput(CHECKPOINT_FILE)),
+                ENCODING));
+        try {
+            for (Map.Entry<String, String> entry : segments.entrySet()) {
+                writer.write(entry.getKey());
+                writer.write(' ');
+                writer.write(entry.getValue());
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Forgets all recorded subtrees and deletes the checkpoint file.
+     *
+     * @throws IOException if the checkpoint file cannot be deleted.
+     */
+    synchronized void clear() throws IOException {
+        segments.clear();
+        if (dir.fileExists(CHECKPOINT_FILE)) {
+            dir.deleteFile(CHECKPOINT_FILE);
+        }
+    }
+}
@@ -0,0 +1,353 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
+
+/**
+ * <code>RoaringDocIdSet</code> is an immutable, compressed set of document
+ * numbers. The document numbers are split into chunks of 65536 by their
+ * upper 16 bits. A chunk with at most 4096 documents stores the lower 16
+ * bits of its documents in a sorted <code>char</code> array, a denser chunk
+ * stores them in a bitmap of 8 KB. A set therefore never needs more than
+ * two bytes per document, and sparse sets need much less memory than a
+ * <code>BitSet</code> of the whole index.
+ */
+final class RoaringDocIdSet {
+
+    /**
+     * The maximum number of documents in an array chunk.
+     */
+    private static final int ARRAY_MAX_SIZE = 4096;
+
+    /**
+     * The number of <code>long</code> words in a bitmap chunk.
+     */
+    private static final int BITMAP_WORDS = 1024;
+
+    /**
+     * The empty set.
+     */
+    static final RoaringDocIdSet EMPTY =
+            new RoaringDocIdSet(new char[0], new Object[0], 0);
+
+    /**
+     * The upper 16 bits of the documents of each chunk, in ascending order.
+     */
+    private final char[] keys;
+
+    /**
+     * The chunks, either a sorted <code>char[]</code> or a
+     * <code>long[]</code> bitmap.
+     */
+    private final Object[] chunks;
+
+    /**
+     * The number of documents in this set.
+     */
+    private final int size;
+
+    private RoaringDocIdSet(char[] keys, Object[] chunks, int size) {
+        this.keys = keys;
+        this.chunks = chunks;
+        this.size = size;
+    }
+
+    /**
+     * Reads the documents of a term into a new set.
+     *
+     * @param tDocs the term docs, which are closed by the caller.
+     * @return the documents of the term docs.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    static RoaringDocIdSet create(TermDocs tDocs) throws IOException {
+        Builder builder = new Builder();
+        int[] docs = new int[64];
+        int[] freqs = new int[64];
+        int n;
+        while ((n = tDocs.read(docs, freqs)) > 0) {
+            for (int i = 0; i < n; i++) {
+                builder.add(docs[i]);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return the number of documents in this set.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the estimated number of bytes used by this set.
+     */
+    long getMemoryUsed() {
+        long memory = 48 + keys.length * 2 + chunks.length * 4;
+        for (Object chunk : chunks) {
+            if (chunk instanceof char[]) {
+                memory += 16 + ((char[]) chunk).length * 2;
+            } else {
+                memory += 16 + BITMAP_WORDS * 8;
+            }
+        }
+        return memory;
+    }
+
+    /**
+     * @return a new <code>TermDocs</code> over the documents of this set,
+     *         with a frequency of one for each document.
+     */
+    TermDocs termDocs() {
+        return new Docs();
+    }
+
+    /**
+     * Builds a set from documents that are added in ascending order.
+     */
+    static final class Builder {
+
+        private char[] keys = new char[4];
+
+        private Object[] chunks = new Object[4];
+
+        private int numChunks;
+
+        private int size;
+
+        /**
+         * The lower 16 bits of the documents of the current chunk.
+         */
+        private final char[] buffer = new char[65536];
+
+        private int bufferSize;
+
+        /**
+         * The upper 16 bits of the current chunk, or -1 if there is none.
+         */
+        private int key = -1;
+
+        /**
+         * Adds a document, which must be greater than the documents added
+         * before.
+         *
+         * @param doc the document number.
+         */
+        void add(int doc) {
+            int k = doc >>> 16;
+            if (k != key) {
+                flush();
+                key = k;
+            }
+            buffer[bufferSize++] = (char) doc;
+            size++;
+        }
+
+        /**
+         * @return the set with the added documents.
+         */
+        RoaringDocIdSet build() {
+            flush();
+            if (size == 0) {
+                return EMPTY;
+            }
+            char[] k = new char[numChunks];
+            Object[] c = new Object[numChunks];
+            System.arraycopy(keys, 0, k, 0, numChunks);
+            System.arraycopy(chunks, 0, c, 0, numChunks);
+            return new RoaringDocIdSet(k, c, size);
+        }
+
+        private void flush() {
+            if (bufferSize == 0) {
+                return;
+            }
+            Object chunk;
+            if (bufferSize <= ARRAY_MAX_SIZE) {
+                char[] array = new char[bufferSize];
+                System.arraycopy(buffer, 0, array, 0, bufferSize);
+                chunk = array;
+            } else {
+                long[] bitmap = new long[BITMAP_WORDS];
+                for (int i = 0; i < bufferSize; i++) {
+                    bitmap[buffer[i] >>> 6] |= 1L << buffer[i];
+                }
+                chunk = bitmap;
+            }
+            if (numChunks == keys.length) {
+                keys = Arrays.copyOf(keys, numChunks * 2);
+                chunks = Arrays.copyOf(chunks, numChunks * 2);
+            }
+            keys[numChunks] = (char) key;
+            chunks[numChunks++] = chunk;
+            bufferSize = 0;
+        }
+    }
+
+    /**
+     * Iterates over the documents of the set.
+     */
+    private final class Docs implements TermDocs {
+
+        /**
+         * The index of the current chunk.
+         */
+        private int chunk;
+
+        /**
+         * The index of the current document in an array chunk.
+         */
+        private int position = -1;
+
+        /**
+         * The current document.
+         */
+        private int doc = -1;
+
+        /**
+         * @throws UnsupportedOperationException always.
+         */
+        public void seek(Term term) {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * @throws UnsupportedOperationException always.
+         */
+        public void seek(TermEnum termEnum) {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public int doc() {
+            return doc;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public int freq() {
+            return 1;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public boolean next() {
+            if (chunk < chunks.length && chunks[chunk] instanceof char[]) {
+                char[] array = (char[]) chunks[chunk];
+                if (position + 1 < array.length) {
+                    doc = (keys[chunk] << 16) | array[++position];
+                    return true;
+                }
+            }
+            return skipTo(doc + 1);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public int read(int[] docs, int[] freqs) {
+            int count;
+            for (count = 0; count < docs.length && next(); count++) {
+                docs[count] = doc;
+                freqs[count] = 1;
+            }
+            return count;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public boolean skipTo(int target) {
+            if (doc == Integer.MAX_VALUE) {
+                return false;
+            }
+            target = Math.max(target, doc + 1);
+            int k = target >>> 16;
+            int low = target & 0xFFFF;
+            while (chunk < chunks.length && keys[chunk] < k) {
+                chunk++;
+                position = -1;
+            }
+            while (chunk < chunks.length) {
+                if (keys[chunk] > k) {
+                    low = 0;
+                }
+                int next = find(low);
+                if (next != -1) {
+                    doc = (keys[chunk] << 16) | next;
+                    return true;
+                }
+                chunk++;
+                position = -1;
+                low = 0;
+            }
+            doc = Integer.MAX_VALUE;
+            return false;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void close() {
+        }
+
+        /**
+         * Finds the first document of the current chunk whose lower 16 bits
+         * are at least <code>low</code>.
+         *
+         * @param low the lower 16 bits of the target document.
+         * @return the lower 16 bits of the document or -1 if there is none.
+         */
+        private int find(int low) {
+            Object c = chunks[chunk];
+            if (c instanceof char[]) {
+                char[] array = (char[]) c;
+                int from = Math.max(position, 0);
+                int i = Arrays.binarySearch(array, from, array.length, (char) low);
+                if (i < 0) {
+                    i = -i - 1;
+                }
+                if (i < array.length) {
+                    position = i;
+                    return array[i];
+                }
+                return -1;
+            } else {
+                long[] bitmap = (long[]) c;
+                int word = low >>> 6;
+                long bits = bitmap[word] & (-1L << low);
+                while (bits == 0) {
+                    if (++word == BITMAP_WORDS) {
+                        return -1;
+                    }
+                    bits = bitmap[word];
+                }
+                return word * 64 + Long.numberOfTrailingZeros(bits);
+            }
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import org.apache.jackrabbit.core.id.ItemId;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.id.PropertyId;
+import org.apache.jackrabbit.core.persistence.bundle.AbstractBundlePersistenceManager;
+import org.apache.jackrabbit.core.persistence.util.NodePropBundle;
+import org.apache.jackrabbit.core.state.ChildNodeEntry;
+import org.apache.jackrabbit.core.state.ItemState;
+import org.apache.jackrabbit.core.state.ItemStateException;
+import org.apache.jackrabbit.core.state.ItemStateManager;
+import org.apache.jackrabbit.core.state.NodeReferences;
+import org.apache.jackrabbit.core.state.NodeState;
+import org.apache.jackrabbit.spi.Name;
+
+/**
+ * Item state manager that is used to index the bundles returned by
+ * {@link AbstractBundlePersistenceManager#getAllBundles(NodeId, int)}
+ * without going through the shared item state cache. The properties of the
+ * node that is currently indexed are created from its bundle, and its name
+ * is resolved through an {@link OffHeapParentMap}. Other item states are
+ * loaded from the persistence manager.
+ */
+class ScanItemStateManager implements ItemStateManager {
+
+    /**
+     * The persistence manager.
+     */
+    private final AbstractBundlePersistenceManager pm;
+
+    /**
+     * The parents and names of the scanned nodes.
+     */
+    private final OffHeapParentMap parents;
+
+    /**
+     * The bundle of the node that is currently indexed.
+     */
+    private NodePropBundle current;
+
+    /**
+     * The number of parent nodes that had to be loaded from the
+     * persistence manager.
+     */
+    private long parentLoads;
+
+    ScanItemStateManager(AbstractBundlePersistenceManager pm,
+                         OffHeapParentMap parents) {
+        this.pm = pm;
+        this.parents = parents;
+    }
+
+    /**
+     * Records the child node entries of the given bundle in the parent map.
+     *
+     * @param bundle a bundle.
+     */
+    void addChildren(NodePropBundle bundle) {
+        for (NodePropBundle.ChildNodeEntry entry : bundle.getChildNodeEntries()) {
+            parents.addChild(bundle.getId(), entry.getName(), entry.getId());
+        }
+    }
+
+    /**
+     * Sets the bundle of the node that is indexed next and returns its
+     * node state.
+     *
+     * @param bundle the bundle.
+     * @return the node state.
+     */
+    NodeState setCurrent(NodePropBundle bundle) {
+        current = bundle;
+        parents.setScanned(bundle.getId());
+        return bundle.createNodeState(pm);
+    }
+
+    /**
+     * @return the number of parent nodes that had to be loaded from the
+     *         persistence manager, because they were not scanned yet.
+     */
+    long getParentLoads() {
+        return parentLoads;
+    }
+
+    //-----------------------------------------------------< ItemStateManager >
+
+    /**
+     * Returns the state of a property of the current node from its bundle,
+     * or a parent node state with the child node entry of the current node
+     * if its name is known. All other item states are loaded from the
+     * persistence manager.
+     */
+    public ItemState getItemState(ItemId id) throws ItemStateException {
+        if (id.denotesNode()) {
+            NodeId nodeId = (NodeId) id;
+            if (current != null && nodeId.equals(current.getParentId())) {
+                Name name = parents.getName(current.getId());
+                if (name != null && nodeId.equals(
+                        parents.getParentId(current.getId()))) {
+                    NodeState parent = new NodeState(nodeId, null, null,
+                            ItemState.STATUS_EXISTING, false);
+                    parent.addChildNodeEntry(name, current.getId());
+                    return parent;
+                }
+            }
+            // parent node that has not been scanned yet, or any other node
+            NodeState state = pm.load(nodeId);
+            parentLoads++;
+            for (ChildNodeEntry entry : state.getChildNodeEntries()) {
+                parents.addChild(nodeId, entry.getName(), entry.getId());
+            }
+            return state;
+        } else {
+            PropertyId propId = (PropertyId) id;
+            if (current != null && propId.getParentId().equals(current.getId())) {
+                return pm.createPropertyState(current, propId);
+            }
+            return pm.load(propId);
+        }
+    }
+
+    public boolean hasItemState(ItemId id) {
+        try {
+            if (id.denotesNode()) {
+                return pm.exists((NodeId) id);
+            } else {
+                return pm.exists((PropertyId) id);
+            }
+        } catch (ItemStateException e) {
+            return false;
+        }
+    }
+
+    public NodeReferences getNodeReferences(NodeId id)
+            throws ItemStateException {
+        return pm.loadReferencesTo(id);
+    }
+
+    public boolean hasNodeReferences(NodeId id) {
+        try {
+            return pm.existsReferencesTo(id);
+        } catch (ItemStateException e) {
+            return false;
+        }
+    }
+}
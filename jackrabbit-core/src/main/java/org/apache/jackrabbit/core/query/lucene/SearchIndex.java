@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.security.Principal;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -29,9 +30,12 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
 
 import javax.jcr.PropertyType;
 import javax.jcr.RepositoryException;
@@ -42,6 +46,7 @@ import javax.xml.parsers.ParserConfigurationException;
 
 import org.apache.jackrabbit.core.HierarchyManager;
 import org.apache.jackrabbit.core.SessionImpl;
+import org.apache.jackrabbit.core.cache.CacheManager;
 import org.apache.jackrabbit.core.cluster.ChangeLogRecord;
 import org.apache.jackrabbit.core.cluster.ClusterNode;
 import org.apache.jackrabbit.core.cluster.ClusterRecord;
@@ -68,6 +73,9 @@ import org.apache.jackrabbit.core.query.QueryHandlerContext;
 import org.apache.jackrabbit.core.query.lucene.directory.DirectoryManager;
 import org.apache.jackrabbit.core.query.lucene.directory.FSDirectoryManager;
 import org.apache.jackrabbit.core.query.lucene.hits.AbstractHitCollector;
+import org.apache.jackrabbit.core.security.AccessManager;
+import org.apache.jackrabbit.core.security.DefaultAccessManager;
+import org.apache.jackrabbit.core.security.authorization.acl.ACLProvider;
 import org.apache.jackrabbit.core.session.SessionContext;
 import org.apache.jackrabbit.core.state.ItemState;
 import org.apache.jackrabbit.core.state.ItemStateException;
@@ -196,6 +204,11 @@ public class SearchIndex extends AbstractQueryHandler {
      */
     public static final int DEFAULT_TERM_INFOS_INDEX_DIVISOR = 1;
 
+    /**
+     * The default maximum memory size of the term docs cache: 4 MB.
+     */
+    public static final long DEFAULT_TERM_DOCS_CACHE_SIZE = 4 * 1024 * 1024;
+
     /**
      * The path factory.
      */
@@ -310,6 +323,33 @@ public class SearchIndex extends AbstractQueryHandler {
      */
     private int extractorPoolSize = 2 * Runtime.getRuntime().availableProcessors();
 
+    /**
+     * reindexThreads config parameter
+     */
+    private int reindexThreads = 1;
+
+    /**
+     * searchThreads config parameter
+     */
+    private int searchThreads = 1;
+
+    /**
+     * reindexFromPersistenceManager config parameter
+     */
+    private boolean reindexFromPersistenceManager = false;
+
+    /**
+     * accessControlFilter config parameter
+     */
+    private boolean accessControlFilter = false;
+
+    /**
+     * The compiled access control filters of the sessions, which are reused
+     * by their queries as long as the index does not change.
+     */
+    private final Map<SessionImpl, AccessControlFilter.Compiled> accessControlFilters =
+            new WeakHashMap<SessionImpl, AccessControlFilter.Compiled>();
+
     /**
      * extractorBackLog config parameter
      */
@@ -372,6 +412,59 @@ public class SearchIndex extends AbstractQueryHandler {
      */
     private int cacheSize = 1000;
 
+    /**
+     * The maximum memory size in bytes of the cache of frequently read term
+     * docs, or <code>0</code> if term docs are always read from the index.
+     * <p>
+     * Default value is: {@link #DEFAULT_TERM_DOCS_CACHE_SIZE}.
+     */
+    private long termDocsCacheSize = DEFAULT_TERM_DOCS_CACHE_SIZE;
+
+    /**
+     * The cache of frequently read term docs, or <code>null</code> if term
+     * docs are not cached.
+     */
+    private TermDocsCache termDocsCache;
+
+    /**
+     * The maximum memory size in bytes of the cache of query hits, or
+     * <code>0</code> if every query is evaluated on the index.
+     * <p>
+     * Default value is: <code>0</code>.
+     */
+    private long queryResultCacheSize = 0;
+
+    /**
+     * The cache of query hits, or <code>null</code> if query hits are not
+     * cached.
+     */
+    private QueryResultCache queryResultCache;
+
+    /**
+     * The maximum number of cached row estimates of SQL2 join sides.
+     */
+    private static final int MAX_ESTIMATES = 1000;
+
+    /**
+     * The estimated numbers of rows of SQL2 join sides by statement, for the
+     * index generation {@link #estimatesGeneration}. Least recently used
+     * estimates are dropped first.
+     */
+    private final Map<String, Integer> estimates =
+            new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<String, Integer> eldest) {
+                    return size() > MAX_ESTIMATES;
+                }
+            };
+
+    /**
+     * The index generation of the {@link #estimates}.
+     */
+    private long estimatesGeneration;
+
     /**
      * The number of documents that are pre fetched when a query is executed.
      * <p>
@@ -570,6 +663,30 @@ public class SearchIndex extends AbstractQueryHandler {
         // initialize the Tika parser
         parser = createParser();
 
+        String workspace = context.getWorkspace();
+        if (workspace == null) {
+            // the index of the system tree
+            workspace = "jcr:system";
+        }
+        CacheManager cacheManager = context.getCacheManager();
+        if (termDocsCacheSize > 0) {
+            termDocsCache = new TermDocsCache(
+                    workspace + "/TermDocsCache", termDocsCacheSize);
+            if (cacheManager != null) {
+                termDocsCache.setAccessListener(cacheManager);
+                cacheManager.add(termDocsCache, termDocsCacheSize);
+            }
+        }
+        if (queryResultCacheSize > 0) {
+            queryResultCache = new QueryResultCache(
+                    workspace + "/QueryResultCache", queryResultCacheSize,
+                    context.getQueryStat());
+            if (cacheManager != null) {
+                queryResultCache.setAccessListener(cacheManager);
+                cacheManager.add(queryResultCache, queryResultCacheSize);
+            }
+        }
+
         index = new MultiIndex(this, excludedIDs);
         if (index.numDocs() == 0) {
             Path rootPath;
@@ -837,6 +954,12 @@ public class SearchIndex extends AbstractQueryHandler {
             spellChecker.close();
         }
         index.close();
+        if (termDocsCache != null) {
+            termDocsCache.dispose();
+        }
+        if (queryResultCache != null) {
+            queryResultCache.dispose();
+        }
         getContext().destroy();
         super.close();
         closed = true;
@@ -872,6 +995,9 @@ public class SearchIndex extends AbstractQueryHandler {
         JackrabbitIndexSearcher searcher = new JackrabbitIndexSearcher(
                 session, reader, getContext().getItemStateManager());
         searcher.setSimilarity(getSimilarity());
+        searcher.setSearchExecutor(getContext().getExecutor(), searchThreads);
+        searcher.setAccessControlFilter(
+                createAccessControlFilter(session, reader));
         return new FilterMultiColumnQueryHits(
                 searcher.execute(query, sort, resultFetchHint,
                         QueryImpl.DEFAULT_SELECTOR_NAME)) {
@@ -906,6 +1032,7 @@ public class SearchIndex extends AbstractQueryHandler {
         JackrabbitIndexSearcher searcher = new JackrabbitIndexSearcher(
                 session, reader, getContext().getItemStateManager());
         searcher.setSimilarity(getSimilarity());
+        searcher.setSearchExecutor(getContext().getExecutor(), searchThreads);
         return new FilterMultiColumnQueryHits(
                 query.execute(searcher, orderings, resultFetchHint)) {
             public void close() throws IOException {
@@ -918,6 +1045,163 @@ public class SearchIndex extends AbstractQueryHandler {
         };
     }
 
+    /**
+     * Returns the hits of a query from the query result cache, or executes
+     * the query if its hits are not cached. The query is always executed if
+     * the cache is disabled or the session remapped a namespace prefix,
+     * because the statement then does not identify the query.
+     *
+     * @param session   the session that executes the query.
+     * @param statement the statement that identifies the query, or
+     *                  <code>null</code> if the hits of the query must not
+     *                  be cached.
+     * @param execution executes the query on the index.
+     * @return the query hits.
+     * @throws IOException if an error occurs while searching the index.
+     */
+    MultiColumnQueryHits executeCached(SessionImpl session,
+                                       String statement,
+                                       QueryResultCache.Execution execution)
+            throws IOException {
+        if (queryResultCache == null || statement == null
+                || session.isNamespacePrefixRemapped()) {
+            return execution.execute();
+        }
+        return queryResultCache.execute(statement,
+                getAccessControlPrincipals(session),
+                execution.getGeneration(), execution);
+    }
+
+    /**
+     * Returns the estimated number of rows of a statement, if it was
+     * estimated on the given index generation.
+     *
+     * @param statement  identifies the selector, constraint and bind
+     *                   variable values.
+     * @param generation the current generation of the index, see
+     *                   {@link #getGeneration(boolean)}.
+     * @return the estimate or <code>null</code> if none is cached.
+     */
+    Integer getEstimate(String statement, long generation) {
+        synchronized (estimates) {
+            if (generation != estimatesGeneration) {
+                return null;
+            }
+            return estimates.get(statement);
+        }
+    }
+
+    /**
+     * Caches the estimated number of rows of a statement for the index
+     * generation it was estimated on. The estimates of other generations
+     * are dropped.
+     *
+     * @param statement  identifies the selector, constraint and bind
+     *                   variable values.
+     * @param generation the generation of the index the estimate was read
+     *                   from.
+     * @param estimate   the estimated number of rows.
+     */
+    void putEstimate(String statement, long generation, int estimate) {
+        synchronized (estimates) {
+            if (generation != estimatesGeneration) {
+                estimates.clear();
+                estimatesGeneration = generation;
+            }
+            estimates.put(statement, estimate);
+        }
+    }
+
+    /**
+     * Returns the generation of the index that the hits of a query are read
+     * from. The generation must be read before the index reader of the query
+     * is opened.
+     *
+     * @param includeSystemIndex whether the query reads the index of the
+     *                           system tree.
+     * @return the generation of the index.
+     */
+    long getGeneration(boolean includeSystemIndex) {
+        long generation = index.getGeneration();
+        QueryHandler parentHandler = getContext().getParentHandler();
+        if (parentHandler instanceof SearchIndex && includeSystemIndex) {
+            generation += ((SearchIndex) parentHandler).index.getGeneration();
+        }
+        return generation;
+    }
+
+    /**
+     * Returns the names of the principals that the
+     * {@link #createAccessControlFilter(SessionImpl, IndexReader) access
+     * control filter} of a session depends on.
+     *
+     * @param session the session that executes a query.
+     * @return the principal names, or an empty set if the hits of the
+     *         session are not filtered.
+     */
+    protected Set<String> getAccessControlPrincipals(SessionImpl session) {
+        if (!isAccessControlFiltered(session)) {
+            return Collections.emptySet();
+        }
+        Set<String> names = new TreeSet<String>();
+        for (Principal principal : session.getSubject().getPrincipals()) {
+            names.add(principal.getName());
+        }
+        return names;
+    }
+
+    /**
+     * Creates the filter that drops the documents of nodes the session
+     * cannot read from the query hits.
+     *
+     * @param session the session that executes the query.
+     * @param reader  the index reader of the query.
+     * @return the filter, or <code>null</code> if the hits of the session
+     *         are not {@link #isAccessControlFiltered(SessionImpl) filtered}.
+     * @throws IOException if the filter cannot be created.
+     */
+    protected AccessControlFilter createAccessControlFilter(
+            SessionImpl session, IndexReader reader) throws IOException {
+        if (!isAccessControlFiltered(session)) {
+            return null;
+        }
+        AccessControlFilter.Compiled compiled;
+        synchronized (accessControlFilters) {
+            compiled = accessControlFilters.get(session);
+        }
+        if (compiled != null && compiled.isCompiledFor(reader)) {
+            return new AccessControlFilter(session, reader, compiled);
+        }
+        AccessControlFilter filter =
+                new AccessControlFilter(session, reader, getNamespaceMappings());
+        synchronized (accessControlFilters) {
+            accessControlFilters.put(session, filter.getCompiled());
+        }
+        return filter;
+    }
+
+    /**
+     * Returns <code>true</code> if the query hits of the session are
+     * filtered with an {@link AccessControlFilter}. This is the case if the
+     * filter is enabled, the session is neither a system nor an admin
+     * session, and its permissions are evaluated by the default, resource
+     * based access control provider. Other providers, like the principal
+     * based or the combined provider, store the access control entries
+     * elsewhere and the filter could drop readable nodes.
+     *
+     * @param session the session that executes a query.
+     * @return whether the query hits of the session are filtered.
+     */
+    protected boolean isAccessControlFiltered(SessionImpl session) {
+        if (!accessControlFilter || session.isSystem() || session.isAdmin()) {
+            return false;
+        }
+        AccessManager accessMgr = session.getAccessManager();
+        return accessMgr instanceof DefaultAccessManager
+                && ((DefaultAccessManager) accessMgr).getAccessControlProvider()
+                        instanceof ACLProvider;
+    }
+
     /**
      * Creates an excerpt provider for the given <code>query</code>.
      *
@@ -1244,8 +1528,32 @@ public class SearchIndex extends AbstractQueryHandler {
                                       NamespaceMappings nsMappings,
                                       IndexFormatVersion indexFormatVersion)
             throws RepositoryException {
+        return createDocument(node, nsMappings, indexFormatVersion,
+                getContext().getItemStateManager());
+    }
+
+    /**
+     * Creates a lucene <code>Document</code> for a node state using the
+     * namespace mappings <code>nsMappings</code> and the given item state
+     * manager to read the properties and the parent of the node.
+     *
+     * @param node               the node state to index.
+     * @param nsMappings         the namespace mappings of the search index.
+     * @param indexFormatVersion the index format version that should be used
+     *                           to index the passed node state.
+     * @param stateProvider      the item state manager.
+     * @return a lucene <code>Document</code> that contains all properties of
+     *         <code>node</code>.
+     * @throws RepositoryException if an error occurs while indexing the
+     *                             <code>node</code>.
+     */
+    protected Document createDocument(NodeState node,
+                                      NamespaceMappings nsMappings,
+                                      IndexFormatVersion indexFormatVersion,
+                                      ItemStateManager stateProvider)
+            throws RepositoryException {
         NodeIndexer indexer = new NodeIndexer(
-                node, getContext().getItemStateManager(), nsMappings,
+                node, stateProvider, nsMappings,
                 getContext().getExecutor(), parser);
         indexer.setSupportHighlighting(supportHighlighting);
         indexer.setIndexingConfiguration(indexingConfig);
@@ -2067,6 +2375,61 @@ public class SearchIndex extends AbstractQueryHandler {
         return cacheSize;
     }
 
+    /**
+     * Sets the maximum memory size of the cache of frequently read term docs
+     * of the <code>_:PROPERTIES</code> and <code>_:PARENT</code> fields, for
+     * example the nodes of a primary type or the children of a node. The
+     * cache is registered with the cache manager of the repository, which
+     * may resize it. Its hits, misses and memory are available through the
+     * {@link org.apache.jackrabbit.core.cache.CacheManagerMBean} of the
+     * cache manager, which the embedding application has to register to
+     * publish them over JMX. A size of <code>0</code> disables the cache.
+     *
+     * @param size the maximum memory size in bytes.
+     */
+    public void setTermDocsCacheSize(long size) {
+        termDocsCacheSize = size;
+    }
+
+    /**
+     * @return the maximum memory size in bytes of the term docs cache.
+     */
+    public long getTermDocsCacheSize() {
+        return termDocsCacheSize;
+    }
+
+    /**
+     * @return the cache of frequently read term docs, or <code>null</code>
+     *         if term docs are not cached.
+     */
+    TermDocsCache getTermDocsCache() {
+        return termDocsCache;
+    }
+
+    /**
+     * Sets the maximum memory size of the cache of query hits. The hits of a
+     * query are cached by its statement, its bind values and the principals
+     * of the access control filter, and are reused until the index changes.
+     * The access rights of a session are still checked on each node of a
+     * cached result. The cache is registered with the cache manager of the
+     * repository, which may resize it. Its statistics are available through
+     * the {@link org.apache.jackrabbit.core.cache.CacheManagerMBean}, which
+     * the embedding application has to register. A size of <code>0</code>
+     * disables the cache.
+     *
+     * @param size the maximum memory size in bytes.
+     */
+    public void setQueryResultCacheSize(long size) {
+        queryResultCacheSize = size;
+    }
+
+    /**
+     * @return the maximum memory size in bytes of the query result cache.
+     */
+    public long getQueryResultCacheSize() {
+        return queryResultCacheSize;
+    }
+
     public void setMaxFieldLength(int length) {
         maxFieldLength = length;
     }
@@ -2153,6 +2516,90 @@ public class SearchIndex extends AbstractQueryHandler {
         return extractorPoolSize;
     }
 
+    /**
+     * Sets the number of threads that create the initial index of the
+     * workspace. With more than one thread, the workspace is split into
+     * subtrees that are indexed concurrently into separate index segments.
+     * The default is 1, which indexes the workspace sequentially.
+     *
+     * @param reindexThreads the number of threads.
+     */
+    public void setReindexThreads(int reindexThreads) {
+        this.reindexThreads = Math.max(1, reindexThreads);
+    }
+
+    /**
+     * @return the number of threads that create the initial index.
+     */
+    public int getReindexThreads() {
+        return reindexThreads;
+    }
+
+    /**
+     * Sets the maximum number of threads that score a single sorted query.
+     * With more than one thread, ranges of the index are scored concurrently
+     * on the thread pool of the repository and their top hits are merged.
+     * The calling thread counts as one of the threads. The default is 1,
+     * which scores the whole index on the calling thread.
+     *
+     * @param searchThreads the maximum number of threads per query.
+     */
+    public void setSearchThreads(int searchThreads) {
+        this.searchThreads = Math.max(1, searchThreads);
+    }
+
+    /**
+     * @return the maximum number of threads that score a single sorted
+     *         query.
+     */
+    public int getSearchThreads() {
+        return searchThreads;
+    }
+
+    /**
+     * Sets whether the initial index of a workspace is created by scanning
+     * all bundles of the persistence manager in storage order instead of
+     * traversing the workspace. This only applies to workspaces with a
+     * bundle persistence manager. The default is <code>false</code>.
+     *
+     * @param reindexFromPersistenceManager <code>true</code> to scan the
+     *                                      persistence manager.
+     */
+    public void setReindexFromPersistenceManager(
+            boolean reindexFromPersistenceManager) {
+        this.reindexFromPersistenceManager = reindexFromPersistenceManager;
+    }
+
+    /**
+     * @return whether the initial index is created by scanning the
+     *         persistence manager.
+     */
+    public boolean isReindexFromPersistenceManager() {
+        return reindexFromPersistenceManager;
+    }
+
+    /**
+     * Sets whether query hits are filtered with an {@link AccessControlFilter}
+     * that drops the nodes the session cannot read before the hits are
+     * scored and sorted. The filter is compiled from the access controlled
+     * nodes in the index and is therefore only applied to sessions of the
+     * default, resource based access control provider. Each node in the
+     * query result is still checked with the access manager. The default is
+     * <code>false</code>.
+     *
+     * @param accessControlFilter <code>true</code> to filter the query hits.
+     */
+    public void setAccessControlFilter(boolean accessControlFilter) {
+        this.accessControlFilter = accessControlFilter;
+    }
+
+    /**
+     * @return whether query hits are filtered with an access control filter.
+     */
+    public boolean isAccessControlFilter() {
+        return accessControlFilter;
+    }
+
     /**
      * The number of extractor jobs that are queued until a new job is executed
      * with the current thread instead of using the thread pool.
@@ -197,6 +197,12 @@ public class SharedFieldCache {
      */
     private final Map<IndexReader, Map<Key, ValueIndex>> cache = new WeakHashMap<IndexReader, Map<Key, ValueIndex>>();
 
+    /**
+     * The sort value columns. Maps Entry to the column or <code>null</code>
+     * if the values cannot be represented in a column.
+     */
+    private final Map<IndexReader, Map<Key, SortValueColumn>> columns = new WeakHashMap<IndexReader, Map<Key, SortValueColumn>>();
+
     /**
      * Private constructor.
      */
@@ -313,6 +319,62 @@ public class SharedFieldCache {
         return ret;
     }
 
+    /**
+     * Returns the primitive {@link SortValueColumn} for a <code>field</code>
+     * and a term <code>prefix</code>. The column is created once per index
+     * reader and persisted with the index, see
+     * {@link SortValueColumn#getColumn(IndexReader, String, String)}.
+     *
+     * @param reader     the <code>IndexReader</code>.
+     * @param field      name of the shared field.
+     * @param prefix     the property name, will be used as term prefix.
+     * @return the column or <code>null</code> if the values cannot be
+     *         represented in a column, in which case the
+     *         {@link #getValueIndex(IndexReader, String, String)} has to be
+     *         used.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    public SortValueColumn getSortValueColumn(IndexReader reader, String field,
+            String prefix) throws IOException {
+
+        if (reader instanceof ReadOnlyIndexReader) {
+            reader = ((ReadOnlyIndexReader) reader).getBase();
+        }
+
+        Map<Key, SortValueColumn> readerColumns;
+        synchronized (columns) {
+            readerColumns = columns.get(reader);
+            if (readerColumns == null) {
+                readerColumns = new HashMap<Key, SortValueColumn>();
+                columns.put(reader, readerColumns);
+            }
+        }
+        // columns of a reader are created one at a time, other readers of
+        // the same index only ever see completely written column files
+        synchronized (readerColumns) {
+            Key key = new Key(field, prefix);
+            if (readerColumns.containsKey(key)) {
+                return readerColumns.get(key);
+            }
+            SortValueColumn column = SortValueColumn.getColumn(reader, field, prefix);
+            readerColumns.put(key, column);
+            return column;
+        }
+    }
+
+    /**
+     * Removes the {@link SortValueColumn}s of a <code>reader</code>, which
+     * releases memory mapped column files as soon as the columns are not
+     * used by a running query anymore.
+     *
+     * @param reader the <code>IndexReader</code> that is closed.
+     */
+    void removeSortValueColumns(IndexReader reader) {
+        synchronized (columns) {
+            columns.remove(reader);
+        }
+    }
+
     /**
      * Extracts the value from a given Term as a String
      * 
@@ -320,7 +382,7 @@ public class SharedFieldCache {
      * @param prefix
      * @return string value contained in the term
      */
-    private static String termValueAsString(Term term, String prefix) {
+    static String termValueAsString(Term term, String prefix) {
         // make sure term is compacted
         String text = term.text();
         int length = text.length() - prefix.length();
@@ -111,7 +111,11 @@ public class SharedFieldComparatorSource extends FieldComparatorSource {
 
     /**
      * A <code>FieldComparator</code> which works for order by clauses with properties
-     * directly on the result nodes.
+     * directly on the result nodes. If the values of the property can be
+     * represented in {@link SortValueColumn}s of the same type in all index
+     * segments, the comparator compares the primitive values of the columns.
+     * Otherwise it compares the <code>Comparable</code>s of the
+     * {@link SharedFieldCache.ValueIndex}es.
      */
     static final class SimpleFieldComparator extends AbstractFieldComparator {
 
@@ -120,6 +124,40 @@ public class SharedFieldComparatorSource extends FieldComparatorSource {
          */
         protected SharedFieldCache.ValueIndex[] indexes;
 
+        /**
+         * The sort value columns of the index segments or <code>null</code>
+         * if the {@link #indexes} are used.
+         */
+        private SortValueColumn[] columns;
+
+        /**
+         * The type of the {@link #columns}.
+         */
+        private int type;
+
+        /**
+         * Whether a slot holds a value, used with the {@link #columns}.
+         */
+        private final boolean[] slotHasValue;
+
+        /**
+         * The <code>long</code> values, the raw bits of the
+         * <code>double</code> values or the string ordinals of the slots,
+         * used with the {@link #columns}.
+         */
+        private final long[] slotValues;
+
+        /**
+         * The columns the values of the slots were copied from, used to
+         * resolve the string ordinals in {@link #slotValues}.
+         */
+        private final SortValueColumn[] slotColumns;
+
+        /**
+         * The slot of the bottom value.
+         */
+        private int bottomSlot;
+
         /**
          * The name of the property
          */
@@ -141,15 +179,38 @@ public class SharedFieldComparatorSource extends FieldComparatorSource {
             super(numHits);
             this.propertyName = propertyName;
             this.fieldName = fieldName;
+            this.slotHasValue = new boolean[numHits];
+            this.slotValues = new long[numHits];
+            this.slotColumns = new SortValueColumn[numHits];
         }
 
         @Override
         public void setNextReader(IndexReader reader, int docBase) throws IOException {
             super.setNextReader(reader, docBase);
 
-            indexes = new SharedFieldCache.ValueIndex[readers.size()];
-
             String namedValue = FieldNames.createNamedValue(propertyName, "");
+            columns = new SortValueColumn[readers.size()];
+            type = SortValueColumn.NONE;
+            for (int i = 0; i < readers.size() && columns != null; i++) {
+                columns[i] = SharedFieldCache.INSTANCE.getSortValueColumn(
+                        readers.get(i), fieldName, namedValue);
+                if (columns[i] == null) {
+                    columns = null;
+                } else if (columns[i].getType() != SortValueColumn.NONE) {
+                    if (type != SortValueColumn.NONE && type != columns[i].getType()) {
+                        // values of different types in the segments
+                        columns = null;
+                    } else {
+                        type = columns[i].getType();
+                    }
+                }
+            }
+            if (columns != null) {
+                indexes = null;
+                return;
+            }
+
+            indexes = new SharedFieldCache.ValueIndex[readers.size()];
             for (int i = 0; i < readers.size(); i++) {
                 IndexReader r = readers.get(i);
                 indexes[i] = SharedFieldCache.INSTANCE.getValueIndex(r,
@@ -160,9 +221,122 @@ public class SharedFieldComparatorSource extends FieldComparatorSource {
         @Override
         protected Comparable<?> sortValue(int doc) {
             int idx = readerIndex(doc);
+            if (columns != null) {
+                return columns[idx].getValue(doc - starts[idx]);
+            }
             return indexes[idx].getValue(doc - starts[idx]);
         }
 
+        @Override
+        public int compare(int slot1, int slot2) {
+            if (columns == null) {
+                return super.compare(slot1, slot2);
+            }
+            return compareSlot(slot1, slotHasValue[slot2],
+                    slotValues[slot2], slotColumns[slot2]);
+        }
+
+        @Override
+        public void setBottom(int slot) {
+            if (columns == null) {
+                super.setBottom(slot);
+            }
+            bottomSlot = slot;
+        }
+
+        @Override
+        public int compareBottom(int doc) throws IOException {
+            if (columns == null) {
+                return super.compareBottom(doc);
+            }
+            int idx = readerIndex(doc);
+            SortValueColumn column = columns[idx];
+            doc -= starts[idx];
+            if (!column.hasValue(doc)) {
+                return compareSlot(bottomSlot, false, 0, column);
+            } else if (type == SortValueColumn.STRING) {
+                return compareSlot(bottomSlot, true, column.getOrdinal(doc), column);
+            } else {
+                return compareSlot(bottomSlot, true, column.getLong(doc), column);
+            }
+        }
+
+        @Override
+        public void copy(int slot, int doc) throws IOException {
+            if (columns == null) {
+                super.copy(slot, doc);
+                return;
+            }
+            int idx = readerIndex(doc);
+            SortValueColumn column = columns[idx];
+            doc -= starts[idx];
+            slotHasValue[slot] = column.hasValue(doc);
+            slotColumns[slot] = column;
+            if (!slotHasValue[slot]) {
+                // the column may be empty if the segment lacks the property
+                slotValues[slot] = 0;
+            } else if (type == SortValueColumn.STRING) {
+                slotValues[slot] = column.getOrdinal(doc);
+            } else {
+                slotValues[slot] = column.getLong(doc);
+            }
+        }
+
+        @Override
+        public Comparable<?> value(int slot) {
+            if (columns == null) {
+                return super.value(slot);
+            } else if (!slotHasValue[slot]) {
+                return null;
+            }
+            switch (type) {
+                case SortValueColumn.LONG:
+                    return slotValues[slot];
+                case SortValueColumn.DOUBLE:
+                    return Double.longBitsToDouble(slotValues[slot]);
+                default:
+                    return slotColumns[slot].getOrdinalValue((int) slotValues[slot]);
+            }
+        }
+
+        /**
+         * Compares the value in a slot with the given value. Missing values
+         * sort first, like in {@link FieldComparatorBase#compare(Comparable, Comparable)}.
+         * String values are compared by their ordinals if they are from the
+         * same column, and only resolved to strings otherwise.
+         *
+         * @param slot     the slot.
+         * @param hasValue whether there is a value to compare with.
+         * @param value    the <code>long</code> value, the raw bits of the
+         *                 <code>double</code> value or the string ordinal.
+         * @param column   the column of the value.
+         * @return the comparison of the slot with the value.
+         */
+        private int compareSlot(int slot, boolean hasValue, long value,
+                                SortValueColumn column) {
+            if (!slotHasValue[slot]) {
+                return hasValue ? -1 : 0;
+            } else if (!hasValue) {
+                return 1;
+            }
+            switch (type) {
+                case SortValueColumn.LONG:
+                    long v = slotValues[slot];
+                    return v < value ? -1 : (v == value ? 0 : 1);
+                case SortValueColumn.DOUBLE:
+                    return Double.compare(Double.longBitsToDouble(slotValues[slot]),
+                            Double.longBitsToDouble(value));
+                default:
+                    SortValueColumn c = slotColumns[slot];
+                    if (c == column) {
+                        long ord = slotValues[slot];
+                        return ord < value ? -1 : (ord == value ? 0 : 1);
+                    }
+                    return c.getOrdinalValue((int) slotValues[slot]).compareTo(
+                            column.getOrdinalValue((int) value));
+            }
+        }
+
     }
 
     /**
@@ -76,6 +76,18 @@ class SharedIndexReader extends RefCountingIndexReader {
         return in.termDocs(term);
     }
 
+    /**
+     * Removes the sort value columns of this reader from the
+     * {@link SharedFieldCache} and closes the underlying reader.
+     *
+     * @throws IOException if an error occurs while closing the reader.
+     */
+    @Override
+    protected void doClose() throws IOException {
+        SharedFieldCache.INSTANCE.removeSortValueColumns(this);
+        super.doClose();
+    }
+
     /**
      * Returns the {@link CachingIndexReader} this reader is based on.
      *
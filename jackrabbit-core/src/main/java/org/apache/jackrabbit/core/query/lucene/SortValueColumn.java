@@ -0,0 +1,591 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.jcr.PropertyType;
+
+import org.apache.jackrabbit.core.query.lucene.directory.FSDirectoryManager;
+import org.apache.jackrabbit.util.Text;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.index.TermPositions;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <code>SortValueColumn</code> holds the sort values of a property for all
+ * documents of an index in primitive form: a <code>long</code> for date and
+ * long properties, a <code>double</code> for double properties and an
+ * ordinal into the sorted distinct values for all other properties, which
+ * are sorted as strings.
+ * <p>
+ * The column is persisted in a file next to the segments of the index and
+ * memory mapped when the index is stored in the file system, unless the
+ * column is small enough to be read onto the heap. The mapping is released
+ * once the column is not referenced anymore, which is when the index reader
+ * is closed, see {@link SharedFieldCache}. Sorting on a
+ * property then neither creates a <code>Comparable</code> per document nor
+ * keeps the values on the heap, except for the distinct string values.
+ * Properties with multiple values, values of different types or boolean
+ * and decimal values cannot be represented in a column and are sorted with
+ * the {@link SharedFieldCache.ValueIndex}.
+ */
+public class SortValueColumn {
+
+    /**
+     * The logger instance for this class.
+     */
+    private static final Logger log = LoggerFactory.getLogger(SortValueColumn.class);
+
+    /**
+     * Column of an index that does not contain values of the property. It
+     * can be sorted together with columns of any type.
+     */
+    public static final int NONE = 0;
+
+    /**
+     * Column of <code>long</code> values.
+     */
+    public static final int LONG = 1;
+
+    /**
+     * Column of <code>double</code> values.
+     */
+    public static final int DOUBLE = 2;
+
+    /**
+     * Column of ordinals into the sorted distinct string values.
+     */
+    public static final int STRING = 3;
+
+    /**
+     * The prefix of the file names of persisted columns.
+     */
+    private static final String FILE_NAME_PREFIX = "cache.sort.";
+
+    /**
+     * Identifies a sort value column file.
+     */
+    private static final int FILE_MAGIC = 0x4A525356;
+
+    /**
+     * Persisted columns up to this size in bytes are read onto the heap
+     * instead of being memory mapped.
+     */
+    private static final long MAX_HEAP_SIZE = 64 * 1024;
+
+    /**
+     * The column without values.
+     */
+    private static final SortValueColumn EMPTY =
+            new SortValueColumn(NONE, null, null, null, null);
+
+    /**
+     * The type of this column.
+     */
+    private final int type;
+
+    /**
+     * Whether a document has a value, one bit per document. Only used for
+     * {@link #LONG} and {@link #DOUBLE} columns.
+     */
+    private final LongBuffer present;
+
+    /**
+     * The values of the documents, the raw bits in case of a
+     * {@link #DOUBLE} column. Only used for {@link #LONG} and
+     * {@link #DOUBLE} columns.
+     */
+    private final LongBuffer values;
+
+    /**
+     * The ordinals of the documents, <code>-1</code> if a document does not
+     * have a value. Only used for {@link #STRING} columns.
+     */
+    private final IntBuffer ordinals;
+
+    /**
+     * The distinct string values in ascending order.
+     */
+    private final String[] strings;
+
+    private SortValueColumn(int type,
+                            LongBuffer present,
+                            LongBuffer values,
+                            IntBuffer ordinals,
+                            String[] strings) {
+        this.type = type;
+        this.present = present;
+        this.values = values;
+        this.ordinals = ordinals;
+        this.strings = strings;
+    }
+
+    /**
+     * Returns the column of the property with the given term
+     * <code>prefix</code> in <code>field</code>. A persisted column is
+     * reused if it was written for the current segments of the index,
+     * otherwise the column is read from the terms of the index and persisted
+     * if the index is stored in the file system.
+     *
+     * @param reader the index reader.
+     * @param field  the name of the shared field.
+     * @param prefix the property name, which is the term prefix.
+     * @return the column or <code>null</code> if the values of the property
+     *         cannot be represented in a column.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    public static SortValueColumn getColumn(IndexReader reader,
+                                            String field,
+                                            String prefix)
+            throws IOException {
+        field = field.intern();
+        Directory dir = reader.directory();
+        File fsDir = FSDirectoryManager.getFileSystemDirectory(dir);
+        String segments = Util.getSegmentNames(reader);
+        if (fsDir == null || segments == null) {
+            return read(reader, field, prefix, null);
+        }
+        String name = getFileName(field, prefix);
+        SortValueColumn column = load(reader, fsDir, name, segments, field, prefix);
+        if (column != null) {
+            return column;
+        }
+        try {
+            column = save(reader, fsDir, name, segments, field, prefix);
+        } catch (IOException e) {
+            log.warn("Unable to persist sort value column " + name, e);
+            return read(reader, field, prefix, null);
+        }
+        if (column == null || column == EMPTY) {
+            return column;
+        }
+        SortValueColumn mapped = load(reader, fsDir, name, segments, field, prefix);
+        return mapped != null ? mapped : column;
+    }
+
+    /**
+     * @return the type of this column: {@link #NONE}, {@link #LONG},
+     *         {@link #DOUBLE} or {@link #STRING}.
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * @param doc a document number.
+     * @return <code>true</code> if the document has a value.
+     */
+    public boolean hasValue(int doc) {
+        if (type == NONE) {
+            return false;
+        } else if (type == STRING) {
+            return ordinals.get(doc) >= 0;
+        } else {
+            return (present.get(doc >> 6) & (1L << doc)) != 0;
+        }
+    }
+
+    /**
+     * @param doc a document number.
+     * @return the value of the document in a {@link #LONG} column.
+     */
+    public long getLong(int doc) {
+        return values.get(doc);
+    }
+
+    /**
+     * @param doc a document number.
+     * @return the value of the document in a {@link #DOUBLE} column.
+     */
+    public double getDouble(int doc) {
+        return Double.longBitsToDouble(values.get(doc));
+    }
+
+    /**
+     * @param doc a document number.
+     * @return the value of the document in a {@link #STRING} column or
+     *         <code>null</code> if the document does not have a value.
+     */
+    public String getString(int doc) {
+        int ord = ordinals.get(doc);
+        return ord < 0 ? null : strings[ord];
+    }
+
+    /**
+     * Returns the ordinal of the value of a document in a {@link #STRING}
+     * column. Ordinals of the same column are ordered like their values.
+     *
+     * @param doc a document number.
+     * @return the ordinal or <code>-1</code> if the document does not have
+     *         a value.
+     */
+    public int getOrdinal(int doc) {
+        return ordinals.get(doc);
+    }
+
+    /**
+     * @param ord an ordinal of a {@link #STRING} column.
+     * @return the string value with the given ordinal.
+     */
+    public String getOrdinalValue(int ord) {
+        return strings[ord];
+    }
+
+    /**
+     * Returns the value of a document as a comparable of the same type as
+     * {@link SharedFieldCache.ValueIndex#getValue(int)}.
+     *
+     * @param doc a document number.
+     * @return the value or <code>null</code> if the document does not have
+     *         a value.
+     */
+    public Comparable<?> getValue(int doc) {
+        if (!hasValue(doc)) {
+            return null;
+        }
+        switch (type) {
+            case LONG:
+                return getLong(doc);
+            case DOUBLE:
+                return getDouble(doc);
+            default:
+                return getString(doc);
+        }
+    }
+
+    //--------------------------------< internal >------------------------------
+
+    /**
+     * Reads the column from the terms of the index and writes it to the
+     * file <code>name</code>. The column is written to a temporary file
+     * first, which is then renamed, so that readers on the same index never
+     * see a partially written file, even if they write the column at the
+     * same time.
+     *
+     * @return the column or <code>null</code> if the values of the property
+     *         cannot be represented in a column.
+     */
+    private static SortValueColumn save(IndexReader reader,
+                                        File fsDir,
+                                        String name,
+                                        String segments,
+                                        String field,
+                                        String prefix)
+            throws IOException {
+        Directory dir = reader.directory();
+        File tmp = File.createTempFile(name + ".", ".tmp", fsDir);
+        SortValueColumn column = null;
+        boolean renamed = false;
+        try {
+            IndexOutput out = dir.createOutput(tmp.getName());
+            try {
+                out.writeInt(FILE_MAGIC);
+                out.writeInt(reader.maxDoc());
+                out.writeString(segments);
+                out.writeString(field);
+                out.writeString(prefix);
+                column = read(reader, field, prefix, out);
+            } finally {
+                out.close();
+            }
+            if (column != null && column != EMPTY) {
+                renamed = tmp.renameTo(new File(fsDir, name));
+                if (!renamed) {
+                    log.debug("Sort value column {} was persisted concurrently", name);
+                }
+            }
+        } finally {
+            if (!renamed && !tmp.delete()) {
+                log.warn("Unable to delete temporary file {}", tmp);
+            }
+        }
+        return column;
+    }
+
+    /**
+     * Reads the column from the terms of the index and appends it to
+     * <code>out</code> if not <code>null</code>.
+     */
+    private static SortValueColumn read(IndexReader reader,
+                                        String field,
+                                        String prefix,
+                                        IndexOutput out)
+            throws IOException {
+        int maxDoc = reader.maxDoc();
+        int type = NONE;
+        long[] present = new long[(maxDoc + 63) >> 6];
+        long[] values = null;
+        int[] ordinals = null;
+        List<String> strings = new ArrayList<String>();
+        boolean hasPayloads = IndexFormatVersion.getVersion(reader).isAtLeast(
+                IndexFormatVersion.V3);
+        byte[] payload = new byte[1];
+        TermPositions termPos = reader.termPositions();
+        TermEnum termEnum = reader.terms(new Term(field, prefix));
+        try {
+            do {
+                Term term = termEnum.term();
+                if (term == null || term.field() != field
+                        || !term.text().startsWith(prefix)) {
+                    break;
+                }
+                String value = SharedFieldCache.termValueAsString(term, prefix);
+                int ord = -1;
+                termPos.seek(term);
+                while (termPos.next()) {
+                    int propertyType = PropertyType.UNDEFINED;
+                    if (hasPayloads) {
+                        termPos.nextPosition();
+                        if (termPos.isPayloadAvailable()) {
+                            payload = termPos.getPayload(payload, 0);
+                            propertyType = PropertyMetaData.fromByteArray(
+                                    payload).getPropertyType();
+                        }
+                    }
+                    int t = getColumnType(propertyType);
+                    if (t == NONE || (type != NONE && t != type)) {
+                        log.debug("Values of {} cannot be sorted in a column", prefix);
+                        return null;
+                    }
+                    int doc = termPos.doc();
+                    if ((present[doc >> 6] & (1L << doc)) != 0) {
+                        // multi-valued property
+                        return null;
+                    }
+                    present[doc >> 6] |= 1L << doc;
+                    if (type == NONE) {
+                        type = t;
+                        if (type == STRING) {
+                            ordinals = new int[maxDoc];
+                            Arrays.fill(ordinals, -1);
+                        } else {
+                            values = new long[maxDoc];
+                        }
+                    }
+                    switch (type) {
+                        case LONG:
+                            values[doc] = propertyType == PropertyType.DATE
+                                    ? DateField.stringToTime(value)
+                                    : LongField.stringToLong(value);
+                            break;
+                        case DOUBLE:
+                            values[doc] = Double.doubleToRawLongBits(
+                                    DoubleField.stringToDouble(value));
+                            break;
+                        default:
+                            if (ord == -1) {
+                                ord = strings.size();
+                                strings.add(value);
+                            }
+                            ordinals[doc] = ord;
+                    }
+                }
+            } while (termEnum.next());
+        } finally {
+            termPos.close();
+            termEnum.close();
+        }
+        if (type == NONE) {
+            return EMPTY;
+        }
+        if (out != null) {
+            out.writeInt(type);
+            if (type == STRING) {
+                out.writeInt(strings.size());
+                for (String s : strings) {
+                    out.writeString(s);
+                }
+                for (int ord : ordinals) {
+                    out.writeInt(ord);
+                }
+            } else {
+                for (long bits : present) {
+                    out.writeLong(bits);
+                }
+                for (long v : values) {
+                    out.writeLong(v);
+                }
+            }
+        }
+        if (type == STRING) {
+            return new SortValueColumn(type, null, null, IntBuffer.wrap(ordinals),
+                    strings.toArray(new String[strings.size()]));
+        } else {
+            return new SortValueColumn(type, LongBuffer.wrap(present),
+                    LongBuffer.wrap(values), null, null);
+        }
+    }
+
+    /**
+     * Memory maps the persisted column in the file <code>name</code>, or reads
+     * it onto the heap if it is not larger than {@link #MAX_HEAP_SIZE}. A file
+     * that was written for other segments or another property is deleted.
+     *
+     * @return the column or <code>null</code> if the file does not exist or
+     *         is outdated.
+     */
+    private static SortValueColumn load(IndexReader reader,
+                                        File fsDir,
+                                        String name,
+                                        String segments,
+                                        String field,
+                                        String prefix)
+            throws IOException {
+        Directory dir = reader.directory();
+        IndexInput in;
+        try {
+            in = dir.openInput(name);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        boolean valid = false;
+        try {
+            int maxDoc = reader.maxDoc();
+            if (in.readInt() != FILE_MAGIC || in.readInt() != maxDoc
+                    || !segments.equals(in.readString())
+                    || !field.equals(in.readString())
+                    || !prefix.equals(in.readString())) {
+                log.debug("Persisted sort value column {} is outdated", name);
+                return null;
+            }
+            int type = in.readInt();
+            String[] strings = null;
+            long size;
+            if (type == STRING) {
+                strings = new String[in.readInt()];
+                for (int i = 0; i < strings.length; i++) {
+                    strings[i] = in.readString();
+                }
+                size = 4L * maxDoc;
+            } else {
+                size = 8L * (((maxDoc + 63) >> 6) + maxDoc);
+            }
+            if (in.length() != in.getFilePointer() + size) {
+                log.warn("Persisted sort value column {} is corrupt", name);
+                return null;
+            }
+            int words = (maxDoc + 63) >> 6;
+            if (size <= MAX_HEAP_SIZE) {
+                SortValueColumn column;
+                if (type == STRING) {
+                    int[] ordinals = new int[maxDoc];
+                    for (int i = 0; i < ordinals.length; i++) {
+                        ordinals[i] = in.readInt();
+                    }
+                    column = new SortValueColumn(type, null, null,
+                            IntBuffer.wrap(ordinals), strings);
+                } else {
+                    long[] present = new long[words];
+                    for (int i = 0; i < present.length; i++) {
+                        present[i] = in.readLong();
+                    }
+                    long[] values = new long[maxDoc];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = in.readLong();
+                    }
+                    column = new SortValueColumn(type, LongBuffer.wrap(present),
+                            LongBuffer.wrap(values), null, null);
+                }
+                valid = true;
+                return column;
+            }
+            ByteBuffer buffer;
+            RandomAccessFile file = new RandomAccessFile(new File(fsDir, name), "r");
+            try {
+                buffer = file.getChannel().map(
+                        FileChannel.MapMode.READ_ONLY, in.getFilePointer(), size);
+            } finally {
+                file.close();
+            }
+            valid = true;
+            if (type == STRING) {
+                return new SortValueColumn(type, null, null,
+                        buffer.asIntBuffer(), strings);
+            } else {
+                LongBuffer longs = buffer.asLongBuffer();
+                longs.limit(words);
+                LongBuffer present = longs.slice();
+                longs.limit(longs.capacity()).position(words);
+                return new SortValueColumn(type, present, longs.slice(), null, null);
+            }
+        } finally {
+            in.close();
+            if (!valid) {
+                dir.deleteFile(name);
+            }
+        }
+    }
+
+    /**
+     * Returns the name of the file of a persisted column. The name contains
+     * a SHA-1 digest of the field and the property, so that the columns of
+     * different properties never share a file.
+     *
+     * @param field  the name of the shared field.
+     * @param prefix the property name, which is the term prefix.
+     * @return the file name.
+     * @throws IOException if the digest is not available.
+     */
+    static String getFileName(String field, String prefix) throws IOException {
+        try {
+            return FILE_NAME_PREFIX
+                    + Text.digest("SHA-1", field + '/' + prefix, "UTF-8");
+        } catch (NoSuchAlgorithmException e) {
+            throw Util.createIOException(e);
+        }
+    }
+
+    /**
+     * Returns the column type for a property type.
+     *
+     * @param propertyType the property type.
+     * @return the column type or {@link #NONE} if the values of the
+     *         property type are not sorted in a column.
+     */
+    private static int getColumnType(int propertyType) {
+        switch (propertyType) {
+            case PropertyType.DATE:
+            case PropertyType.LONG:
+                return LONG;
+            case PropertyType.DOUBLE:
+                return DOUBLE;
+            case PropertyType.BOOLEAN:
+            case PropertyType.DECIMAL:
+                return NONE;
+            default:
+                return STRING;
+        }
+    }
+}
@@ -19,11 +19,11 @@ package org.apache.jackrabbit.core.query.lucene;
 import java.io.IOException;
 
 import org.apache.jackrabbit.core.id.NodeId;
-import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.Sort;
-import org.apache.lucene.search.TopFieldCollector;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.Weight;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -31,6 +31,14 @@ import org.slf4j.LoggerFactory;
  * Wraps a lucene query result and adds a close method that allows to release
  * resources after a query has been executed and the results have been read
  * completely.
+ * <p>
+ * The hits are collected into a bounded priority queue of the top
+ * <code>resultFetchHint</code> hits, which is the offset plus the limit
+ * of the query if one is set. Once the queue is full, hits that do not
+ * sort before the last hit in the queue are dropped without being
+ * copied. The query is only searched again if more hits are read than
+ * were collected. If the searcher has a search executor, ranges of the
+ * index are scored concurrently and their top hits are merged.
  */
 public final class SortedLuceneQueryHits extends AbstractQueryHits {
 
@@ -52,7 +60,7 @@ public final class SortedLuceneQueryHits extends AbstractQueryHits {
     /**
      * The index searcher.
      */
-    private final IndexSearcher searcher;
+    private final JackrabbitIndexSearcher searcher;
 
     /**
      * The query to execute.
@@ -64,6 +72,11 @@ public final class SortedLuceneQueryHits extends AbstractQueryHits {
      */
     private final Sort sort;
 
+    /**
+     * The weight of the {@link #query}, created once for all searches.
+     */
+    private final Weight weight;
+
     /**
      * The index of the current hit. Initially invalid.
      */
@@ -102,11 +115,12 @@ public final class SortedLuceneQueryHits extends AbstractQueryHits {
      * @throws IOException
      *             if an error occurs while reading from the index.
      */
-    public SortedLuceneQueryHits(IndexSearcher searcher, Query query,
+    public SortedLuceneQueryHits(JackrabbitIndexSearcher searcher, Query query,
             Sort sort, long resultFetchHint) throws IOException {
         this.searcher = searcher;
         this.query = query;
         this.sort = sort;
+        this.weight = searcher.createNormalizedWeight(query);
         this.numHits = (int) Math.min(
                 Math.max(resultFetchHint, MIN_FETCH_SIZE),
                 MAX_FETCH_SIZE);
@@ -152,13 +166,17 @@ public final class SortedLuceneQueryHits extends AbstractQueryHits {
     //-------------------------------< internal >-------------------------------
 
     private void getHits() throws IOException {
-        TopFieldCollector collector = TopFieldCollector.create(sort, numHits, false, true, false, false);
-        searcher.search(query, collector);
-        size = collector.getTotalHits();
+        // there are never more hits than documents
+        int maxDoc = Math.max(searcher.maxDoc(), 1);
+        int n = Math.min(numHits, maxDoc);
+        TopDocs topDocs = searcher.search(weight, sort, n);
+        size = topDocs.totalHits;
         offset += scoreDocs.length;
-        scoreDocs = collector.topDocs(offset, numHits).scoreDocs;
-        log.debug("getHits() {}/{}", scoreDocs.length, numHits);
+        int length = Math.max(topDocs.scoreDocs.length - offset, 0);
+        scoreDocs = new ScoreDoc[length];
+        System.arraycopy(topDocs.scoreDocs, offset, scoreDocs, 0, length);
+        log.debug("getHits() {}/{}", scoreDocs.length, n);
         // double hits for next round
-        numHits *= 2;
+        numHits = n < maxDoc ? n * 2 : n;
     }
 }
@@ -17,25 +17,31 @@
 package org.apache.jackrabbit.core.query.lucene;
 
 import java.io.IOException;
-import java.util.Map;
-import java.util.Collections;
-import java.util.BitSet;
-import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.Map;
 
+import org.apache.jackrabbit.core.cache.AbstractCache;
 import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.index.TermDocs;
 import org.apache.lucene.index.Term;
-import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.index.TermDocs;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * <code>TermDocsCache</code> implements a cache for frequently read
- * {@link TermDocs}.
+ * {@link TermDocs} of the {@link FieldNames#PROPERTIES} and
+ * {@link FieldNames#PARENT} fields, like the documents of a
+ * <code>jcr:primaryType</code> value or the children of a node.
+ * <p>
+ * The cache is shared by the index segments of a search index and holds
+ * the documents of a term as a {@link RoaringDocIdSet}. A term is cached
+ * when it is requested the second time; terms that are requested only once
+ * are read from the index. The least recently used terms are dropped when
+ * the memory used exceeds the maximum memory size, which can be adjusted
+ * by the {@link org.apache.jackrabbit.core.cache.CacheManager}.
  */
-public class TermDocsCache {
+public class TermDocsCache extends AbstractCache {
 
     /**
      * The logger instance for this class.
@@ -43,241 +49,227 @@ public class TermDocsCache {
     private static final Logger log = LoggerFactory.getLogger(TermDocsCache.class);
 
     /**
-     * The default cache size.
+     * The number of terms that were requested once and are remembered
+     * until they are requested again.
      */
-    private static final int CACHE_SIZE = 10;
+    private static final int CANDIDATES = 1000;
 
     /**
-     * The underlying index reader.
+     * The estimated memory of a cache entry without its documents.
      */
-    private final IndexReader reader;
+    private static final int ENTRY_OVERHEAD = 128;
 
     /**
-     * Only TermDocs for the given <code>field</code> are cached.
+     * The name of this cache.
      */
-    private final String field;
+    private final String name;
 
     /**
-     * Map of {@link Term#text()} that are unknown to the underlying index.
+     * The cached documents in access order.
      */
-    private final Map<String, String> unknownValues = Collections.synchronizedMap(new LinkedHashMap<String, String>() {
-        private static final long serialVersionUID = 1443679637070403838L;
-
-        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
-            return size() > 100;
-        }
-    });
+    private final Map<Key, Entry> cache =
+            new LinkedHashMap<Key, Entry>(16, 0.75f, true);
 
     /**
-     * The cache of the {@link #CACHE_SIZE} most frequently requested TermDocs.
-     * Maps term text <code>String</code> to {@link CacheEntry}.
+     * The terms that were requested once.
      */
-    private final Map<String, CacheEntry> cache = new LinkedHashMap<String, CacheEntry>();
+    private final Map<Key, Key> candidates = new LinkedHashMap<Key, Key>() {
+        private static final long serialVersionUID = 3178407291815702364L;
+
+        protected boolean removeEldestEntry(Map.Entry<Key, Key> eldest) {
+            return size() > CANDIDATES;
+        }
+    };
 
     /**
-     * Creates a new cache for the given <code>reader</code> and
-     * <code>field</code>.
+     * Creates a new cache.
      *
-     * @param reader the index reader.
-     * @param field the field name of the terms to potentially cache.
+     * @param name          the name of the cache.
+     * @param maxMemorySize the maximum memory size in bytes.
      */
-    public TermDocsCache(IndexReader reader, String field) {
-        this.reader = reader;
-        this.field = field;
+    public TermDocsCache(String name, long maxMemorySize) {
+        this.name = name;
+        setMaxMemorySize(maxMemorySize);
     }
 
     /**
-     * Returns the {@link TermDocs} for the given term.
+     * Returns the {@link TermDocs} for the given term of the given reader.
      *
+     * @param reader the index reader of a segment.
      * @param t the term.
      * @return the term docs for the given term.
      * @throws IOException if an error occurs while reading from the index.
      */
-    public TermDocs termDocs(final Term t) throws IOException {
-        if (t == null || t.field() != field) {
+    public TermDocs termDocs(IndexReader reader, Term t) throws IOException {
+        if (t == null || (t.field() != FieldNames.PROPERTIES
+                && t.field() != FieldNames.PARENT)) {
             return reader.termDocs(t);
         }
 
-        String text = t.text();
-        if (unknownValues.get(text) != null) {
-            log.debug("EmptyTermDocs({},{})", field, text);
-            return EmptyTermDocs.INSTANCE;
-        }
-
-        // maintain cache
-        CacheEntry entry;
+        recordCacheAccess();
+        Key key = new Key(reader, t);
+        Entry entry;
         synchronized (cache) {
-            entry = cache.get(text);
-            if (entry == null) {
-                // check space
-                if (cache.size() >= CACHE_SIZE) {
-                    // prune half of them and adjust the rest
-                    CacheEntry[] entries = cache.values().toArray(
-                            new CacheEntry[cache.size()]);
-                    Arrays.sort(entries);
-                    int threshold = entries[CACHE_SIZE / 2].numAccessed;
-                    for (Iterator<Map.Entry<String, CacheEntry>> it = cache.entrySet().iterator(); it.hasNext(); ) {
-                        Map.Entry<String, CacheEntry> e = it.next();
-                        if (e.getValue().numAccessed <= threshold) {
-                            // prune
-                            it.remove();
-                        } else {
-                            // adjust
-                            CacheEntry ce = e.getValue();
-                            ce.numAccessed = (int) Math.sqrt(ce.numAccessed);
-                        }
-                    }
-                }
-                entry = new CacheEntry();
-                cache.put(text, entry);
-            } else {
-                entry.numAccessed++;
-            }
-        }
-
-        // this is a threshold to prevent caching of TermDocs
-        // that are read only irregularly.
-        if (entry.numAccessed < 10) {
-            if (log.isDebugEnabled()) {
-                log.debug("#{} TermDocs({},{})",
-                        new Object[]{entry.numAccessed, field, text});
+            entry = cache.get(key);
+            if (entry == null && candidates.remove(key) == null) {
+                // first request, not worth caching yet
+                candidates.put(key, key);
+                recordCacheMiss();
+                return reader.termDocs(t);
             }
-            return reader.termDocs(t);
         }
 
-        if (entry.bits == null) {
-            // collect bits
-            BitSet bits = null;
+        RoaringDocIdSet docs;
+        if (entry != null) {
+            docs = entry.docs;
+        } else {
+            recordCacheMiss();
+            long time = System.nanoTime();
             TermDocs tDocs = reader.termDocs(t);
             try {
-                while (tDocs.next()) {
-                    if (bits == null) {
-                        bits = new BitSet(reader.maxDoc());
-                    }
-                    bits.set(tDocs.doc());
-                }
+                docs = RoaringDocIdSet.create(tDocs);
             } finally {
                 tDocs.close();
             }
-            if (bits != null) {
-                entry.bits = bits;
+            recordMissDuration(System.nanoTime() - time);
+            put(key, docs);
+            if (log.isDebugEnabled()) {
+                log.debug("CachedTermDocs({},{},{}/{})", new Object[]{
+                        t.field(), t.text(), docs.size(), reader.maxDoc()});
             }
         }
 
-        if (entry.bits == null) {
-            // none collected
-            unknownValues.put(text, text);
+        if (docs.size() == 0) {
             return EmptyTermDocs.INSTANCE;
         } else {
-            if (log.isDebugEnabled()) {
-                log.debug("CachedTermDocs({},{},{}/{})", new Object[]{
-                        field, text, entry.bits.cardinality(), reader.maxDoc()});
+            return docs.termDocs();
+        }
+    }
+
+    /**
+     * Removes the cached documents of the given reader. Called when the
+     * reader is closed.
+     *
+     * @param reader the index reader of a segment.
+     */
+    public void clear(IndexReader reader) {
+        synchronized (cache) {
+            for (Iterator<Map.Entry<Key, Entry>> it = cache.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<Key, Entry> e = it.next();
+                if (e.getKey().reader == reader) {
+                    it.remove();
+                    recordSizeChange(-e.getValue().memory);
+                }
+            }
+            for (Iterator<Key> it = candidates.keySet().iterator(); it.hasNext(); ) {
+                if (it.next().reader == reader) {
+                    it.remove();
+                }
             }
-            return new CachedTermDocs(entry.bits);
         }
     }
 
+    //------------------------------------------------------------< Cache >
+
     /**
-     * Implements a {@link TermDocs} base on a {@link BitSet}.
+     * Sets the maximum memory size and drops the least recently used terms
+     * that do not fit anymore.
      */
-    private static final class CachedTermDocs implements TermDocs {
+    @Override
+    public void setMaxMemorySize(long size) {
+        super.setMaxMemorySize(size);
+        synchronized (cache) {
+            shrink();
+        }
+    }
 
-        /**
-         * The cached docs for this term.
-         */
-        private final BitSet docs;
+    public long getElementCount() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
 
-        /**
-         * The current position into the {@link #docs}.
-         */
-        private int position = -1;
+    @Override
+    public String toString() {
+        return name;
+    }
 
-        /**
-         * <code>true</code> if there are potentially more docs.
-         */
-        private boolean moreDocs = true;
+    //------------------------------------------------------------< internal >
 
-        public CachedTermDocs(BitSet docs) {
-            this.docs = docs;
+    /**
+     * Adds the documents of a term, unless they would take more than a
+     * quarter of the maximum memory size.
+     *
+     * @param key  the reader and term.
+     * @param docs the documents of the term.
+     */
+    private void put(Key key, RoaringDocIdSet docs) {
+        long memory = ENTRY_OVERHEAD + key.term.text().length() * 2
+                + docs.getMemoryUsed();
+        if (memory > getMaxMemorySize() / 4) {
+            return;
         }
-
-        /**
-         * @throws UnsupportedOperationException always.
-         */
-        public void seek(Term term) throws IOException {
-            throw new UnsupportedOperationException();
+        synchronized (cache) {
+            Entry previous = cache.put(key, new Entry(docs, memory));
+            if (previous != null) {
+                recordSizeChange(-previous.memory);
+            }
+            recordSizeChange(memory);
+            shrink();
         }
+    }
 
-        /**
-         * @throws UnsupportedOperationException always.
-         */
-        public void seek(TermEnum termEnum) throws IOException {
-            throw new UnsupportedOperationException();
+    /**
+     * Drops the least recently used terms until the cache fits into the
+     * maximum memory size. The caller must synchronize on {@link #cache}.
+     */
+    private void shrink() {
+        Iterator<Entry> it = cache.values().iterator();
+        while (isTooBig() && it.hasNext()) {
+            recordSizeChange(-it.next().memory);
+            it.remove();
         }
+    }
 
-        /**
-         * {@inheritDoc}
-         */
-        public int doc() {
-            return position;
-        }
+    /**
+     * A term of an index reader.
+     */
+    private static final class Key {
 
-        /**
-         * {@inheritDoc}
-         */
-        public int freq() {
-            return 1;
-        }
+        private final IndexReader reader;
 
-        /**
-         * {@inheritDoc}
-         */
-        public boolean next() throws IOException {
-            if (moreDocs) {
-                position = docs.nextSetBit(position + 1);
-                moreDocs = position != -1;
-            }
-            return moreDocs;
-        }
+        private final Term term;
 
-        /**
-         * {@inheritDoc}
-         */
-        public int read(int[] docs, int[] freqs) throws IOException {
-            int count;
-            for (count = 0; count < docs.length && next(); count++) {
-                docs[count] = doc();
-                freqs[count] = 1;
-            }
-            return count;
+        private Key(IndexReader reader, Term term) {
+            this.reader = reader;
+            this.term = term;
         }
 
-        /**
-         * {@inheritDoc}
-         */
-        public boolean skipTo(int target) throws IOException {
-            if (moreDocs) {
-                position = docs.nextSetBit(target);
-                moreDocs = position != -1;
-            }
-            return moreDocs;
+        public int hashCode() {
+            return System.identityHashCode(reader) * 31 + term.hashCode();
         }
 
-        /**
-         * {@inheritDoc}
-         */
-        public void close() throws IOException {
+        public boolean equals(Object obj) {
+            if (obj instanceof Key) {
+                Key other = (Key) obj;
+                return reader == other.reader && term.equals(other.term);
+            }
+            return false;
         }
     }
 
-    private static final class CacheEntry implements Comparable<CacheEntry> {
+    /**
+     * The cached documents of a term and their memory.
+     */
+    private static final class Entry {
 
-        private volatile int numAccessed = 1;
+        private final RoaringDocIdSet docs;
 
-        private volatile BitSet bits;
+        private final long memory;
 
-        public int compareTo(CacheEntry other) {
-            return (numAccessed < other.numAccessed ? -1 : (numAccessed == other.numAccessed ? 0 : 1));
+        private Entry(RoaringDocIdSet docs, long memory) {
+            this.docs = docs;
+            this.memory = memory;
         }
     }
 }
@@ -30,6 +30,7 @@ import org.apache.jackrabbit.core.value.InternalValue;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Fieldable;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.SegmentReader;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.Query;
 import org.slf4j.Logger;
@@ -141,6 +142,33 @@ public class Util {
         }
     }
 
+    /**
+     * Returns the names of the segments of an index. The document numbers
+     * of an index only change when its segments change.
+     *
+     * @param reader
+     *            the index reader.
+     * @return the segment names, or <code>null</code> if the index reader
+     *         does not read segments.
+     */
+    public static String getSegmentNames(IndexReader reader) {
+        IndexReader[] readers = reader.getSequentialSubReaders();
+        if (readers == null) {
+            readers = new IndexReader[] { reader };
+        }
+        StringBuilder names = new StringBuilder();
+        for (IndexReader r : readers) {
+            if (!(r instanceof SegmentReader)) {
+                return null;
+            }
+            if (names.length() > 0) {
+                names.append(',');
+            }
+            names.append(((SegmentReader) r).getSegmentName());
+        }
+        return names.toString();
+    }
+
     /**
      * Returns a comparable for the internal <code>value</code>.
      * 
@@ -37,7 +37,6 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.util.BitSet;
 import java.util.Map;
-import java.util.HashMap;
 import java.util.Set;
 
 /**
@@ -290,7 +289,7 @@ public class WildcardQuery extends Query implements Transformable {
         /**
          * The documents ids that match this wildcard query.
          */
-        private final BitSet hits;
+        private BitSet hits;
 
         /**
          * Set to <code>true</code> when the hits have been calculated.
@@ -318,7 +317,6 @@ public class WildcardQuery extends Query implements Transformable {
          * @param similarity the similarity implementation.
          * @param reader     the index reader to use.
          */
-        @SuppressWarnings({"unchecked"})
         WildcardQueryScorer(
                 Similarity similarity, IndexReader reader,
                 PerQueryCache cache) {
@@ -326,20 +324,9 @@ public class WildcardQuery extends Query implements Transformable {
             this.reader = reader;
             this.cacheKey = field + '\uFFFF' + tvf.createValue('\uFFFF' + pattern) + '\uFFFF' + transform;
             // check cache
-            Map<String, BitSet> m = (Map<String, BitSet>) cache.get(WildcardQueryScorer.class, reader);
-            if (m == null) {
-                m = new HashMap<String, BitSet>();
-                cache.put(WildcardQueryScorer.class, reader, m);
-            }
-            resultMap = m;
-
-            BitSet result = resultMap.get(cacheKey);
-            if (result == null) {
-                result = new BitSet(reader.maxDoc());
-            } else {
-                hitsCalculated = true;
-            }
-            hits = result;
+            resultMap = cache.getMap(WildcardQueryScorer.class, reader);
+            hits = resultMap.get(cacheKey);
+            hitsCalculated = hits != null;
         }
 
         @Override
@@ -394,6 +381,25 @@ public class WildcardQuery extends Query implements Transformable {
             if (hitsCalculated) {
                 return;
             }
+            // the ranges of a query may be scored concurrently, calculate
+            // the hits only once per reader and query
+            synchronized (resultMap) {
+                hits = resultMap.get(cacheKey);
+                if (hits == null) {
+                    hits = collectHits();
+                    resultMap.put(cacheKey, hits);
+                }
+            }
+            hitsCalculated = true;
+        }
+
+        /**
+         * Collects the ids of the documents matching this wildcard query.
+         * @return the ids of the matching documents.
+         * @throws IOException if an error occurs while reading from the index.
+         */
+        private BitSet collectHits() throws IOException {
+            BitSet result = new BitSet(reader.maxDoc());
             TermEnum terms = new WildcardTermEnum(reader, field, tvf, pattern, transform);
             try {
                 // use unpositioned TermDocs
@@ -402,7 +408,7 @@ public class WildcardQuery extends Query implements Transformable {
                     while (terms.term() != null) {
                         docs.seek(terms);
                         while (docs.next()) {
-                            hits.set(docs.doc());
+                            result.set(docs.doc());
                         }
                         if (!terms.next()) {
                             break;
@@ -414,9 +420,7 @@ public class WildcardQuery extends Query implements Transformable {
             } finally {
                 terms.close();
             }
-            hitsCalculated = true;
-            // put to cache
-            resultMap.put(cacheKey, hits);
+            return result;
         }
 
     }
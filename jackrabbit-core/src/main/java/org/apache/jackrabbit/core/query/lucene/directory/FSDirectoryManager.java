@@ -132,6 +132,24 @@ public class FSDirectoryManager implements DirectoryManager {
     public void dispose() {
     }
 
+    /**
+     * Returns the file system directory where the files of the given
+     * directory are stored.
+     *
+     * @param directory a directory.
+     * @return the file system directory, or <code>null</code> if the files
+     *         of <code>directory</code> are not stored in the file system.
+     */
+    public static File getFileSystemDirectory(Directory directory) {
+        if (directory instanceof FSDir) {
+            return ((FSDir) directory).directory.getDirectory();
+        } else if (directory instanceof FSDirectory) {
+            return ((FSDirectory) directory).getDirectory();
+        } else {
+            return null;
+        }
+    }
+
     //-----------------------< internal >---------------------------------------
 
     private static final class FSDir extends Directory {
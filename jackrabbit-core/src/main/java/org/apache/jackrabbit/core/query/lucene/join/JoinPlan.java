@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene.join;
+
+import static javax.jcr.query.qom.QueryObjectModelConstants.JCR_JOIN_TYPE_LEFT_OUTER;
+
+import javax.jcr.query.qom.Join;
+
+/**
+ * The plan of a join as chosen by the {@link QueryEngine}. The left side of
+ * the planned join is read first. The right side is then either queried
+ * with the join values of the left rows (index nested loop), or read
+ * completely and matched with the left rows in memory (hash join).
+ */
+class JoinPlan {
+
+    /**
+     * The maximum number of join values that are queried at once on the
+     * right side of an index nested loop join.
+     */
+    static final int BATCH_SIZE = 500;
+
+    /**
+     * The join with the sides in the order they are read.
+     */
+    private final Join join;
+
+    /**
+     * Whether the sides were swapped with respect to the query.
+     */
+    private final boolean swapped;
+
+    /**
+     * The estimated number of rows on the left side, or -1 if the sides
+     * were not estimated.
+     */
+    private final long leftEstimate;
+
+    /**
+     * The estimated number of rows on the right side, or -1 if the sides
+     * were not estimated.
+     */
+    private final long rightEstimate;
+
+    JoinPlan(Join join, boolean swapped, long leftEstimate, long rightEstimate) {
+        this.join = join;
+        this.swapped = swapped;
+        this.leftEstimate = leftEstimate;
+        this.rightEstimate = rightEstimate;
+    }
+
+    /**
+     * Decides the join strategy. The index nested loop needs one query per
+     * {@link #BATCH_SIZE} join values, each a disjunction of the join values.
+     * Reading the right side completely is cheaper once there are more join
+     * values than rows on the right side.
+     *
+     * @param joinValues    the number of distinct join values of the left
+     *                      rows.
+     * @param rightEstimate the estimated number of rows on the right side.
+     * @return <code>true</code> for a hash join, <code>false</code> for an
+     *         index nested loop join.
+     */
+    static boolean isHashJoin(long joinValues, long rightEstimate) {
+        return joinValues > BATCH_SIZE && rightEstimate <= joinValues;
+    }
+
+    /**
+     * @return the join with the sides in the order they are read.
+     */
+    Join getJoin() {
+        return join;
+    }
+
+    /**
+     * @return <code>true</code> if the sides were swapped with respect to
+     *         the query.
+     */
+    boolean isSwapped() {
+        return swapped;
+    }
+
+    /**
+     * @return the estimated number of rows on the left side, or -1 if the
+     *         sides were not estimated.
+     */
+    long getLeftEstimate() {
+        return leftEstimate;
+    }
+
+    /**
+     * @return the estimated number of rows on the right side, or -1 if the
+     *         sides were not estimated.
+     */
+    long getRightEstimate() {
+        return rightEstimate;
+    }
+
+    /**
+     * Describes the plan. The strategy assumes one join value per left row,
+     * the actual strategy is decided once the left rows are read.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        if (JCR_JOIN_TYPE_LEFT_OUTER.equalsIgnoreCase(join.getJoinType())) {
+            sb.append("LEFT OUTER JOIN");
+        } else {
+            sb.append("INNER JOIN");
+        }
+        sb.append(" ON ").append(join.getJoinCondition());
+        if (leftEstimate < 0) {
+            return sb.toString();
+        }
+        if (isHashJoin(leftEstimate, rightEstimate)) {
+            sb.append(" hash join");
+        } else {
+            sb.append(" index nested loop");
+        }
+        sb.append(", left ~").append(leftEstimate);
+        sb.append(" rows, right ~").append(rightEstimate).append(" rows");
+        if (swapped) {
+            sb.append(", sides swapped");
+        }
+        return sb.toString();
+    }
+}
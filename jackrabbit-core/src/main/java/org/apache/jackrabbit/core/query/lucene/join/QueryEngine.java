@@ -16,6 +16,7 @@
  */
 package org.apache.jackrabbit.core.query.lucene.join;
 
+import static javax.jcr.query.qom.QueryObjectModelConstants.JCR_JOIN_TYPE_INNER;
 import static javax.jcr.query.qom.QueryObjectModelConstants.JCR_JOIN_TYPE_LEFT_OUTER;
 import static javax.jcr.query.qom.QueryObjectModelConstants.JCR_JOIN_TYPE_RIGHT_OUTER;
 
@@ -147,13 +148,19 @@ public class QueryEngine {
             return execute(columns, betterJoin, constraint, orderings, offset,
                     limit, printIndentation);
         }
-        JoinMerger merger = JoinMerger.getJoinMerger(join,
-                getColumnMap(columns, getSelectorNames(join)), evaluator,
-                qomFactory);
-        ConstraintSplitter splitter = new ConstraintSplitter(constraint,
-                qomFactory, merger.getLeftSelectors(),
-                merger.getRightSelectors(), join);
-        ConstraintSplitInfo csInfo = splitter.getConstraintSplitInfo();
+        Map<String, NodeType> selectors = getSelectorNames(join);
+        Map<String, PropertyValue> columnMap = getColumnMap(columns, selectors);
+        JoinMerger merger = JoinMerger.getJoinMerger(join, columnMap,
+                evaluator, qomFactory);
+        ConstraintSplitInfo csInfo = split(merger, constraint, join);
+
+        JoinPlan plan = plan(join, csInfo);
+        if (plan.isSwapped()) {
+            merger = JoinMerger.getJoinMerger(plan.getJoin(), columnMap,
+                    evaluator, qomFactory);
+            csInfo = split(merger, constraint, plan.getJoin());
+        }
+        log.debug("{}SQL2 JOIN plan: {}", genString(printIndentation), plan);
 
         logQueryAnalysis(csInfo, printIndentation);
 
@@ -161,6 +168,12 @@ public class QueryEngine {
                 .getJoinType());
         QueryResult result = execute(merger, csInfo, isOuterJoin,
                 printIndentation);
+        if (plan.isSwapped()) {
+            // keep the selector order of the query
+            result = new SimpleQueryResult(result.getColumnNames(),
+                    selectors.keySet().toArray(new String[selectors.size()]),
+                    result.getRows());
+        }
 
         long sort = System.currentTimeMillis();
         QueryResult sortedResult = sort(result, orderings, evaluator, offset,
@@ -250,15 +263,31 @@ public class QueryEngine {
                     new RowIteratorAdapter(new TreeSet<Row>()), null, rightCo);
         }
 
-        Set<Row> rightRows = buildRightRowsJoin(csInfo, rightConstraints,
-                isOuterJoin, rightCo, printIndentation + printIndentStep);
-
+        Set<Row> rightRows;
         // this has to be initialized as null
         Set<Row> excludingOuterJoinRowsSet = null;
-        if (isOuterJoin && csInfo.getRightConstraint() != null) {
-            excludingOuterJoinRowsSet = buildRightRowsJoin(csInfo,
-                    rightConstraints, false, rightCo, printIndentation
-                            + printIndentStep);
+        Constraint hashConstraint = isOuterJoin ? null : csInfo.getRightConstraint();
+        if (rightConstraints.size() > JoinPlan.BATCH_SIZE
+                && JoinPlan.isHashJoin(rightConstraints.size(), estimate(
+                        csInfo.getSource().getRight(), hashConstraint))) {
+            log.debug("{}SQL2 JOIN RIGHT SIDE read completely for {} join values.",
+                    genString(printIndentation), rightConstraints.size());
+            rightRows = getRows(csInfo.getSource().getRight(), hashConstraint,
+                    rightCo, printIndentation + printIndentStep);
+            if (isOuterJoin && csInfo.getRightConstraint() != null) {
+                excludingOuterJoinRowsSet = getRows(
+                        csInfo.getSource().getRight(),
+                        csInfo.getRightConstraint(), rightCo,
+                        printIndentation + printIndentStep);
+            }
+        } else {
+            rightRows = buildRightRowsJoin(csInfo, rightConstraints,
+                    isOuterJoin, rightCo, printIndentation + printIndentStep);
+            if (isOuterJoin && csInfo.getRightConstraint() != null) {
+                excludingOuterJoinRowsSet = buildRightRowsJoin(csInfo,
+                        rightConstraints, false, rightCo, printIndentation
+                                + printIndentStep);
+            }
         }
 
         if (log.isDebugEnabled()) {
@@ -291,13 +320,31 @@ public class QueryEngine {
             return leftRows;
         }
 
-        Set<Row> leftRows = new TreeSet<Row>(comparator);
-        QueryResult leftResult = execute(null, csi.getSource().getLeft(),
-                csi.getLeftConstraint(), null, 0, -1, printIndentation);
-        for (Row row : JcrUtils.getRows(leftResult)) {
-            leftRows.add(row);
+        return getRows(csi.getSource().getLeft(), csi.getLeftConstraint(),
+                comparator, printIndentation);
+    }
+
+    /**
+     * Reads the rows of one side of a join.
+     *
+     * @param source           the source of the join side.
+     * @param constraint       the constraint on the join side or
+     *                         <code>null</code>.
+     * @param comparator       used to merge similar rows together
+     * @param printIndentation used in logging
+     * @return the rows.
+     * @throws RepositoryException if the rows cannot be read.
+     */
+    private Set<Row> getRows(Source source, Constraint constraint,
+            Comparator<Row> comparator, int printIndentation)
+            throws RepositoryException {
+        Set<Row> rows = new TreeSet<Row>(comparator);
+        QueryResult result = execute(null, source, constraint, null, 0, -1,
+                printIndentation);
+        for (Row row : JcrUtils.getRows(result)) {
+            rows.add(row);
         }
-        return leftRows;
+        return rows;
     }
 
     /**
@@ -333,7 +380,7 @@ public class QueryEngine {
             return rightRows;
         }
 
-        if (rightConstraints.size() < 500) {
+        if (rightConstraints.size() < JoinPlan.BATCH_SIZE) {
             Set<Row> rightRows = new TreeSet<Row>(comparator);
             List<Constraint> localRightContraints = rightConstraints;
             Constraint rightConstraint = Constraints.and(qomFactory,
@@ -353,13 +400,13 @@ public class QueryEngine {
 
         // the 'batch by 500' approach
         Set<Row> rightRows = new TreeSet<Row>(comparator);
-        for (int i = 0; i < rightConstraints.size(); i += 500) {
+        for (int i = 0; i < rightConstraints.size(); i += JoinPlan.BATCH_SIZE) {
             if (log.isDebugEnabled()) {
                 log.debug(genString(printIndentation)
                         + "SQL2 JOIN RIGHT SIDE executing batch # " + i + ".");
             }
             List<Constraint> localRightContraints = rightConstraints.subList(i,
-                    Math.min(i + 500, rightConstraints.size()));
+                    Math.min(i + JoinPlan.BATCH_SIZE, rightConstraints.size()));
             Constraint rightConstraint = Constraints.and(qomFactory,
                     Constraints.or(qomFactory, localRightContraints),
                     csi.getRightConstraint());
@@ -377,6 +424,142 @@ public class QueryEngine {
         return rightRows;
     }
 
+    /**
+     * Returns a description of the plan of the given query, without
+     * executing the query. Each join is described with its strategy and the
+     * estimated number of rows of its sides, followed by the plans of its
+     * sides. The strategy of a join is decided when the query is executed,
+     * based on the actual number of join values of the left rows.
+     *
+     * @param source     the source of the query.
+     * @param constraint the constraint of the query or <code>null</code>.
+     * @return the plan of the query.
+     * @throws RepositoryException if the query cannot be planned.
+     */
+    public String explain(Source source, Constraint constraint)
+            throws RepositoryException {
+        StringBuilder sb = new StringBuilder();
+        explain(source, constraint, 0, sb);
+        return sb.toString();
+    }
+
+    private void explain(Source source, Constraint constraint,
+            int printIndentation, StringBuilder sb) throws RepositoryException {
+        if (source instanceof Join) {
+            Join join = (Join) source;
+            if (JCR_JOIN_TYPE_RIGHT_OUTER.equalsIgnoreCase(join.getJoinType())) {
+                join = qomFactory.join(join.getRight(), join.getLeft(),
+                        JCR_JOIN_TYPE_LEFT_OUTER, join.getJoinCondition());
+            }
+            Map<String, PropertyValue> noColumns = Collections.emptyMap();
+            JoinMerger merger = JoinMerger.getJoinMerger(join, noColumns,
+                    evaluator, qomFactory);
+            ConstraintSplitInfo csInfo = split(merger, constraint, join);
+            JoinPlan plan = plan(join, csInfo);
+            if (plan.isSwapped()) {
+                join = plan.getJoin();
+                merger = JoinMerger.getJoinMerger(join, noColumns, evaluator,
+                        qomFactory);
+                csInfo = split(merger, constraint, join);
+            }
+            sb.append(genString(printIndentation)).append(plan);
+            sb.append(IOUtils.LINE_SEPARATOR);
+            explain(join.getLeft(), csInfo.isMultiple() ? null
+                    : csInfo.getLeftConstraint(), printIndentation
+                    + printIndentStep, sb);
+            explain(join.getRight(), csInfo.isMultiple() ? null
+                    : csInfo.getRightConstraint(), printIndentation
+                    + printIndentStep, sb);
+        } else {
+            sb.append(genString(printIndentation)).append("SELECT ");
+            sb.append(source);
+            if (constraint != null) {
+                sb.append(" WHERE ").append(constraint);
+            }
+            sb.append(", ~").append(estimate(source, constraint));
+            sb.append(" rows").append(IOUtils.LINE_SEPARATOR);
+        }
+    }
+
+    /**
+     * Splits the constraint of a query on the given join.
+     */
+    private ConstraintSplitInfo split(JoinMerger merger,
+            Constraint constraint, Join join) throws RepositoryException {
+        ConstraintSplitter splitter = new ConstraintSplitter(constraint,
+                qomFactory, merger.getLeftSelectors(),
+                merger.getRightSelectors(), join);
+        return splitter.getConstraintSplitInfo();
+    }
+
+    /**
+     * Plans the given join. The sides of an inner join are swapped if the
+     * right side is estimated to have fewer rows than the left side, so that
+     * the smaller side is read first and the join values of its rows are
+     * used to query the larger side. Outer joins are executed as written,
+     * so their sides are not estimated.
+     *
+     * @param join   the join.
+     * @param csInfo the constraints split on the join.
+     * @return the plan.
+     * @throws RepositoryException if the sides cannot be estimated.
+     */
+    private JoinPlan plan(Join join, ConstraintSplitInfo csInfo)
+            throws RepositoryException {
+        if (!JCR_JOIN_TYPE_INNER.equalsIgnoreCase(join.getJoinType())) {
+            return new JoinPlan(join, false, -1, -1);
+        }
+        Constraint left = null;
+        Constraint right = null;
+        if (!csInfo.isMultiple()) {
+            left = csInfo.getLeftConstraint();
+            right = csInfo.getRightConstraint();
+        }
+        long leftEstimate = estimate(join.getLeft(), left);
+        long rightEstimate = estimate(join.getRight(), right);
+        if (rightEstimate < leftEstimate) {
+            Join swapped = qomFactory.join(join.getRight(), join.getLeft(),
+                    JCR_JOIN_TYPE_INNER, join.getJoinCondition());
+            return new JoinPlan(swapped, true, rightEstimate, leftEstimate);
+        }
+        return new JoinPlan(join, false, leftEstimate, rightEstimate);
+    }
+
+    /**
+     * Estimates the number of rows of a source. A selector is estimated
+     * from the index, see {@link LuceneQueryFactory#estimate}. A join is
+     * estimated with the smaller of its sides, or with the outer side of an
+     * outer join, and the constraint is ignored.
+     *
+     * @param source     the source.
+     * @param constraint the constraint on the source or <code>null</code>.
+     * @return the estimated number of rows.
+     * @throws RepositoryException if the source cannot be estimated.
+     */
+    private long estimate(Source source, Constraint constraint)
+            throws RepositoryException {
+        if (source instanceof Selector) {
+            try {
+                return lqf.estimate((Selector) source, constraint);
+            } catch (IOException e) {
+                throw new RepositoryException(
+                        "Failed to access the query index", e);
+            }
+        } else if (source instanceof Join) {
+            Join join = (Join) source;
+            if (JCR_JOIN_TYPE_LEFT_OUTER.equalsIgnoreCase(join.getJoinType())) {
+                return estimate(join.getLeft(), null);
+            } else if (JCR_JOIN_TYPE_RIGHT_OUTER.equalsIgnoreCase(join.getJoinType())) {
+                return estimate(join.getRight(), null);
+            } else {
+                return Math.min(estimate(join.getLeft(), null),
+                        estimate(join.getRight(), null));
+            }
+        }
+        throw new UnsupportedRepositoryOperationException(
+                "Unknown source type: " + source);
+    }
+
     private static String genString(int len) {
         StringBuilder sb = new StringBuilder();
         for (int i = 0; i < len; i++) {
@@ -176,6 +176,17 @@ public class DefaultAccessManager extends AbstractAccessControlManager implement
         wspAccess = null;
     }
 
+    /**
+     * Returns the access control provider this manager evaluates the
+     * permissions with.
+     *
+     * @return the access control provider, or <code>null</code> if the
+     *         manager is not initialized.
+     */
+    public AccessControlProvider getAccessControlProvider() {
+        return acProvider;
+    }
+
     /**
      * @see AccessManager#checkPermission(ItemId, int)
      */
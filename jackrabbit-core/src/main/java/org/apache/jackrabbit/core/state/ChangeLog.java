@@ -16,6 +16,8 @@
  */
 package org.apache.jackrabbit.core.state;
 
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.commons.collections.map.LinkedMap;
@@ -55,6 +57,12 @@ public class ChangeLog {
 
     private long updateSize;
 
+    /**
+     * Serialized bundles of the nodes changed by this change log, or
+     * <code>null</code> if there are none
+     */
+    private Map<NodeId, byte[]> bundles;
+
     /**
      * Checks whether this change log contains any changes. This method is
      * used to avoid extra work on updates that contain no changes.
@@ -286,6 +294,34 @@ public class ChangeLog {
 
         // add refs
         modifiedRefs.putAll(other.modifiedRefs);
+
+        // drop bundles that are outdated by the other change log
+        if (bundles != null) {
+            removeBundles(other.deletedStates());
+            removeBundles(other.modifiedStates());
+            removeBundles(other.addedStates());
+        }
+        if (other.bundles != null) {
+            for (Map.Entry<NodeId, byte[]> entry : other.bundles.entrySet()) {
+                setBundle(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Removes the serialized bundles of the nodes that contain the given
+     * item states.
+     *
+     * @param states item states
+     */
+    private void removeBundles(Iterable<ItemState> states) {
+        for (ItemState state : states) {
+            if (state.isNode()) {
+                bundles.remove(state.getId());
+            } else {
+                bundles.remove(state.getParentId());
+            }
+        }
     }
 
     /**
@@ -333,6 +369,7 @@ public class ChangeLog {
         modifiedStates.clear();
         deletedStates.clear();
         modifiedRefs.clear();
+        bundles = null;
     }
 
     /**
@@ -399,6 +436,34 @@ public class ChangeLog {
         this.updateSize = updateSize;
     }
 
+    /**
+     * Sets the serialized bundle of a node changed by this change log. The
+     * bundle reflects the state of the node after the change log has been
+     * stored, so that other cluster nodes can update their bundle cache
+     * without loading the bundle again.
+     *
+     * @param id node id
+     * @param data serialized bundle
+     */
+    public void setBundle(NodeId id, byte[] data) {
+        if (bundles == null) {
+            bundles = new HashMap<NodeId, byte[]>();
+        }
+        bundles.put(id, data);
+    }
+
+    /**
+     * Returns the serialized bundles of the nodes changed by this change log.
+     *
+     * @return map of node ids to serialized bundles, never <code>null</code>
+     */
+    public Map<NodeId, byte[]> getBundles() {
+        if (bundles == null) {
+            return Collections.emptyMap();
+        }
+        return bundles;
+    }
+
     /**
      * Returns a string representation of this change log for diagnostic
      * purposes.
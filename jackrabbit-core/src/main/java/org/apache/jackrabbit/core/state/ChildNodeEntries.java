@@ -16,9 +16,8 @@
  */
 package org.apache.jackrabbit.core.state;
 
-import org.apache.commons.collections.map.LinkedMap;
 import org.apache.jackrabbit.core.id.NodeId;
-import org.apache.jackrabbit.core.util.EmptyLinkedMap;
+import org.apache.jackrabbit.core.id.NodeIdMap;
 import org.apache.jackrabbit.spi.Name;
 
 import java.util.List;
@@ -38,7 +37,7 @@ class ChildNodeEntries implements Cloneable {
      * Insertion-ordered map of entries
      * (key=NodeId, value=entry)
      */
-    private LinkedMap entries;
+    private NodeIdMap<ChildNodeEntry> entries;
 
     /**
      * Map used for lookup by name
@@ -57,7 +56,7 @@ class ChildNodeEntries implements Cloneable {
     }
 
     ChildNodeEntry get(NodeId id) {
-        return (ChildNodeEntry) entries.get(id);
+        return entries.get(id);
     }
 
     @SuppressWarnings("unchecked")
@@ -214,7 +213,7 @@ class ChildNodeEntries implements Cloneable {
      * @return the removed entry or <code>null</code> if there is no such entry.
      */
     ChildNodeEntry remove(NodeId id) {
-        ChildNodeEntry entry = (ChildNodeEntry) entries.get(id);
+        ChildNodeEntry entry = entries.get(id);
         if (entry != null) {
             return remove(entry.getName(), entry.getIndex());
         }
@@ -260,8 +259,7 @@ class ChildNodeEntries implements Cloneable {
         }
 
         List<ChildNodeEntry> result = new ArrayList<ChildNodeEntry>();
-        for (Object e : entries.values()) {
-            ChildNodeEntry entry = (ChildNodeEntry) e;
+        for (ChildNodeEntry entry : entries.values()) {
             ChildNodeEntry otherEntry = other.get(entry.getId());
             if (entry == otherEntry) {
                 continue;
@@ -294,8 +292,7 @@ class ChildNodeEntries implements Cloneable {
         }
 
         List<ChildNodeEntry> result = new ArrayList<ChildNodeEntry>();
-        for (Object e : entries.values()) {
-            ChildNodeEntry entry = (ChildNodeEntry) e;
+        for (ChildNodeEntry entry : entries.values()) {
             ChildNodeEntry otherEntry = other.get(entry.getId());
             if (entry == otherEntry) {
                 result.add(entry);
@@ -313,15 +310,17 @@ class ChildNodeEntries implements Cloneable {
         return entries.isEmpty();
     }
 
-    @SuppressWarnings("unchecked")
     public List<ChildNodeEntry> list() {
         return new ArrayList<ChildNodeEntry>(entries.values());
     }
 
+    List<ChildNodeEntry> getEntriesAfter(NodeId id, int max) {
+        return entries.valuesAfter(id, max);
+    }
+
     public List<ChildNodeEntry> getRenamedEntries(ChildNodeEntries that) {
         List<ChildNodeEntry> renamed = Collections.emptyList();
-        for (Object e : entries.values()) {
-            ChildNodeEntry entry = (ChildNodeEntry) e;
+        for (ChildNodeEntry entry : entries.values()) {
             ChildNodeEntry other = that.get(entry.getId());
             if (other != null && !entry.getName().equals(other.getName())) {
                 // child node entry with same id but different name exists in
@@ -393,7 +392,7 @@ class ChildNodeEntries implements Cloneable {
      */
     private void init() {
         nameMap = Collections.emptyMap();
-        entries = EmptyLinkedMap.INSTANCE;
+        entries = NodeIdMap.emptyMap();
         shared = false;
     }
 
@@ -405,9 +404,9 @@ class ChildNodeEntries implements Cloneable {
     private void ensureModifiable() {
         if (nameMap == Collections.EMPTY_MAP) {
             nameMap = new HashMap<Name, Object>();
-            entries = new LinkedMap();
+            entries = new NodeIdMap<ChildNodeEntry>();
         } else if (shared) {
-            entries = (LinkedMap) entries.clone();
+            entries = new NodeIdMap<ChildNodeEntry>(entries);
             nameMap = new HashMap<Name, Object>(nameMap);
             for (Map.Entry<Name, Object> entry : nameMap.entrySet()) {
                 Object value = entry.getValue();
@@ -304,6 +304,20 @@ public class NodeState extends ItemState {
         return childNodeEntries.list();
     }
 
+    /**
+     * Returns the <code>ChildNodeEntry</code> objects that follow the entry
+     * of the given child node, without copying the other entries.
+     *
+     * @param id  the id of a child node
+     * @param max the maximum number of entries to return
+     * @return list of <code>ChildNodeEntry</code> objects, empty if there
+     *         is no entry with the given id
+     */
+    public synchronized List<ChildNodeEntry> getChildNodeEntriesAfter(
+            NodeId id, int max) {
+        return childNodeEntries.getEntriesAfter(id, max);
+    }
+
     /**
      * Returns a list of <code>ChildNodeEntry</code>s with the specified name.
      *
@@ -16,6 +16,8 @@
  */
 package org.apache.jackrabbit.core.state;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -33,6 +35,7 @@ import org.apache.jackrabbit.core.cluster.UpdateEventChannel;
 import org.apache.jackrabbit.core.id.ItemId;
 import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.id.NodeIdFactory;
+import org.apache.jackrabbit.core.id.NodeIdSet;
 import org.apache.jackrabbit.core.id.PropertyId;
 import org.apache.jackrabbit.core.nodetype.EffectiveNodeType;
 import org.apache.jackrabbit.core.nodetype.NodeTypeConflictException;
@@ -41,7 +44,9 @@ import org.apache.jackrabbit.core.observation.EventState;
 import org.apache.jackrabbit.core.observation.EventStateCollection;
 import org.apache.jackrabbit.core.observation.EventStateCollectionFactory;
 import org.apache.jackrabbit.core.persistence.CachingPersistenceManager;
+import org.apache.jackrabbit.core.persistence.GroupCommitPersistenceManager;
 import org.apache.jackrabbit.core.persistence.PersistenceManager;
+import org.apache.jackrabbit.core.persistence.PrefetchingPersistenceManager;
 import org.apache.jackrabbit.core.value.InternalValue;
 import org.apache.jackrabbit.core.virtual.VirtualItemStateProvider;
 import org.apache.jackrabbit.spi.Name;
@@ -126,6 +131,13 @@ public class SharedItemStateManager
     private static final boolean VALIDATE_HIERARCHY =
         Boolean.getBoolean("org.apache.jackrabbit.core.state.validatehierarchy");
 
+    /**
+     * Maximum number of child node entries between two consecutively loaded
+     * child node states of the same parent for the loads to be considered a
+     * traversal of the child nodes in order.
+     */
+    private static final int SEQUENTIAL_DISTANCE = 8;
+
     /**
      * cache of weak references to ItemState objects issued by this
      * ItemStateManager
@@ -212,6 +224,7 @@ public class SharedItemStateManager
         this.rootNodeId = rootNodeId;
         this.ismLocking = locking;
         this.nodeIdFactory = nodeIdFactory;
+        configureConcurrentStores();
         // create root node state if it doesn't yet exist
         if (!hasNonVirtualItemState(rootNodeId)) {
             createRootNodeState(rootNodeId, ntReg);
@@ -249,6 +262,20 @@ public class SharedItemStateManager
             throw new NullPointerException();
         }
         this.ismLocking = ismLocking;
+        configureConcurrentStores();
+    }
+
+    /**
+     * Tells a persistence manager that groups concurrently stored change logs
+     * whether the locking strategy lets updates reach it concurrently. Only
+     * the {@link StripedISMLocking} allows concurrent writers, all other
+     * strategies store one change log at a time.
+     */
+    private void configureConcurrentStores() {
+        if (persistMgr instanceof GroupCommitPersistenceManager) {
+            ((GroupCommitPersistenceManager) persistMgr).setConcurrentStores(
+                    ismLocking instanceof StripedISMLocking);
+        }
     }
 
     //-----------------------------------------------------< ItemStateManager >
@@ -502,6 +529,11 @@ public class SharedItemStateManager
          */
         private static final String ATTRIBUTE_UPDATE_SIZE = "updateSize";
 
+        /**
+         * Attribute name used to store the serialized bundles of the update.
+         */
+        private static final String ATTRIBUTE_BUNDLES = "bundles";
+
         /**
          * Local change log.
          */
@@ -794,6 +826,7 @@ public class SharedItemStateManager
                 long t0 = System.currentTimeMillis();
                 persistMgr.store(shared);
                 setAttribute(ATTRIBUTE_UPDATE_SIZE, shared.getUpdateSize());
+                setAttribute(ATTRIBUTE_BUNDLES, shared.getBundles());
                 succeeded = true;
                 if (log.isDebugEnabled()) {
                     long t1 = System.currentTimeMillis();
@@ -851,6 +884,7 @@ public class SharedItemStateManager
                         + ":" + events.getCommonPath();
                 eventChannel.updateCommitted(this, path);
                 setAttribute(ATTRIBUTE_UPDATE_SIZE, null);
+                setAttribute(ATTRIBUTE_BUNDLES, null);
 
                 if (writeLock != null) {
                     // exception occurred before downgrading lock
@@ -1551,6 +1585,19 @@ public class SharedItemStateManager
      * @param events events to deliver
      */
     public void externalUpdate(ChangeLog external, EventStateCollection events) {
+        externalUpdate(external, Collections.singletonList(events));
+    }
+
+    /**
+     * Handle several consecutive external updates at once. The changes are
+     * applied in a single pass, the events of the updates are delivered in
+     * the order of the updates.
+     *
+     * @param external combined external changes containing only node and
+     *                 property ids.
+     * @param events events to deliver, one collection per update
+     */
+    public void externalUpdate(ChangeLog external, List<EventStateCollection> events) {
         boolean holdingWriteLock = false;
 
         ISMLocking.WriteLock wLock = null;
@@ -1569,7 +1616,7 @@ public class SharedItemStateManager
             if (wLock != null) {
                 rLock = wLock.downgrade();
                 holdingWriteLock = false;
-                events.dispatch();
+                EventStateCollection.dispatch(events);
             }
         } finally {
             if (holdingWriteLock) {
@@ -1758,6 +1805,23 @@ public class SharedItemStateManager
      */
     private final Set<ItemId> currentlyLoading = new HashSet<ItemId>();
 
+    /**
+     * Identifiers of the node states that were prefetched last. Used by the
+     * {@link #prefetchSiblings(NodeState)} method to avoid scanning the
+     * child node entries of the parent again for each prefetched sibling.
+     */
+    private volatile NodeIdSet lastPrefetched = new NodeIdSet();
+
+    /**
+     * Parent of the node state that was loaded last.
+     */
+    private NodeId lastLoadedParentId;
+
+    /**
+     * Identifier of the node state that was loaded last.
+     */
+    private NodeId lastLoadedId;
+
     /**
      * Returns the item state for the given id without considering virtual
      * item state providers.
@@ -1800,6 +1864,10 @@ public class SharedItemStateManager
             // put it in cache
             cache.cache(state);
 
+            if (state.isNode()) {
+                prefetchSiblings((NodeState) state);
+            }
+
             return state;
         } finally {
             // Notify other concurrent threads that we're done with this item
@@ -1811,6 +1879,85 @@ public class SharedItemStateManager
         }
     }
 
+    /**
+     * Asks the persistence manager to prefetch the siblings that follow the
+     * given node state in the child node list of its parent, so that
+     * traversals of wide nodes don't cause one persistence round trip per
+     * child. Prefetching only happens if the persistence manager has a
+     * {@link PrefetchingPersistenceManager#getPrefetchSize() prefetch size},
+     * the parent node state is cached and the node state closely follows
+     * the previously loaded sibling, and nothing is done for nodes that were
+     * themselves prefetched before. Errors are logged and otherwise ignored,
+     * as the siblings will be loaded individually when needed.
+     *
+     * @param state the node state that was just loaded
+     */
+    private void prefetchSiblings(NodeState state) {
+        if (!(persistMgr instanceof PrefetchingPersistenceManager)
+                || state.getParentId() == null) {
+            return;
+        }
+        int size = ((PrefetchingPersistenceManager) persistMgr).getPrefetchSize();
+        if (size <= 0) {
+            return;
+        }
+        NodeId previous;
+        synchronized (this) {
+            previous = state.getParentId().equals(lastLoadedParentId)
+                ? lastLoadedId : null;
+            lastLoadedParentId = state.getParentId();
+            lastLoadedId = state.getNodeId();
+        }
+        if (previous == null || lastPrefetched.contains(state.getNodeId())) {
+            return;
+        }
+        ItemState parent = cache.retrieve(state.getParentId());
+        if (!(parent instanceof NodeState)
+                || !isSequential((NodeState) parent, previous, state.getNodeId())) {
+            return;
+        }
+
+        NodeIdSet siblings = new NodeIdSet();
+        List<NodeId> ids = new ArrayList<NodeId>();
+        for (ChildNodeEntry entry : ((NodeState) parent)
+                .getChildNodeEntriesAfter(state.getNodeId(), size)) {
+            if (!cache.isCached(entry.getId()) && siblings.add(entry.getId())) {
+                ids.add(entry.getId());
+            }
+        }
+        if (siblings.isEmpty()) {
+            return;
+        }
+
+        try {
+            ((PrefetchingPersistenceManager) persistMgr).prefetch(ids);
+            lastPrefetched = siblings;
+        } catch (ItemStateException e) {
+            log.warn("Unable to prefetch siblings of " + state.getNodeId(), e);
+        }
+    }
+
+    /**
+     * Checks whether a child node closely follows another child node of the
+     * same parent.
+     *
+     * @param parent the parent node state
+     * @param previous the previously loaded child node
+     * @param id the child node that was just loaded
+     * @return <code>true</code> if the child node is among the
+     *         {@link #SEQUENTIAL_DISTANCE} entries after the previous one
+     */
+    private static boolean isSequential(
+            NodeState parent, NodeId previous, NodeId id) {
+        for (ChildNodeEntry entry
+                : parent.getChildNodeEntriesAfter(previous, SEQUENTIAL_DISTANCE)) {
+            if (entry.getId().equals(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Checks if this item state manager has the given item state without
      * considering the virtual item state managers.
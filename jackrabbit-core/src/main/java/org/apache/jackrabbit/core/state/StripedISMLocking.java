@@ -0,0 +1,409 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.state;
+
+import static org.apache.jackrabbit.data.core.TransactionContext.getCurrentThreadId;
+import static org.apache.jackrabbit.data.core.TransactionContext.isSameThreadId;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.jcr.PropertyType;
+
+import org.apache.jackrabbit.core.id.ItemId;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.id.PropertyId;
+
+/**
+ * Item state locking strategy that allows change logs touching disjoint sets
+ * of nodes to be written concurrently. The node identifiers are hashed to a
+ * fixed number of lock stripes, and each stripe behaves like the single
+ * read-write lock of the {@link DefaultISMLocking}:
+ * <ul>
+ * <li>A read lock for an item locks the stripe of the node, or of the parent
+ * node of a property.</li>
+ * <li>A write lock locks the stripes of all nodes in the change log, of their
+ * parent nodes, of the parent nodes of all properties in the change log and
+ * of the targets of all modified node references. The stripes are acquired
+ * atomically, so writers can not deadlock each other.</li>
+ * <li>A change log that adds, modifies or removes a <code>REFERENCE</code>
+ * property, or that touches more than half of the stripes, locks all
+ * stripes, as updating the node references affects nodes outside of the
+ * change log.</li>
+ * </ul>
+ * <p>
+ * A thread (or transaction) that already holds a write lock is granted
+ * further read and write locks without waiting, just like with the
+ * {@link DefaultISMLocking}. This is needed for example when a clustered
+ * writer applies external changes while holding the journal lock, but it
+ * also means that such changes are not isolated from other concurrent
+ * writers. Use the {@link DefaultISMLocking} in a cluster where concurrent
+ * writes to the same items on different cluster nodes are expected.
+ * <p>
+ * Threads that already hold a lock are not subject to the writer preference,
+ * which would otherwise allow a waiting writer that needs one of their
+ * stripes to block them.
+ * <p>
+ * Configuration:
+ * <pre>
+ * &lt;ISMLocking class="org.apache.jackrabbit.core.state.StripedISMLocking">
+ *   &lt;param name="stripes" value="256"/>
+ * &lt;/ISMLocking>
+ * </pre>
+ */
+public class StripedISMLocking implements ISMLocking {
+
+    /**
+     * Default number of lock stripes.
+     */
+    private static final int DEFAULT_STRIPES = 256;
+
+    /**
+     * Number of acquired read locks per stripe, including downgraded
+     * write locks.
+     */
+    private int[] readerCount;
+
+    /**
+     * Number of acquired write locks per stripe.
+     */
+    private int[] writerCount;
+
+    /**
+     * Number of writers waiting for each stripe. While greater than zero,
+     * no new (unrelated) readers are allowed to proceed on the stripe.
+     */
+    private int[] writersWaiting;
+
+    /**
+     * The thread identifier of the current writer of each stripe, or
+     * <code>null</code>. Like in the {@link DefaultISMLocking}, the identifier
+     * is retained by a downgraded write lock until all readers are gone.
+     */
+    private Object[] writerId;
+
+    /**
+     * Thread identifiers that hold write locks, with the number of locks.
+     */
+    private final Map<Object, Integer> writeHolders =
+        new HashMap<Object, Integer>();
+
+    /**
+     * Thread identifiers that hold read locks, with the number of locks.
+     */
+    private final Map<Object, Integer> readHolders =
+        new HashMap<Object, Integer>();
+
+    /**
+     * Number of lock stripes minus one.
+     */
+    private int mask;
+
+    public StripedISMLocking() {
+        setStripes(DEFAULT_STRIPES);
+    }
+
+    /**
+     * Returns the number of lock stripes.
+     *
+     * @return number of lock stripes
+     */
+    public int getStripes() {
+        return mask + 1;
+    }
+
+    /**
+     * Sets the number of lock stripes. The number is rounded up to a power
+     * of two. The default is 256. Must not be called after locks have been
+     * acquired.
+     *
+     * @param stripes number of lock stripes
+     */
+    public synchronized void setStripes(int stripes) {
+        int n = 1;
+        while (n < stripes) {
+            n <<= 1;
+        }
+        readerCount = new int[n];
+        writerCount = new int[n];
+        writersWaiting = new int[n];
+        writerId = new Object[n];
+        mask = n - 1;
+    }
+
+    /**
+     * Increments the reader count of the stripe of the given item and returns
+     * the acquired read lock once there is no writer of the stripe, or the
+     * writer shares the thread id with this reader.
+     */
+    public synchronized ReadLock acquireReadLock(ItemId id)
+            throws InterruptedException {
+        Object currentId = getCurrentThreadId();
+        int stripe = getStripe(id);
+        if (!writeHolders.containsKey(currentId)) {
+            boolean holder = readHolders.containsKey(currentId);
+            while (writerId[stripe] != null
+                    ? (writerCount[stripe] > 0
+                            && !isSameThreadId(writerId[stripe], currentId))
+                    : (!holder && writersWaiting[stripe] > 0)) {
+                wait();
+            }
+        }
+
+        readerCount[stripe]++;
+        increment(readHolders, currentId);
+        return new StripedReadLock(new int[] { stripe }, currentId);
+    }
+
+    /**
+     * Increments the writer counts of the stripes of the change log and
+     * returns the acquired write lock once there are no other readers or
+     * writers of these stripes, or the current writer of each of them shares
+     * the thread id with this writer.
+     */
+    public WriteLock acquireWriteLock(ChangeLog changeLog)
+            throws InterruptedException {
+        Object currentId = getCurrentThreadId();
+        int[] stripes = getStripes(changeLog);
+        synchronized (this) {
+            if (writeHolders.containsKey(currentId)) {
+                // nested write lock, see the class comment
+                increment(writeHolders, currentId);
+                return new StripedWriteLock(null, currentId);
+            }
+
+            for (int stripe : stripes) {
+                writersWaiting[stripe]++;
+            }
+            try {
+                while (!isAvailable(stripes, currentId)) {
+                    wait();
+                }
+            } finally {
+                for (int stripe : stripes) {
+                    writersWaiting[stripe]--;
+                }
+            }
+
+            for (int stripe : stripes) {
+                writerCount[stripe]++;
+                writerId[stripe] = currentId;
+            }
+            increment(writeHolders, currentId);
+            return new StripedWriteLock(stripes, currentId);
+        }
+    }
+
+    //----------------------------< internal >----------------------------------
+
+    private boolean isAvailable(int[] stripes, Object currentId) {
+        for (int stripe : stripes) {
+            if (writerId[stripe] != null
+                    ? !isSameThreadId(writerId[stripe], currentId)
+                    : readerCount[stripe] > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the sorted stripes to lock for the given change log.
+     */
+    int[] getStripes(ChangeLog changeLog) {
+        boolean[] locked = new boolean[mask + 1];
+        int count = 0;
+        for (int pass = 0; pass < 3; pass++) {
+            Iterable<ItemState> states;
+            if (pass == 0) {
+                states = changeLog.addedStates();
+            } else if (pass == 1) {
+                states = changeLog.modifiedStates();
+            } else {
+                states = changeLog.deletedStates();
+            }
+            for (ItemState state : states) {
+                if (state.isNode()) {
+                    count += lock(locked, (NodeId) state.getId());
+                } else if (((PropertyState) state).getType()
+                        == PropertyType.REFERENCE) {
+                    return getAllStripes();
+                }
+                count += lock(locked, state.getParentId());
+            }
+        }
+        for (NodeReferences refs : changeLog.modifiedRefs()) {
+            count += lock(locked, refs.getTargetId());
+        }
+        if (count > (mask + 1) / 2) {
+            return getAllStripes();
+        }
+
+        int[] stripes = new int[count];
+        int i = 0;
+        for (int stripe = 0; stripe < locked.length; stripe++) {
+            if (locked[stripe]) {
+                stripes[i++] = stripe;
+            }
+        }
+        return stripes;
+    }
+
+    private int lock(boolean[] locked, NodeId id) {
+        if (id != null) {
+            int stripe = getStripe(id);
+            if (!locked[stripe]) {
+                locked[stripe] = true;
+                return 1;
+            }
+        }
+        return 0;
+    }
+
+    private int[] getAllStripes() {
+        int[] stripes = new int[mask + 1];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = i;
+        }
+        return stripes;
+    }
+
+    /**
+     * Returns the stripe of the given item, which is the stripe of the node,
+     * or of the parent node of a property.
+     */
+    int getStripe(ItemId id) {
+        NodeId nodeId;
+        if (id.denotesNode()) {
+            nodeId = (NodeId) id;
+        } else {
+            nodeId = ((PropertyId) id).getParentId();
+        }
+        int h = nodeId.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return h & mask;
+    }
+
+    private static void increment(Map<Object, Integer> holders, Object id) {
+        Integer count = holders.get(id);
+        holders.put(id, count == null ? 1 : count + 1);
+    }
+
+    private static void decrement(Map<Object, Integer> holders, Object id) {
+        Integer count = holders.get(id);
+        if (count == null) {
+            throw new IllegalStateException("No lock held by " + id);
+        } else if (count == 1) {
+            holders.remove(id);
+        } else {
+            holders.put(id, count - 1);
+        }
+    }
+
+    /**
+     * Decrements the reader counts of the given stripes and notifies all
+     * pending threads if one of the stripes is now available.
+     */
+    private synchronized void releaseReadLock(int[] stripes, Object ownerId) {
+        decrement(readHolders, ownerId);
+        boolean released = false;
+        for (int stripe : stripes) {
+            if (--readerCount[stripe] == 0 && writerCount[stripe] == 0) {
+                writerId[stripe] = null;
+                released = true;
+            }
+        }
+        if (released) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Decrements the writer counts of the given stripes (and possibly clears
+     * their writer identifiers) and notifies all pending threads. If the
+     * downgrade argument is true, then the reader counts are incremented
+     * before notifying any pending threads.
+     */
+    private synchronized void releaseWriteLock(
+            int[] stripes, Object ownerId, boolean downgrade) {
+        decrement(writeHolders, ownerId);
+        if (downgrade) {
+            increment(readHolders, ownerId);
+        }
+        if (stripes == null) {
+            return;
+        }
+        for (int stripe : stripes) {
+            writerCount[stripe]--;
+            if (downgrade) {
+                readerCount[stripe]++;
+            }
+            if (writerCount[stripe] == 0 && readerCount[stripe] == 0) {
+                writerId[stripe] = null;
+            }
+        }
+        notifyAll();
+    }
+
+    private final class StripedReadLock implements ReadLock {
+
+        private final int[] stripes;
+
+        private final Object ownerId;
+
+        StripedReadLock(int[] stripes, Object ownerId) {
+            this.stripes = stripes;
+            this.ownerId = ownerId;
+        }
+
+        public void release() {
+            releaseReadLock(stripes, ownerId);
+        }
+
+    }
+
+    private final class StripedWriteLock implements WriteLock {
+
+        /**
+         * The locked stripes, or <code>null</code> for a nested lock.
+         */
+        private final int[] stripes;
+
+        private final Object ownerId;
+
+        StripedWriteLock(int[] stripes, Object ownerId) {
+            this.stripes = stripes;
+            this.ownerId = ownerId;
+        }
+
+        public void release() {
+            releaseWriteLock(stripes, ownerId, false);
+        }
+
+        public ReadLock downgrade() {
+            releaseWriteLock(stripes, ownerId, true);
+            if (stripes != null) {
+                return new StripedReadLock(stripes, ownerId);
+            } else {
+                return new StripedReadLock(new int[0], ownerId);
+            }
+        }
+
+    }
+
+}
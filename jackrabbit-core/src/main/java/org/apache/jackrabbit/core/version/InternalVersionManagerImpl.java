@@ -31,8 +31,9 @@ import javax.jcr.version.VersionException;
 
 import org.apache.commons.collections.map.ReferenceMap;
 import org.apache.jackrabbit.core.SessionImpl;
+import org.apache.jackrabbit.core.cluster.ChangeLogRecord;
 import org.apache.jackrabbit.core.cluster.UpdateEventChannel;
-import org.apache.jackrabbit.core.cluster.UpdateEventListener;
+import org.apache.jackrabbit.core.cluster.CoalescedUpdateEventListener;
 import org.apache.jackrabbit.core.fs.FileSystem;
 import org.apache.jackrabbit.core.id.ItemId;
 import org.apache.jackrabbit.core.id.NodeId;
@@ -69,7 +70,7 @@ import org.slf4j.LoggerFactory;
  * This Class implements a VersionManager.
  */
 public class InternalVersionManagerImpl extends InternalVersionManagerBase
-        implements ItemStateListener, UpdateEventListener {
+        implements ItemStateListener, CoalescedUpdateEventListener {
 
     /**
      * the default logger
@@ -657,7 +658,34 @@ public class InternalVersionManagerImpl extends InternalVersionManagerBase
         esc.setUserData(userData);
 
         sharedStateMgr.externalUpdate(changes, esc);
+        externalItemsUpdated(changes);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void externalUpdate(ChangeLog changes, List<ChangeLogRecord> records)
+            throws RepositoryException {
+        List<EventStateCollection> events =
+            new ArrayList<EventStateCollection>(records.size());
+        for (ChangeLogRecord record : records) {
+            EventStateCollection esc = getEscFactory().createEventStateCollection(null);
+            esc.addAll(record.getEvents());
+            esc.setTimestamp(record.getTimestamp());
+            esc.setUserData(record.getUserData());
+            events.add(esc);
+        }
+
+        sharedStateMgr.externalUpdate(changes, events);
+        externalItemsUpdated(changes);
+    }
 
+    /**
+     * Notifies the version items that were changed by an external update.
+     *
+     * @param changes the external changes
+     */
+    private void externalItemsUpdated(ChangeLog changes) {
         Collection<InternalVersionItem> items =
             new ArrayList<InternalVersionItem>();
         synchronized (versionItems) {
@@ -49,6 +49,27 @@ public class TestHelper {
         repo.getWorkspaceInfo(name).dispose();
     }
 
+    /**
+     * Returns the persistence manager of the workspace used by the specified
+     * session.
+     *
+     * @param session the session accessing the workspace
+     * @return the persistence manager of the workspace
+     * @throws RepositoryException if an error occurs while getting the
+     * workspace with the given name.
+     * @throws NotExecutableException if the associated {@link Repository}
+     * is not a {@link RepositoryImpl}.
+     */
+    public static PersistenceManager getPersistenceManager(Session session)
+            throws NotExecutableException, RepositoryException {
+        Repository r = session.getRepository();
+        if (!(r instanceof RepositoryImpl)) {
+            throw new NotExecutableException();
+        }
+        return ((RepositoryImpl) r).getWorkspaceInfo(
+                session.getWorkspace().getName()).getPersistenceManager();
+    }
+
     /**
      * Runs a consistency check on the workspace used by the specified session.
      *
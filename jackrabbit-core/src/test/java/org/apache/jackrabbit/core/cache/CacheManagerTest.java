@@ -0,0 +1,183 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cache;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+
+import junit.framework.TestCase;
+
+/**
+ * Test cases for the {@link CacheManager} class.
+ */
+public class CacheManagerTest extends TestCase {
+
+    private static final long MB = 1024 * 1024;
+
+    /**
+     * Fills the cache beyond its limit and then simulates the given number
+     * of misses, each costing the given time to load.
+     */
+    private static void access(
+            ConcurrentCache<Integer, Integer> cache, int misses, long cost) {
+        for (int i = 0; cache.getMemoryUsed() + 1024 < cache.getMaxMemorySize(); i++) {
+            cache.put(i, i, 1024);
+        }
+        for (int i = 0; i < misses; i++) {
+            cache.get(-1 - i);
+            cache.recordMissDuration(cost);
+        }
+    }
+
+    public void testAdaptiveResize() {
+        CacheManager manager = new CacheManager();
+        manager.setMaxMemory(4 * MB);
+        manager.setMinMemoryPerCache(64 * 1024);
+        manager.setAdaptive(true);
+
+        ConcurrentCache<Integer, Integer> expensive =
+            new ConcurrentCache<Integer, Integer>("expensive");
+        ConcurrentCache<Integer, Integer> cheap =
+            new ConcurrentCache<Integer, Integer>("cheap");
+        ConcurrentCache<Integer, Integer> idle =
+            new ConcurrentCache<Integer, Integer>("idle");
+        expensive.setMaxMemorySize(MB);
+        cheap.setMaxMemorySize(MB);
+        idle.setMaxMemorySize(MB);
+        manager.add(expensive);
+        manager.add(cheap);
+        manager.add(idle, 2 * MB);
+        idle.put(1, 1, 1024);
+
+        for (int i = 0; i < 10; i++) {
+            access(expensive, 100, 1000 * 1000);
+            access(cheap, 100, 1000);
+            manager.resizeAll();
+        }
+
+        // the same number of misses, but the expensive ones are worth more
+        assertTrue(expensive.getMaxMemorySize() > 3 * cheap.getMaxMemorySize());
+        // the idle cache only keeps what it uses
+        assertTrue(idle.getMaxMemorySize() < 128 * 1024);
+        // the budget of the idle cache has been made available to the others
+        long total = expensive.getMaxMemorySize() + cheap.getMaxMemorySize()
+                + idle.getMaxMemorySize();
+        assertTrue(total > 5 * MB);
+        assertTrue(total <= 6 * MB);
+        assertEquals(10, manager.getResizeCount());
+
+        TabularData data = manager.getCaches();
+        assertEquals(3, data.size());
+        assertEquals(
+                expensive.getMaxMemorySize(),
+                data.get(new Object[] { expensive.toString() }).get("size"));
+        assertEquals(
+                1000L * 1000L,
+                data.get(new Object[] { expensive.toString() }).get("missCost"));
+        assertEquals(
+                0L, data.get(new Object[] { idle.toString() }).get("benefit"));
+    }
+
+    public void testFixedBudget() {
+        CacheManager manager = new CacheManager();
+        ConcurrentCache<Integer, Integer> shared =
+            new ConcurrentCache<Integer, Integer>("shared");
+        ConcurrentCache<Integer, Integer> fixed =
+            new ConcurrentCache<Integer, Integer>("fixed");
+        fixed.setMaxMemorySize(8 * MB);
+        manager.add(shared);
+        manager.add(fixed, 8 * MB);
+
+        access(fixed, 100, 1000 * 1000);
+        manager.resizeAll();
+        assertEquals(8 * MB, fixed.getMaxMemorySize());
+        // the fixed budget is not shared
+        assertTrue(shared.getMaxMemorySize() <= manager.getMaxMemory());
+
+        manager.remove(fixed);
+        manager.setAdaptive(true);
+        manager.resizeAll();
+        assertEquals(1, manager.getCaches().size());
+    }
+
+    /**
+     * Checks that an unmanaged cache keeps its size and does not add its
+     * memory to the memory of the other caches.
+     */
+    public void testUnmanaged() {
+        CacheManager manager = new CacheManager();
+        manager.setMaxMemory(4 * MB);
+        manager.setAdaptive(true);
+        ConcurrentCache<Integer, Integer> heap =
+            new ConcurrentCache<Integer, Integer>("heap");
+        ConcurrentCache<Integer, Integer> offHeap =
+            new ConcurrentCache<Integer, Integer>("offHeap");
+        heap.setMaxMemorySize(MB);
+        offHeap.setMaxMemorySize(64 * MB);
+        manager.add(heap);
+        manager.addUnmanaged(offHeap);
+        offHeap.put(1, 1, 1024);
+
+        for (int i = 0; i < 10; i++) {
+            access(heap, 100, 1000 * 1000);
+            manager.resizeAll();
+        }
+        assertEquals(64 * MB, offHeap.getMaxMemorySize());
+        assertTrue(heap.getMaxMemorySize() <= 4 * MB);
+        assertEquals(2, manager.getCaches().size());
+    }
+
+    /**
+     * Checks that resizing does not reset the access counts of the caches,
+     * which would keep them from calling their access listener.
+     */
+    public void testAccessCountNotReset() {
+        CacheManager manager = new CacheManager();
+        manager.setAdaptive(true);
+        ConcurrentCache<Integer, Integer> cache =
+            new ConcurrentCache<Integer, Integer>("cache");
+        manager.add(cache);
+        for (int i = 0; i < 10; i++) {
+            cache.get(i);
+        }
+        manager.resizeAll();
+        assertEquals(10, cache.getAccessCount());
+        assertEquals(10, cache.getTotalAccessCount());
+    }
+
+    public void testMBean() throws Exception {
+        CacheManager manager = new CacheManager();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(
+                CacheManagerMBean.NAME + ",name=" + ObjectName.quote("test"));
+        server.registerMBean(manager, name);
+        try {
+            assertEquals(
+                    manager.getMaxMemory(),
+                    server.getAttribute(name, "MaxMemory"));
+            server.setAttribute(name, new Attribute("Adaptive", true));
+            assertTrue(manager.isAdaptive());
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+
+}
@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cache;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.jackrabbit.core.id.NodeId;
+
+import junit.framework.TestCase;
+
+/**
+ * Test cases for the {@link ClockCache} class.
+ */
+public class ClockCacheTest extends TestCase {
+
+    /**
+     * Tests a clock cache by adding lots of random items to it
+     * and checking that the excess items have automatically been evicted
+     * while frequently accessed items are still present.
+     */
+    public void testClockCache() {
+        NodeId[] ids = new NodeId[1000];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = NodeId.randomId();
+        }
+
+        ClockCache<NodeId, NodeId> cache =
+            new ClockCache<NodeId, NodeId>("test");
+        cache.setMaxMemorySize(ids.length / 2);
+
+        for (int i = 0; i < ids.length; i++) {
+            for (int j = 0; j < i; j += 3) {
+                cache.get(ids[j]);
+            }
+            cache.put(ids[i], ids[i], 1);
+        }
+
+        assertTrue(cache.getMemoryUsed() <= ids.length / 2);
+        assertEquals(cache.getMemoryUsed(), cache.getElementCount());
+
+        int n = 0;
+        for (int i = 0; i < ids.length; i += 3) {
+            if (cache.containsKey(ids[i])) {
+                n++;
+            }
+        }
+
+        // the frequently accessed entries got a second chance
+        assertTrue(n > ids.length / 6);
+        assertTrue(cache.getMemoryUsed() > ids.length / 4);
+    }
+
+    public void testAccounting() {
+        ClockCache<String, String> cache = new ClockCache<String, String>("test");
+        cache.setMaxMemorySize(100);
+        assertTrue(cache.isEmpty());
+        assertNull(cache.get("a"));
+        assertEquals(1, cache.getAccessCount());
+        assertEquals(1, cache.getMissCount());
+
+        assertNull(cache.put("a", "1", 10));
+        assertEquals("1", cache.put("a", "2", 20));
+        assertEquals(20, cache.getMemoryUsed());
+        assertEquals("2", cache.get("a"));
+        assertEquals(2, cache.getAccessCount());
+        assertEquals(1, cache.getMissCount());
+
+        cache.put("b", "3", 30);
+        assertEquals(2, cache.values().size());
+        assertEquals("3", cache.remove("b"));
+        assertNull(cache.remove("b"));
+        assertEquals(20, cache.getMemoryUsed());
+
+        cache.setMaxMemorySize(10);
+        assertTrue(cache.isEmpty());
+        assertEquals(0, cache.getElementCount());
+
+        cache.setMaxMemorySize(100);
+        cache.put("c", "4", 5);
+        cache.clear();
+        assertTrue(cache.isEmpty());
+        assertNull(cache.get("c"));
+    }
+
+    /**
+     * Checks that the size accounting stays consistent when many threads
+     * read, add and remove entries concurrently.
+     */
+    public void testConcurrentAccess() throws Exception {
+        final ClockCache<Integer, Integer> cache =
+            new ClockCache<Integer, Integer>("test");
+        cache.setMaxMemorySize(1000);
+        final AtomicReference<Throwable> error =
+            new AtomicReference<Throwable>();
+
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final int seed = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 20000; i++) {
+                            Integer key = (i * 31 + seed) % 2000;
+                            if (i % 7 == 0) {
+                                cache.remove(key);
+                            } else if (cache.get(key) == null) {
+                                cache.put(key, key, 1 + key % 3);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        error.set(e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(error.get());
+
+        assertTrue(cache.getMemoryUsed() <= 1000);
+        long size = 0;
+        for (Integer value : cache.values()) {
+            size += 1 + value % 3;
+        }
+        assertEquals(size, cache.getMemoryUsed());
+    }
+
+}
@@ -17,9 +17,13 @@
 package org.apache.jackrabbit.core.cluster;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 import javax.jcr.RepositoryException;
+import javax.jcr.observation.Event;
 
 import org.apache.jackrabbit.core.cluster.SimpleEventListener.LockEvent;
 import org.apache.jackrabbit.core.cluster.SimpleEventListener.NamespaceEvent;
@@ -33,6 +37,10 @@ import org.apache.jackrabbit.core.journal.Journal;
 import org.apache.jackrabbit.core.journal.JournalFactory;
 import org.apache.jackrabbit.core.journal.MemoryJournal;
 import org.apache.jackrabbit.core.journal.MemoryJournal.MemoryRecord;
+import org.apache.jackrabbit.core.state.ChangeLog;
+import org.apache.jackrabbit.core.observation.EventState;
+import org.apache.jackrabbit.core.state.ItemState;
+import org.apache.jackrabbit.core.state.NodeState;
 import org.apache.jackrabbit.spi.Name;
 import org.apache.jackrabbit.spi.PrivilegeDefinition;
 import org.apache.jackrabbit.spi.QNodeTypeDefinition;
@@ -64,20 +72,25 @@ public class ClusterRecordTest extends JUnitTest {
      */
     private final UpdateEventFactory factory = UpdateEventFactory.getInstance();
 
+    /**
+     * Session of the updates created by this test.
+     */
+    private final ClusterSession session = new ClusterSession("admin");
+
     /**
      * Records shared among multiple memory journals.
      */
-    private ArrayList<MemoryRecord> records = new ArrayList<MemoryRecord>();
+    protected ArrayList<MemoryRecord> records = new ArrayList<MemoryRecord>();
 
     /**
      * Master.
      */
-    private ClusterNode master;
+    protected ClusterNode master;
 
     /**
      * Slave.
      */
-    private ClusterNode slave;
+    protected ClusterNode slave;
 
     /**
      * {@inheritDoc}
@@ -145,6 +158,214 @@ public class ClusterRecordTest extends JUnitTest {
         assertEquals(listener.getClusterEvents().get(0), update);
     }
 
+    /**
+     * Test producing and consuming an update that carries the serialized
+     * bundles of the changed nodes.
+     */
+    public void testUpdateOperationWithBundles() throws Exception {
+        UpdateEvent update = factory.createUpdateOperation();
+        NodeId id = NodeId.randomId();
+        byte[] data = new byte[] { 1, 2, 3, 4 };
+
+        UpdateEventChannel channel = master.createUpdateChannel(DEFAULT_WORKSPACE);
+        channel.updateCreated(update);
+        channel.updatePrepared(update);
+        update.setAttribute("bundles", Collections.singletonMap(id, data));
+        channel.updateCommitted(update, null);
+
+        SimpleEventListener listener = new SimpleEventListener();
+        slave.createUpdateChannel(DEFAULT_WORKSPACE).setListener(listener);
+        slave.sync();
+
+        assertEquals(1, listener.getClusterEvents().size());
+        UpdateEvent received = (UpdateEvent) listener.getClusterEvents().get(0);
+        assertEquals(update, received);
+        Map<NodeId, byte[]> bundles = received.getChanges().getBundles();
+        assertEquals(1, bundles.size());
+        assertTrue(Arrays.equals(data, bundles.get(id)));
+    }
+
+    /**
+     * Test that an update is still committed if its bundles can not be
+     * written, only without the bundles.
+     */
+    public void testUpdateOperationWithInvalidBundles() throws Exception {
+        UpdateEvent update = factory.createUpdateOperation();
+
+        UpdateEventChannel channel = master.createUpdateChannel(DEFAULT_WORKSPACE);
+        channel.updateCreated(update);
+        channel.updatePrepared(update);
+        update.setAttribute("bundles", "invalid");
+        channel.updateCommitted(update, null);
+
+        SimpleEventListener listener = new SimpleEventListener();
+        slave.createUpdateChannel(DEFAULT_WORKSPACE).setListener(listener);
+        slave.sync();
+
+        assertEquals(1, listener.getClusterEvents().size());
+        UpdateEvent received = (UpdateEvent) listener.getClusterEvents().get(0);
+        assertEquals(update, received);
+        assertTrue(received.getChanges().getBundles().isEmpty());
+    }
+
+    /**
+     * Test consuming consecutive updates of a workspace at once. The updates
+     * are delivered in order, and another kind of record in between applies
+     * the updates consumed so far.
+     */
+    public void testCoalescedUpdateOperations() throws Exception {
+        UpdateEvent[] updates = new UpdateEvent[4];
+        UpdateEventChannel channel = master.createUpdateChannel(DEFAULT_WORKSPACE);
+        for (int i = 0; i < updates.length; i++) {
+            updates[i] = factory.createUpdateOperation();
+            channel.updateCreated(updates[i]);
+            channel.updatePrepared(updates[i]);
+            channel.updateCommitted(updates[i], null);
+            if (i == 2) {
+                master.createLockChannel(DEFAULT_WORKSPACE).create(
+                        NodeId.randomId(), true, "admin").ended(true);
+            }
+        }
+
+        SimpleEventListener listener = new SimpleEventListener();
+        slave.createUpdateChannel(DEFAULT_WORKSPACE).setListener(listener);
+        slave.createLockChannel(DEFAULT_WORKSPACE).setListener(listener);
+        slave.sync();
+
+        assertEquals(5, listener.getClusterEvents().size());
+        assertEquals(updates[0], listener.getClusterEvents().get(0));
+        assertEquals(updates[1], listener.getClusterEvents().get(1));
+        assertEquals(updates[2], listener.getClusterEvents().get(2));
+        assertTrue(listener.getClusterEvents().get(3) instanceof LockEvent);
+        assertEquals(updates[3], listener.getClusterEvents().get(4));
+
+        // the last update is applied on its own
+        assertEquals(1, listener.getCoalescedUpdates().size());
+        ChangeLog changes = listener.getCoalescedUpdates().get(0);
+        for (int i = 0; i < 3; i++) {
+            for (ItemState state : updates[i].getChanges().deletedStates()) {
+                assertTrue(changes.deleted(state.getId()));
+            }
+            for (ItemState state : updates[i].getChanges().modifiedStates()) {
+                assertTrue(changes.has(state.getId()));
+            }
+        }
+        assertEquals(master.getRevision(), slave.getRevision());
+    }
+
+    /**
+     * Test consuming an update that deletes a node followed by an update
+     * that adds it again. The updates are not merged into one change log.
+     */
+    public void testCoalescedDeleteAndAdd() throws Exception {
+        NodeState n = factory.createNodeState();
+        ChangeLog deleted = new ChangeLog();
+        deleted.deleted(n);
+        ChangeLog added = new ChangeLog();
+        added.added(n);
+        UpdateEvent[] updates = new UpdateEvent[] {
+                new UpdateEvent(deleted, Collections.singletonList(
+                        factory.createEventState(n, Event.NODE_REMOVED, "{}n", session)),
+                        System.currentTimeMillis(), null),
+                new UpdateEvent(added, Collections.singletonList(
+                        factory.createEventState(n, Event.NODE_ADDED, "{}n", session)),
+                        System.currentTimeMillis(), null),
+                factory.createUpdateOperation() };
+        UpdateEventChannel channel = master.createUpdateChannel(DEFAULT_WORKSPACE);
+        for (UpdateEvent update : updates) {
+            channel.updateCreated(update);
+            channel.updatePrepared(update);
+            channel.updateCommitted(update, null);
+        }
+
+        SimpleEventListener listener = new SimpleEventListener();
+        slave.createUpdateChannel(DEFAULT_WORKSPACE).setListener(listener);
+        slave.sync();
+
+        assertEquals(3, listener.getClusterEvents().size());
+        for (int i = 0; i < updates.length; i++) {
+            assertEquals(updates[i], listener.getClusterEvents().get(i));
+        }
+
+        // the delete is applied on its own, the add with the last update
+        assertEquals(1, listener.getCoalescedUpdates().size());
+        ChangeLog changes = listener.getCoalescedUpdates().get(0);
+        assertTrue(changes.isAdded(n.getId()));
+        assertFalse(changes.deleted(n.getId()));
+        assertEquals(master.getRevision(), slave.getRevision());
+    }
+
+    /**
+     * Test consuming an update that adds a node followed by an update that
+     * deletes it. The updates are not merged into one change log, which
+     * would drop the node instead of deleting it.
+     */
+    public void testCoalescedAddAndDelete() throws Exception {
+        NodeState n = factory.createNodeState();
+        ChangeLog added = new ChangeLog();
+        added.added(n);
+        ChangeLog deleted = new ChangeLog();
+        deleted.deleted(n);
+        UpdateEvent[] updates = new UpdateEvent[] {
+                new UpdateEvent(added, Collections.singletonList(
+                        factory.createEventState(n, Event.NODE_ADDED, "{}n", session)),
+                        System.currentTimeMillis(), null),
+                new UpdateEvent(deleted, Collections.singletonList(
+                        factory.createEventState(n, Event.NODE_REMOVED, "{}n", session)),
+                        System.currentTimeMillis(), null),
+                factory.createUpdateOperation() };
+        UpdateEventChannel channel = master.createUpdateChannel(DEFAULT_WORKSPACE);
+        for (UpdateEvent update : updates) {
+            channel.updateCreated(update);
+            channel.updatePrepared(update);
+            channel.updateCommitted(update, null);
+        }
+
+        SimpleEventListener listener = new SimpleEventListener();
+        slave.createUpdateChannel(DEFAULT_WORKSPACE).setListener(listener);
+        slave.sync();
+
+        assertEquals(3, listener.getClusterEvents().size());
+        for (int i = 0; i < updates.length; i++) {
+            assertEquals(updates[i], listener.getClusterEvents().get(i));
+        }
+
+        // the add is applied on its own, the delete with the last update
+        assertEquals(1, listener.getCoalescedUpdates().size());
+        ChangeLog changes = listener.getCoalescedUpdates().get(0);
+        assertTrue(changes.deleted(n.getId()));
+        assertFalse(changes.isAdded(n.getId()));
+        assertEquals(master.getRevision(), slave.getRevision());
+    }
+
+    /**
+     * Test consuming consecutive updates with a listener that does not
+     * handle several updates at once.
+     */
+    public void testUpdateOperationsWithoutCoalescing() throws Exception {
+        UpdateEventChannel channel = master.createUpdateChannel(DEFAULT_WORKSPACE);
+        for (int i = 0; i < 3; i++) {
+            UpdateEvent update = factory.createUpdateOperation();
+            channel.updateCreated(update);
+            channel.updatePrepared(update);
+            channel.updateCommitted(update, null);
+        }
+
+        final List<ChangeLog> received = new ArrayList<ChangeLog>();
+        slave.createUpdateChannel(DEFAULT_WORKSPACE).setListener(
+                new UpdateEventListener() {
+                    public void externalUpdate(ChangeLog changes,
+                            List<EventState> events, long timestamp,
+                            String userData) {
+                        received.add(changes);
+                    }
+                });
+        slave.sync();
+
+        assertEquals(3, received.size());
+        assertEquals(master.getRevision(), slave.getRevision());
+    }
+
     /**
      * Test producing and consuming a lock operation.
      * @throws Exception
@@ -299,6 +520,16 @@ public class ClusterRecordTest extends JUnitTest {
         assertEquals(listener.getClusterEvents().get(0), event);
     }
 
+    /**
+     * Return a flag indicating whether the cluster nodes of this test
+     * append records in the compact format.
+     *
+     * @return <code>false</code>
+     */
+    protected boolean isCompactRecords() {
+        return false;
+    }
+
     /**
      * Create a cluster node, with a memory journal referencing a list of records.
      *
@@ -307,7 +538,14 @@ public class ClusterRecordTest extends JUnitTest {
      */
     private ClusterNode createClusterNode(
             String id, ArrayList<MemoryRecord> records) throws Exception {
+        return createClusterNode(id, records, isCompactRecords());
+    }
+
+    protected ClusterNode createClusterNode(
+            String id, ArrayList<MemoryRecord> records, boolean compact)
+            throws Exception {
         final MemoryJournal journal = new MemoryJournal();
+        journal.setCompactRecords(compact);
         JournalFactory jf = new JournalFactory() {
             public Journal getJournal(NamespaceResolver resolver)
                     throws RepositoryException {
@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cluster;
+
+import org.apache.jackrabbit.core.cluster.SimpleEventListener.UpdateEvent;
+
+/**
+ * Runs the cluster record tests with records in the compact format, and
+ * checks that records in both formats can be read.
+ */
+public class CompactClusterRecordTest extends ClusterRecordTest {
+
+    /**
+     * Default workspace name.
+     */
+    private static final String DEFAULT_WORKSPACE = "default";
+
+    /**
+     * Update event factory.
+     */
+    private final UpdateEventFactory factory = UpdateEventFactory.getInstance();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean isCompactRecords() {
+        return true;
+    }
+
+    /**
+     * Test consuming updates in the original and the compact format, and
+     * verify that the compact format is smaller.
+     */
+    public void testMixedFormats() throws Exception {
+        ClusterNode original = createClusterNode("original", records, false);
+        original.start();
+        try {
+            UpdateEvent update = factory.createUpdateOperation();
+            UpdateEventChannel channel = original.createUpdateChannel(DEFAULT_WORKSPACE);
+            channel.updateCreated(update);
+            channel.updatePrepared(update);
+            channel.updateCommitted(update, null);
+
+            UpdateEvent compact = factory.createUpdateOperation();
+            channel = master.createUpdateChannel(DEFAULT_WORKSPACE);
+            channel.updateCreated(compact);
+            channel.updatePrepared(compact);
+            channel.updateCommitted(compact, null);
+
+            SimpleEventListener listener = new SimpleEventListener();
+            slave.createUpdateChannel(DEFAULT_WORKSPACE).setListener(listener);
+            slave.sync();
+
+            assertEquals(2, listener.getClusterEvents().size());
+            assertEquals(update, listener.getClusterEvents().get(0));
+            assertEquals(compact, listener.getClusterEvents().get(1));
+
+            assertEquals(2, records.size());
+            assertTrue(records.get(1).getData().length
+                    < records.get(0).getData().length);
+        } finally {
+            original.stop();
+        }
+    }
+}
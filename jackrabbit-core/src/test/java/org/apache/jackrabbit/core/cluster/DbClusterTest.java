@@ -18,12 +18,22 @@ package org.apache.jackrabbit.core.cluster;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.jcr.Node;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.SimpleCredentials;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.query.Query;
+
 import org.apache.commons.io.FileUtils;
 import org.apache.jackrabbit.core.RepositoryImpl;
 import org.apache.jackrabbit.core.config.RepositoryConfig;
+import org.apache.jackrabbit.core.observation.SynchronousEventListener;
 import org.apache.jackrabbit.test.JUnitTest;
 
 /**
@@ -71,4 +81,56 @@ public class DbClusterTest extends JUnitTest {
         rep2.shutdown();
     }
 
+    /**
+     * Verify that a node catching up on several saves of another node
+     * indexes all changes and delivers the events of every save on its own.
+     */
+    public void testCatchUp() throws RepositoryException {
+        RepositoryImpl rep1 = RepositoryImpl.create(RepositoryConfig.create(
+                new File("./target/dbClusterTest/node1")));
+        RepositoryImpl rep2 = RepositoryImpl.create(RepositoryConfig.create(
+                new File("./target/dbClusterTest/node2")));
+        try {
+            Session s1 = rep1.login(new SimpleCredentials("admin", "admin".toCharArray()));
+            Session s2 = rep2.login(new SimpleCredentials("admin", "admin".toCharArray()));
+
+            final List<List<String>> bundles = new ArrayList<List<String>>();
+            s2.getWorkspace().getObservationManager().addEventListener(
+                    new SynchronousEventListener() {
+                        public void onEvent(EventIterator events) {
+                            List<String> paths = new ArrayList<String>();
+                            try {
+                                while (events.hasNext()) {
+                                    paths.add(events.nextEvent().getPath());
+                                }
+                            } catch (RepositoryException e) {
+                                fail(e.getMessage());
+                            }
+                            bundles.add(paths);
+                        }
+                    }, Event.NODE_ADDED, "/", true, null, null, false);
+
+            Node test = s1.getRootNode().addNode("test");
+            s1.save();
+            for (int i = 0; i < 3; i++) {
+                test.addNode("n" + i).setProperty("p", "catch-up");
+                s1.save();
+            }
+            s2.refresh(true);
+
+            assertEquals(4, bundles.size());
+            assertEquals(Arrays.asList("/test"), bundles.get(0));
+            for (int i = 0; i < 3; i++) {
+                assertEquals(Arrays.asList("/test/n" + i), bundles.get(i + 1));
+            }
+
+            Query q = s2.getWorkspace().getQueryManager().createQuery(
+                    "//element(*, nt:base)[@p = 'catch-up']", Query.XPATH);
+            assertEquals(3, q.execute().getNodes().getSize());
+        } finally {
+            rep1.shutdown();
+            rep2.shutdown();
+        }
+    }
+
 }
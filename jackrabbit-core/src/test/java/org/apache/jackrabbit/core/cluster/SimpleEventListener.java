@@ -39,13 +39,19 @@ import org.apache.jackrabbit.spi.QNodeTypeDefinition;
  * types and records external events in an array list.
  */
 public class SimpleEventListener implements LockEventListener,
-        NodeTypeEventListener, NamespaceEventListener, PrivilegeEventListener, UpdateEventListener {
+        NodeTypeEventListener, NamespaceEventListener, PrivilegeEventListener,
+        CoalescedUpdateEventListener {
 
     /**
      * List of cluster events received.
      */
     public List clusterEvents = new ArrayList();
 
+    /**
+     * List of merged change logs of the updates received at once.
+     */
+    private final List<ChangeLog> coalescedUpdates = new ArrayList<ChangeLog>();
+
     //-------------------------------------------------------- LockEventListener
 
     /**
@@ -476,6 +482,19 @@ public class SimpleEventListener implements LockEventListener,
 
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public void externalUpdate(ChangeLog changes, List<ChangeLogRecord> records)
+            throws RepositoryException {
+
+        coalescedUpdates.add(changes);
+        for (ChangeLogRecord record : records) {
+            clusterEvents.add(new UpdateEvent(record.getChanges(),
+                    record.getEvents(), record.getTimestamp(), record.getUserData()));
+        }
+    }
+
     /**
      * Update event auxiliary class.
      */
@@ -601,6 +620,16 @@ public class SimpleEventListener implements LockEventListener,
         return Collections.unmodifiableList(clusterEvents);
     }
 
+    /**
+     * Return the merged change logs of the updates that were received at
+     * once.
+     *
+     * @return merged change logs
+     */
+    public List<ChangeLog> getCoalescedUpdates() {
+        return Collections.unmodifiableList(coalescedUpdates);
+    }
+
     /**
      * Check whether two objects are equals, allowing <code>null</code> values.
      *
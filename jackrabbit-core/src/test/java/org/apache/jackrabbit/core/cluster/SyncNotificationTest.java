@@ -0,0 +1,210 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cluster;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+import java.util.ArrayList;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.jackrabbit.core.config.ClusterConfig;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.journal.Journal;
+import org.apache.jackrabbit.core.journal.JournalFactory;
+import org.apache.jackrabbit.core.journal.MemoryJournal;
+import org.apache.jackrabbit.core.journal.MemoryJournal.MemoryRecord;
+import org.apache.jackrabbit.spi.commons.namespace.NamespaceResolver;
+import org.apache.jackrabbit.test.JUnitTest;
+
+/**
+ * Test cases for the notification that wakes up the synchronization of
+ * other cluster nodes when a node appends a revision.
+ */
+public class SyncNotificationTest extends JUnitTest {
+
+    /** Defaut workspace name. */
+    private static final String DEFAULT_WORKSPACE = "default";
+
+    /** Sync delay that is longer than any test: 10 minutes. */
+    private static final long SYNC_DELAY = 600000;
+
+    /** Multicast group of the sync notification. */
+    private static final String GROUP = "239.255.27.1";
+
+    /** Maximum time to wait for a node to synchronize. */
+    private static final long TIMEOUT = 10000;
+
+    /** Master node. */
+    private ClusterNode master;
+
+    /** Slave node. */
+    private ClusterNode slave;
+
+    /** Records shared among multiple memory journals. */
+    private final ArrayList<MemoryRecord> records = new ArrayList<MemoryRecord>();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void tearDown() throws Exception {
+        if (slave != null) {
+            slave.stop();
+        }
+        if (master != null) {
+            master.stop();
+        }
+        super.tearDown();
+    }
+
+    /**
+     * Verify that a notification wakes up the synchronization thread, but
+     * only for revisions the node has not seen yet.
+     */
+    public void testSyncNotified() throws Exception {
+        master = createClusterNode("master", null);
+        master.start();
+        slave = createClusterNode("slave", null);
+        slave.start();
+
+        appendLockRecord();
+        assertTrue(master.getRevision() > slave.getRevision());
+
+        slave.syncNotified(slave.getRevision());
+        Thread.sleep(200);
+        assertTrue(master.getRevision() > slave.getRevision());
+
+        slave.syncNotified(master.getRevision());
+        waitForSync();
+    }
+
+    /**
+     * Verify that a revision appended by one node is announced to the other
+     * nodes of the multicast group.
+     */
+    public void testAnnounce() throws Exception {
+        int port = 45000 + (int) (Math.random() * 1000);
+        if (!isMulticastAvailable(GROUP, port)) {
+            logger.warn("Multicast is not available, skipping testAnnounce");
+            return;
+        }
+        String address = GROUP + ":" + port;
+        master = createClusterNode("master", address);
+        master.start();
+        slave = createClusterNode("slave", address);
+        slave.start();
+
+        appendLockRecord();
+        waitForSync();
+
+        appendLockRecord();
+        waitForSync();
+    }
+
+    /**
+     * Verify that an invalid address fails the initialization.
+     */
+    public void testInvalidAddress() throws Exception {
+        try {
+            createClusterNode("master", "127.0.0.1:45678");
+            fail("Sync notification requires a multicast address");
+        } catch (ClusterException e) {
+            // expected
+        }
+        try {
+            createClusterNode("master", "239.255.27.1");
+            fail("Sync notification requires a port");
+        } catch (ClusterException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Checks that a packet sent to a multicast group is received on this
+     * host, which fails on hosts without a multicast route.
+     *
+     * @param group multicast group
+     * @param port port
+     * @return <code>true</code> if multicast is available
+     */
+    private static boolean isMulticastAvailable(String group, int port) {
+        MulticastSocket socket = null;
+        try {
+            InetAddress address = InetAddress.getByName(group);
+            socket = new MulticastSocket(port);
+            socket.setLoopbackMode(false);
+            socket.setSoTimeout(1000);
+            socket.joinGroup(address);
+            byte[] data = new byte[] { 1 };
+            socket.send(new DatagramPacket(data, data.length, address, port));
+            socket.receive(new DatagramPacket(new byte[1], 1));
+            socket.leaveGroup(address);
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            if (socket != null) {
+                socket.close();
+            }
+        }
+    }
+
+    private void appendLockRecord() {
+        LockEventChannel channel = master.createLockChannel(DEFAULT_WORKSPACE);
+        channel.create(NodeId.randomId(), true, "admin").ended(true);
+    }
+
+    private void waitForSync() throws InterruptedException {
+        long end = System.currentTimeMillis() + TIMEOUT;
+        while (slave.getRevision() != master.getRevision()
+                && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertEquals(master.getRevision(), slave.getRevision());
+    }
+
+    /**
+     * Create a cluster node, with a memory journal referencing a list of records.
+     *
+     * @param id cluster node id
+     * @param syncNotification multicast group and port, or <code>null</code>
+     */
+    private ClusterNode createClusterNode(String id, String syncNotification)
+            throws Exception {
+        final MemoryJournal journal = new MemoryJournal();
+        JournalFactory jf = new JournalFactory() {
+            public Journal getJournal(NamespaceResolver resolver)
+                    throws RepositoryException {
+                return journal;
+            }
+        };
+        ClusterConfig cc = new ClusterConfig(
+                id, SYNC_DELAY, 1000, syncNotification, jf);
+        SimpleClusterContext context = new SimpleClusterContext(cc);
+
+        journal.setRepositoryHome(context.getRepositoryHome());
+        journal.init(id, context.getNamespaceResolver());
+        journal.setRecords(records);
+
+        ClusterNode clusterNode = new ClusterNode();
+        clusterNode.init(context);
+        return clusterNode;
+    }
+}
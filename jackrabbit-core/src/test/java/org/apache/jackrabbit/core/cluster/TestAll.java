@@ -38,7 +38,9 @@ public class TestAll extends TestCase {
         TestSuite suite = new TestSuite();
 
         suite.addTestSuite(ClusterRecordTest.class);
+        suite.addTestSuite(CompactClusterRecordTest.class);
         suite.addTestSuite(ClusterSyncTest.class);
+        suite.addTestSuite(SyncNotificationTest.class);
         suite.addTestSuite(DbClusterTest.class);
         suite.addTestSuite(DbClusterTestJCR3162.class);
         suite.addTestSuite(FailUpdateOnJournalExceptionTest.class);
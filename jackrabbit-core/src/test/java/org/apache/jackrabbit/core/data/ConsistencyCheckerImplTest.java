@@ -16,11 +16,16 @@
  */
 package org.apache.jackrabbit.core.data;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
 
 import javax.jcr.RepositoryException;
@@ -39,6 +44,7 @@ import org.apache.jackrabbit.core.journal.MemoryJournal.MemoryRecord;
 import org.apache.jackrabbit.core.observation.EventState;
 import org.apache.jackrabbit.core.persistence.bundle.AbstractBundlePersistenceManager;
 import org.apache.jackrabbit.core.persistence.bundle.ConsistencyCheckerImpl;
+import org.apache.jackrabbit.core.persistence.check.ConsistencyCheckListener;
 import org.apache.jackrabbit.core.persistence.check.ReportItem;
 import org.apache.jackrabbit.core.persistence.util.BLOBStore;
 import org.apache.jackrabbit.core.persistence.util.NodePropBundle;
@@ -399,6 +405,161 @@ public class ConsistencyCheckerImplTest extends TestCase {
 
     }
 
+    /**
+     * Checks a tree that spans several ranges on multiple threads, with errors
+     * that need nodes from other ranges to be detected.
+     */
+    public void testParallelCheck() throws RepositoryException {
+        List<NodePropBundle> bundles = new ArrayList<NodePropBundle>();
+        NodePropBundle root = new NodePropBundle(new NodeId(0, 0));
+        bundles.add(root);
+        for (int i = 1; i < 20000; i++) {
+            NodePropBundle child = new NodePropBundle(new NodeId(0, i));
+            NodePropBundle parent = bundles.get(i / 2);
+            child.setParentId(parent.getId());
+            parent.addChildNodeEntry(nameFactory.create("", "n" + i), child.getId());
+            bundles.add(child);
+        }
+        // abandoned: the parent is in the first range, the node in the last
+        NodePropBundle abandoned = new NodePropBundle(new NodeId(1, 0));
+        abandoned.setParentId(root.getId());
+        bundles.add(abandoned);
+        // missing: the child would be in the last range
+        bundles.get(9000).addChildNodeEntry(nameFactory.create("", "missing"), new NodeId(1, 1));
+
+        MockPersistenceManager pm = new MockPersistenceManager(bundles);
+        ConsistencyCheckerImpl checker = new ConsistencyCheckerImpl(pm, null, null, null);
+        checker.setThreads(4);
+        checker.check(null, false);
+
+        assertEquals(bundles.size(), checker.getReport().getNodeCount());
+        Set<ReportItem> reportItems = checker.getReport().getItems();
+        assertEquals(2, reportItems.size());
+        for (ReportItem item : reportItems) {
+            if (item.getType() == ReportItem.Type.ABANDONED) {
+                assertEquals(abandoned.getId().toString(), item.getNodeId());
+            } else {
+                assertEquals(ReportItem.Type.MISSING, item.getType());
+                assertEquals(bundles.get(9000).getId().toString(), item.getNodeId());
+            }
+        }
+    }
+
+    public void testResumeFromCheckpoint() throws Exception {
+        NodePropBundle bundle1 = new NodePropBundle(new NodeId(0, 0));
+        NodePropBundle bundle2 = new NodePropBundle(new NodeId(0, 1));
+        NodePropBundle bundle3 = new NodePropBundle(new NodeId(1, 0));
+        // both node2 and node3 are abandoned
+        bundle2.setParentId(bundle1.getId());
+        bundle3.setParentId(bundle1.getId());
+
+        // pretend a previous check was interrupted after node2
+        File checkpoint = createCheckpoint(bundle2.getId(), 2);
+        try {
+            MockPersistenceManager pm = new MockPersistenceManager(Arrays.asList(bundle1, bundle2, bundle3));
+            ConsistencyCheckerImpl checker = new ConsistencyCheckerImpl(pm, null, null, null);
+            checker.setCheckpointFile(checkpoint);
+            checker.setResume(true);
+            checker.check(null, false);
+
+            // only node3 has been checked
+            assertEquals(1, checker.getReport().getNodeCount());
+            Set<ReportItem> reportItems = checker.getReport().getItems();
+            assertEquals(1, reportItems.size());
+            assertEquals(bundle3.getId().toString(), reportItems.iterator().next().getNodeId());
+            assertFalse("Checkpoint not deleted after a complete check", checkpoint.exists());
+
+            // the next check starts from the beginning
+            checker.check(null, false);
+            assertEquals(3, checker.getReport().getNodeCount());
+            assertEquals(2, checker.getReport().getItems().size());
+        } finally {
+            checkpoint.delete();
+        }
+    }
+
+    public void testCheckpointIgnoredWithoutResume() throws Exception {
+        NodePropBundle bundle1 = new NodePropBundle(new NodeId(0, 0));
+        NodePropBundle bundle2 = new NodePropBundle(new NodeId(0, 1));
+        NodePropBundle bundle3 = new NodePropBundle(new NodeId(1, 0));
+        bundle2.setParentId(bundle1.getId());
+        bundle3.setParentId(bundle1.getId());
+
+        // a checkpoint left over by an interrupted check
+        File checkpoint = createCheckpoint(bundle2.getId(), 2);
+        try {
+            MockPersistenceManager pm = new MockPersistenceManager(Arrays.asList(bundle1, bundle2, bundle3));
+            ConsistencyCheckerImpl checker = new ConsistencyCheckerImpl(pm, null, null, null);
+            checker.setCheckpointFile(checkpoint);
+            checker.setResume(false);
+            checker.check(null, false);
+
+            assertEquals(3, checker.getReport().getNodeCount());
+            assertEquals(2, checker.getReport().getItems().size());
+            assertFalse("Checkpoint not deleted after a complete check", checkpoint.exists());
+        } finally {
+            checkpoint.delete();
+        }
+    }
+
+    public void testResumeFromRemovedCheckpointNode() throws Exception {
+        NodePropBundle bundle1 = new NodePropBundle(new NodeId(0, 0));
+        NodePropBundle bundle2 = new NodePropBundle(new NodeId(0, 1));
+        bundle2.setParentId(bundle1.getId());
+
+        // the node of the checkpoint has been removed since
+        File checkpoint = createCheckpoint(new NodeId(0, 2), 3);
+        try {
+            MockPersistenceManager pm = new MockPersistenceManager(Arrays.asList(bundle1, bundle2));
+            ConsistencyCheckerImpl checker = new ConsistencyCheckerImpl(pm, null, null, null);
+            checker.setCheckpointFile(checkpoint);
+            checker.setResume(true);
+            checker.check(null, false);
+
+            assertEquals(2, checker.getReport().getNodeCount());
+            assertEquals(1, checker.getReport().getItems().size());
+            assertFalse("Checkpoint not deleted after a complete check", checkpoint.exists());
+        } finally {
+            checkpoint.delete();
+        }
+    }
+
+    private static File createCheckpoint(NodeId lastId, long count) throws IOException {
+        File checkpoint = File.createTempFile("checkpoint", ".properties");
+        Properties properties = new Properties();
+        properties.setProperty("lastId", lastId.toString());
+        properties.setProperty("count", Long.toString(count));
+        OutputStream out = new FileOutputStream(checkpoint);
+        try {
+            properties.store(out, null);
+        } finally {
+            out.close();
+        }
+        return checkpoint;
+    }
+
+    public void testProgressReport() throws RepositoryException {
+        NodePropBundle bundle = new NodePropBundle(new NodeId(0, 0));
+        MockPersistenceManager pm = new MockPersistenceManager(Arrays.asList(bundle));
+        final List<String> messages = new ArrayList<String>();
+        ConsistencyCheckListener listener = new ConsistencyCheckListener() {
+            public void startCheck(String id) {
+            }
+            public void report(ReportItem item) {
+            }
+            public void error(String id, String message) {
+            }
+            public void info(String id, String message) {
+                messages.add(message);
+            }
+        };
+        ConsistencyCheckerImpl checker = new ConsistencyCheckerImpl(pm, listener, null, null);
+        checker.check(null, false);
+
+        assertEquals(1, messages.size());
+        assertTrue(messages.get(0), messages.get(0).startsWith("Checked 1 nodes"));
+    }
+
     private ClusterNode createClusterNode(String id) throws Exception {
         final MemoryJournal journal = new MemoryJournal() {
             protected boolean syncAgainOnNewRecords() {
@@ -438,6 +599,9 @@ public class ConsistencyCheckerImplTest extends TestCase {
             boolean add = after == null;
             for (NodeId nodeId : bundles.keySet()) {
                 if (add) {
+                    if (maxCount > 0 && allNodeIds.size() >= maxCount) {
+                        break;
+                    }
                     allNodeIds.add(nodeId);
                 }
                 if (!add) {
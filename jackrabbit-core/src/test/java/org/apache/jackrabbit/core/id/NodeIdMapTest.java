@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.id;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Test cases for the {@link NodeIdMap} and {@link NodeIdSet} classes.
+ */
+public class NodeIdMapTest extends TestCase {
+
+    public void testPutGetRemove() {
+        NodeIdMap<String> map = new NodeIdMap<String>();
+        NodeId a = NodeId.randomId();
+        NodeId b = NodeId.randomId();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(a));
+        assertNull(map.remove(a));
+
+        assertNull(map.put(a, "a"));
+        assertNull(map.put(b, "b"));
+        assertEquals("a", map.put(a, "A"));
+        assertEquals(2, map.size());
+        assertEquals("A", map.get(new NodeId(a.toString())));
+        assertTrue(map.containsKey(b));
+        assertEquals("[A, b]", new ArrayList<String>(map.values()).toString());
+
+        assertEquals("A", map.remove(a));
+        assertFalse(map.containsKey(a));
+        assertEquals(1, map.size());
+        assertEquals("[b]", new ArrayList<String>(map.values()).toString());
+
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(b));
+    }
+
+    /**
+     * Compares a large number of random operations, including keys with
+     * colliding hash codes, against a {@link LinkedHashMap}.
+     */
+    public void testRandomOperations() {
+        Random random = new Random(1);
+        NodeId[] ids = new NodeId[500];
+        for (int i = 0; i < ids.length; i++) {
+            if (i % 2 == 0) {
+                ids[i] = NodeId.randomId();
+            } else {
+                // same hash code as the previous identifier
+                ids[i] = new NodeId(ids[i - 1].getLeastSignificantBits(),
+                        ids[i - 1].getMostSignificantBits());
+            }
+        }
+
+        NodeIdMap<Integer> map = new NodeIdMap<Integer>();
+        Map<NodeId, Integer> expected = new LinkedHashMap<NodeId, Integer>();
+        for (int i = 0; i < 100000; i++) {
+            NodeId id = ids[random.nextInt(ids.length)];
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(id), map.remove(id));
+            } else {
+                assertEquals(expected.put(id, i), map.put(id, i));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (NodeId id : ids) {
+            assertEquals(expected.get(id), map.get(id));
+        }
+        assertEquals(
+                new ArrayList<Integer>(expected.values()),
+                new ArrayList<Integer>(map.values()));
+
+        NodeIdMap<Integer> copy = new NodeIdMap<Integer>(map);
+        assertEquals(map, copy);
+        assertEquals(map.hashCode(), copy.hashCode());
+        copy.remove(expected.keySet().iterator().next());
+        assertFalse(map.equals(copy));
+        assertEquals(expected.size(), map.size());
+    }
+
+    public void testEmptyMap() {
+        NodeIdMap<String> map = NodeIdMap.emptyMap();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(NodeId.randomId()));
+        try {
+            map.put(NodeId.randomId(), "a");
+            fail("the empty map must not be modifiable");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        assertTrue(map.isEmpty());
+        assertTrue(new NodeIdMap<String>(map).isEmpty());
+    }
+
+    public void testValuesAfter() {
+        NodeIdMap<String> map = new NodeIdMap<String>();
+        NodeId[] ids = new NodeId[5];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = NodeId.randomId();
+            map.put(ids[i], String.valueOf(i));
+        }
+        map.remove(ids[2]);
+        assertEquals("[1, 3]", map.valuesAfter(ids[0], 2).toString());
+        assertEquals("[3, 4]", map.valuesAfter(ids[1], 10).toString());
+        assertEquals("[]", map.valuesAfter(ids[4], 10).toString());
+        assertEquals("[]", map.valuesAfter(ids[2], 10).toString());
+        assertEquals("[]", map.valuesAfter(ids[0], 0).toString());
+    }
+
+    public void testSet() {
+        NodeIdSet set = new NodeIdSet();
+        List<NodeId> ids = new ArrayList<NodeId>();
+        for (int i = 0; i < 100; i++) {
+            NodeId id = NodeId.randomId();
+            ids.add(id);
+            assertTrue(set.add(id));
+            assertFalse(set.add(id));
+        }
+        assertEquals(ids.size(), set.size());
+        for (NodeId id : ids) {
+            assertTrue(set.contains(id));
+            assertTrue(set.contains(
+                    id.getMostSignificantBits(), id.getLeastSignificantBits()));
+        }
+        assertFalse(set.contains(NodeId.randomId()));
+        assertTrue(set.remove(ids.get(0)));
+        assertFalse(set.remove(ids.get(0)));
+        assertFalse(set.contains(ids.get(0)));
+        set.clear();
+        assertTrue(set.isEmpty());
+    }
+
+}
@@ -34,6 +34,7 @@ public class TestAll extends TestCase {
         TestSuite suite = new TestSuite("Identifier tests");
 
         suite.addTestSuite(NodeIdFactoryTest.class);
+        suite.addTestSuite(NodeIdMapTest.class);
         suite.addTestSuite(NodeIdTest.class);
 
         return suite;
@@ -0,0 +1,354 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.journal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.jackrabbit.core.util.db.ConnectionFactory;
+import org.apache.jackrabbit.core.version.VersioningLock;
+import org.apache.jackrabbit.test.JUnitTest;
+
+/**
+ * Test cases for a database journal that locks partitions.
+ */
+public class DatabaseJournalPartitionTest extends JUnitTest {
+
+    /**
+     * Derby database shared by the journals.
+     */
+    private static final String URL = "jdbc:derby:memory:journal-partition-test";
+
+    /**
+     * Number of the database of a test.
+     */
+    private static int databaseNumber;
+
+    /**
+     * Producer and consumer id.
+     */
+    private static final String PRODUCER_ID = "test";
+
+    /**
+     * Maximum time to wait for an append of another thread.
+     */
+    private static final long TIMEOUT = 10000;
+
+    private ConnectionFactory connectionFactory;
+
+    private String url;
+
+    private DatabaseJournal master;
+
+    private DatabaseJournal slave;
+
+    private Consumer masterConsumer;
+
+    private Consumer slaveConsumer;
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void setUp() throws Exception {
+        super.setUp();
+        connectionFactory = new ConnectionFactory();
+        url = URL + (++databaseNumber) + ";create=true";
+        master = createJournal("master");
+        slave = createJournal("slave");
+        masterConsumer = new Consumer();
+        master.register(masterConsumer);
+        slaveConsumer = new Consumer();
+        slave.register(slaveConsumer);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void tearDown() throws Exception {
+        if (slave != null) {
+            slave.close();
+        }
+        if (master != null) {
+            master.close();
+        }
+        if (connectionFactory != null) {
+            connectionFactory.close();
+        }
+        super.tearDown();
+    }
+
+    /**
+     * Verify that an append to a partition does not wait for an append to
+     * another partition, and that the later append consumes the earlier
+     * one before it advances the revision of its consumers.
+     */
+    public void testOtherPartition() throws Exception {
+        long start = masterConsumer.getRevision();
+        Record record = master.getProducer(PRODUCER_ID).append("ws1");
+        record.writeString("master");
+
+        Append append = new Append(slave, "ws2");
+        append.start();
+        append.join(TIMEOUT);
+        assertFalse("Append to other partition blocked", append.isAlive());
+        append.check();
+
+        record.update();
+        assertTrue(record.getRevision() > append.revision);
+        assertEquals(1, masterConsumer.consumed.size());
+        assertEquals(append.revision, masterConsumer.consumed.get(0).longValue());
+        assertEquals(record.getRevision(), masterConsumer.getRevision());
+        assertTrue(masterConsumer.getRevision() > start);
+
+        slave.sync(false);
+        assertEquals(1, slaveConsumer.consumed.size());
+        assertEquals(record.getRevision(), slaveConsumer.getRevision());
+    }
+
+    /**
+     * Verify that an append to a partition waits for another append to the
+     * same partition.
+     */
+    public void testSamePartition() throws Exception {
+        Record record = master.getProducer(PRODUCER_ID).append("ws1");
+        record.writeString("master");
+
+        Append append = new Append(slave, "ws1");
+        append.start();
+        append.join(500);
+        assertTrue("Append to same partition not blocked", append.isAlive());
+
+        record.update();
+        append.join(TIMEOUT);
+        assertFalse(append.isAlive());
+        append.check();
+        assertTrue(append.revision > record.getRevision());
+        assertEquals(1, slaveConsumer.consumed.size());
+        assertEquals(record.getRevision(), slaveConsumer.consumed.get(0).longValue());
+    }
+
+    /**
+     * Verify that cancelling an append releases the partition.
+     */
+    public void testCancel() throws Exception {
+        Record record = master.getProducer(PRODUCER_ID).append("ws1");
+        record.cancelUpdate();
+
+        Append append = new Append(slave, "ws1");
+        append.start();
+        append.join(TIMEOUT);
+        assertFalse(append.isAlive());
+        append.check();
+        assertEquals(append.revision, slaveConsumer.getRevision());
+    }
+
+    /**
+     * Verify that initializing another journal does not change the global
+     * revision.
+     */
+    public void testInitKeepsRevision() throws Exception {
+        Record record = master.getProducer(PRODUCER_ID).append("ws1");
+        record.writeString("first");
+        record.update();
+
+        createJournal("other").close();
+
+        Record next = master.getProducer(PRODUCER_ID).append("ws1");
+        next.writeString("second");
+        next.update();
+        assertEquals(record.getRevision() + 1, next.getRevision());
+    }
+
+    /**
+     * Verify that a save that consumes a version record on append does not
+     * deadlock with a checkin that holds the versioning write lock and
+     * waits for the journal lock (JCR-2753).
+     */
+    public void testConcurrentVersioning() throws Exception {
+        final VersioningLock versioningLock = new VersioningLock();
+        final DatabaseJournal journal = new DatabaseJournal() {
+            @Override
+            protected VersioningLock.ReadLock acquireVersioningReadLock() {
+                try {
+                    return versioningLock.acquireReadLock();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        configure(journal, "versioning");
+        final Consumer consumer = new Consumer() {
+            @Override
+            public void consume(Record record) {
+                // like the internal version manager on external updates
+                try {
+                    VersioningLock.ReadLock lock = versioningLock.acquireReadLock();
+                    try {
+                        super.consume(record);
+                    } finally {
+                        lock.release();
+                    }
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        journal.register(consumer);
+
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch appended = new CountDownLatch(1);
+        final Exception[] exceptions = new Exception[2];
+        Thread save = new Thread() {
+            public void run() {
+                try {
+                    Record record = journal.getProducer(PRODUCER_ID).append("ws1");
+                    locked.countDown();
+                    appended.await();
+                    record.writeString("save");
+                    record.update();
+                } catch (Exception e) {
+                    exceptions[0] = e;
+                }
+            }
+        };
+        Thread checkin = new Thread() {
+            public void run() {
+                try {
+                    VersioningLock.WriteLock lock = versioningLock.acquireWriteLock();
+                    try {
+                        Record record = journal.getProducer(PRODUCER_ID).append(null);
+                        record.writeString("checkin");
+                        record.update();
+                    } finally {
+                        lock.release();
+                    }
+                } catch (Exception e) {
+                    exceptions[1] = e;
+                }
+            }
+        };
+        save.setDaemon(true);
+        checkin.setDaemon(true);
+        try {
+            save.start();
+            locked.await();
+
+            // record of another node to be consumed on append
+            Append append = new Append(slave, "ws2");
+            append.start();
+            append.join(TIMEOUT);
+            assertFalse(append.isAlive());
+            append.check();
+
+            checkin.start();
+            checkin.join(500);
+            appended.countDown();
+
+            save.join(TIMEOUT);
+            assertFalse("Save deadlocked", save.isAlive());
+            checkin.join(TIMEOUT);
+            assertFalse("Checkin deadlocked", checkin.isAlive());
+            for (Exception e : exceptions) {
+                if (e != null) {
+                    throw e;
+                }
+            }
+            assertEquals(1, consumer.consumed.size());
+            assertEquals(append.revision, consumer.consumed.get(0).longValue());
+        } finally {
+            journal.close();
+        }
+    }
+
+    private DatabaseJournal createJournal(String id) throws Exception {
+        DatabaseJournal journal = new DatabaseJournal();
+        configure(journal, id);
+        return journal;
+    }
+
+    private void configure(DatabaseJournal journal, String id) throws Exception {
+        journal.setConnectionFactory(connectionFactory);
+        journal.setDriver("org.apache.derby.jdbc.EmbeddedDriver");
+        journal.setUrl(url);
+        journal.setDatabaseType("derby");
+        journal.setPartitions(4);
+        journal.init(id, null);
+    }
+
+    /**
+     * Appends a record in a separate thread.
+     */
+    private static class Append extends Thread {
+
+        private final DatabaseJournal journal;
+
+        private final String partition;
+
+        private long revision;
+
+        private Exception exception;
+
+        public Append(DatabaseJournal journal, String partition) {
+            this.journal = journal;
+            this.partition = partition;
+        }
+
+        public void run() {
+            try {
+                Record record = journal.getProducer(PRODUCER_ID).append(partition);
+                record.writeString(partition);
+                record.update();
+                revision = record.getRevision();
+            } catch (Exception e) {
+                exception = e;
+            }
+        }
+
+        public void check() throws Exception {
+            if (exception != null) {
+                throw exception;
+            }
+        }
+    }
+
+    /**
+     * Records the revisions it consumes.
+     */
+    private static class Consumer implements RecordConsumer {
+
+        private final List<Long> consumed = new ArrayList<Long>();
+
+        private long revision;
+
+        public String getId() {
+            return PRODUCER_ID;
+        }
+
+        public synchronized long getRevision() {
+            return revision;
+        }
+
+        public synchronized void consume(Record record) {
+            consumed.add(record.getRevision());
+        }
+
+        public synchronized void setRevision(long revision) {
+            this.revision = revision;
+        }
+    }
+}
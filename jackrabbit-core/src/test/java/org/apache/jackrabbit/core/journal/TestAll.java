@@ -39,6 +39,7 @@ public class TestAll extends TestCase {
 
         suite.addTestSuite(FileJournalTest.class);
         suite.addTestSuite(LockableFileRevisionTest.class);
+        suite.addTestSuite(DatabaseJournalPartitionTest.class);
 
         return suite;
     }
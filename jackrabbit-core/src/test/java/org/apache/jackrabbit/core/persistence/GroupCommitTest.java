@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.persistence;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.jcr.Node;
+import javax.jcr.Session;
+
+import org.apache.jackrabbit.core.TestHelper;
+import org.apache.jackrabbit.core.persistence.pool.BundleDbPersistenceManager;
+import org.apache.jackrabbit.test.AbstractJCRTest;
+
+/**
+ * <code>GroupCommitTest</code> saves disjoint changes from concurrent
+ * sessions in the group-commit-test workspace, which groups the change logs
+ * that are stored at the same time, and checks that change logs were
+ * written together and that all of them are persisted.
+ */
+public class GroupCommitTest extends AbstractJCRTest {
+
+    private static final String WORKSPACE_NAME = "group-commit-test";
+
+    private static final int THREADS = 8;
+
+    private static final int SAVES = 5;
+
+    private Session session;
+
+    private Node testRoot;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        session = getHelper().getSuperuserSession(WORKSPACE_NAME);
+        testRoot = cleanUpTestRoot(session);
+    }
+
+    protected void tearDown() throws Exception {
+        if (session != null) {
+            cleanUpTestRoot(session);
+            session.logout();
+            session = null;
+        }
+        testRoot = null;
+        super.tearDown();
+    }
+
+    public void testConcurrentSaves() throws Exception {
+        for (int i = 0; i < THREADS; i++) {
+            testRoot.addNode("node" + i);
+        }
+        session.save();
+
+        BundleDbPersistenceManager pm = (BundleDbPersistenceManager)
+                TestHelper.getPersistenceManager(session);
+        long commits = pm.getGroupCommitCount();
+        long grouped = pm.getGroupedChangeLogCount();
+
+        final List<Exception> exceptions =
+            Collections.synchronizedList(new ArrayList<Exception>());
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < threads.length; i++) {
+            final String path = testRoot.getPath() + "/node" + i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        Session s = getHelper().getSuperuserSession(
+                                WORKSPACE_NAME);
+                        try {
+                            Node parent = (Node) s.getItem(path);
+                            for (int j = 0; j < SAVES; j++) {
+                                Node child = parent.addNode("child" + j);
+                                s.save();
+                                child.setProperty(propertyName1, j);
+                                s.save();
+                            }
+                        } finally {
+                            s.logout();
+                        }
+                    } catch (Exception e) {
+                        exceptions.add(e);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(Collections.<Exception>emptyList(), exceptions);
+
+        // the concurrent saves shared transactions
+        commits = pm.getGroupCommitCount() - commits;
+        grouped = pm.getGroupedChangeLogCount() - grouped;
+        assertTrue(commits > 0);
+        assertTrue(grouped > commits);
+
+        Session s = getHelper().getSuperuserSession(WORKSPACE_NAME);
+        try {
+            for (int i = 0; i < THREADS; i++) {
+                Node parent = (Node) s.getItem(
+                        testRoot.getPath() + "/node" + i);
+                assertEquals(SAVES, parent.getNodes().getSize());
+                for (int j = 0; j < SAVES; j++) {
+                    assertEquals(j, parent.getNode("child" + j)
+                            .getProperty(propertyName1).getLong());
+                }
+            }
+        } finally {
+            s.logout();
+        }
+    }
+}
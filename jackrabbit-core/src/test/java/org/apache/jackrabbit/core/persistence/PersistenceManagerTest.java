@@ -17,7 +17,10 @@
 package org.apache.jackrabbit.core.persistence;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import javax.jcr.PropertyType;
 
@@ -29,12 +32,17 @@ import org.apache.jackrabbit.core.RepositoryImpl;
 import org.apache.jackrabbit.core.fs.mem.MemoryFileSystem;
 import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.id.PropertyId;
+import org.apache.jackrabbit.core.persistence.bundle.AbstractBundlePersistenceManager;
+import org.apache.jackrabbit.core.persistence.bundle.SegmentBundlePersistenceManager;
 import org.apache.jackrabbit.core.persistence.mem.InMemBundlePersistenceManager;
 import org.apache.jackrabbit.core.persistence.mem.InMemPersistenceManager;
 import org.apache.jackrabbit.core.persistence.obj.ObjectPersistenceManager;
+import org.apache.jackrabbit.core.persistence.util.NodePropBundle;
+import org.apache.jackrabbit.core.persistence.util.SegmentStore;
 import org.apache.jackrabbit.core.persistence.xml.XMLPersistenceManager;
 import org.apache.jackrabbit.core.state.ChangeLog;
 import org.apache.jackrabbit.core.state.ItemState;
+import org.apache.jackrabbit.core.state.ItemStateException;
 import org.apache.jackrabbit.core.state.NoSuchItemStateException;
 import org.apache.jackrabbit.core.state.NodeReferences;
 import org.apache.jackrabbit.core.state.NodeState;
@@ -83,6 +91,78 @@ public class PersistenceManagerTest extends TestCase {
         assertPersistenceManager(new InMemBundlePersistenceManager());
     }
 
+    /**
+     * Checks that another persistence manager installs the bundles attached
+     * to a stored change log into its bundle cache instead of loading them,
+     * and that bundles above the configured size are only evicted. The two
+     * managers do not share their storage, so the bundles that are loaded
+     * again still reflect the original node.
+     */
+    public void testInMemBundlePersistenceManagerWithJournalBundles()
+            throws Exception {
+        assertJournalBundles(1024, true);
+        assertJournalBundles(1, false);
+    }
+
+    public void testSegmentBundlePersistenceManager() throws Exception {
+        SegmentBundlePersistenceManager manager =
+            new SegmentBundlePersistenceManager();
+        manager.setSegmentSize("1");
+        manager.setCompactionInterval("0");
+        assertPersistenceManager(manager);
+    }
+
+    /**
+     * Checks that the bundles of a change log that could not be committed
+     * are not served from the bundle cache.
+     */
+    public void testSegmentBundlePersistenceManagerFailedCommit()
+            throws Exception {
+        final boolean[] failCommit = new boolean[1];
+        SegmentBundlePersistenceManager manager =
+            new SegmentBundlePersistenceManager() {
+                @Override
+                protected SegmentStore createSegmentStore(File directory) {
+                    return new SegmentStore(directory, 1024 * 1024, false) {
+                        @Override
+                        public synchronized void commit() throws IOException {
+                            if (failCommit[0]) {
+                                throw new IOException("commit failed");
+                            }
+                            super.commit();
+                        }
+                    };
+                }
+            };
+        manager.setCompactionInterval("0");
+        init(manager);
+        try {
+            NodeState node = new NodeState(
+                    NODE_ID, TEST, RepositoryImpl.ROOT_NODE_ID,
+                    ItemState.STATUS_NEW, true);
+            node.addPropertyName(NameConstants.JCR_PRIMARYTYPE);
+            ChangeLog create = new ChangeLog();
+            create.added(node);
+            manager.store(create);
+
+            node.setStatus(ItemState.STATUS_EXISTING);
+            node.addPropertyName(TEST);
+            ChangeLog update = new ChangeLog();
+            update.modified(node);
+            failCommit[0] = true;
+            try {
+                manager.store(update);
+                fail("commit did not fail");
+            } catch (ItemStateException e) {
+                // expected
+            }
+            failCommit[0] = false;
+            assertFalse(manager.load(NODE_ID).hasPropertyName(TEST));
+        } finally {
+            manager.close();
+        }
+    }
+
     public void testXMLPersistenceManager() throws Exception {
         assertPersistenceManager(new XMLPersistenceManager());
     }
@@ -118,6 +198,41 @@ public class PersistenceManagerTest extends TestCase {
         assertPersistenceManager(manager);
     }
 
+    public void testH2PoolPersistenceManagerWithOffHeapBundleCache()
+            throws Exception {
+        org.apache.jackrabbit.core.persistence.pool.H2PersistenceManager manager =
+            new org.apache.jackrabbit.core.persistence.pool.H2PersistenceManager();
+        manager.setDriver("org.h2.Driver");
+        manager.setUrl("jdbc:h2:mem:" + database.getPath());
+        manager.setConnectionFactory(new ConnectionFactory());
+        // force all bundle reads through the off-heap cache
+        manager.setBundleCacheSize("0");
+        manager.setOffHeapBundleCacheSize("1");
+        assertPersistenceManager(manager);
+    }
+
+    public void testH2PoolPersistenceManagerWithCompressedBundles()
+            throws Exception {
+        org.apache.jackrabbit.core.persistence.pool.H2PersistenceManager manager =
+            new org.apache.jackrabbit.core.persistence.pool.H2PersistenceManager();
+        manager.setDriver("org.h2.Driver");
+        manager.setUrl("jdbc:h2:mem:" + database.getPath());
+        manager.setConnectionFactory(new ConnectionFactory());
+        manager.setCompressBundles("true");
+        assertPersistenceManager(manager);
+    }
+
+    public void testH2PoolPersistenceManagerWithClockBundleCache()
+            throws Exception {
+        org.apache.jackrabbit.core.persistence.pool.H2PersistenceManager manager =
+            new org.apache.jackrabbit.core.persistence.pool.H2PersistenceManager();
+        manager.setDriver("org.h2.Driver");
+        manager.setUrl("jdbc:h2:mem:" + database.getPath());
+        manager.setConnectionFactory(new ConnectionFactory());
+        manager.setBundleCacheType("clock");
+        assertPersistenceManager(manager);
+    }
+
     private void assertPersistenceManager(PersistenceManager manager)
             throws Exception {
         manager.init(new PMContext(
@@ -133,11 +248,70 @@ public class PersistenceManagerTest extends TestCase {
             assertCreateNewProperty(manager);
             assertMissingItemStates(manager);
             assertCreateUpdateDelete(manager);
+            if (manager instanceof PrefetchingPersistenceManager) {
+                assertPrefetch((PrefetchingPersistenceManager) manager);
+            }
+            if (manager instanceof AbstractBundlePersistenceManager) {
+                assertAllBundles((AbstractBundlePersistenceManager) manager);
+            }
         } finally {
             manager.close();
         }
     }
 
+    private void assertJournalBundles(int maxSize, boolean installed)
+            throws Exception {
+        InMemBundlePersistenceManager writer = new InMemBundlePersistenceManager();
+        writer.setPersistent(false);
+        writer.setMaxJournalBundleSize(String.valueOf(maxSize));
+        InMemBundlePersistenceManager reader = new InMemBundlePersistenceManager();
+        reader.setPersistent(false);
+        init(writer);
+        init(reader);
+        try {
+            NodeState node = new NodeState(
+                    NODE_ID, TEST, RepositoryImpl.ROOT_NODE_ID,
+                    ItemState.STATUS_NEW, true);
+            node.addPropertyName(NameConstants.JCR_PRIMARYTYPE);
+            PropertyState property =
+                new PropertyState(PROPERTY_ID, ItemState.STATUS_NEW, true);
+            property.setType(PropertyType.STRING);
+            property.setValues(
+                    new InternalValue[] { InternalValue.create("test") });
+            ChangeLog create = new ChangeLog();
+            create.added(node);
+            writer.store(create);
+            reader.store(create);
+            assertEquals(node, reader.load(NODE_ID));
+
+            node.setStatus(ItemState.STATUS_EXISTING);
+            node.addPropertyName(TEST);
+            ChangeLog update = new ChangeLog();
+            update.modified(node);
+            update.added(property);
+            writer.store(update);
+            assertEquals(installed, update.getBundles().containsKey(NODE_ID));
+
+            reader.onExternalUpdate(update);
+            assertEquals(installed, reader.load(NODE_ID).hasPropertyName(TEST));
+            assertEquals(installed, reader.exists(PROPERTY_ID));
+        } finally {
+            reader.close();
+            writer.close();
+        }
+    }
+
+    private void init(PersistenceManager manager) throws Exception {
+        manager.init(new PMContext(
+                directory,
+                new MemoryFileSystem(),
+                RepositoryImpl.ROOT_NODE_ID,
+                new NamespaceRegistryImpl(new MemoryFileSystem()),
+                null,
+                null,
+                new RepositoryStatisticsImpl()));
+    }
+
     private void assertCreateNewNode(PersistenceManager manager) {
         NodeState state = manager.createNew(NODE_ID);
         assertNotNull(state);
@@ -258,6 +432,57 @@ public class PersistenceManagerTest extends TestCase {
         assertFalse(manager.existsReferencesTo(CHILD_ID));
     }
 
+    private void assertPrefetch(PrefetchingPersistenceManager manager)
+            throws Exception {
+        NodeState node = new NodeState(
+                NODE_ID, TEST, RepositoryImpl.ROOT_NODE_ID,
+                ItemState.STATUS_NEW, true);
+        node.addPropertyName(NameConstants.JCR_PRIMARYTYPE);
+        ChangeLog create = new ChangeLog();
+        create.added(node);
+
+        List<NodeState> children = new ArrayList<NodeState>();
+        List<NodeId> ids = new ArrayList<NodeId>();
+        for (int i = 0; i < 150; i++) {
+            NodeState child = new NodeState(
+                    NodeId.randomId(), TEST, NODE_ID, ItemState.STATUS_NEW, true);
+            child.addPropertyName(NameConstants.JCR_PRIMARYTYPE);
+            node.addChildNodeEntry(TEST, child.getNodeId());
+            create.added(child);
+            children.add(child);
+            ids.add(child.getNodeId());
+        }
+        manager.store(create);
+
+        // a missing node must be ignored
+        ids.add(NodeId.randomId());
+        manager.prefetch(ids);
+
+        for (NodeState child : children) {
+            assertEquals(child, manager.load(child.getNodeId()));
+        }
+        assertFalse(manager.exists(ids.get(ids.size() - 1)));
+    }
+
+    private void assertAllBundles(AbstractBundlePersistenceManager manager)
+            throws Exception {
+        List<NodeId> ids = manager.getAllNodeIds(null, 0);
+        assertFalse(ids.isEmpty());
+        List<NodeId> scanned = new ArrayList<NodeId>();
+        NodeId after = null;
+        List<NodePropBundle> bundles;
+        while (!(bundles = manager.getAllBundles(after, 50)).isEmpty()) {
+            assertTrue(bundles.size() <= 50);
+            for (NodePropBundle bundle : bundles) {
+                assertEquals(manager.load(bundle.getId()),
+                        bundle.createNodeState(manager));
+                scanned.add(bundle.getId());
+                after = bundle.getId();
+            }
+        }
+        assertEquals(ids, scanned);
+    }
+
     private void assertEquals(NodeState expected, NodeState actual) {
         assertEquals(expected.getId(), actual.getId());
         assertEquals(expected.getNodeId(), actual.getNodeId());
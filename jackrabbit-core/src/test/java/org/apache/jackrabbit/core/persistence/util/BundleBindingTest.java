@@ -315,6 +315,67 @@ public class BundleBindingTest extends TestCase {
         assertBundleRoundtrip(bundle);
     }
 
+    /**
+     * Tests that large bundles are compressed when enabled and that both
+     * compressed and uncompressed bundles can be read in either mode.
+     */
+    public void testCompressedBundle() throws Exception {
+        NodePropBundle bundle = new NodePropBundle(NodeId.randomId());
+        bundle.setParentId(NodeId.randomId());
+        bundle.setNodeTypeName(NameConstants.NT_UNSTRUCTURED);
+        bundle.setMixinTypeNames(Collections.<Name>emptySet());
+        bundle.setSharedSet(Collections.<NodeId>emptySet());
+
+        InternalValue[] values = new InternalValue[100];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = InternalValue.create("some repeated value " + i);
+        }
+        PropertyEntry property = new PropertyEntry(
+                new PropertyId(bundle.getId(), factory.create("", "test")));
+        property.setType(PropertyType.STRING);
+        property.setMultiValued(true);
+        property.setValues(values);
+        bundle.addProperty(property);
+        for (int i = 0; i < 100; i++) {
+            bundle.addChildNodeEntry(
+                    factory.create("", "child" + i), new NodeId(0, i));
+        }
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        binding.writeBundle(buffer, bundle);
+        byte[] plain = buffer.toByteArray();
+        long size = bundle.getSize();
+        assertEquals(BundleBinding.VERSION_CURRENT, plain[0]);
+
+        binding.setCompressBundles(true);
+        buffer = new ByteArrayOutputStream();
+        binding.writeBundle(buffer, bundle);
+        byte[] compressed = buffer.toByteArray();
+        assertEquals(BundleBinding.VERSION_4, compressed[0]);
+        assertTrue(compressed.length < plain.length / 2);
+        // the size estimate is based on the uncompressed bundle
+        assertEquals(size, bundle.getSize());
+
+        NodePropBundle result = binding.readBundle(
+                new ByteArrayInputStream(compressed), bundle.getId());
+        assertEquals(bundle, result);
+        assertEquals(size, result.getSize());
+        assertBundleSerialization(bundle, plain);
+
+        binding.setCompressBundles(false);
+        assertBundleSerialization(bundle, compressed);
+
+        // small bundles are not compressed
+        binding.setCompressBundles(true);
+        NodePropBundle empty = new NodePropBundle(NodeId.randomId());
+        empty.setNodeTypeName(NameConstants.NT_UNSTRUCTURED);
+        empty.setMixinTypeNames(Collections.<Name>emptySet());
+        empty.setSharedSet(Collections.<NodeId>emptySet());
+        buffer = new ByteArrayOutputStream();
+        binding.writeBundle(buffer, empty);
+        assertEquals(BundleBinding.VERSION_CURRENT, buffer.toByteArray()[0]);
+    }
+
     public void testBooleanSerialization() throws Exception {
         assertValueSerialization(InternalValue.create(true));
         assertValueSerialization(InternalValue.create(false));
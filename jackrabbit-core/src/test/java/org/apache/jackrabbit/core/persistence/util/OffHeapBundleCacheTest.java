@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.persistence.util;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+
+import org.apache.jackrabbit.core.id.NodeId;
+
+/**
+ * Test cases for the {@link OffHeapBundleCache} class.
+ */
+public class OffHeapBundleCacheTest extends TestCase {
+
+    public void testPutGetRemove() {
+        OffHeapBundleCache cache = new OffHeapBundleCache("test", 16 * 1024);
+        NodeId id = NodeId.randomId();
+        byte[] data = new byte[] { 1, 2, 3, 4, 5 };
+
+        assertNull(cache.get(id));
+        cache.put(id, data);
+        assertTrue(Arrays.equals(data, cache.get(id)));
+        assertEquals(1, cache.getElementCount());
+        assertTrue(cache.getMemoryUsed() > data.length);
+
+        byte[] other = new byte[] { 6, 7 };
+        cache.put(id, other);
+        assertTrue(Arrays.equals(other, cache.get(id)));
+        assertEquals(1, cache.getElementCount());
+
+        cache.remove(id);
+        assertNull(cache.get(id));
+        assertEquals(0, cache.getElementCount());
+        assertEquals(0, cache.getMemoryUsed());
+    }
+
+    /**
+     * Adds many more bundles than fit into the cache and checks that old
+     * entries are evicted while the most recent ones are still readable.
+     */
+    public void testEviction() {
+        OffHeapBundleCache cache = new OffHeapBundleCache("test", 16 * 1024);
+        NodeId[] ids = new NodeId[2000];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = NodeId.randomId();
+            cache.put(ids[i], createData(i));
+            assertTrue(cache.getMemoryUsed() <= cache.getMaxMemorySize());
+        }
+
+        int n = 0;
+        for (int i = 0; i < ids.length; i++) {
+            byte[] data = cache.get(ids[i]);
+            if (data != null) {
+                assertTrue(Arrays.equals(createData(i), data));
+                n++;
+            }
+        }
+        assertTrue(n > 0);
+        assertTrue(n < ids.length);
+        assertEquals(n, cache.getElementCount());
+        assertTrue(Arrays.equals(
+                createData(ids.length - 1), cache.get(ids[ids.length - 1])));
+
+        cache.clear();
+        assertEquals(0, cache.getElementCount());
+        assertEquals(0, cache.getMemoryUsed());
+        assertNull(cache.get(ids[ids.length - 1]));
+    }
+
+    public void testTooLarge() {
+        OffHeapBundleCache cache = new OffHeapBundleCache("test", 16 * 1024);
+        NodeId id = NodeId.randomId();
+        cache.put(id, new byte[2048]);
+        assertNull(cache.get(id));
+        assertEquals(0, cache.getMemoryUsed());
+    }
+
+    /**
+     * Checks that a smaller size evicts bundles and that the cache does not
+     * grow beyond the memory allocated when it was created.
+     */
+    public void testSetMaxMemorySize() {
+        OffHeapBundleCache cache = new OffHeapBundleCache("test", 16 * 1024);
+        NodeId[] ids = new NodeId[200];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = NodeId.randomId();
+            cache.put(ids[i], createData(i));
+        }
+        long count = cache.getElementCount();
+
+        cache.setMaxMemorySize(4 * 1024);
+        assertEquals(4 * 1024, cache.getMaxMemorySize());
+        assertTrue(cache.getMemoryUsed() <= cache.getMaxMemorySize());
+        assertTrue(cache.getElementCount() < count);
+        for (int i = 0; i < ids.length; i++) {
+            cache.put(ids[i], createData(i));
+            assertTrue(cache.getMemoryUsed() <= cache.getMaxMemorySize());
+        }
+
+        cache.setMaxMemorySize(64 * 1024);
+        assertEquals(16 * 1024, cache.getMaxMemorySize());
+        for (int i = 0; i < ids.length; i++) {
+            cache.put(ids[i], createData(i));
+        }
+        assertEquals(count, cache.getElementCount());
+    }
+
+    /**
+     * Checks that the size counter follows every change of the memory use,
+     * including evictions, removals and resizing.
+     */
+    public void testSizeCounter() {
+        OffHeapBundleCache cache = new OffHeapBundleCache("test", 16 * 1024);
+        AtomicLong counter = new AtomicLong();
+        NodeId id = NodeId.randomId();
+        cache.put(id, createData(0));
+        cache.setSizeCounter(counter);
+        assertEquals(cache.getMemoryUsed(), counter.get());
+
+        NodeId[] ids = new NodeId[2000];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = NodeId.randomId();
+            cache.put(ids[i], createData(i));
+            assertEquals(cache.getMemoryUsed(), counter.get());
+        }
+        cache.remove(ids[ids.length - 1]);
+        assertEquals(cache.getMemoryUsed(), counter.get());
+        cache.setMaxMemorySize(4 * 1024);
+        assertEquals(cache.getMemoryUsed(), counter.get());
+        cache.clear();
+        assertEquals(0, counter.get());
+    }
+
+    private static byte[] createData(int i) {
+        byte[] data = new byte[i % 50 + 1];
+        Arrays.fill(data, (byte) i);
+        return data;
+    }
+
+}
@@ -0,0 +1,214 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.persistence.util;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.core.id.NodeId;
+
+/**
+ * Test cases for the {@link SegmentStore} class.
+ */
+public class SegmentStoreTest extends TestCase {
+
+    private File directory;
+
+    protected void setUp() throws Exception {
+        directory = File.createTempFile("jackrabbit-segments-", "-test");
+        directory.delete();
+    }
+
+    protected void tearDown() throws Exception {
+        FileUtils.deleteQuietly(directory);
+    }
+
+    public void testPutGetRemove() throws Exception {
+        SegmentStore store = new SegmentStore(directory, 4096, false);
+        store.open();
+        NodeId id = NodeId.randomId();
+        byte[] data = new byte[] { 1, 2, 3 };
+
+        assertNull(store.get(id));
+        store.put(id, data);
+        store.commit();
+        assertTrue(Arrays.equals(data, store.get(id)));
+        assertTrue(store.containsKey(id));
+
+        byte[] other = new byte[] { 4, 5 };
+        store.put(id, other);
+        store.commit();
+        assertTrue(Arrays.equals(other, store.get(id)));
+        assertEquals(1, store.size());
+
+        store.remove(id);
+        store.commit();
+        assertNull(store.get(id));
+        assertEquals(0, store.size());
+        store.close();
+    }
+
+    public void testRollback() throws Exception {
+        SegmentStore store = new SegmentStore(directory, 4096, false);
+        store.open();
+        NodeId a = NodeId.randomId();
+        NodeId b = NodeId.randomId();
+        store.put(a, new byte[] { 1 });
+        store.commit();
+
+        store.put(a, new byte[] { 2 });
+        store.put(b, new byte[] { 3 });
+        store.remove(a);
+        store.rollback();
+        assertTrue(Arrays.equals(new byte[] { 1 }, store.get(a)));
+        assertNull(store.get(b));
+        store.close();
+
+        store = new SegmentStore(directory, 4096, false);
+        store.open();
+        assertTrue(Arrays.equals(new byte[] { 1 }, store.get(a)));
+        assertNull(store.get(b));
+        store.close();
+    }
+
+    /**
+     * Reopens a store with uncommitted changes and a partially written
+     * record at the end, and checks that only committed changes survive
+     * and that new changes can be appended.
+     */
+    public void testRecovery() throws Exception {
+        SegmentStore store = new SegmentStore(directory, 4096, false);
+        store.open();
+        NodeId a = NodeId.randomId();
+        NodeId b = NodeId.randomId();
+        store.put(a, new byte[] { 1, 2, 3 });
+        store.commit();
+        // simulate a crash: the store is not closed
+        store.put(b, new byte[] { 4, 5, 6 });
+
+        // corrupt the last record
+        File segment = directory.listFiles()[0];
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        try {
+            byte[] content = new byte[(int) file.length()];
+            file.readFully(content);
+            int end = content.length - 1;
+            while (content[end] == 0) {
+                end--;
+            }
+            file.seek(end);
+            file.write(content[end] + 1);
+        } finally {
+            file.close();
+        }
+
+        store = new SegmentStore(directory, 4096, false);
+        store.open();
+        assertTrue(Arrays.equals(new byte[] { 1, 2, 3 }, store.get(a)));
+        assertNull(store.get(b));
+        assertEquals(1, store.size());
+
+        store.put(b, new byte[] { 7 });
+        store.commit();
+        store.close();
+
+        store = new SegmentStore(directory, 4096, false);
+        store.open();
+        assertTrue(Arrays.equals(new byte[] { 7 }, store.get(b)));
+        assertEquals(2, store.size());
+        store.close();
+    }
+
+    /**
+     * Writes, overwrites and deletes many bundles in small segments,
+     * compacts the segments and checks that the content is unchanged, also
+     * after reopening the store.
+     */
+    public void testCompaction() throws Exception {
+        SegmentStore store = new SegmentStore(directory, 1024, false);
+        store.open();
+        Random random = new Random(1);
+        NodeId[] ids = new NodeId[100];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = NodeId.randomId();
+        }
+        Map<NodeId, byte[]> expected = new HashMap<NodeId, byte[]>();
+        for (int i = 0; i < 2000; i++) {
+            NodeId id = ids[random.nextInt(ids.length)];
+            if (random.nextInt(4) == 0) {
+                store.remove(id);
+                expected.remove(id);
+            } else {
+                byte[] data = new byte[random.nextInt(100)];
+                random.nextBytes(data);
+                store.put(id, data);
+                expected.put(id, data);
+            }
+            if (random.nextInt(5) == 0) {
+                store.commit();
+            }
+        }
+        store.commit();
+
+        int segments = store.getSegmentCount();
+        assertTrue(store.compact(0.5) > 0);
+        assertTrue(store.getSegmentCount() < segments);
+        assertContent(expected, ids, store);
+        store.close();
+
+        store = new SegmentStore(directory, 1024, false);
+        store.open();
+        assertEquals(store.getSegmentCount(), directory.listFiles().length);
+        assertContent(expected, ids, store);
+        assertEquals(expected.size(), store.getIds(null, 0).size());
+        store.close();
+    }
+
+    public void testGetIds() throws Exception {
+        SegmentStore store = new SegmentStore(directory, 4096, false);
+        store.open();
+        NodeId[] ids = new NodeId[10];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = new NodeId(0, i);
+            store.put(ids[i], new byte[] { (byte) i });
+        }
+        store.commit();
+        assertEquals(Arrays.asList(ids).subList(0, 4), store.getIds(null, 4));
+        assertEquals(Arrays.asList(ids).subList(4, 10), store.getIds(ids[3], 0));
+        store.close();
+    }
+
+    private void assertContent(
+            Map<NodeId, byte[]> expected, NodeId[] ids, SegmentStore store) {
+        for (NodeId id : ids) {
+            byte[] data = expected.get(id);
+            if (data == null) {
+                assertNull(store.get(id));
+            } else {
+                assertTrue(Arrays.equals(data, store.get(id)));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.jcr.Node;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryResult;
+import javax.jcr.query.Row;
+import javax.jcr.query.RowIterator;
+
+/**
+ * Test case for the planning of JOIN queries with JCR_SQL2.
+ */
+public class JoinPlanTest extends AbstractQueryTest {
+
+    public void testSwapSides() throws Exception {
+        Node parent = testRootNode.addNode("folders", "nt:folder");
+        Set<String> expected = new HashSet<String>();
+        for (int i = 0; i < 3; i++) {
+            Node folder = parent.addNode("f" + i, "nt:folder");
+            for (int j = 0; j < 2; j++) {
+                Node file = folder.addNode("c" + j, "nt:file");
+                file.addNode("jcr:content", "nt:unstructured");
+                expected.add(file.getPath());
+            }
+        }
+        testRootNode.getSession().save();
+
+        String stmt = "SELECT * FROM [nt:hierarchyNode] AS child"
+                + " INNER JOIN [nt:folder] AS folder"
+                + " ON ISCHILDNODE(child, folder)"
+                + " WHERE ISDESCENDANTNODE(folder, [" + parent.getPath() + "])"
+                + " AND LOCALNAME(child) LIKE 'c%'";
+        Query q = qm.createQuery(stmt, Query.JCR_SQL2);
+        String plan = ((QueryObjectModelImpl) q).explain();
+        assertTrue(plan, plan.startsWith("INNER JOIN"));
+        assertTrue(plan, plan.contains("sides swapped"));
+        assertTrue(plan, plan.contains("index nested loop"));
+
+        QueryResult result = q.execute();
+        assertEquals(Arrays.asList("child", "folder"),
+                Arrays.asList(result.getSelectorNames()));
+        Set<String> paths = new HashSet<String>();
+        for (RowIterator rows = result.getRows(); rows.hasNext();) {
+            Row row = rows.nextRow();
+            assertEquals(row.getNode("folder").getPath(),
+                    row.getNode("child").getParent().getPath());
+            paths.add(row.getNode("child").getPath());
+        }
+        assertEquals(expected, paths);
+    }
+
+    public void testHashJoin() throws Exception {
+        int count = 600;
+        Node parent = testRootNode.addNode("hash");
+        for (int i = 0; i < count; i++) {
+            Node n = parent.addNode("n" + i);
+            n.setProperty("kind", "hash");
+            n.setProperty("ref", "v" + i);
+            n.setProperty("val", "v" + ((i + 1) % count));
+        }
+        testRootNode.getSession().save();
+
+        String stmt = "SELECT * FROM [nt:unstructured] AS a"
+                + " INNER JOIN [nt:unstructured] AS b ON a.ref = b.val"
+                + " WHERE a.kind = 'hash' AND b.kind = 'hash'";
+        Query q = qm.createQuery(stmt, Query.JCR_SQL2);
+        String plan = ((QueryObjectModelImpl) q).explain();
+        assertTrue(plan, plan.contains("hash join"));
+        assertTrue(plan, plan.contains("~" + count + " rows"));
+
+        int rows = 0;
+        for (RowIterator it = q.execute().getRows(); it.hasNext();) {
+            Row row = it.nextRow();
+            assertEquals(row.getNode("a").getProperty("ref").getString(),
+                    row.getNode("b").getProperty("val").getString());
+            rows++;
+        }
+        assertEquals(count, rows);
+    }
+
+    public void testOuterJoinNotEstimated() throws Exception {
+        String stmt = "SELECT * FROM [nt:folder] AS folder"
+                + " LEFT OUTER JOIN [nt:file] AS file"
+                + " ON ISCHILDNODE(file, folder)"
+                + " WHERE ISDESCENDANTNODE(folder, [" + testRoot + "])";
+        String plan = ((QueryObjectModelImpl) qm.createQuery(
+                stmt, Query.JCR_SQL2)).explain();
+        assertTrue(plan, plan.startsWith("LEFT OUTER JOIN"));
+        assertFalse(plan, plan.contains("rows"));
+    }
+}
@@ -149,4 +149,33 @@ public class LimitAndOffsetTest extends AbstractQueryTest {
         nodes = result.getNodes();
         assertEquals(1, nodes.getSize());
     }
+
+    public void testPagesOfSortedResult() throws Exception {
+        Node parent = testRootNode.addNode("pages");
+        for (int i = 0; i < 100; i++) {
+            parent.addNode("n" + i).setProperty("page", (i * 37) % 100);
+        }
+        testRootNode.getSession().save();
+
+        Query q = qm.createQuery("/jcr:root" + testRoot
+                + "/pages/* order by @page descending", Query.XPATH);
+        for (int offset = 0; offset < 100; offset += 7) {
+            q.setOffset(offset);
+            q.setLimit(7);
+            NodeIterator nodes = q.execute().getNodes();
+            for (int i = offset; i < Math.min(offset + 7, 100); i++) {
+                assertEquals(99 - i, nodes.nextNode().getProperty("page").getLong());
+            }
+            assertFalse(nodes.hasNext());
+        }
+
+        // read beyond the initially collected hits
+        q = qm.createQuery("/jcr:root" + testRoot
+                + "/pages/* order by @page", Query.XPATH);
+        NodeIterator nodes = q.execute().getNodes();
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, nodes.nextNode().getProperty("page").getLong());
+        }
+        assertFalse(nodes.hasNext());
+    }
 }
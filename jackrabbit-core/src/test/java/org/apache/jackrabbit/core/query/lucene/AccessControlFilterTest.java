@@ -0,0 +1,246 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.security.Principal;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.query.Query;
+import javax.jcr.security.AccessControlPolicy;
+import javax.jcr.security.AccessControlPolicyIterator;
+import javax.jcr.security.Privilege;
+
+import org.apache.jackrabbit.api.JackrabbitSession;
+import org.apache.jackrabbit.api.security.JackrabbitAccessControlList;
+import org.apache.jackrabbit.core.SessionImpl;
+import org.apache.jackrabbit.core.TestHelper;
+import org.apache.jackrabbit.test.NotExecutableException;
+import org.apache.jackrabbit.test.api.security.AbstractAccessControlTest;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+
+/**
+ * <code>AccessControlFilterTest</code> checks that the
+ * {@link AccessControlFilter} drops exactly the nodes that are denied by
+ * the access control entries of an access controlled ancestor.
+ */
+public class AccessControlFilterTest extends AbstractAccessControlTest {
+
+    private Session anonymous;
+
+    private Node denied;
+    private Node deniedChild;
+    private Node granted;
+    private Node grantedChild;
+    private Node open;
+    private Node restricted;
+    private Node restrictedChild;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        anonymous = getHelper().getReadOnlySession();
+        Principal principal = getPrincipal(anonymous);
+
+        denied = testRootNode.addNode("denied");
+        deniedChild = denied.addNode("child");
+        granted = deniedChild.addNode("granted");
+        grantedChild = granted.addNode("child");
+        open = testRootNode.addNode("open");
+        restricted = testRootNode.addNode("restricted");
+        restrictedChild = restricted.addNode("child");
+        for (Node n : new Node[] {denied, deniedChild, granted, grantedChild,
+                open, restricted, restrictedChild}) {
+            n.setProperty(propertyName1, "value");
+        }
+        superuser.save();
+
+        Privilege[] read = privilegesFromName(Privilege.JCR_READ);
+        JackrabbitAccessControlList acl = getACL(denied.getPath());
+        acl.addEntry(principal, read, false);
+        acMgr.setPolicy(denied.getPath(), acl);
+        acl = getACL(granted.getPath());
+        acl.addEntry(principal, read, true);
+        acMgr.setPolicy(granted.getPath(), acl);
+        acl = getACL(restricted.getPath());
+        Map<String, Value> restrictions = Collections.singletonMap(
+                acl.getRestrictionNames()[0],
+                superuser.getValueFactory().createValue("/other"));
+        acl.addEntry(principal, read, false, restrictions);
+        acMgr.setPolicy(restricted.getPath(), acl);
+        superuser.save();
+    }
+
+    protected void tearDown() throws Exception {
+        anonymous.logout();
+        anonymous = null;
+        denied = null;
+        deniedChild = null;
+        granted = null;
+        grantedChild = null;
+        open = null;
+        restricted = null;
+        restrictedChild = null;
+        super.tearDown();
+    }
+
+    public void testIsReadable() throws Exception {
+        SearchIndex index = getSearchIndex();
+        IndexReader reader = index.getIndexReader();
+        try {
+            AccessControlFilter filter = new AccessControlFilter(
+                    (SessionImpl) anonymous, reader,
+                    index.getNamespaceMappings());
+            assertTrue(filter.isReadable(getDoc(reader, testRootNode)));
+            assertFalse(filter.isReadable(getDoc(reader, denied)));
+            assertFalse(filter.isReadable(getDoc(reader, deniedChild)));
+            assertTrue(filter.isReadable(getDoc(reader, granted)));
+            assertTrue(filter.isReadable(getDoc(reader, grantedChild)));
+            assertTrue(filter.isReadable(getDoc(reader, open)));
+            // restricted entries are left to the access manager
+            assertTrue(filter.isReadable(getDoc(reader, restricted)));
+            assertTrue(filter.isReadable(getDoc(reader, restrictedChild)));
+        } finally {
+            Util.closeOrRelease(reader);
+        }
+    }
+
+    public void testQuery() throws Exception {
+        SearchIndex index = getSearchIndex();
+        boolean enabled = index.isAccessControlFilter();
+        index.setAccessControlFilter(true);
+        try {
+            String stmt = testPath + "//*[@" + propertyName1 + " = 'value']"
+                    + " order by @" + propertyName1;
+            Set<String> paths = getPaths(anonymous.getWorkspace().getQueryManager()
+                    .createQuery(stmt, Query.XPATH).execute().getNodes());
+            assertEquals(getPaths(new Node[] {
+                    granted, grantedChild, open, restricted, restrictedChild}), paths);
+
+            stmt = "SELECT * FROM [nt:base] WHERE ISDESCENDANTNODE(["
+                    + testRoot + "]) AND [" + propertyName1 + "] = 'value'";
+            paths = getPaths(anonymous.getWorkspace().getQueryManager()
+                    .createQuery(stmt, Query.JCR_SQL2).execute().getNodes());
+            assertEquals(getPaths(new Node[] {
+                    granted, grantedChild, open, restricted, restrictedChild}), paths);
+        } finally {
+            index.setAccessControlFilter(enabled);
+        }
+    }
+
+    public void testCompiledPerSession() throws Exception {
+        SearchIndex index = getSearchIndex();
+        boolean enabled = index.isAccessControlFilter();
+        index.setAccessControlFilter(true);
+        try {
+            SessionImpl session = (SessionImpl) anonymous;
+            assertTrue(index.isAccessControlFiltered(session));
+            assertFalse(index.isAccessControlFiltered((SessionImpl) superuser));
+
+            AccessControlFilter.Compiled compiled;
+            IndexReader reader = index.getIndexReader();
+            try {
+                compiled = index.createAccessControlFilter(
+                        session, reader).getCompiled();
+                assertTrue(compiled.isCompiledFor(reader));
+                assertSame(compiled, index.createAccessControlFilter(
+                        session, reader).getCompiled());
+            } finally {
+                Util.closeOrRelease(reader);
+            }
+
+            open.setProperty(propertyName2, "value");
+            superuser.save();
+            reader = index.getIndexReader();
+            try {
+                assertFalse(compiled.isCompiledFor(reader));
+                AccessControlFilter filter =
+                        index.createAccessControlFilter(session, reader);
+                assertNotSame(compiled, filter.getCompiled());
+                assertFalse(filter.isReadable(getDoc(reader, denied)));
+                assertTrue(filter.isReadable(getDoc(reader, open)));
+            } finally {
+                Util.closeOrRelease(reader);
+            }
+        } finally {
+            index.setAccessControlFilter(enabled);
+        }
+    }
+
+    private SearchIndex getSearchIndex() throws Exception {
+        return (SearchIndex) TestHelper.getSearchManager(superuser).getQueryHandler();
+    }
+
+    private static int getDoc(IndexReader reader, Node node) throws Exception {
+        TermDocs tDocs = reader.termDocs(
+                new Term(FieldNames.UUID, node.getIdentifier()));
+        try {
+            assertTrue(tDocs.next());
+            return tDocs.doc();
+        } finally {
+            tDocs.close();
+        }
+    }
+
+    private static Set<String> getPaths(NodeIterator nodes)
+            throws RepositoryException {
+        Set<String> paths = new HashSet<String>();
+        while (nodes.hasNext()) {
+            paths.add(nodes.nextNode().getPath());
+        }
+        return paths;
+    }
+
+    private static Set<String> getPaths(Node[] nodes)
+            throws RepositoryException {
+        Set<String> paths = new HashSet<String>();
+        for (Node n : nodes) {
+            paths.add(n.getPath());
+        }
+        return paths;
+    }
+
+    private static Principal getPrincipal(Session session)
+            throws Exception {
+        if (!(session instanceof JackrabbitSession)) {
+            throw new NotExecutableException();
+        }
+        return ((JackrabbitSession) session).getUserManager()
+                .getAuthorizable(session.getUserID()).getPrincipal();
+    }
+
+    private JackrabbitAccessControlList getACL(String path)
+            throws Exception {
+        AccessControlPolicyIterator it = acMgr.getApplicablePolicies(path);
+        while (it.hasNext()) {
+            AccessControlPolicy acp = it.nextAccessControlPolicy();
+            if (acp instanceof JackrabbitAccessControlList) {
+                return (JackrabbitAccessControlList) acp;
+            }
+        }
+        throw new NotExecutableException(
+                "No JackrabbitAccessControlList found at " + path + " .");
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.File;
+import java.util.BitSet;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Version;
+
+/**
+ * <code>CachingIndexReaderTest</code> checks the persisted hierarchy cache
+ * of the {@link CachingIndexReader}.
+ */
+public class CachingIndexReaderTest extends TestCase {
+
+    private static final String CACHE_FILE = "cache.parents";
+
+    private File path;
+
+    private Directory directory;
+
+    private final NodeId root = NodeId.randomId();
+
+    private final NodeId a = NodeId.randomId();
+
+    private final NodeId b = NodeId.randomId();
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        path = File.createTempFile("cachingIndexReader", "", new File("target"));
+        path.delete();
+        directory = FSDirectory.open(path);
+        IndexWriter writer = createWriter();
+        writer.addDocument(createDocument(root, null));
+        writer.addDocument(createDocument(a, root));
+        writer.addDocument(createDocument(b, a));
+        writer.close();
+    }
+
+    protected void tearDown() throws Exception {
+        directory.close();
+        FileUtils.deleteDirectory(path);
+        super.tearDown();
+    }
+
+    public void testPersistedCache() throws Exception {
+        CachingIndexReader reader = new CachingIndexReader(
+                IndexReader.open(directory), null, true);
+        try {
+            assertTrue(directory.fileExists(CACHE_FILE));
+            assertParents(reader);
+        } finally {
+            reader.close();
+        }
+
+        // the persisted cache is used without initializing the cache
+        long length = directory.fileLength(CACHE_FILE);
+        reader = new CachingIndexReader(IndexReader.open(directory), null, false);
+        try {
+            assertParents(reader);
+            assertEquals(length, directory.fileLength(CACHE_FILE));
+        } finally {
+            reader.close();
+        }
+    }
+
+    public void testOutdatedCache() throws Exception {
+        new CachingIndexReader(IndexReader.open(directory), null, true).close();
+        directory.createOutput("cache.inSegmentParents").close();
+
+        // merge a new document into the index, which renames the segments
+        IndexWriter writer = createWriter();
+        writer.addDocument(createDocument(NodeId.randomId(), b));
+        writer.forceMerge(1);
+        writer.close();
+
+        CachingIndexReader reader = new CachingIndexReader(
+                IndexReader.open(directory), null, false);
+        try {
+            assertFalse(directory.fileExists(CACHE_FILE));
+            assertFalse(directory.fileExists("cache.inSegmentParents"));
+            assertParents(reader);
+        } finally {
+            reader.close();
+        }
+
+        reader = new CachingIndexReader(IndexReader.open(directory), null, true);
+        try {
+            assertTrue(directory.fileExists(CACHE_FILE));
+            assertParents(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private IndexWriter createWriter() throws Exception {
+        return new IndexWriter(directory, new IndexWriterConfig(
+                Version.LUCENE_36, new StandardAnalyzer(Version.LUCENE_36)));
+    }
+
+    private void assertParents(CachingIndexReader reader) throws Exception {
+        int rootDoc = getDoc(reader, root);
+        int aDoc = getDoc(reader, a);
+        int bDoc = getDoc(reader, b);
+        assertSame(DocId.NULL, reader.getParent(rootDoc, new BitSet()));
+        assertEquals(rootDoc, getParent(reader, aDoc));
+        assertEquals(aDoc, getParent(reader, bDoc));
+    }
+
+    private static int getParent(CachingIndexReader reader, int doc)
+            throws Exception {
+        return reader.getParent(doc, new BitSet()).getDocumentNumbers(
+                null, new int[1])[0];
+    }
+
+    private static int getDoc(IndexReader reader, NodeId id) throws Exception {
+        for (int i = 0; i < reader.maxDoc(); i++) {
+            if (id.toString().equals(reader.document(i).get(FieldNames.UUID))) {
+                return i;
+            }
+        }
+        fail("no document for " + id);
+        return -1;
+    }
+
+    private static Document createDocument(NodeId id, NodeId parent) {
+        Document doc = new Document();
+        doc.add(new Field(FieldNames.UUID, false, id.toString(),
+                Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS,
+                Field.TermVector.NO));
+        doc.add(new Field(FieldNames.PARENT, false,
+                parent == null ? "" : parent.toString(),
+                Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS,
+                Field.TermVector.NO));
+        return doc;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jcr.Node;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.core.RepositoryImpl;
+import org.apache.jackrabbit.core.TestHelper;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.test.AbstractJCRTest;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+
+/**
+ * <code>InitialIndexTest</code> checks the initial index created with
+ * multiple threads or by scanning the persistence manager.
+ */
+public class InitialIndexTest extends AbstractJCRTest {
+
+    private File directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = File.createTempFile("initialIndex", "", new File("target"));
+        directory.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(directory);
+        super.tearDown();
+    }
+
+    public void testParallelInitialIndex() throws Exception {
+        List<NodeId> ids = createNodes();
+        createIndex(new File(directory, "parallel"), 4, false, ids);
+    }
+
+    public void testInitialIndexFromPersistenceManager() throws Exception {
+        List<NodeId> ids = createNodes();
+        createIndex(new File(directory, "scanned"), 1, true, ids);
+    }
+
+    public void testCheckpoint() throws Exception {
+        Directory dir = new RAMDirectory();
+        ReindexCheckpoint checkpoint = new ReindexCheckpoint(dir);
+        assertTrue(checkpoint.isEmpty());
+        checkpoint.add("tree-a", "_0");
+        checkpoint.add("nodes-b", "_1");
+
+        checkpoint = new ReindexCheckpoint(dir);
+        assertEquals("_0", checkpoint.getSegment("tree-a"));
+        assertEquals("_1", checkpoint.getSegment("nodes-b"));
+        assertTrue(checkpoint.containsSegment("_1"));
+        assertFalse(checkpoint.containsSegment("_2"));
+
+        checkpoint.clear();
+        assertTrue(checkpoint.isEmpty());
+        assertTrue(new ReindexCheckpoint(dir).isEmpty());
+    }
+
+    /**
+     * Creates a tree of nodes below the test root node and returns the
+     * identifiers of the test root node and the created nodes.
+     */
+    private List<NodeId> createNodes() throws Exception {
+        List<NodeId> ids = new ArrayList<NodeId>();
+        ids.add(new NodeId(testRootNode.getIdentifier()));
+        for (int i = 0; i < 20; i++) {
+            Node n = testRootNode.addNode("node" + i);
+            ids.add(new NodeId(n.getIdentifier()));
+            for (int j = 0; j < 20; j++) {
+                Node child = n.addNode("child" + j);
+                child.setProperty("title", "node " + i + " " + j);
+                ids.add(new NodeId(child.getIdentifier()));
+            }
+        }
+        superuser.save();
+        return ids;
+    }
+
+    /**
+     * Creates an initial index of the default workspace in the given
+     * directory and checks that it contains each of the given nodes once,
+     * and that it does not contain the excluded system node.
+     */
+    private void createIndex(
+            File path, int threads, boolean scan, List<NodeId> ids)
+            throws Exception {
+        SearchIndex workspaceIndex = (SearchIndex)
+                TestHelper.getSearchManager(superuser).getQueryHandler();
+        SearchIndex index = new SearchIndex();
+        index.setPath(path.getPath());
+        index.setReindexThreads(threads);
+        index.setReindexFromPersistenceManager(scan);
+        index.init(null, workspaceIndex.getContext());
+        try {
+            IndexReader reader = index.getIndex().getIndexReader();
+            try {
+                for (NodeId id : ids) {
+                    assertEquals(1, reader.docFreq(
+                            new Term(FieldNames.UUID, id.toString())));
+                }
+                assertEquals(0, reader.docFreq(new Term(FieldNames.UUID,
+                        RepositoryImpl.SYSTEM_ROOT_NODE_ID.toString())));
+                assertTrue(reader.numDocs() > ids.size());
+            } finally {
+                Util.closeOrRelease(reader);
+            }
+        } finally {
+            index.getIndex().close();
+        }
+    }
+}
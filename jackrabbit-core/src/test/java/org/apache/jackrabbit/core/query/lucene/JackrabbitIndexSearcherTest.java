@@ -0,0 +1,180 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+
+/**
+ * <code>JackrabbitIndexSearcherTest</code> checks that scoring ranges of
+ * the index concurrently returns the same top hits as a sequential search.
+ */
+public class JackrabbitIndexSearcherTest extends TestCase {
+
+    private static final int DOCS = 5000;
+
+    private Directory directory;
+
+    private IndexReader reader;
+
+    private ExecutorService executor;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(
+                Version.LUCENE_36, new WhitespaceAnalyzer(Version.LUCENE_36)));
+        for (int i = 0; i < DOCS; i++) {
+            StringBuilder text = new StringBuilder();
+            for (int j = 0; j <= i % 5; j++) {
+                text.append(i % 2 == 0 ? "even " : "odd ");
+            }
+            if (i % 3 == 0) {
+                text.append("three");
+            }
+            Document doc = new Document();
+            doc.add(new Field("text", text.toString(),
+                    Field.Store.NO, Field.Index.ANALYZED));
+            doc.add(new Field("value", String.valueOf(i % 97),
+                    Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS));
+            if (i % 7 != 0) {
+                doc.add(new Field(FieldNames.PROPERTIES,
+                        FieldNames.createNamedValue("prop", "Value" + (i % 89)),
+                        Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS));
+            }
+            writer.addDocument(doc);
+        }
+        writer.close();
+        reader = IndexReader.open(directory);
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    protected void tearDown() throws Exception {
+        executor.shutdown();
+        reader.close();
+        directory.close();
+        super.tearDown();
+    }
+
+    public void testSortByScore() throws Exception {
+        assertSameHits(new TermQuery(new Term("text", "even")),
+                new Sort(new SortField(null, SortField.SCORE)), 100);
+    }
+
+    public void testSortByValue() throws Exception {
+        BooleanQuery query = new BooleanQuery();
+        query.add(new TermQuery(new Term("text", "odd")),
+                BooleanClause.Occur.SHOULD);
+        query.add(new TermQuery(new Term("text", "three")),
+                BooleanClause.Occur.MUST);
+        assertSameHits(query, new Sort(
+                new SortField("value", SortField.STRING, true)), 250);
+    }
+
+    public void testAllHits() throws Exception {
+        assertSameHits(new TermQuery(new Term("text", "three")),
+                new Sort(new SortField("value", SortField.STRING)), DOCS);
+    }
+
+    public void testRangeQuery() throws Exception {
+        // the hits of the jackrabbit queries are cached per query, create
+        // a new query to calculate them again on the threads of the executor
+        assertSameHits(rangeQuery(), rangeQuery(),
+                new Sort(new SortField("value", SortField.STRING)), 300);
+    }
+
+    public void testWildcardQuery() throws Exception {
+        int maxClauseCount = BooleanQuery.getMaxClauseCount();
+        // too many terms for a rewrite into a lucene query
+        BooleanQuery.setMaxClauseCount(2);
+        try {
+            assertSameHits(wildcardQuery(), wildcardQuery(), new Sort(
+                    new SortField("value", SortField.STRING, true)), 200);
+        } finally {
+            BooleanQuery.setMaxClauseCount(maxClauseCount);
+        }
+    }
+
+    private static Query rangeQuery() {
+        // the transformation prevents the rewrite into a lucene query
+        return new RangeQuery(
+                new Term(FieldNames.PROPERTIES,
+                        FieldNames.createNamedValue("prop", "value2")),
+                new Term(FieldNames.PROPERTIES,
+                        FieldNames.createNamedValue("prop", "value6")),
+                true, TransformConstants.TRANSFORM_LOWER_CASE,
+                new PerQueryCache());
+    }
+
+    private static Query wildcardQuery() {
+        PerQueryCache cache = new PerQueryCache();
+        BooleanQuery query = new BooleanQuery();
+        query.add(new WildcardQuery(FieldNames.PROPERTIES, "prop",
+                "Value1%", cache), BooleanClause.Occur.MUST);
+        query.add(new MatchAllQuery("prop", cache), BooleanClause.Occur.MUST);
+        return query;
+    }
+
+    private void assertSameHits(Query query, Sort sort, int n)
+            throws Exception {
+        assertSameHits(query, query, sort, n);
+    }
+
+    private void assertSameHits(Query sequential, Query parallel, Sort sort,
+                                int n) throws Exception {
+        JackrabbitIndexSearcher searcher =
+                new JackrabbitIndexSearcher(null, reader, null);
+        TopDocs expected = searcher.search(
+                searcher.createNormalizedWeight(sequential), sort, n);
+
+        // the executor has fewer threads than the query may use
+        searcher.setSearchExecutor(executor, 4);
+        TopDocs actual = searcher.search(
+                searcher.createNormalizedWeight(parallel), sort, n);
+
+        assertEquals(expected.totalHits, actual.totalHits);
+        assertEquals(Math.min(n, expected.totalHits), actual.scoreDocs.length);
+        assertEquals(expected.scoreDocs.length, actual.scoreDocs.length);
+        for (int i = 0; i < expected.scoreDocs.length; i++) {
+            ScoreDoc e = expected.scoreDocs[i];
+            ScoreDoc a = actual.scoreDocs[i];
+            assertEquals("hit " + i, e.doc, a.doc);
+            assertEquals("hit " + i, e.score, a.score);
+        }
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import javax.jcr.Node;
+import javax.jcr.query.Query;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.query.AbstractIndexingTest;
+import org.apache.jackrabbit.spi.Name;
+import org.apache.jackrabbit.stats.QueryStatImpl;
+
+/**
+ * <code>QueryResultCacheTest</code> checks that the {@link QueryResultCache}
+ * returns the hits of a query until the index changes. The queries run in
+ * the query-cache-test workspace, which has the cache enabled.
+ */
+public class QueryResultCacheTest extends AbstractIndexingTest {
+
+    private static final String WORKSPACE_NAME = "query-cache-test";
+
+    private static final Set<String> NO_PRINCIPALS = Collections.emptySet();
+
+    private QueryStatImpl queryStat;
+
+    private QueryResultCache cache;
+
+    private Execution execution;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        queryStat = new QueryStatImpl();
+        queryStat.setEnabled(true);
+        cache = new QueryResultCache("test", 1024 * 1024, queryStat);
+        execution = new Execution(5);
+    }
+
+    protected void tearDown() throws Exception {
+        queryStat = null;
+        cache = null;
+        execution = null;
+        super.tearDown();
+    }
+
+    protected String getWorkspaceName() {
+        return WORKSPACE_NAME;
+    }
+
+    public void testCacheEnabled() throws Exception {
+        assertTrue(getSearchIndex().getQueryResultCacheSize() > 0);
+    }
+
+    public void testCachedHits() throws Exception {
+        assertEquals(execution.rows, read(cache.execute(
+                "q", NO_PRINCIPALS, 1, execution), -1));
+        assertEquals(1, execution.count);
+        assertEquals(execution.rows, read(cache.execute(
+                "q", NO_PRINCIPALS, 1, execution), -1));
+        assertEquals(1, execution.count);
+        assertEquals(1, cache.getElementCount());
+        assertEquals(1, queryStat.getCacheHitCount());
+        assertEquals(1, queryStat.getCacheMissCount());
+
+        // other principals
+        read(cache.execute("q", Collections.singleton("p"), 1, execution), -1);
+        assertEquals(2, execution.count);
+
+        // the index changed
+        read(cache.execute("q", NO_PRINCIPALS, 2, execution), -1);
+        assertEquals(3, execution.count);
+        read(cache.execute("q", NO_PRINCIPALS, 2, execution), -1);
+        assertEquals(3, execution.count);
+        assertEquals(2, queryStat.getCacheHitCount());
+        assertEquals(3, queryStat.getCacheMissCount());
+    }
+
+    public void testReadPastCachedHits() throws Exception {
+        assertEquals(execution.rows.subList(0, 2), read(cache.execute(
+                "q", NO_PRINCIPALS, 1, execution), 2));
+        assertEquals(1, execution.count);
+
+        // reads the remaining hits from the query
+        assertEquals(execution.rows, read(cache.execute(
+                "q", NO_PRINCIPALS, 1, execution), -1));
+        assertEquals(2, execution.count);
+
+        // all hits are cached now
+        assertEquals(execution.rows, read(cache.execute(
+                "q", NO_PRINCIPALS, 1, execution), -1));
+        assertEquals(2, execution.count);
+    }
+
+    public void testIndexChangeWhileReadingPastCachedHits() throws Exception {
+        read(cache.execute("q", NO_PRINCIPALS, 1, execution), 2);
+        assertEquals(1, execution.count);
+
+        MultiColumnQueryHits hits =
+                cache.execute("q", NO_PRINCIPALS, 1, execution);
+        try {
+            assertEquals(execution.rows.subList(0, 2), Arrays.asList(
+                    hits.nextScoreNodes()[0].getNodeId(),
+                    hits.nextScoreNodes()[0].getNodeId()));
+            // the index changes before the remaining hits are read, they
+            // are continued from the query like without the cache
+            execution.generation = 2;
+            assertEquals(execution.rows.get(2),
+                    hits.nextScoreNodes()[0].getNodeId());
+            assertEquals(2, execution.count);
+        } finally {
+            hits.close();
+        }
+
+        // the hits of two index generations are not cached
+        assertEquals(execution.rows, read(cache.execute(
+                "q", NO_PRINCIPALS, 2, execution), -1));
+        assertEquals(3, execution.count);
+    }
+
+    public void testScoresAreCopied() throws Exception {
+        read(cache.execute("q", NO_PRINCIPALS, 1, execution), -1);
+        MultiColumnQueryHits hits =
+                cache.execute("q", NO_PRINCIPALS, 1, execution);
+        try {
+            hits.nextScoreNodes()[0].setScore(0);
+        } finally {
+            hits.close();
+        }
+        hits = cache.execute("q", NO_PRINCIPALS, 1, execution);
+        try {
+            assertEquals(1.0f, hits.nextScoreNodes()[0].getScore());
+        } finally {
+            hits.close();
+        }
+    }
+
+    public void testMaxMemorySize() throws Exception {
+        cache = new QueryResultCache("test", 1024, queryStat);
+        execution = new Execution(100);
+        read(cache.execute("q", NO_PRINCIPALS, 1, execution), -1);
+        read(cache.execute("q", NO_PRINCIPALS, 1, execution), -1);
+        assertEquals(2, execution.count);
+        assertEquals(0, cache.getElementCount());
+        assertEquals(0, cache.getMemoryUsed());
+    }
+
+    public void testIndexChange() throws Exception {
+        Node n1 = testRootNode.addNode(nodeName1);
+        n1.setProperty(propertyName1, "a");
+        Node n2 = testRootNode.addNode(nodeName2);
+        n2.setProperty(propertyName1, "b");
+        session.save();
+
+        String xpath = testPath + "/*[@" + propertyName1 + " = 'a']";
+        executeXPathQuery(xpath, new Node[]{n1});
+        executeXPathQuery(xpath, new Node[]{n1});
+
+        n2.setProperty(propertyName1, "a");
+        session.save();
+        executeXPathQuery(xpath, new Node[]{n1, n2});
+
+        n1.remove();
+        session.save();
+        executeXPathQuery(xpath, new Node[]{n2});
+    }
+
+    public void testLimit() throws Exception {
+        Node n1 = testRootNode.addNode(nodeName1);
+        Node n2 = testRootNode.addNode(nodeName2);
+        Node n3 = testRootNode.addNode(nodeName3);
+        session.save();
+        flushSearchIndex();
+
+        String sql = "SELECT * FROM [nt:base] WHERE ISCHILDNODE(["
+                + testRoot + "]) ORDER BY NAME()";
+        Query q = qm.createQuery(sql, Query.JCR_SQL2);
+        q.setLimit(1);
+        checkResult(q.execute(), new Node[]{n1});
+        q = qm.createQuery(sql, Query.JCR_SQL2);
+        checkResult(q.execute(), new Node[]{n1, n2, n3});
+        q = qm.createQuery(sql, Query.JCR_SQL2);
+        q.setOffset(1);
+        checkResult(q.execute(), new Node[]{n2, n3});
+    }
+
+    public void testBindVariables() throws Exception {
+        Node n1 = testRootNode.addNode(nodeName1);
+        n1.setProperty(propertyName1, "a");
+        Node n2 = testRootNode.addNode(nodeName2);
+        n2.setProperty(propertyName1, "b");
+        session.save();
+        flushSearchIndex();
+
+        String sql = "SELECT * FROM [nt:base] WHERE ISCHILDNODE(["
+                + testRoot + "]) AND [" + propertyName1 + "] = $v";
+        for (int i = 0; i < 2; i++) {
+            Query q = qm.createQuery(sql, Query.JCR_SQL2);
+            q.bindValue("v", vf.createValue("a"));
+            checkResult(q.execute(), new Node[]{n1});
+            q = qm.createQuery(sql, Query.JCR_SQL2);
+            q.bindValue("v", vf.createValue("b"));
+            checkResult(q.execute(), new Node[]{n2});
+        }
+    }
+
+    /**
+     * Reads and closes hits.
+     *
+     * @param hits the hits.
+     * @param max  the maximum number of hits to read or -1 to read all.
+     * @return the node ids of the hits.
+     */
+    private static List<NodeId> read(MultiColumnQueryHits hits, int max)
+            throws IOException {
+        List<NodeId> ids = new ArrayList<NodeId>();
+        try {
+            ScoreNode[] sn;
+            while (ids.size() != max && (sn = hits.nextScoreNodes()) != null) {
+                ids.add(sn[0].getNodeId());
+            }
+        } finally {
+            hits.close();
+        }
+        return ids;
+    }
+
+    /**
+     * Counts the executions of a query with a fixed list of hits.
+     */
+    private static final class Execution
+            implements QueryResultCache.Execution {
+
+        private final List<NodeId> rows = new ArrayList<NodeId>();
+
+        private int count;
+
+        private long generation = 1;
+
+        private Execution(int size) {
+            for (int i = 0; i < size; i++) {
+                rows.add(NodeId.randomId());
+            }
+        }
+
+        public MultiColumnQueryHits execute() {
+            count++;
+            return new MultiColumnQueryHits() {
+
+                private int position;
+
+                public ScoreNode[] nextScoreNodes() {
+                    if (position == rows.size()) {
+                        return null;
+                    }
+                    return new ScoreNode[]{
+                            new ScoreNode(rows.get(position++), 1.0f)};
+                }
+
+                public Name[] getSelectorNames() {
+                    return new Name[]{QueryImpl.DEFAULT_SELECTOR_NAME};
+                }
+
+                public int getSize() {
+                    return rows.size();
+                }
+
+                public void skip(int n) {
+                    position = Math.min(position + n, rows.size());
+                }
+
+                public void close() {
+                }
+            };
+        }
+
+        public long getGeneration() {
+            return generation;
+        }
+    }
+}
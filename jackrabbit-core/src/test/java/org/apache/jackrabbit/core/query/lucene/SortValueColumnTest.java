@@ -0,0 +1,321 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.File;
+
+import javax.jcr.PropertyType;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Version;
+
+/**
+ * <code>SortValueColumnTest</code> checks the primitive sort values and the
+ * persisted column files of {@link SortValueColumn}.
+ */
+public class SortValueColumnTest extends TestCase {
+
+    private File path;
+
+    private Directory directory;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        path = File.createTempFile("sortValueColumn", "", new File("target"));
+        path.delete();
+        directory = FSDirectory.open(path);
+        IndexWriter writer = createWriter();
+        // doc 0
+        writer.addDocument(createDocument(
+                "date", DateField.timeToString(2000), PropertyType.DATE,
+                "double", DoubleField.doubleToString(-1.5), PropertyType.DOUBLE,
+                "string", "b", PropertyType.STRING,
+                "multi", "x", PropertyType.STRING,
+                "multi", "y", PropertyType.STRING));
+        // doc 1
+        writer.addDocument(createDocument(
+                "date", LongField.longToString(-7), PropertyType.LONG,
+                "string", "a", PropertyType.NAME,
+                "mixed", "a", PropertyType.STRING));
+        // doc 2
+        writer.addDocument(createDocument(
+                "double", DoubleField.doubleToString(3.25), PropertyType.DOUBLE,
+                "string", "b", PropertyType.STRING,
+                "mixed", LongField.longToString(1), PropertyType.LONG));
+        writer.close();
+    }
+
+    protected void tearDown() throws Exception {
+        directory.close();
+        FileUtils.deleteDirectory(path);
+        super.tearDown();
+    }
+
+    public void testColumns() throws Exception {
+        IndexReader reader = IndexReader.open(directory);
+        try {
+            assertColumns(reader);
+        } finally {
+            reader.close();
+        }
+        assertEquals(3, countColumnFiles());
+
+        // the persisted columns are mapped
+        long modified = lastModified();
+        reader = IndexReader.open(directory);
+        try {
+            assertColumns(reader);
+        } finally {
+            reader.close();
+        }
+        assertEquals(3, countColumnFiles());
+        assertEquals(modified, lastModified());
+    }
+
+    public void testOutdatedColumn() throws Exception {
+        IndexReader reader = IndexReader.open(directory);
+        try {
+            getColumn(reader, "date");
+        } finally {
+            reader.close();
+        }
+
+        IndexWriter writer = createWriter();
+        writer.addDocument(createDocument(
+                "date", LongField.longToString(42), PropertyType.LONG));
+        writer.forceMerge(1);
+        writer.close();
+
+        reader = IndexReader.open(directory);
+        try {
+            SortValueColumn column = getColumn(reader, "date");
+            assertEquals(SortValueColumn.LONG, column.getType());
+            assertEquals(3, countValues(column, reader.maxDoc()));
+        } finally {
+            reader.close();
+        }
+        assertEquals(1, countColumnFiles());
+    }
+
+    public void testFileNames() throws Exception {
+        // "Aa" and "BB" have the same hash code
+        String aa = FieldNames.createNamedValue("Aa", "");
+        String bb = FieldNames.createNamedValue("BB", "");
+        assertEquals((FieldNames.PROPERTIES + '/' + aa).hashCode(),
+                (FieldNames.PROPERTIES + '/' + bb).hashCode());
+        assertFalse(SortValueColumn.getFileName(FieldNames.PROPERTIES, aa).equals(
+                SortValueColumn.getFileName(FieldNames.PROPERTIES, bb)));
+    }
+
+    public void testComparatorWithoutValues() throws Exception {
+        File otherPath = File.createTempFile("sortValueColumn", "", new File("target"));
+        otherPath.delete();
+        Directory other = FSDirectory.open(otherPath);
+        try {
+            // a segment without values of the sort properties
+            IndexWriter writer = new IndexWriter(other, new IndexWriterConfig(
+                    Version.LUCENE_36, new StandardAnalyzer(Version.LUCENE_36)));
+            writer.addDocument(createDocument(
+                    "date", LongField.longToString(1), PropertyType.LONG));
+            writer.addDocument(createDocument(
+                    "date", LongField.longToString(2), PropertyType.LONG));
+            writer.close();
+
+            IndexReader r1 = IndexReader.open(directory);
+            IndexReader r2 = IndexReader.open(other);
+            try {
+                IndexReader reader = new TestMultiIndexReader(r1, r2);
+                int maxDoc = reader.maxDoc();
+
+                SharedFieldComparatorSource.SimpleFieldComparator string =
+                        createComparator(reader, "string", maxDoc);
+                assertEquals("a", string.value(1));
+                assertEquals("b", string.value(2));
+                assertNull(string.value(3));
+                assertNull(string.value(4));
+                assertTrue(string.compare(3, 1) < 0);
+                assertTrue(string.compare(1, 0) < 0);
+                assertEquals(0, string.compare(0, 2));
+                assertEquals(0, string.compare(3, 4));
+                string.setBottom(1);
+                assertTrue(string.compareBottom(3) > 0);
+                assertTrue(string.compareBottom(0) < 0);
+
+                // no segment has values of the property
+                SharedFieldComparatorSource.SimpleFieldComparator none =
+                        createComparator(reader, "none", maxDoc);
+                for (int i = 0; i < maxDoc; i++) {
+                    assertNull(none.value(i));
+                    assertEquals(0, none.compare(0, i));
+                }
+            } finally {
+                r1.close();
+                r2.close();
+            }
+        } finally {
+            other.close();
+            FileUtils.deleteDirectory(otherPath);
+        }
+    }
+
+    private void assertColumns(IndexReader reader) throws Exception {
+        SortValueColumn date = getColumn(reader, "date");
+        assertEquals(SortValueColumn.LONG, date.getType());
+        assertEquals(2000L, date.getLong(0));
+        assertEquals(-7L, date.getLong(1));
+        assertFalse(date.hasValue(2));
+        assertEquals(Long.valueOf(2000), date.getValue(0));
+
+        SortValueColumn dbl = getColumn(reader, "double");
+        assertEquals(SortValueColumn.DOUBLE, dbl.getType());
+        assertEquals(-1.5, dbl.getDouble(0));
+        assertFalse(dbl.hasValue(1));
+        assertEquals(Double.valueOf(3.25), dbl.getValue(2));
+
+        SortValueColumn string = getColumn(reader, "string");
+        assertEquals(SortValueColumn.STRING, string.getType());
+        assertEquals("b", string.getString(0));
+        assertEquals("a", string.getString(1));
+        assertSame(string.getString(0), string.getString(2));
+        assertTrue(string.getOrdinal(1) < string.getOrdinal(0));
+        assertEquals(string.getOrdinal(0), string.getOrdinal(2));
+        assertEquals("a", string.getOrdinalValue(string.getOrdinal(1)));
+
+        SortValueColumn none = getColumn(reader, "none");
+        assertEquals(SortValueColumn.NONE, none.getType());
+        assertFalse(none.hasValue(0));
+        assertNull(none.getValue(0));
+
+        // cannot be represented in a column
+        assertNull(getColumn(reader, "multi"));
+        assertNull(getColumn(reader, "mixed"));
+    }
+
+    private static SortValueColumn getColumn(IndexReader reader, String name)
+            throws Exception {
+        return SortValueColumn.getColumn(reader, FieldNames.PROPERTIES,
+                FieldNames.createNamedValue(name, ""));
+    }
+
+    /**
+     * Creates a comparator on the given property and copies each document
+     * of the reader into the slot with its document number.
+     */
+    private static SharedFieldComparatorSource.SimpleFieldComparator createComparator(
+            IndexReader reader, String name, int maxDoc) throws Exception {
+        SharedFieldComparatorSource.SimpleFieldComparator comparator =
+                new SharedFieldComparatorSource.SimpleFieldComparator(
+                        name, FieldNames.PROPERTIES, maxDoc);
+        comparator.setNextReader(reader, 0);
+        for (int i = 0; i < maxDoc; i++) {
+            comparator.copy(i, i);
+        }
+        return comparator;
+    }
+
+    private static int countValues(SortValueColumn column, int maxDoc) {
+        int count = 0;
+        for (int i = 0; i < maxDoc; i++) {
+            if (column.hasValue(i)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private int countColumnFiles() throws Exception {
+        int count = 0;
+        for (String name : directory.listAll()) {
+            if (name.startsWith("cache.sort.")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private long lastModified() throws Exception {
+        long modified = 0;
+        for (String name : directory.listAll()) {
+            if (name.startsWith("cache.sort.")) {
+                modified += new File(path, name).lastModified();
+            }
+        }
+        return modified;
+    }
+
+    private IndexWriter createWriter() throws Exception {
+        return new IndexWriter(directory, new IndexWriterConfig(
+                Version.LUCENE_36, new StandardAnalyzer(Version.LUCENE_36)));
+    }
+
+    private static Document createDocument(Object... properties) {
+        Document doc = new Document();
+        doc.add(new Field(FieldNames.LOCAL_NAME, false, "node",
+                Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS,
+                Field.TermVector.NO));
+        for (int i = 0; i < properties.length; i += 3) {
+            Field field = new Field(FieldNames.PROPERTIES,
+                    new SingletonTokenStream(FieldNames.createNamedValue(
+                            (String) properties[i], (String) properties[i + 1]),
+                            (Integer) properties[i + 2]));
+            field.setOmitNorms(true);
+            doc.add(field);
+        }
+        return doc;
+    }
+
+    /**
+     * Combines the segments like the reader of a multi index.
+     */
+    private static class TestMultiIndexReader extends MultiReader
+            implements MultiIndexReader {
+
+        private final IndexReader[] subReaders;
+
+        TestMultiIndexReader(IndexReader... subReaders) {
+            super(subReaders, false);
+            this.subReaders = subReaders;
+        }
+
+        public IndexReader[] getIndexReaders() {
+            return subReaders;
+        }
+
+        public ForeignSegmentDocId createDocId(NodeId id) {
+            return null;
+        }
+
+        public int getDocumentNumber(ForeignSegmentDocId docId) {
+            return -1;
+        }
+
+        public void release() {
+        }
+    }
+}
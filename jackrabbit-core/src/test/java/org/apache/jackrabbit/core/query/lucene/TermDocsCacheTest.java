@@ -0,0 +1,181 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+
+/**
+ * <code>TermDocsCacheTest</code> checks the {@link TermDocsCache} and the
+ * {@link RoaringDocIdSet} it caches.
+ */
+public class TermDocsCacheTest extends TestCase {
+
+    private Directory directory;
+
+    private IndexReader reader;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(
+                Version.LUCENE_36, new WhitespaceAnalyzer(Version.LUCENE_36)));
+        for (int i = 0; i < 1000; i++) {
+            Document doc = new Document();
+            doc.add(new Field(FieldNames.PROPERTIES,
+                    i % 3 == 0 ? "type:folder" : "type:file",
+                    Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS));
+            doc.add(new Field(FieldNames.PARENT, "p" + (i % 10),
+                    Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS));
+            doc.add(new Field("other", "x",
+                    Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS));
+            writer.addDocument(doc);
+        }
+        writer.close();
+        reader = IndexReader.open(directory);
+    }
+
+    protected void tearDown() throws Exception {
+        reader.close();
+        directory.close();
+        super.tearDown();
+    }
+
+    public void testCachedOnSecondRequest() throws Exception {
+        TermDocsCache cache = new TermDocsCache("test", 1024 * 1024);
+        Term folder = new Term(FieldNames.PROPERTIES, "type:folder");
+
+        assertDocs(reader.termDocs(folder), cache.termDocs(reader, folder));
+        assertEquals(0, cache.getElementCount());
+        assertDocs(reader.termDocs(folder), cache.termDocs(reader, folder));
+        assertEquals(1, cache.getElementCount());
+        assertDocs(reader.termDocs(folder), cache.termDocs(reader, folder));
+
+        assertEquals(3, cache.getTotalAccessCount());
+        assertEquals(2, cache.getMissCount());
+        assertTrue(cache.getMemoryUsed() > 0);
+
+        // parent lookups are cached as well, other fields are not
+        Term parent = new Term(FieldNames.PARENT, "p3");
+        cache.termDocs(reader, parent);
+        assertDocs(reader.termDocs(parent), cache.termDocs(reader, parent));
+        Term other = new Term("other", "x");
+        cache.termDocs(reader, other);
+        cache.termDocs(reader, other);
+        assertEquals(2, cache.getElementCount());
+        assertEquals(5, cache.getTotalAccessCount());
+
+        // unknown terms
+        Term unknown = new Term(FieldNames.PROPERTIES, "type:unknown");
+        cache.termDocs(reader, unknown);
+        assertSame(EmptyTermDocs.INSTANCE, cache.termDocs(reader, unknown));
+
+        cache.clear(reader);
+        assertEquals(0, cache.getElementCount());
+        assertEquals(0, cache.getMemoryUsed());
+    }
+
+    public void testMaxMemorySize() throws Exception {
+        TermDocsCache cache = new TermDocsCache("test", 1024 * 1024);
+        for (int i = 0; i < 10; i++) {
+            Term t = new Term(FieldNames.PARENT, "p" + i);
+            cache.termDocs(reader, t);
+            cache.termDocs(reader, t);
+        }
+        assertEquals(10, cache.getElementCount());
+        long memory = cache.getMemoryUsed();
+
+        cache.setMaxMemorySize(memory / 2);
+        assertTrue(cache.getElementCount() < 10);
+        assertTrue(cache.getMemoryUsed() <= memory / 2);
+
+        // the most recently used terms are kept
+        Term last = new Term(FieldNames.PARENT, "p9");
+        long misses = cache.getMissCount();
+        assertDocs(reader.termDocs(last), cache.termDocs(reader, last));
+        assertEquals(misses, cache.getMissCount());
+    }
+
+    public void testRoaringDocIdSet() throws Exception {
+        // sparse, dense and empty chunks of 65536 documents
+        List<Integer> docs = new ArrayList<Integer>();
+        for (int i = 0; i < 100; i++) {
+            docs.add(i * 7);
+        }
+        for (int i = 65536 * 2; i < 65536 * 2 + 10000; i++) {
+            docs.add(i);
+        }
+        docs.add(65536 * 5 + 3);
+        RoaringDocIdSet.Builder builder = new RoaringDocIdSet.Builder();
+        for (int doc : docs) {
+            builder.add(doc);
+        }
+        RoaringDocIdSet set = builder.build();
+        assertEquals(docs.size(), set.size());
+        assertTrue(set.getMemoryUsed() < docs.size() * 2);
+
+        TermDocs tDocs = set.termDocs();
+        for (int doc : docs) {
+            assertTrue(tDocs.next());
+            assertEquals(doc, tDocs.doc());
+        }
+        assertFalse(tDocs.next());
+
+        tDocs = set.termDocs();
+        assertTrue(tDocs.skipTo(8));
+        assertEquals(14, tDocs.doc());
+        assertTrue(tDocs.skipTo(1000));
+        assertEquals(65536 * 2, tDocs.doc());
+        assertTrue(tDocs.skipTo(65536 * 2 + 5000));
+        assertEquals(65536 * 2 + 5000, tDocs.doc());
+        assertTrue(tDocs.next());
+        assertEquals(65536 * 2 + 5001, tDocs.doc());
+        assertTrue(tDocs.skipTo(65536 * 3));
+        assertEquals(65536 * 5 + 3, tDocs.doc());
+        assertFalse(tDocs.skipTo(65536 * 5 + 4));
+
+        assertFalse(RoaringDocIdSet.EMPTY.termDocs().next());
+    }
+
+    private static void assertDocs(TermDocs expected, TermDocs actual)
+            throws Exception {
+        try {
+            while (expected.next()) {
+                assertTrue(actual.next());
+                assertEquals(expected.doc(), actual.doc());
+            }
+            assertFalse(actual.next());
+        } finally {
+            expected.close();
+            actual.close();
+        }
+    }
+}
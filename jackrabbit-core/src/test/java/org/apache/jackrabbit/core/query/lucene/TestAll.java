@@ -53,6 +53,13 @@ public class TestAll extends TestCase {
         suite.addTestSuite(ArrayHitsTest.class);
         suite.addTestSuite(IndexFormatVersionTest.class);
         suite.addTestSuite(SynonymProviderTest.class);
+        suite.addTestSuite(InitialIndexTest.class);
+        suite.addTestSuite(AccessControlFilterTest.class);
+        suite.addTestSuite(CachingIndexReaderTest.class);
+        suite.addTestSuite(SortValueColumnTest.class);
+        suite.addTestSuite(JackrabbitIndexSearcherTest.class);
+        suite.addTestSuite(TermDocsCacheTest.class);
+        suite.addTestSuite(QueryResultCacheTest.class);
 
         return suite;
     }
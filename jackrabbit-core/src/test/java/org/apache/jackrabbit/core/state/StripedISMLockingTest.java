@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.state;
+
+import javax.jcr.PropertyType;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.id.PropertyId;
+import org.apache.jackrabbit.core.state.ISMLocking.ReadLock;
+import org.apache.jackrabbit.core.state.ISMLocking.WriteLock;
+import org.apache.jackrabbit.spi.commons.name.NameConstants;
+
+/**
+ * <code>StripedISMLockingTest</code> executes the test cases implemented in
+ * {@link AbstractISMLockingTest} and checks that writes to unrelated nodes
+ * do not block each other.
+ */
+public class StripedISMLockingTest extends AbstractISMLockingTest {
+
+    public ISMLocking createISMLocking() {
+        return new StripedISMLocking();
+    }
+
+    /**
+     * Returns a change log that modifies a new node whose stripe, and the
+     * stripe of its parent, differ from those of {@link #state}.
+     */
+    private ChangeLog createUnrelatedChangeLog() {
+        StripedISMLocking striped = (StripedISMLocking) locking;
+        int stripe = striped.getStripe(state.getNodeId());
+        NodeId parentId;
+        NodeId id;
+        do {
+            parentId = NodeId.randomId();
+            id = NodeId.randomId();
+        } while (striped.getStripe(parentId) == stripe
+                || striped.getStripe(id) == stripe);
+        NodeState other = new NodeState(
+                id, NameConstants.NT_BASE, parentId,
+                ItemState.STATUS_EXISTING, true);
+        ChangeLog log = new ChangeLog();
+        log.modified(other);
+        return log;
+    }
+
+    public void testDisjointWrites() throws InterruptedException {
+        ChangeLog unrelated = createUnrelatedChangeLog();
+        for (ChangeLog changeLog : logs) {
+            WriteLock wLock = locking.acquireWriteLock(changeLog);
+            verifyNotBlocked(startWriterThread(locking, unrelated));
+            wLock.release();
+        }
+    }
+
+    public void testReadDoesNotBlockDisjointWrite() throws InterruptedException {
+        ReadLock rLock = locking.acquireReadLock(state.getId());
+        verifyNotBlocked(startWriterThread(locking, createUnrelatedChangeLog()));
+        rLock.release();
+    }
+
+    public void testReferenceChangeIsExclusive() throws InterruptedException {
+        PropertyState reference = new PropertyState(
+                new PropertyId(state.getNodeId(), NameConstants.JCR_UUID),
+                ItemState.STATUS_EXISTING, true);
+        reference.setType(PropertyType.REFERENCE);
+        ChangeLog changeLog = new ChangeLog();
+        changeLog.modified(reference);
+
+        WriteLock wLock = locking.acquireWriteLock(changeLog);
+        verifyBlocked(startWriterThread(locking, createUnrelatedChangeLog()));
+        wLock.release();
+    }
+
+    public void testStripes() {
+        StripedISMLocking striped = new StripedISMLocking();
+        assertEquals(256, striped.getStripes());
+        striped.setStripes(100);
+        assertEquals(128, striped.getStripes());
+        striped.setStripes(1);
+        assertEquals(1, striped.getStripes());
+    }
+
+}
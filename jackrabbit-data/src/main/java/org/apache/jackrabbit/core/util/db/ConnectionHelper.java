@@ -22,8 +22,11 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.sql.DataSource;
@@ -347,6 +350,46 @@ public class ConnectionHelper {
         }
     }
 
+    /**
+     * Executes the given update or delete statement once for each of the
+     * given parameter sets, using a single JDBC batch
+     * ({@link PreparedStatement#addBatch()} and
+     * {@link PreparedStatement#executeBatch()}).
+     *
+     * @param sql an SQL statement string
+     * @param paramsList the parameters for each execution of the statement
+     * @return the update counts
+     * @throws SQLException on error
+     */
+    public final int[] updateBatch(final String sql, final List<Object[]> paramsList)
+            throws SQLException {
+        List<Object> allParams = new ArrayList<Object>();
+        for (Object[] params : paramsList) {
+            allParams.addAll(Arrays.asList(params));
+        }
+        return new RetryManager<int[]>(allParams.toArray()) {
+
+            @Override
+            protected int[] call() throws SQLException {
+                return reallyUpdateBatch(sql, paramsList);
+            }
+
+        }.doTry();
+    }
+
+    int[] reallyUpdateBatch(String sql, List<Object[]> paramsList) throws SQLException {
+        Connection con = null;
+        PreparedStatement stmt = null;
+        boolean inBatchMode = inBatchMode();
+        try {
+            con = getConnection(inBatchMode);
+            stmt = con.prepareStatement(sql);
+            return executeBatch(stmt, paramsList);
+        } finally {
+            closeResources(con, stmt, null, inBatchMode);
+        }
+    }
+
     /**
      * Executes a SQL query and returns the {@link ResultSet}. The
      * returned {@link ResultSet} should be closed by clients.
@@ -516,6 +559,49 @@ public class ConnectionHelper {
         return stmt;
     }
 
+    /**
+     * Adds the given parameter sets to the batch of commands of the statement
+     * and executes the batch. Used by {@link #updateBatch(String, List)}.
+     * Subclasses that need to release resources of the parameters after the
+     * batch has been executed, like the {@link Oracle10R1ConnectionHelper},
+     * override this method.
+     *
+     * @param stmt the {@link PreparedStatement} to execute
+     * @param paramsList the parameters for each execution of the statement
+     * @return the update counts
+     * @throws SQLException on error
+     */
+    protected int[] executeBatch(PreparedStatement stmt, List<Object[]> paramsList)
+            throws SQLException {
+        for (Object[] params : paramsList) {
+            addBatch(stmt, params);
+        }
+        return stmt.executeBatch();
+    }
+
+    /**
+     * Sets the given parameters on the statement and adds them to its batch
+     * of commands. Used by {@link #executeBatch(PreparedStatement, List)}. Like
+     * {@link #execute(PreparedStatement, Object[])}, this default
+     * implementation unwraps {@link StreamWrapper} instances.
+     *
+     * @param stmt the {@link PreparedStatement} to add the parameters to
+     * @param params the parameters
+     * @throws SQLException on error
+     */
+    protected void addBatch(PreparedStatement stmt, Object[] params) throws SQLException {
+        for (int i = 0; params != null && i < params.length; i++) {
+            Object p = params[i];
+            if (p instanceof StreamWrapper) {
+                StreamWrapper wrapper = (StreamWrapper) p;
+                stmt.setBinaryStream(i + 1, wrapper.getStream(), (int) wrapper.getSize());
+            } else {
+                stmt.setObject(i + 1, p);
+            }
+        }
+        stmt.addBatch();
+    }
+
     /**
      * This class encapsulates the logic to retry a method invocation if it threw an SQLException.
      * The RetryManager must cleanup the Params it will get.
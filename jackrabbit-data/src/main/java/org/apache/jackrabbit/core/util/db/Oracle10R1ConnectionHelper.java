@@ -94,32 +94,79 @@ public final class Oracle10R1ConnectionHelper extends OracleConnectionHelper {
     protected PreparedStatement execute(PreparedStatement stmt, Object[] params) throws SQLException {
         List<Blob> tmpBlobs = new ArrayList<Blob>();
         try {
-            for (int i = 0; params != null && i < params.length; i++) {
-                Object p = params[i];
-                if (p instanceof StreamWrapper) {
-                    StreamWrapper wrapper = (StreamWrapper) p;
-                    Blob tmp = createTemporaryBlob(stmt.getConnection(), wrapper.getStream());
-                    tmpBlobs.add(tmp);
-                    stmt.setBlob(i + 1, tmp);
-                } else if (p instanceof InputStream) {
-                    Blob tmp = createTemporaryBlob(stmt.getConnection(), (InputStream) p);
-                    tmpBlobs.add(tmp);
-                    stmt.setBlob(i + 1, tmp);
-                } else {
-                    stmt.setObject(i + 1, p);
-                }
-            }
+            setParameters(stmt, params, tmpBlobs);
             stmt.execute();
             return stmt;
         } catch (Exception e) {
             throw new SQLException(e.getMessage());
         } finally {
-            for (Blob blob : tmpBlobs) {
-                try {
-                    freeTemporaryBlob(blob);
-                } catch (Exception e) {
-                    log.warn("Could not close temporary blob", e);
-                }
+            freeTemporaryBlobs(tmpBlobs);
+        }
+    }
+
+    /**
+     * Wraps any input-stream parameters in temporary blobs and frees these again after the batch
+     * has been executed.
+     * 
+     * {@inheritDoc}
+     */
+    @Override
+    protected int[] executeBatch(PreparedStatement stmt, List<Object[]> paramsList) throws SQLException {
+        List<Blob> tmpBlobs = new ArrayList<Blob>();
+        try {
+            for (Object[] params : paramsList) {
+                addBatch(stmt, params, tmpBlobs);
+            }
+            return stmt.executeBatch();
+        } catch (Exception e) {
+            throw new SQLException(e.getMessage());
+        } finally {
+            freeTemporaryBlobs(tmpBlobs);
+        }
+    }
+
+    /**
+     * Sets the parameters, wrapping any input-stream parameters in temporary blobs, and adds them to
+     * the batch of commands of the statement.
+     */
+    private void addBatch(PreparedStatement stmt, Object[] params, List<Blob> tmpBlobs)
+            throws Exception {
+        setParameters(stmt, params, tmpBlobs);
+        stmt.addBatch();
+    }
+
+    /**
+     * Sets the parameters, wrapping any input-stream parameters in temporary blobs that are added
+     * to the given list.
+     */
+    private void setParameters(PreparedStatement stmt, Object[] params, List<Blob> tmpBlobs)
+            throws Exception {
+        for (int i = 0; params != null && i < params.length; i++) {
+            Object p = params[i];
+            if (p instanceof StreamWrapper) {
+                StreamWrapper wrapper = (StreamWrapper) p;
+                Blob tmp = createTemporaryBlob(stmt.getConnection(), wrapper.getStream());
+                tmpBlobs.add(tmp);
+                stmt.setBlob(i + 1, tmp);
+            } else if (p instanceof InputStream) {
+                Blob tmp = createTemporaryBlob(stmt.getConnection(), (InputStream) p);
+                tmpBlobs.add(tmp);
+                stmt.setBlob(i + 1, tmp);
+            } else {
+                stmt.setObject(i + 1, p);
+            }
+        }
+    }
+
+    /**
+     * Frees the given temporary blobs, logging any failures.
+     */
+    private void freeTemporaryBlobs(List<Blob> tmpBlobs) {
+        for (Blob blob : tmpBlobs) {
+            try {
+                freeTemporaryBlob(blob);
+            } catch (Exception e) {
+                log.warn("Could not close temporary blob", e);
             }
         }
     }
@@ -37,4 +37,12 @@ public interface QueryStatCore extends QueryStat {
      */
     void logQuery(final String language, final String statement, long durationMs);
 
+    /**
+     * Logs a lookup of a query in a query result cache.
+     * 
+     * @param hit
+     *            <code>true</code> if the result was found in the cache
+     */
+    void logCacheAccess(boolean hit);
+
 }
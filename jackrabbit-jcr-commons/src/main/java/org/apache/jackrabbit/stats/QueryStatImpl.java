@@ -21,6 +21,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.jackrabbit.api.stats.QueryStatDto;
 
@@ -89,6 +90,10 @@ public class QueryStatImpl implements QueryStatCore {
         }
     }
 
+    private final AtomicLong cacheHits = new AtomicLong();
+
+    private final AtomicLong cacheMisses = new AtomicLong();
+
     private boolean enabled = false;
 
     public QueryStatImpl() {
@@ -133,6 +138,25 @@ public class QueryStatImpl implements QueryStatCore {
         }
     }
 
+    public void logCacheAccess(boolean hit) {
+        if (!enabled) {
+            return;
+        }
+        if (hit) {
+            cacheHits.incrementAndGet();
+        } else {
+            cacheMisses.incrementAndGet();
+        }
+    }
+
+    public long getCacheHitCount() {
+        return cacheHits.get();
+    }
+
+    public long getCacheMissCount() {
+        return cacheMisses.get();
+    }
+
     public void clearSlowQueriesQueue() {
         slowQueries.clear();
     }
@@ -182,5 +206,7 @@ public class QueryStatImpl implements QueryStatCore {
     public void reset() {
         clearSlowQueriesQueue();
         clearPopularQueriesQueue();
+        cacheHits.set(0);
+        cacheMisses.set(0);
     }
 }
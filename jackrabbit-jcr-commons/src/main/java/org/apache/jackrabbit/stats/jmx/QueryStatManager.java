@@ -81,6 +81,14 @@ public class QueryStatManager implements QueryStatManagerMBean {
         queryStat.clearPopularQueriesQueue();
     }
 
+    public long getCacheHitCount() {
+        return queryStat.getCacheHitCount();
+    }
+
+    public long getCacheMissCount() {
+        return queryStat.getCacheMissCount();
+    }
+
     public TabularData getSlowQueries() {
         return asTabularData(queryStat.getSlowQueries());
     }